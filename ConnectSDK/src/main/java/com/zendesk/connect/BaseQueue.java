@@ -1,5 +1,7 @@
 package com.zendesk.connect;
 
+import androidx.annotation.Nullable;
+
 import java.util.List;
 
 interface BaseQueue<T> {
@@ -11,6 +13,23 @@ interface BaseQueue<T> {
      */
     void add(T object);
 
+    /**
+     * Adds an object to the queue without making the caller wait for it to be written to disk,
+     * where the implementation supports it. Objects added from the same thread are added in
+     * the order of the calls, whether they were added with this method or {@link #add(Object)}.
+     *
+     * @param object the object to be added to the queue
+     */
+    void addAsync(T object);
+
+    /**
+     * Adds a group of objects to the queue, preserving their order. Implementations may write
+     * the group in fewer operations than the equivalent calls to {@link #add(Object)}.
+     *
+     * @param objects the objects to be added to the queue
+     */
+    void addAll(List<T> objects);
+
     /**
      * Gets the current queue size
      *
@@ -33,6 +52,36 @@ interface BaseQueue<T> {
      */
     List<T> peek(int max);
 
+    /**
+     * Gets the first n items from the queue as the JSON sent to the API, read straight from
+     * storage instead of being deserialized into objects. Returns null if this queue can't
+     * provide its entries as JSON, in which case {@link #peek(int)} should be used instead.
+     *
+     * @param max the maximum number of items to return
+     * @return the UTF-8 JSON of each item retrieved from the queue, or null if unsupported
+     */
+    @Nullable
+    List<byte[]> peekJson(int max);
+
+    /**
+     * <p>
+     *     Opens a {@link QueueCursor} over the oldest objects in the queue, which decodes each
+     *     object only when it reaches it. Nothing is removed until the cursor is committed.
+     * </p>
+     * <p>
+     *     The cursor covers at most {@code maxCount} objects, and stops before any entry that
+     *     would take the stored size of the covered entries past {@code maxBytes}. The first
+     *     entry is always covered however large it is, so a cursor over a queue that isn't
+     *     empty is never empty. Queues that don't hand over their stored entries only apply
+     *     {@code maxCount}.
+     * </p>
+     *
+     * @param maxCount the maximum number of objects to cover
+     * @param maxBytes the maximum stored size of the covered entries
+     * @return a {@link QueueCursor} over the oldest objects
+     */
+    QueueCursor<T> cursor(int maxCount, long maxBytes);
+
     /**
      * Removes n objects from the queue, or all if there are less than n items
      *
@@ -0,0 +1,109 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import com.zendesk.logger.Logger;
+
+/**
+ * <p>
+ *     Remembers how many queue entries were in a batch that failed in a way that may succeed
+ *     later, so the {@link QueuedRequestsJobProcessor} sends the same entries again as one
+ *     batch. The retry then has the same body, and so the same idempotency key from the
+ *     {@link IdempotencyKeyInterceptor}, instead of being cut differently by the
+ *     {@link BatchSizer} or taking in entries queued since.
+ * </p>
+ * <p>
+ *     The sizes are kept in the {@link BaseStorage} next to the queues, so the batch is
+ *     replayed even if the process dies before the retry.
+ * </p>
+ */
+class BatchReplay {
+
+    private static final String LOG_TAG = "BatchReplay";
+
+    private static final String USER_BATCH_KEY = "connect_replay_user_batch";
+    private static final String EVENT_BATCH_KEY = "connect_replay_event_batch";
+
+    @Nullable private final BaseStorage storage;
+
+    private int userBatchSize;
+    private int eventBatchSize;
+
+    /**
+     * Creates this {@link BatchReplay}
+     *
+     * @param storage the {@link BaseStorage} the batch sizes are kept in, or null to keep them
+     *                in memory only
+     */
+    BatchReplay(@Nullable BaseStorage storage) {
+        this.storage = storage;
+        this.userBatchSize = read(USER_BATCH_KEY);
+        this.eventBatchSize = read(EVENT_BATCH_KEY);
+    }
+
+    /**
+     * Gets the number of entries in the user batch to send again
+     *
+     * @return the size of the batch, or 0 if there is none
+     */
+    synchronized int userBatchSize() {
+        return userBatchSize;
+    }
+
+    /**
+     * Gets the number of entries in the event batch to send again
+     *
+     * @return the size of the batch, or 0 if there is none
+     */
+    synchronized int eventBatchSize() {
+        return eventBatchSize;
+    }
+
+    /**
+     * Records the size of the user batch at the front of the user queue, to be sent again as is
+     *
+     * @param size the number of entries in the batch, or 0 once it no longer needs sending
+     */
+    synchronized void setUserBatchSize(int size) {
+        if (size != userBatchSize) {
+            userBatchSize = size;
+            write(USER_BATCH_KEY, size);
+        }
+    }
+
+    /**
+     * Records the size of the event batch at the front of the event queue, to be sent again as is
+     *
+     * @param size the number of entries in the batch, or 0 once it no longer needs sending
+     */
+    synchronized void setEventBatchSize(int size) {
+        if (size != eventBatchSize) {
+            eventBatchSize = size;
+            write(EVENT_BATCH_KEY, size);
+        }
+    }
+
+    private int read(String key) {
+        String value = storage != null ? storage.get(key) : null;
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(value), 0);
+        } catch (NumberFormatException e) {
+            Logger.w(LOG_TAG, "Ignoring an unreadable batch size");
+            return 0;
+        }
+    }
+
+    private void write(String key, int size) {
+        if (storage == null) {
+            return;
+        }
+        if (size > 0) {
+            storage.put(key, Integer.toString(size));
+        } else {
+            storage.remove(key);
+        }
+    }
+}
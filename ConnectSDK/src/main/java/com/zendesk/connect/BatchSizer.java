@@ -0,0 +1,113 @@
+package com.zendesk.connect;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+/**
+ * <p>
+ *     Sizes the batches sent by the {@link QueuedRequestsJobProcessor} from how previous
+ *     requests went, so large events and slow links get smaller requests.
+ * </p>
+ * <p>
+ *     A batch is limited both by a number of events and by the stored size of those events.
+ *     Both limits grow by a fixed step after each request that succeeds within
+ *     {@link #TARGET_LATENCY_NANOS}, and are halved after a request that fails or is slower
+ *     than that. They never go over the 100 events the backend accepts per batch.
+ * </p>
+ */
+@ConnectScope
+class BatchSizer {
+
+    private static final String LOG_TAG = "BatchSizer";
+
+    @VisibleForTesting
+    static final int MAX_COUNT = 100;
+    @VisibleForTesting
+    static final int MIN_COUNT = 5;
+    private static final int COUNT_STEP = 10;
+
+    @VisibleForTesting
+    static final long MAX_BYTES = 256 * 1024;
+    @VisibleForTesting
+    static final long MIN_BYTES = 8 * 1024;
+    private static final long BYTES_STEP = 32 * 1024;
+
+    @VisibleForTesting
+    static final long TARGET_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // Weight of the latest request in the throughput average
+    private static final double THROUGHPUT_WEIGHT = 0.2;
+
+    private int maxCount = MAX_COUNT;
+    private long maxBytes = MAX_BYTES;
+    private double throughput = -1;
+
+    @Inject
+    BatchSizer() {
+    }
+
+    /**
+     * Gets the maximum number of events to send in the next batch
+     *
+     * @return the current batch size
+     */
+    synchronized int maxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Gets the maximum stored size of the events to send in the next batch
+     *
+     * @return the current batch size in bytes
+     */
+    synchronized long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the average rate at which batches have been sent, weighted towards recent batches
+     *
+     * @return the throughput in stored bytes per second, or 0 if nothing has been sent
+     */
+    synchronized long throughputBytesPerSecond() {
+        return throughput < 0 ? 0 : Math.round(throughput);
+    }
+
+    /**
+     * Records a batch that was accepted by the backend
+     *
+     * @param bytes the stored size of the events in the batch
+     * @param elapsedNanos how long the request took
+     */
+    synchronized void onSuccess(long bytes, long elapsedNanos) {
+        if (elapsedNanos > 0) {
+            double sample = bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+            throughput = throughput < 0 ? sample : throughput + THROUGHPUT_WEIGHT * (sample - throughput);
+        }
+
+        if (elapsedNanos > TARGET_LATENCY_NANOS) {
+            shrink();
+        } else {
+            maxCount = Math.min(maxCount + COUNT_STEP, MAX_COUNT);
+            maxBytes = Math.min(maxBytes + BYTES_STEP, MAX_BYTES);
+        }
+    }
+
+    /**
+     * Records a batch that failed to send
+     */
+    synchronized void onFailure() {
+        shrink();
+    }
+
+    private void shrink() {
+        maxCount = Math.max(maxCount / 2, MIN_COUNT);
+        maxBytes = Math.max(maxBytes / 2, MIN_BYTES);
+        Logger.d(LOG_TAG, "Reduced batches to %d events or %d bytes", maxCount, maxBytes);
+    }
+}
@@ -0,0 +1,409 @@
+package com.zendesk.connect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.squareup.tape2.ObjectQueue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *     Base implementation of {@link ObjectQueue.Converter} that writes objects to the object
+ *     queue in a compact binary format instead of JSON.
+ * </p>
+ * <p>
+ *     Lengths, counts and integers are written as varints. Strings that repeat between entries,
+ *     such as event names and property keys, are written once to a {@link QueueDictionary} and
+ *     referenced by index. Values of {@code Map<String, Object>} properties are written with a
+ *     type tag, so numbers and booleans don't need to be parsed back out of text.
+ * </p>
+ * <p>
+ *     Subclasses describe the field layout of a single type with {@link #write(Object, EntryWriter)}
+ *     and {@link #read(EntryReader)}.
+ * </p>
+ *
+ * @param <T> the type of the object
+ */
+abstract class BinaryConverter<T> implements JsonEntryConverter<T> {
+
+    /**
+     * First byte of every entry. Bump this when the layout of an entry changes.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int STRING_NULL = 0;
+    private static final int STRING_INLINE = 1;
+    private static final int STRING_DICTIONARY_OFFSET = 2;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_TRUE = 1;
+    private static final int TYPE_FALSE = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_FLOAT = 5;
+    private static final int TYPE_DECIMAL = 6;
+    private static final int TYPE_STRING = 7;
+    private static final int TYPE_MAP = 8;
+    private static final int TYPE_LIST = 9;
+    private static final int TYPE_JSON = 10;
+
+    private final Gson gson;
+    private final QueueDictionary dictionary;
+
+    /**
+     * Creates this {@link BinaryConverter}
+     *
+     * @param gson an instance of {@link Gson}, used for values with no binary representation
+     * @param dictionary the {@link QueueDictionary} of the queue file this converter writes to
+     */
+    BinaryConverter(Gson gson, QueueDictionary dictionary) {
+        this.gson = gson;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Deserializes an array of {@link Byte}s in the given type
+     *
+     * @param bytes the {@link Byte}s to be deserialized
+     * @return the deserialized object
+     * @throws IOException if the bytes are not a valid entry
+     */
+    @Override
+    public T from(@NonNull byte[] bytes) throws IOException {
+        EntryReader reader = new EntryReader(bytes);
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported queue entry format version " + version);
+        }
+        return read(reader);
+    }
+
+    /**
+     * Serializes an object to the given {@link OutputStream}
+     *
+     * @param object the object to be serialized
+     * @param outputStream the target {@link OutputStream} for the serialized object
+     */
+    @Override
+    public void toStream(@NonNull T object, @NonNull OutputStream outputStream) throws IOException {
+        outputStream.write(FORMAT_VERSION);
+        write(object, new EntryWriter(outputStream));
+        outputStream.flush();
+    }
+
+    /**
+     * Decodes the entry and serializes it with the same {@link Gson} instance used for API
+     * requests, so the result matches what the object based upload would send.
+     *
+     * @param bytes the stored entry
+     * @return the entry encoded as UTF-8 JSON
+     * @throws IOException if the bytes are not a valid entry
+     */
+    @NonNull
+    @Override
+    public byte[] toJson(@NonNull byte[] bytes) throws IOException {
+        return gson.toJson(from(bytes)).getBytes(UTF_8);
+    }
+
+    /**
+     * Writes the fields of the given object.
+     *
+     * @param object the object to be written
+     * @param writer the {@link EntryWriter} for the current entry
+     * @throws IOException if the object could not be written
+     */
+    abstract void write(T object, EntryWriter writer) throws IOException;
+
+    /**
+     * Reads the fields written by {@link #write(Object, EntryWriter)} and builds the object.
+     *
+     * @param reader the {@link EntryReader} for the current entry
+     * @return the object
+     * @throws IOException if the entry is malformed
+     */
+    abstract T read(EntryReader reader) throws IOException;
+
+    /**
+     * Writes the fields of a single entry.
+     */
+    final class EntryWriter {
+
+        private final OutputStream outputStream;
+
+        EntryWriter(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        /**
+         * Writes a signed integer as a zig-zag varint.
+         *
+         * @param value the value to be written
+         */
+        void writeLong(long value) throws IOException {
+            VarInts.write(VarInts.zigZag(value), outputStream);
+        }
+
+        /**
+         * Writes a string that is not expected to repeat between entries.
+         *
+         * @param value the string to be written, may be null
+         */
+        void writeString(@Nullable String value) throws IOException {
+            if (value == null) {
+                VarInts.write(STRING_NULL, outputStream);
+                return;
+            }
+            VarInts.write(STRING_INLINE, outputStream);
+            writeBytes(value.getBytes(UTF_8));
+        }
+
+        /**
+         * Writes a string that is likely to repeat between entries, storing it in the
+         * {@link QueueDictionary} where possible.
+         *
+         * @param value the string to be written, may be null
+         */
+        void writeSymbol(@Nullable String value) throws IOException {
+            if (value == null) {
+                VarInts.write(STRING_NULL, outputStream);
+                return;
+            }
+            int index = dictionary.intern(value);
+            if (index == QueueDictionary.NOT_FOUND) {
+                writeString(value);
+            } else {
+                VarInts.write(STRING_DICTIONARY_OFFSET + (long) index, outputStream);
+            }
+        }
+
+        /**
+         * Writes an arbitrary value, prefixed by its type.
+         *
+         * @param value the value to be written, may be null
+         */
+        void writeValue(@Nullable Object value) throws IOException {
+            if (value == null) {
+                outputStream.write(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                outputStream.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                outputStream.write(TYPE_LONG);
+                writeLong(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                outputStream.write(TYPE_DOUBLE);
+                writeFixed(Double.doubleToLongBits((Double) value), 8);
+            } else if (value instanceof Float) {
+                outputStream.write(TYPE_FLOAT);
+                writeFixed(Float.floatToIntBits((Float) value), 4);
+            } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                outputStream.write(TYPE_DECIMAL);
+                writeString(value.toString());
+            } else if (value instanceof String || value instanceof Character) {
+                outputStream.write(TYPE_STRING);
+                writeString(value.toString());
+            } else if (value instanceof Map) {
+                outputStream.write(TYPE_MAP);
+                Map<?, ?> map = (Map<?, ?>) value;
+                VarInts.write(map.size(), outputStream);
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeSymbol(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Collection) {
+                outputStream.write(TYPE_LIST);
+                Collection<?> collection = (Collection<?>) value;
+                VarInts.write(collection.size(), outputStream);
+                for (Object item : collection) {
+                    writeValue(item);
+                }
+            } else {
+                outputStream.write(TYPE_JSON);
+                writeString(gson.toJson(value));
+            }
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            VarInts.write(bytes.length, outputStream);
+            outputStream.write(bytes);
+        }
+
+        private void writeFixed(long bits, int byteCount) throws IOException {
+            for (int i = byteCount - 1; i >= 0; i--) {
+                outputStream.write((int) (bits >>> (i * 8)) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a single entry.
+     */
+    final class EntryReader {
+
+        private final byte[] bytes;
+        private int position;
+
+        EntryReader(byte[] bytes) {
+            this.bytes = bytes;
+            this.position = 0;
+        }
+
+        /**
+         * Reads a signed integer written by {@link EntryWriter#writeLong(long)}
+         *
+         * @return the value
+         */
+        long readLong() throws IOException {
+            return VarInts.unZigZag(readVarInt());
+        }
+
+        /**
+         * Reads a string written by {@link EntryWriter#writeString(String)} or
+         * {@link EntryWriter#writeSymbol(String)}
+         *
+         * @return the string, or null if a null string was written
+         */
+        @Nullable
+        String readString() throws IOException {
+            long tag = readVarInt();
+            if (tag == STRING_NULL) {
+                return null;
+            }
+            if (tag == STRING_INLINE) {
+                int length = readLength();
+                String value = new String(bytes, position, length, UTF_8);
+                position += length;
+                return value;
+            }
+            String value = dictionary.get((int) (tag - STRING_DICTIONARY_OFFSET));
+            if (value == null) {
+                throw new IOException("Queue entry references a missing dictionary entry");
+            }
+            return value;
+        }
+
+        /**
+         * Reads a value written by {@link EntryWriter#writeValue(Object)}
+         *
+         * @return the value, or null if a null value was written
+         */
+        @Nullable
+        Object readValue() throws IOException {
+            int type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_LONG:
+                    return readLong();
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(readFixed(8));
+                case TYPE_FLOAT:
+                    return Float.intBitsToFloat((int) readFixed(4));
+                case TYPE_DECIMAL:
+                    return new BigDecimal(readString());
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_MAP:
+                    int size = readLength();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        map.put(readString(), readValue());
+                    }
+                    return map;
+                case TYPE_LIST:
+                    int count = readLength();
+                    List<Object> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                case TYPE_JSON:
+                    return gson.fromJson(readString(), Object.class);
+                default:
+                    throw new IOException("Unknown value type " + type + " in queue entry");
+            }
+        }
+
+        /**
+         * Reads a value that was written as a {@link Map}
+         *
+         * @return the map, or null if a null value was written
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        Map<String, Object> readMap() throws IOException {
+            Object value = readValue();
+            if (value != null && !(value instanceof Map)) {
+                throw new IOException("Expected a map in queue entry");
+            }
+            return (Map<String, Object>) value;
+        }
+
+        /**
+         * Reads a value that was written as a {@link List} of {@link String}s
+         *
+         * @return the list, or null if a null value was written
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        List<String> readStringList() throws IOException {
+            Object value = readValue();
+            if (value != null && !(value instanceof List)) {
+                throw new IOException("Expected a list in queue entry");
+            }
+            return (List<String>) value;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Unexpected end of queue entry");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private long readVarInt() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint in queue entry");
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarInt();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IOException("Invalid length in queue entry");
+            }
+            return (int) length;
+        }
+
+        private long readFixed(int byteCount) throws IOException {
+            long bits = 0;
+            for (int i = 0; i < byteCount; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return bits;
+        }
+    }
+}
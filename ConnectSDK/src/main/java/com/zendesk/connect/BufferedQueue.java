@@ -0,0 +1,273 @@
+package com.zendesk.connect;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ *     Write-behind {@link BaseQueue} that holds newly added objects in a bounded in-memory ring
+ *     buffer and writes them to a delegate queue in groups.
+ * </p>
+ * <p>
+ *     {@link #add(Object)} only claims a slot in the ring buffer and never touches the disk,
+ *     unless the buffer is full. The buffered objects are flushed to the delegate on the writer
+ *     executor once {@code flushThreshold} objects are waiting or the oldest has waited for
+ *     {@code maxDelayMillis}, whichever happens first.
+ * </p>
+ * <p>
+ *     Durability guarantee: at any time at most {@code capacity} objects, added no more than
+ *     {@code maxDelayMillis} ago, exist only in memory. Those are lost if the process is killed
+ *     before the next flush, which is why {@link QueueFlushCallbacks} flushes the buffer as soon
+ *     as the app is backgrounded or the system asks it to trim memory.
+ * </p>
+ * <p>
+ *     Every read, removal or clear flushes first, so readers always see every object that was
+ *     added before the call, in order.
+ * </p>
+ *
+ * @param <T> the type of the queued objects
+ */
+class BufferedQueue<T> implements BaseQueue<T> {
+
+    private static final String LOG_TAG = "BufferedQueue";
+
+    private final BaseQueue<T> delegate;
+    private final ScheduledExecutorService writer;
+    private final int flushThreshold;
+    private final long maxDelayMillis;
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    /**
+     * Sequence number of the next slot to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Sequence number of the next slot to be drained. Only advanced while holding {@link #flushLock}.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean immediateFlushPending = new AtomicBoolean(false);
+    private final AtomicBoolean timedFlushPending = new AtomicBoolean(false);
+
+    private final Runnable immediateFlush = new Runnable() {
+        @Override
+        public void run() {
+            immediateFlushPending.set(false);
+            flush();
+        }
+    };
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            timedFlushPending.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * Creates this {@link BufferedQueue}
+     *
+     * @param delegate the {@link BaseQueue} buffered objects are written to
+     * @param writer the single threaded executor that performs the flushes
+     * @param capacity the maximum number of buffered objects, rounded up to a power of two
+     * @param flushThreshold the number of buffered objects that triggers a flush
+     * @param maxDelayMillis the maximum time an object stays buffered before a flush is triggered
+     */
+    BufferedQueue(BaseQueue<T> delegate,
+                  ScheduledExecutorService writer,
+                  int capacity,
+                  int flushThreshold,
+                  long maxDelayMillis) {
+        this.delegate = delegate;
+        this.writer = writer;
+        this.flushThreshold = flushThreshold;
+        this.maxDelayMillis = maxDelayMillis;
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void add(T object) {
+        if (object == null) {
+            Logger.e(LOG_TAG, "Cannot add a null object to the queue");
+            return;
+        }
+
+        while (!offer(object)) {
+            // The buffer is full, so the caller pays for the flush instead of dropping the object
+            flush();
+        }
+
+        requestFlush(pendingCount() >= flushThreshold);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     {@link #add(Object)} already leaves the write to the writer, so this is the same call.
+     * </p>
+     */
+    @Override
+    public void addAsync(T object) {
+        add(object);
+    }
+
+    @Override
+    public void addAll(List<T> objects) {
+        for (T object : objects) {
+            add(object);
+        }
+    }
+
+    @Override
+    public int size() {
+        flush();
+        return delegate.size();
+    }
+
+    @Override
+    public T peek() {
+        flush();
+        return delegate.peek();
+    }
+
+    @Override
+    public List<T> peek(int max) {
+        flush();
+        return delegate.peek(max);
+    }
+
+    @Override
+    public List<byte[]> peekJson(int max) {
+        flush();
+        return delegate.peekJson(max);
+    }
+
+    @Override
+    public QueueCursor<T> cursor(int maxCount, long maxBytes) {
+        flush();
+        return delegate.cursor(maxCount, maxBytes);
+    }
+
+    @Override
+    public void remove(int max) {
+        flush();
+        delegate.remove(max);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (flushLock) {
+            drain();
+            delegate.clear();
+        }
+    }
+
+    /**
+     * Writes every buffered object to the delegate queue as a single group. Safe to call from
+     * any thread, concurrent flushes are serialised.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            List<T> buffered = drain();
+            if (!buffered.isEmpty()) {
+                delegate.addAll(buffered);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of objects that have been added but not flushed yet.
+     *
+     * @return the number of buffered objects
+     */
+    @VisibleForTesting
+    int pendingCount() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Claims the next free slot of the ring buffer and publishes the object into it.
+     *
+     * @param object the object to buffer
+     * @return true if the object was buffered, false if the buffer is full
+     */
+    private boolean offer(T object) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() > mask) {
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        slots.set((int) (sequence & mask), object);
+        return true;
+    }
+
+    /**
+     * Removes every claimed object from the ring buffer in order. Must hold {@link #flushLock}.
+     *
+     * @return the buffered objects
+     */
+    private List<T> drain() {
+        long sequence = head.get();
+        long end = tail.get();
+        List<T> buffered = new ArrayList<>((int) (end - sequence));
+
+        for (; sequence < end; sequence++) {
+            int index = (int) (sequence & mask);
+            T object;
+            // A producer may have claimed the slot without having published the object yet
+            while ((object = slots.get(index)) == null) {
+                Thread.yield();
+            }
+            slots.set(index, null);
+            buffered.add(object);
+        }
+
+        head.set(sequence);
+        return buffered;
+    }
+
+    /**
+     * Asks the writer executor to flush, either straight away or once the maximum delay has
+     * passed. At most one flush of each kind is pending at any time.
+     *
+     * @param immediately true if the flush threshold has been reached
+     */
+    private void requestFlush(boolean immediately) {
+        try {
+            if (immediately) {
+                if (immediateFlushPending.compareAndSet(false, true)) {
+                    writer.execute(immediateFlush);
+                }
+            } else if (timedFlushPending.compareAndSet(false, true)) {
+                writer.schedule(timedFlush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            Logger.w(LOG_TAG, "Writer is unavailable, flushing on the calling thread");
+            immediateFlushPending.set(false);
+            timedFlushPending.set(false);
+            flush();
+        }
+    }
+}
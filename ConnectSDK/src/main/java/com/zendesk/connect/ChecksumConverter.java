@@ -0,0 +1,103 @@
+package com.zendesk.connect;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ *     {@link JsonEntryConverter} that protects every entry written by another converter with a
+ *     CRC32 checksum, so damaged entries are detected instead of being decoded into bad data.
+ * </p>
+ * <p>
+ *     An entry is written as a marker byte, the big-endian checksum of the payload and the
+ *     payload itself. Neither JSON nor binary entries can start with the marker byte, so entries
+ *     written before checksums were introduced are still read, without verification.
+ * </p>
+ *
+ * @param <T> the type of the object
+ */
+class ChecksumConverter<T> implements JsonEntryConverter<T> {
+
+    private static final int MARKER = 0xFE;
+    private static final int HEADER_LENGTH = 5;
+
+    private final JsonEntryConverter<T> delegate;
+
+    /**
+     * Creates this {@link ChecksumConverter}
+     *
+     * @param delegate the converter writing the payload of each entry
+     */
+    ChecksumConverter(JsonEntryConverter<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public T from(@NonNull byte[] bytes) throws IOException {
+        return delegate.from(payload(bytes));
+    }
+
+    @Override
+    public void toStream(@NonNull T object, @NonNull OutputStream outputStream) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        delegate.toStream(object, payload);
+        byte[] bytes = payload.toByteArray();
+
+        long checksum = checksum(bytes, 0, bytes.length);
+        outputStream.write(MARKER);
+        outputStream.write((int) (checksum >>> 24) & 0xFF);
+        outputStream.write((int) (checksum >>> 16) & 0xFF);
+        outputStream.write((int) (checksum >>> 8) & 0xFF);
+        outputStream.write((int) checksum & 0xFF);
+        outputStream.write(bytes);
+        outputStream.flush();
+    }
+
+    @NonNull
+    @Override
+    public byte[] toJson(@NonNull byte[] bytes) throws IOException {
+        return delegate.toJson(payload(bytes));
+    }
+
+    /**
+     * Checks whether an entry is intact
+     *
+     * @param bytes the stored entry
+     * @return false if the entry has a checksum that doesn't match its payload
+     */
+    static boolean isIntact(byte[] bytes) {
+        if (bytes.length == 0 || (bytes[0] & 0xFF) != MARKER) {
+            return true;
+        }
+        return bytes.length >= HEADER_LENGTH
+                && storedChecksum(bytes) == checksum(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+    }
+
+    private static byte[] payload(byte[] bytes) throws IOException {
+        if (bytes.length == 0 || (bytes[0] & 0xFF) != MARKER) {
+            return bytes;
+        }
+        if (!isIntact(bytes)) {
+            throw new IOException("Queue entry checksum mismatch");
+        }
+        return Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length);
+    }
+
+    private static long storedChecksum(byte[] bytes) {
+        return ((long) (bytes[1] & 0xFF) << 24)
+                | ((bytes[2] & 0xFF) << 16)
+                | ((bytes[3] & 0xFF) << 8)
+                | (bytes[4] & 0xFF);
+    }
+
+    private static long checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+}
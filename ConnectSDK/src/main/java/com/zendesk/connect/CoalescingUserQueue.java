@@ -0,0 +1,234 @@
+package com.zendesk.connect;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+import com.zendesk.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *     {@link BaseQueue} of {@link User}s that folds repeated identifies of the same user into
+ *     a single identify when they are read for upload.
+ * </p>
+ * <p>
+ *     {@link #peek(int)} reads up to {@code max} queued users and merges each user into the
+ *     first queued user with the same id, using {@link #merge(User, User)}. A user with a
+ *     previous id is an alias. An alias is never folded, and no user is folded into an earlier
+ *     user across it, so everything queued before the alias is still sent before it.
+ * </p>
+ * <p>
+ *     {@link #remove(int)} called with the size of the last {@link #peek(int)} removes every
+ *     queued user that was read by that peek. Any other count removes that many queued users.
+ * </p>
+ */
+class CoalescingUserQueue implements BaseQueue<User> {
+
+    private static final String LOG_TAG = "CoalescingUserQueue";
+
+    private final BaseQueue<User> delegate;
+
+    private int lastPeekSize = -1;
+    private int lastPeekQueuedCount;
+    private int foldedCount;
+
+    /**
+     * Creates this {@link CoalescingUserQueue}
+     *
+     * @param delegate the {@link BaseQueue} holding the queued users
+     */
+    CoalescingUserQueue(BaseQueue<User> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void add(User user) {
+        delegate.add(user);
+    }
+
+    @Override
+    public synchronized void addAsync(User user) {
+        delegate.addAsync(user);
+    }
+
+    @Override
+    public synchronized void addAll(List<User> users) {
+        delegate.addAll(users);
+    }
+
+    @Override
+    public synchronized int size() {
+        return delegate.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Returns the first queued user as is, without folding.
+     * </p>
+     */
+    @Override
+    public synchronized User peek() {
+        lastPeekSize = -1;
+        return delegate.peek();
+    }
+
+    @Override
+    public synchronized List<User> peek(int max) {
+        List<User> queued = delegate.peek(max);
+        if (queued == null) {
+            lastPeekSize = -1;
+            return null;
+        }
+
+        List<User> folded = fold(queued);
+        int foldedInPeek = queued.size() - folded.size();
+        if (foldedInPeek > 0) {
+            Logger.d(LOG_TAG, "Folded %d redundant identifies", foldedInPeek);
+        }
+
+        lastPeekSize = folded.size();
+        lastPeekQueuedCount = queued.size();
+        return folded;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Users are folded to build the JSON, so this is never supported.
+     * </p>
+     */
+    @Override
+    public List<byte[]> peekJson(int max) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Users have to be folded as a group, so the cursor is over the result of
+     *     {@link #peek(int)} and {@code maxBytes} isn't applied. Committing a cursor that has
+     *     moved past every user removes every queued user that was folded into them.
+     * </p>
+     */
+    @Override
+    public synchronized QueueCursor<User> cursor(int maxCount, long maxBytes) {
+        List<User> users = peek(maxCount);
+        return QueueCursor.ofObjects(this, users != null ? users : Collections.<User>emptyList());
+    }
+
+    @Override
+    public synchronized void remove(int max) {
+        if (max > 0 && max == lastPeekSize) {
+            delegate.remove(lastPeekQueuedCount);
+            foldedCount += lastPeekQueuedCount - lastPeekSize;
+        } else {
+            delegate.remove(max);
+        }
+        lastPeekSize = -1;
+    }
+
+    @Override
+    public synchronized void clear() {
+        lastPeekSize = -1;
+        delegate.clear();
+    }
+
+    /**
+     * Gets the number of identifies that were folded into another identify and removed from
+     * the queue without being sent on their own.
+     *
+     * @return the number of folded identifies
+     */
+    synchronized int foldedCount() {
+        return foldedCount;
+    }
+
+    /**
+     * Folds each user into the first user with the same id that comes after the latest alias.
+     *
+     * @param users the queued users, in order
+     * @return the folded users, in order of first appearance
+     */
+    @VisibleForTesting
+    static List<User> fold(List<User> users) {
+        List<User> folded = new ArrayList<>(users.size());
+        // Position of the first user with each id since the latest alias
+        Map<String, Integer> positions = new LinkedHashMap<>();
+
+        for (User user : users) {
+            if (user == null) {
+                continue;
+            }
+
+            if (user.getPreviousId() != null || user.getUserId() == null) {
+                positions.clear();
+                folded.add(user);
+                continue;
+            }
+
+            Integer position = positions.get(user.getUserId());
+            if (position == null) {
+                positions.put(user.getUserId(), folded.size());
+                folded.add(user);
+            } else {
+                folded.set(position, merge(folded.get(position), user));
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * <p>
+     *     Merges two identifies of the same user into one.
+     * </p>
+     * <p>
+     *     A field of the newer user replaces the older value unless it is null, since an
+     *     identify doesn't clear fields it doesn't send. Attributes are merged key by key, with
+     *     the newer value winning. Group attributes are merged the same way while the group id
+     *     is unchanged, and replaced when the user has moved to another group.
+     * </p>
+     *
+     * @param older the user identified first
+     * @param newer the user identified later
+     * @return the merged user
+     */
+    @VisibleForTesting
+    static User merge(User older, User newer) {
+        boolean sameGroup = newer.getGroupId() == null
+                || ObjectUtils.equals(newer.getGroupId(), older.getGroupId());
+
+        return new User(newer.getUserId(),
+                null,
+                latest(older.getFirstName(), newer.getFirstName()),
+                latest(older.getLastName(), newer.getLastName()),
+                latest(older.getEmail(), newer.getEmail()),
+                latest(older.getPhoneNumber(), newer.getPhoneNumber()),
+                mergeMaps(older.getAttributes(), newer.getAttributes()),
+                latest(older.getGroupId(), newer.getGroupId()),
+                sameGroup
+                        ? mergeMaps(older.getGroupAttributes(), newer.getGroupAttributes())
+                        : newer.getGroupAttributes(),
+                latest(older.getTimezone(), newer.getTimezone()),
+                latest(older.getFcm(), newer.getFcm()),
+                latest(older.getApns(), newer.getApns()));
+    }
+
+    private static <V> V latest(V older, V newer) {
+        return newer != null ? newer : older;
+    }
+
+    private static Map<String, Object> mergeMaps(Map<String, Object> older, Map<String, Object> newer) {
+        if (older == null || newer == null) {
+            return latest(older, newer);
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(older);
+        merged.putAll(newer);
+        return merged;
+    }
+}
@@ -21,6 +21,10 @@ class ConfigJobProcessor {
      *     If the request doesn't return any config model then we keep the currently
      *     stored config and wait for the next scheduled config request to update again.
      * </p>
+     * <p>
+     *     A fetched config replaces the copy the {@link StorageController} keeps in memory, so
+     *     it gates the public API straight away.
+     * </p>
      *
      * @param configProvider an implementation of {@link ConfigProvider}
      * @param storageController an instance of {@link StorageController}
@@ -37,6 +37,7 @@ public class ConfigWorker extends Worker {
         ConfigProvider configProvider = connectComponent.configProvider();
 
         ConfigJobProcessor.process(configProvider, storageController);
+        connectComponent.eventGate().reload();
 
         return Result.success();
     }
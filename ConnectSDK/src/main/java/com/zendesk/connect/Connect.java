@@ -8,6 +8,8 @@ import androidx.annotation.VisibleForTesting;
 
 import com.zendesk.logger.Logger;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Connect SDK public entry point. Use this object to initialise the Connect SDK.
  */
@@ -27,6 +29,10 @@ public enum Connect {
 
     /**
      * <p>Initialise Connect SDK</p>
+     * <p>
+     *     Storage and the queue files are loaded on a background thread, so this returns without
+     *     waiting for disk IO. Calls made to the SDK before they are loaded run once they are.
+     * </p>
      *
      * @param application an instance of {@link Application}
      * @param privateKey a Connect private API key
@@ -37,9 +43,7 @@ public enum Connect {
                 .connectApiConfiguration(new ConnectApiConfiguration(CONNECT_BASE_URL, privateKey))
                 .build();
 
-        updateStoredPrivateKey(connectComponent, privateKey);
-
-        init(connectComponent);
+        init(connectComponent, privateKey);
 
         TouchGestureMonitor.add(application);
     }
@@ -55,23 +59,82 @@ public enum Connect {
     @VisibleForTesting
     @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
     void init(ConnectComponent component) {
-        boolean coldStart = connectComponent == null;
+        init(component, null);
+    }
+
+    /**
+     * <p>
+     *     Initialises the SDK with the given {@link ConnectComponent}. Everything that reads from
+     *     disk is handed to the {@link ConnectWriter} by {@link #warmUp(ConnectComponent, String)},
+     *     ahead of any call made to the public API, so those calls wait for it on the writer
+     *     rather than the caller waiting for it here.
+     * </p>
+     *
+     * @param component Dagger component used to initialise the SDK
+     * @param privateKey the private key provided by the host app, or null to keep the stored key
+     */
+    @VisibleForTesting
+    @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+    void init(final ConnectComponent component, @Nullable final String privateKey) {
+        final long initStartNanos = System.nanoTime();
+        final boolean coldStart = connectComponent == null;
         connectComponent = component;
 
+        // Start listening for Lifecycle events
+        component.foregroundListener();
+
+        component.writer().execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(component, privateKey, coldStart);
+            }
+        });
+
+        Logger.d(LOG_TAG, "init returned after %d ms, loading storage in the background",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStartNanos));
+    }
+
+    /**
+     * <p>
+     *     Loads storage and opens the queue files on the {@link ConnectWriter}. This used to run
+     *     on the thread calling {@link #init(Application, String)}, usually the main thread in
+     *     {@link Application#onCreate()}, so the time it takes is logged as the time saved there.
+     * </p>
+     *
+     * @param component Dagger component used to initialise the SDK
+     * @param privateKey the private key provided by the host app, or null to keep the stored key
+     * @param coldStart true if this is the first init of the process
+     */
+    @VisibleForTesting
+    void warmUp(ConnectComponent component, @Nullable String privateKey, boolean coldStart) {
+        long startNanos = System.nanoTime();
+
+        if (privateKey != null) {
+            updateStoredPrivateKey(component, privateKey);
+        }
+
         // If this is init call is from a cold start of the app then we fetch config
-        // and schedule a config job to repeat every hour.
+        // and schedule a config job to repeat every hour. Only once the key has been checked,
+        // as a new key clears the stored config.
         if (coldStart) {
             component.scheduler().scheduleRecurringConfigRequests();
         }
 
+        // Read the stored config once, the public API is gated on the copy kept in memory
+        StorageController storageController = component.storageController();
+        storageController.getConfig();
+
         // If there is no stored user then we store an anonymous user
-        final StorageController storageController = component.storageController();
         if (storageController.getUser() == null) {
-            DefaultConnectClient.persistAnonymousUser(component.storageController(), component.instanceId());
+            DefaultConnectClient.persistAnonymousUser(storageController, component.instanceId());
         }
 
-        // Start listening for Lifecycle events
-        connectComponent.foregroundListener();
+        // Flush buffered events when the app is backgrounded or trimming memory. Creating the
+        // callbacks opens the user and event queue files.
+        component.queueFlushCallbacks();
+
+        Logger.d(LOG_TAG, "Loaded storage and queues in %d ms off the calling thread",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
     }
 
     /**
@@ -158,6 +221,49 @@ public enum Connect {
         return true;
     }
 
+    /**
+     * <p>
+     *     Runs a mutation on the {@link ConnectWriter} if the SDK is enabled at the time it runs.
+     *     Mutations run one at a time in the order they were made, so calls made from one thread
+     *     take effect in the order they were made, without the caller waiting for disk IO.
+     * </p>
+     *
+     * @param mutation the mutation to run
+     */
+    private void runWhenEnabled(Runnable mutation) {
+        runWhenEnabled(mutation, false);
+    }
+
+    /**
+     * <p>
+     *     Runs a mutation on the {@link ConnectWriter} like {@link #runWhenEnabled(Runnable)},
+     *     optionally letting the writer drop it when the main thread submits more than it can take.
+     * </p>
+     *
+     * @param mutation the mutation to run
+     * @param droppable true if the mutation may be dropped, see
+     *                  {@link ConnectWriter#executeDroppable(Runnable)}
+     */
+    private void runWhenEnabled(final Runnable mutation, boolean droppable) {
+        if (!isInitialised()) {
+            return;
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (isEnabled()) {
+                    mutation.run();
+                }
+            }
+        };
+        if (droppable) {
+            connectComponent.writer().executeDroppable(task);
+        } else {
+            connectComponent.writer().execute(task);
+        }
+    }
+
     /**
      * <p>
      *     Identify a Connect user. Use {@link UserBuilder} to construct a
@@ -168,13 +274,19 @@ public enum Connect {
      *     Identify should be called when a user needs to be remembered, or the existing
      *     information for a user needs to be updated.
      * </p>
+     * <p>
+     *     The user is stored and queued in the background, so this returns straight away.
+     * </p>
      *
      * @param user the {@link User} to be identified
      */
-    public void identifyUser(User user) {
-        if (isEnabled()) {
-            connectComponent.client().identifyUser(user);
-        }
+    public void identifyUser(final User user) {
+        runWhenEnabled(new Runnable() {
+            @Override
+            public void run() {
+                connectComponent.client().identifyUser(user);
+            }
+        });
     }
 
     /**
@@ -186,13 +298,22 @@ public enum Connect {
      *     Track should be called whenever something important happens that you want to
      *     monitor in your Connect dashboard.
      * </p>
+     * <p>
+     *     The event is queued in the background, after any user identified earlier from the
+     *     same thread, so this returns straight away. If the app tracks events on the main
+     *     thread faster than they can be queued, the oldest waiting events are dropped and
+     *     counted in {@link FlushReport#getOverflowedEvents()}.
+     * </p>
      *
      * @param event the {@link Event} to be tracked
      */
-    public void trackEvent(Event event) {
-        if (isEnabled()) {
-            connectComponent.client().trackEvent(event);
-        }
+    public void trackEvent(final Event event) {
+        runWhenEnabled(new Runnable() {
+            @Override
+            public void run() {
+                connectComponent.client().trackEvent(event);
+            }
+        }, true);
     }
 
     /**
@@ -201,9 +322,12 @@ public enum Connect {
      * </p>
      */
     public void registerForPush() {
-        if (isEnabled()) {
-            connectComponent.client().registerForPush();
-        }
+        runWhenEnabled(new Runnable() {
+            @Override
+            public void run() {
+                connectComponent.client().registerForPush();
+            }
+        });
     }
 
     /**
@@ -212,9 +336,12 @@ public enum Connect {
      * </p>
      */
     public void disablePush() {
-        if (isEnabled()) {
-            connectComponent.client().disablePush();
-        }
+        runWhenEnabled(new Runnable() {
+            @Override
+            public void run() {
+                connectComponent.client().disablePush();
+            }
+        });
     }
 
     /**
@@ -224,15 +351,22 @@ public enum Connect {
      * </p>
      */
     public void logoutUser() {
-        if (isEnabled()) {
-            connectComponent.client().logoutUser();
-        }
+        runWhenEnabled(new Runnable() {
+            @Override
+            public void run() {
+                connectComponent.client().logoutUser();
+            }
+        });
     }
 
     /**
      * <p>
      *     Gets the currently active user
      * </p>
+     * <p>
+     *     Returns the user kept in memory without waiting. Calls like {@link #identifyUser(User)}
+     *     are applied in the background, so a user identified just before may not be returned yet.
+     * </p>
      * @return the currently active {@link User}, or {@code null} if the user does
      *          not exist or Connect has not been initialised
      */
@@ -241,4 +375,16 @@ public enum Connect {
         return isInitialised() ? connectComponent.client().getUser() : null;
     }
 
+    /**
+     * <p>
+     *     Sets a {@link FlushListener} to be told about every upload of queued users and events,
+     *     replacing any listener set before. Can be called before {@link #init(Application, String)}.
+     * </p>
+     *
+     * @param listener the {@link FlushListener}, or {@code null} to remove the current one
+     */
+    public void setFlushListener(@Nullable FlushListener listener) {
+        QueuedRequestsFlusher.setFlushListener(listener);
+    }
+
 }
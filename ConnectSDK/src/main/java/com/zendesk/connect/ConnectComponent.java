@@ -4,6 +4,7 @@ import android.app.Application;
 
 import dagger.BindsInstance;
 import dagger.Component;
+import okhttp3.OkHttpClient;
 
 @ConnectScope
 @Component(modules = {
@@ -61,4 +62,20 @@ interface ConnectComponent {
 
     ForegroundListener foregroundListener();
 
+    QueueFlushCallbacks queueFlushCallbacks();
+
+    ConnectWriter writer();
+
+    EventGate eventGate();
+
+    OkHttpClient okHttpClient();
+
+    BatchSizer batchSizer();
+
+    RequestBackoff requestBackoff();
+
+    DeadLetterStore deadLetterStore();
+
+    QueuedRequestsFlusher queuedRequestsFlusher();
+
 }
@@ -11,12 +11,23 @@ import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import dagger.Module;
 import dagger.Provides;
 
 @Module
 abstract class ConnectModule {
 
+    private static final String CONNECT_WRITER_THREAD_NAME = "connect-writer";
+
+    static final int FLUSH_MAX_ITEMS = 20;
+    static final long FLUSH_MAX_BYTES = 32 * 1024;
+    static final long FLUSH_MAX_LATENCY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long FLUSH_LIVE_LATENCY_MILLIS = TimeUnit.SECONDS.toMillis(2);
 
     /**
      * Provides the application {@link Context}
@@ -121,4 +132,44 @@ abstract class ConnectModule {
         return new GsonConverter<>(gson, Event.class);
     }
 
+    /**
+     * Provides the single threaded executor used for the SDK's background disk writes. Its
+     * thread is a daemon thread so it never keeps the process alive.
+     *
+     * @return an instance of {@link ScheduledExecutorService}
+     */
+    @Provides
+    @ConnectScope
+    @ConnectWriterQualifier
+    static ScheduledExecutorService provideWriterExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, CONNECT_WRITER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Provides the {@link FlushPolicy} deciding when queued users and events are uploaded.
+     * Its latency timer runs on the writer executor, which only hands the upload to the
+     * {@link ConnectScheduler}, or to the {@link QueuedRequestsFlusher} while the host app is
+     * in the foreground.
+     *
+     * @param scheduler an instance of {@link ConnectScheduler}
+     * @param flusher an instance of {@link QueuedRequestsFlusher}
+     * @param writer the executor used for the SDK's background disk writes
+     * @return an instance of {@link FlushPolicy}
+     */
+    @Provides
+    @ConnectScope
+    static FlushPolicy provideFlushPolicy(ConnectScheduler scheduler,
+                                          QueuedRequestsFlusher flusher,
+                                          @ConnectWriterQualifier ScheduledExecutorService writer) {
+        return new FlushPolicy(scheduler, flusher, writer, FLUSH_MAX_ITEMS, FLUSH_MAX_BYTES,
+                FLUSH_MAX_LATENCY_MILLIS, FLUSH_LIVE_LATENCY_MILLIS);
+    }
+
 }
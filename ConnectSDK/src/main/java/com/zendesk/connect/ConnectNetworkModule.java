@@ -1,8 +1,8 @@
 package com.zendesk.connect;
 
-import com.google.gson.Gson;
+import androidx.annotation.Nullable;
 
-import java.util.UUID;
+import com.google.gson.Gson;
 
 import dagger.Module;
 import dagger.Provides;
@@ -18,6 +18,17 @@ abstract class ConnectNetworkModule {
 
     private static final String CONNECT_CLIENT_HEADER_FORMAT = "Android/%s";
 
+    /**
+     * Whether request bodies are gzipped. Off until every Connect API host accepts
+     * {@code Content-Encoding: gzip}.
+     */
+    static final boolean COMPRESS_REQUESTS = false;
+
+    /**
+     * Request bodies smaller than this are sent uncompressed
+     */
+    static final long COMPRESS_MIN_BYTES = 1024;
+
     /**
      * Provides an instance of an {@link ClientInterceptors.OutboundClientInterceptor}
      *
@@ -32,20 +43,17 @@ abstract class ConnectNetworkModule {
     }
 
     /**
-     * Provides an instance of an {@link ClientInterceptors.OutboundGuidInterceptor}
+     * Provides an instance of an {@link IdempotencyKeyInterceptor}, which sets the same
+     * {@code X-Outbound-GUID} header as {@link ClientInterceptors.OutboundGuidInterceptor}
+     * from the contents of batch requests rather than at random. Not part of the interceptor
+     * set, since it has to run before the {@link GzipRequestInterceptor}.
      *
-     * @return an instance of an {@link ClientInterceptors.OutboundGuidInterceptor}
+     * @return an instance of an {@link IdempotencyKeyInterceptor}
      */
     @Provides
-    @IntoSet
     @ConnectScope
-    static Interceptor provideOutboundGuidInterceptor() {
-        return new ClientInterceptors.OutboundGuidInterceptor(null) {
-            @Override
-            protected String getHeaderValue() {
-                return UUID.randomUUID().toString();
-            }
-        };
+    static IdempotencyKeyInterceptor provideIdempotencyKeyInterceptor() {
+        return new IdempotencyKeyInterceptor();
     }
 
     /**
@@ -61,6 +69,22 @@ abstract class ConnectNetworkModule {
         return new ClientInterceptors.OutboundKeyInterceptor(connectApiConfiguration.getApiKey());
     }
 
+    /**
+     * Provides a {@link GzipRequestInterceptor} if {@link #COMPRESS_REQUESTS} is enabled. Not
+     * part of the interceptor set, since it has to run after every other interceptor.
+     *
+     * @return the {@link GzipRequestInterceptor}, or null if requests aren't compressed
+     */
+    @Provides
+    @Nullable
+    @ConnectScope
+    static GzipRequestInterceptor provideRequestCompressionInterceptor() {
+        if (!COMPRESS_REQUESTS) {
+            return null;
+        }
+        return new GzipRequestInterceptor(COMPRESS_MIN_BYTES);
+    }
+
     /**
      * Provides an instance of an {@link OkHttpClient} built using {@link ConnectOkHttpClientBuilder}
      *
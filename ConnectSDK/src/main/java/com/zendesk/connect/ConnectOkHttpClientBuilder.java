@@ -1,5 +1,7 @@
 package com.zendesk.connect;
 
+import androidx.annotation.Nullable;
+
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -16,15 +18,28 @@ import okhttp3.OkHttpClient;
 class ConnectOkHttpClientBuilder {
 
     private final Set<Interceptor> interceptors;
+    private final IdempotencyKeyInterceptor idempotencyKeyInterceptor;
+    @Nullable private final GzipRequestInterceptor gzipRequestInterceptor;
 
     @Inject
-    ConnectOkHttpClientBuilder(Set<Interceptor> interceptors) {
+    ConnectOkHttpClientBuilder(Set<Interceptor> interceptors,
+                               IdempotencyKeyInterceptor idempotencyKeyInterceptor,
+                               @Nullable GzipRequestInterceptor gzipRequestInterceptor) {
         this.interceptors = interceptors;
+        this.idempotencyKeyInterceptor = idempotencyKeyInterceptor;
+        this.gzipRequestInterceptor = gzipRequestInterceptor;
     }
 
     /**
-     * Builds an instance of {@link OkHttpClient} with TLS1.2 patch, request headers for the
-     * Connect API and timeout policies.
+     * <p>
+     *     Builds an instance of {@link OkHttpClient} with TLS1.2 patch, request headers for the
+     *     Connect API and timeout policies.
+     * </p>
+     * <p>
+     *     The interceptors of the set only add headers, so they run in any order. The
+     *     {@link IdempotencyKeyInterceptor} runs after them and derives its key from the body
+     *     as it was built, then the {@link GzipRequestInterceptor} compresses it last.
+     * </p>
      *
      * @return an instance of {@link OkHttpClient}
      */
@@ -38,6 +53,10 @@ class ConnectOkHttpClientBuilder {
         for (Interceptor interceptor : interceptors) {
             builder.addInterceptor(interceptor);
         }
+        builder.addInterceptor(idempotencyKeyInterceptor);
+        if (gzipRequestInterceptor != null) {
+            builder.addInterceptor(gzipRequestInterceptor);
+        }
 
         return builder.build();
     }
@@ -4,6 +4,7 @@ import com.squareup.tape2.ObjectQueue;
 import com.zendesk.logger.Logger;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,6 +34,31 @@ class ConnectQueue<T> implements BaseQueue<T> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     This queue has no writer of its own, so the object is written before returning. Put
+     *     a {@link BufferedQueue} in front of it to move the write off the caller thread.
+     * </p>
+     */
+    @Override
+    public void addAsync(T object) {
+        add(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     {@link ObjectQueue} has no bulk append, so each object is written individually.
+     * </p>
+     */
+    @Override
+    public void addAll(List<T> objects) {
+        for (T object : objects) {
+            add(object);
+        }
+    }
+
     @Override
     public int size() {
         return objectQueue.size();
@@ -59,6 +85,30 @@ class ConnectQueue<T> implements BaseQueue<T> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The converter of the {@link ObjectQueue} isn't known here, so this is never supported.
+     * </p>
+     */
+    @Override
+    public List<byte[]> peekJson(int max) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The converter of the {@link ObjectQueue} isn't known here, so the objects are read
+     *     with {@link #peek(int)} and {@code maxBytes} isn't applied.
+     * </p>
+     */
+    @Override
+    public QueueCursor<T> cursor(int maxCount, long maxBytes) {
+        List<T> objects = peek(maxCount);
+        return QueueCursor.ofObjects(this, objects != null ? objects : Collections.<T>emptyList());
+    }
+
     @Override
     public void remove(int max) {
         max = Math.max(max, 0); // Negative numbers become 0
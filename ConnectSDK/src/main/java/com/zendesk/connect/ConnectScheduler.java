@@ -66,6 +66,58 @@ class ConnectScheduler {
                 request);
     }
 
+    /**
+     * <p>
+     *     Schedules a {@link OneTimeWorkRequest} to send the queued requests once the delay has
+     *     passed, unless one is already scheduled. It shares its unique name with
+     *     {@link #scheduleQueuedNetworkRequests()}, which replaces it to send straight away.
+     * </p>
+     * <p>
+     *     Scheduled as soon as an item is queued, so WorkManager sends the queues even if the
+     *     process dies before the {@link FlushPolicy} schedules the upload itself.
+     * </p>
+     *
+     * @param delayMillis the time to wait before sending
+     */
+    void scheduleQueuedNetworkBackstop(long delayMillis) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(QueuedRequestsWorker.class)
+                .setConstraints(constraints)
+                .setInitialDelay(Math.max(delayMillis, 0), TimeUnit.MILLISECONDS)
+                .build();
+
+        workManager.enqueueUniqueWork(
+                QueuedRequestsWorker.QUEUED_REQUESTS_WORKER_TAG,
+                ExistingWorkPolicy.KEEP,
+                request);
+    }
+
+    /**
+     * Schedules a {@link OneTimeWorkRequest} to send the queued requests again after a request
+     * failed. It is unique under its own name, so requests scheduled in the meantime don't
+     * replace it, and a later retry replaces an earlier one.
+     *
+     * @param delayMillis the time to wait before sending again
+     */
+    void scheduleQueuedNetworkRetry(long delayMillis) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(QueuedRequestsWorker.class)
+                .setConstraints(constraints)
+                .setInitialDelay(Math.max(delayMillis, 0), TimeUnit.MILLISECONDS)
+                .build();
+
+        workManager.enqueueUniqueWork(
+                QueuedRequestsWorker.QUEUED_REQUESTS_RETRY_WORKER_TAG,
+                ExistingWorkPolicy.REPLACE,
+                request);
+    }
+
     /**
      * Schedules a {@link OneTimeWorkRequest} that runs once the {@param timeToLive} has passed.
      * The {@link IpmTimeToLiveWorker} is unique and is identified by the {@param workName}.
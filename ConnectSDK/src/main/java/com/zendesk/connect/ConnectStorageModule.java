@@ -3,22 +3,132 @@ package com.zendesk.connect;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.google.gson.Gson;
 import com.squareup.tape2.ObjectQueue;
 import com.squareup.tape2.QueueFile;
+import com.zendesk.logger.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 
 @Module
 abstract class ConnectStorageModule {
 
+    private static final String LOG_TAG = "ConnectStorageModule";
+
     private static final String CONNECT_PREFERENCES_NAME = "connect_shared_preferences_storage";
+    private static final String CONNECT_STORAGE_LOG_FILE = "connect_storage_log";
     private static final String CONNECT_STRING_QUEUE_FILE = "connect_string_queue_file";
     private static final String CONNECT_USER_QUEUE_FILE = "connect_user_queue_file";
     private static final String CONNECT_EVENT_QUEUE_FILE = "connect_event_queue_file";
+    private static final String CONNECT_DEAD_LETTER_DIRECTORY = "connect_dead_letter_segments";
+    private static final String BINARY_QUEUE_FILE_SUFFIX = "_v2";
+    private static final String QUEUE_DICTIONARY_FILE_SUFFIX = "_dictionary";
+    private static final String SEGMENT_DIRECTORY_SUFFIX = "_segments";
+    private static final String MAPPED_QUEUE_FILE_SUFFIX = "_mapped";
+
+    private static final long USER_QUEUE_MAX_SEGMENT_BYTES = 16 * 1024;
+    private static final long USER_QUEUE_MAX_TOTAL_BYTES = 256 * 1024;
+    private static final long EVENT_QUEUE_MAX_SEGMENT_BYTES = 64 * 1024;
+    private static final long EVENT_QUEUE_MAX_TOTAL_BYTES = 1024 * 1024;
+    private static final int MAPPED_QUEUE_FORCE_INTERVAL = 16;
+
+    private static final int EVENT_BUFFER_CAPACITY = 256;
+    private static final int EVENT_BUFFER_FLUSH_THRESHOLD = 32;
+    private static final long EVENT_BUFFER_MAX_DELAY_MILLIS = 1000;
+    private static final int USER_BUFFER_CAPACITY = 32;
+    private static final int USER_BUFFER_FLUSH_THRESHOLD = 1;
+    private static final long USER_BUFFER_MAX_DELAY_MILLIS = 0;
+    private static final long EVENT_QUEUE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final int EVENT_QUEUE_MAX_COUNT = 5000;
+    private static final long DEAD_LETTER_MAX_SEGMENT_BYTES = 16 * 1024;
+    private static final long DEAD_LETTER_MAX_TOTAL_BYTES = 128 * 1024;
+
+    /**
+     * On-disk formats available for the {@link User} and {@link Event} queue files
+     */
+    enum QueueFormat {
+
+        /**
+         * Entries are written as JSON by a {@link GsonConverter}
+         */
+        JSON,
+
+        /**
+         * Entries are written by a {@link BinaryConverter}, with a {@link QueueDictionary} per file
+         */
+        BINARY
+    }
+
+    /**
+     * Storage backends available for the {@link User} and {@link Event} queues
+     */
+    enum QueueBackend {
+
+        /**
+         * A single, unbounded queue file per queue
+         */
+        TAPE,
+
+        /**
+         * A {@link SegmentedQueue} per queue, bounded in size
+         */
+        SEGMENTED,
+
+        /**
+         * A {@link MappedQueue} per queue, bounded in size
+         */
+        MAPPED
+    }
+
+    /**
+     * Storage backends available for the {@link BaseStorage} holding the SDK's own values
+     */
+    enum StorageBackend {
+
+        /**
+         * A {@link SharedPreferencesStorage}, rewriting the whole preferences file on each change
+         */
+        SHARED_PREFERENCES,
+
+        /**
+         * A {@link LogStorage}, appending each change to a single file
+         */
+        LOG
+    }
+
+    /**
+     * Provides the {@link QueueBackend} used by the {@link User} and {@link Event} queues.
+     * A queue file left by the {@link QueueBackend#TAPE} backend is moved into the segmented
+     * or mapped queue when it is created, and the mapped queue also takes over any segments.
+     *
+     * @return the {@link QueueBackend} to use
+     */
+    @Provides
+    static QueueBackend provideQueueBackend() {
+        return QueueBackend.SEGMENTED;
+    }
+
+    /**
+     * Provides the {@link QueueFormat} used by the {@link User} and {@link Event} queue files.
+     * Queue files written in another format are migrated when the queue is created.
+     *
+     * @return the {@link QueueFormat} to use
+     */
+    @Provides
+    static QueueFormat provideQueueFormat() {
+        return QueueFormat.BINARY;
+    }
 
     /**
      * Provides an instance of {@link SharedPreferences}
@@ -32,34 +142,123 @@ abstract class ConnectStorageModule {
     }
 
     /**
-     * Provides an implementation of {@link BaseStorage} using {@link SharedPreferences}
+     * Provides the {@link StorageBackend} used by the {@link BaseStorage}. Values left in the
+     * other backend are moved over when the storage is created.
      *
+     * @return the {@link StorageBackend} to use
+     */
+    @Provides
+    static StorageBackend provideStorageBackend() {
+        return StorageBackend.SHARED_PREFERENCES;
+    }
+
+    /**
+     * Provides the implementation of {@link BaseStorage} for the given {@link StorageBackend}
+     *
+     * @param backend the {@link StorageBackend} to use
+     * @param context the application {@link Context}
+     * @param sharedPreferences the {@link SharedPreferences} used by the SDK
      * @param sharedPreferencesStorage an instance of {@link SharedPreferencesStorage}
-     * @return An instance of {@link SharedPreferencesStorage}
+     * @param gson the {@link Gson} used to serialise stored objects
+     * @return An implementation of {@link BaseStorage}
      */
     @Provides
-    static BaseStorage provideSharedPreferencesStorage(SharedPreferencesStorage sharedPreferencesStorage) {
-        return sharedPreferencesStorage;
+    @ConnectScope
+    static BaseStorage provideStorage(StorageBackend backend,
+                                      Context context,
+                                      SharedPreferences sharedPreferences,
+                                      Lazy<SharedPreferencesStorage> sharedPreferencesStorage,
+                                      Gson gson) {
+        File file = new File(context.getFilesDir(), CONNECT_STORAGE_LOG_FILE);
+        if (backend == StorageBackend.LOG) {
+            // Falls back to the preferences if the log can't be written, and moves the values
+            // back into the log the next time it is created
+            LogStorage logStorage = new LogStorage(file, gson, sharedPreferencesStorage.get());
+            migrateSharedPreferences(sharedPreferences, logStorage);
+            return logStorage;
+        }
+
+        if (file.exists()) {
+            migrateLogStorage(new LogStorage(file, gson), sharedPreferencesStorage.get(), file);
+        }
+        return sharedPreferencesStorage.get();
+    }
+
+    /**
+     * Moves every string value from the {@link SharedPreferences} into a {@link LogStorage}.
+     * The preferences are only cleared once the values were written to the log.
+     *
+     * @param sharedPreferences the {@link SharedPreferences} to migrate
+     * @param logStorage the {@link LogStorage} to move the values to
+     */
+    @VisibleForTesting
+    static void migrateSharedPreferences(SharedPreferences sharedPreferences, LogStorage logStorage) {
+        Map<String, ?> stored = sharedPreferences.getAll();
+        if (stored.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                values.put(entry.getKey(), (String) entry.getValue());
+            }
+        }
+        if (!logStorage.putAll(values)) {
+            Logger.e(LOG_TAG, "Failed to migrate shared preferences, keeping them");
+            return;
+        }
+        sharedPreferences.edit().clear().commit();
+        Logger.d(LOG_TAG, "Migrated %d values from shared preferences", values.size());
+    }
+
+    /**
+     * Moves every value from a {@link LogStorage} into the {@link SharedPreferencesStorage}
+     * and deletes the log.
+     *
+     * @param logStorage the {@link LogStorage} to migrate
+     * @param sharedPreferencesStorage the {@link SharedPreferencesStorage} to move the values to
+     * @param file the file backing the {@link LogStorage}
+     */
+    @VisibleForTesting
+    static void migrateLogStorage(LogStorage logStorage,
+                                  SharedPreferencesStorage sharedPreferencesStorage,
+                                  File file) {
+        Map<String, String> values = logStorage.getAll();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            sharedPreferencesStorage.put(entry.getKey(), entry.getValue());
+        }
+
+        if (!file.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete %s, clearing it instead", file.getName());
+            logStorage.clear();
+            return;
+        }
+        Logger.d(LOG_TAG, "Migrated %d values from %s", values.size(), file.getName());
     }
 
     /**
      * Provides a file backed {@link ObjectQueue} for use in queueing {@link String} objects.
      *
-     * If a problem is encountered when creating the file backed queue object then the SDK
-     * will fall back on an in-memory queue. This will mean degraded performance as some
+     * A damaged queue file is first rebuilt by {@link QueueFileRecovery}. If a problem is still
+     * encountered when creating the file backed queue object then the SDK will fall back on
+     * an in-memory queue. This will mean degraded performance as some
      * events may be lost when the app is removed from device memory but should prevent
      * potential app crashes.
      *
      * @param gsonConverter converter used for serializing/deserializing {@link String}s for the queue
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of a damaged queue file
      * @return an instance of an {@link ObjectQueue}
      */
     @Provides
     @ConnectScope
-    static ObjectQueue<String> provideObjectQueue(GsonConverter<String> gsonConverter, Context context) {
+    static ObjectQueue<String> provideObjectQueue(GsonConverter<String> gsonConverter,
+                                                  QueueMetrics queueMetrics,
+                                                  Context context) {
         File file = new File(context.getFilesDir(), CONNECT_STRING_QUEUE_FILE);
         QueueFile queueFile;
         try {
-            queueFile = new QueueFile.Builder(file).build();
+            queueFile = QueueFileRecovery.open(file, gsonConverter, queueMetrics);
             return ObjectQueue.create(queueFile, gsonConverter);
         } catch (IOException e) {
             return ObjectQueue.createInMemory();
@@ -69,51 +268,277 @@ abstract class ConnectStorageModule {
     /**
      * Provides a file backed {@link ObjectQueue} for use in queueing {@link User} objects.
      *
-     * If a problem is encountered when creating the file backed queue object then the SDK
-     * will fall back on an in-memory queue. This will mean degraded performance as some
+     * A damaged queue file is first rebuilt by {@link QueueFileRecovery}. If a problem is still
+     * encountered when creating the file backed queue object then the SDK will fall back on
+     * an in-memory queue. This will mean degraded performance as some
      * events may be lost when the app is removed from device memory but should prevent
      * potential app crashes.
      *
-     * @param userConverter converter used for serializing/deserializing {@link User}s for the queue
+     * @param userConverter converter used for serializing/deserializing {@link User}s as JSON
+     * @param gson an instance of {@link Gson}
+     * @param queueFormat the {@link QueueFormat} of the queue file
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of a damaged queue file
      * @return an instance of an {@link ObjectQueue}
      */
     @Provides
     @ConnectScope
-    static ObjectQueue<User> provideUserObjectQueue(GsonConverter<User> userConverter, Context context) {
-        File file = new File(context.getFilesDir(), CONNECT_USER_QUEUE_FILE);
-        QueueFile queueFile;
-        try {
-            queueFile = new QueueFile.Builder(file).build();
-            return ObjectQueue.create(queueFile, userConverter);
-        } catch (IOException e) {
-            return ObjectQueue.createInMemory();
-        }
+    static ObjectQueue<User> provideUserObjectQueue(GsonConverter<User> userConverter,
+                                                    Gson gson,
+                                                    QueueFormat queueFormat,
+                                                    QueueMetrics queueMetrics,
+                                                    Context context) {
+        File directory = context.getFilesDir();
+        QueueDictionary dictionary = new QueueDictionary(
+                new File(directory, CONNECT_USER_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+        return createObjectQueue(queueFormat,
+                new File(directory, CONNECT_USER_QUEUE_FILE),
+                userConverter,
+                new File(directory, CONNECT_USER_QUEUE_FILE + BINARY_QUEUE_FILE_SUFFIX),
+                new UserBinaryConverter(gson, dictionary),
+                dictionary,
+                queueMetrics);
     }
 
     /**
      * Provides a file backed {@link ObjectQueue} for use in queueing {@link Event} objects.
      *
-     * If a problem is encountered when creating the file backed queue object then the SDK
-     * will fall back on an in-memory queue. This will mean degraded performance as some
+     * A damaged queue file is first rebuilt by {@link QueueFileRecovery}. If a problem is still
+     * encountered when creating the file backed queue object then the SDK will fall back on
+     * an in-memory queue. This will mean degraded performance as some
      * events may be lost when the app is removed from device memory but should prevent
      * potential app crashes.
      *
-     * @param eventConverter converter used for serializing/deserializing {@link Event}s for the queue
+     * @param eventConverter converter used for serializing/deserializing {@link Event}s as JSON
+     * @param gson an instance of {@link Gson}
+     * @param queueFormat the {@link QueueFormat} of the queue file
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of a damaged queue file
      * @return an instance of an {@link ObjectQueue}
      */
     @Provides
     @ConnectScope
-    static ObjectQueue<Event> provideEventObjectQueue(GsonConverter<Event> eventConverter, Context context) {
-        File file = new File(context.getFilesDir(), CONNECT_EVENT_QUEUE_FILE);
-        QueueFile queueFile;
+    static ObjectQueue<Event> provideEventObjectQueue(GsonConverter<Event> eventConverter,
+                                                      Gson gson,
+                                                      QueueFormat queueFormat,
+                                                      QueueMetrics queueMetrics,
+                                                      Context context) {
+        File directory = context.getFilesDir();
+        QueueDictionary dictionary = new QueueDictionary(
+                new File(directory, CONNECT_EVENT_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+        return createObjectQueue(queueFormat,
+                new File(directory, CONNECT_EVENT_QUEUE_FILE),
+                eventConverter,
+                new File(directory, CONNECT_EVENT_QUEUE_FILE + BINARY_QUEUE_FILE_SUFFIX),
+                new EventBinaryConverter(gson, dictionary),
+                dictionary,
+                queueMetrics);
+    }
+
+    /**
+     * Creates a file backed {@link ObjectQueue} in the given {@link QueueFormat}, migrating
+     * any entries left in the file of the other format first. The dictionary is reset whenever
+     * the binary queue file is empty, since no entry can reference it at that point. Entries
+     * are protected by a {@link ChecksumConverter} in either format.
+     *
+     * @param queueFormat the {@link QueueFormat} of the queue file
+     * @param jsonFile the file used by the {@link QueueFormat#JSON} format
+     * @param jsonConverter the converter used by the {@link QueueFormat#JSON} format
+     * @param binaryFile the file used by the {@link QueueFormat#BINARY} format
+     * @param binaryConverter the converter used by the {@link QueueFormat#BINARY} format
+     * @param dictionary the {@link QueueDictionary} used by the binary converter
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of a damaged queue file
+     * @param <T> the type of the queued objects
+     * @return a file backed {@link ObjectQueue}, or an in-memory one if the file can't be opened
+     */
+    private static <T> ObjectQueue<T> createObjectQueue(QueueFormat queueFormat,
+                                                        File jsonFile,
+                                                        JsonEntryConverter<T> jsonConverter,
+                                                        File binaryFile,
+                                                        BinaryConverter<T> binaryConverter,
+                                                        QueueDictionary dictionary,
+                                                        QueueMetrics queueMetrics) {
+        ChecksumConverter<T> checkedJsonConverter = new ChecksumConverter<>(jsonConverter);
+        ChecksumConverter<T> checkedBinaryConverter = new ChecksumConverter<>(binaryConverter);
         try {
-            queueFile = new QueueFile.Builder(file).build();
-            return ObjectQueue.create(queueFile, eventConverter);
+            if (queueFormat == QueueFormat.BINARY) {
+                QueueFileMigrator.migrate(jsonFile, checkedJsonConverter, binaryFile, checkedBinaryConverter);
+                QueueFile queueFile =
+                        QueueFileRecovery.open(binaryFile, checkedBinaryConverter, queueMetrics);
+                if (queueFile.isEmpty()) {
+                    dictionary.reset();
+                }
+                return ObjectQueue.create(queueFile, checkedBinaryConverter);
+            }
+
+            QueueFileMigrator.migrate(binaryFile, checkedBinaryConverter, jsonFile, checkedJsonConverter);
+            if (!binaryFile.exists()) {
+                dictionary.reset();
+            }
+            QueueFile queueFile = QueueFileRecovery.open(jsonFile, checkedJsonConverter, queueMetrics);
+            return ObjectQueue.create(queueFile, checkedJsonConverter);
         } catch (IOException e) {
             return ObjectQueue.createInMemory();
         }
     }
 
+    /**
+     * <p>
+     *     Creates a {@link SegmentedQueue} in the given {@link QueueFormat}. Each format has its
+     *     own segment directory.
+     * </p>
+     * <p>
+     *     Anything left by a previous configuration is moved into the new queue: the single queue
+     *     files of the {@link QueueBackend#TAPE} backend are migrated to the current format and
+     *     adopted as a segment, and the segments of the other format are migrated one by one.
+     *     The dictionary is reset whenever no binary entries remain, since nothing can reference
+     *     it at that point. Entries are protected by a {@link ChecksumConverter} in either format.
+     * </p>
+     *
+     * @param queueFormat the {@link QueueFormat} of the queue files
+     * @param directory the directory holding the queue files
+     * @param name the base name of the queue files
+     * @param jsonConverter the converter used by the {@link QueueFormat#JSON} format
+     * @param binaryConverter the converter used by the {@link QueueFormat#BINARY} format
+     * @param dictionary the {@link QueueDictionary} used by the binary converter
+     * @param maxSegmentBytes the size at which a new segment is started
+     * @param maxTotalBytes the maximum disk space used by all segments together
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged segments
+     * @param <T> the type of the queued objects
+     * @return a {@link SegmentedQueue}
+     */
+    private static <T> SegmentedQueue<T> createSegmentedQueue(QueueFormat queueFormat,
+                                                              File directory,
+                                                              String name,
+                                                              JsonEntryConverter<T> jsonConverter,
+                                                              BinaryConverter<T> binaryConverter,
+                                                              QueueDictionary dictionary,
+                                                              long maxSegmentBytes,
+                                                              long maxTotalBytes,
+                                                              QueueMetrics queueMetrics) {
+        File jsonFile = new File(directory, name);
+        File binaryFile = new File(directory, name + BINARY_QUEUE_FILE_SUFFIX);
+        File jsonSegments = new File(directory, name + SEGMENT_DIRECTORY_SUFFIX);
+        File binarySegments = new File(directory, name + BINARY_QUEUE_FILE_SUFFIX + SEGMENT_DIRECTORY_SUFFIX);
+
+        boolean binary = queueFormat == QueueFormat.BINARY;
+        ObjectQueue.Converter<T> converter =
+                new ChecksumConverter<>(binary ? binaryConverter : jsonConverter);
+        ObjectQueue.Converter<T> otherConverter =
+                new ChecksumConverter<>(binary ? jsonConverter : binaryConverter);
+        File singleFile = binary ? binaryFile : jsonFile;
+        File otherSingleFile = binary ? jsonFile : binaryFile;
+        File segmentDirectory = binary ? binarySegments : jsonSegments;
+        File otherSegmentDirectory = binary ? jsonSegments : binarySegments;
+
+        SegmentedQueue<T> queue = new SegmentedQueue<>(segmentDirectory,
+                converter,
+                maxSegmentBytes,
+                maxTotalBytes,
+                SegmentEvictionPolicies.<T>dropOldest(),
+                queueMetrics);
+
+        QueueFileMigrator.migrate(otherSingleFile, otherConverter, singleFile, converter);
+        queue.adopt(singleFile);
+
+        File migrated = new File(segmentDirectory, name);
+        for (File segment : SegmentedQueue.segmentFiles(otherSegmentDirectory)) {
+            QueueFileMigrator.migrate(segment, otherConverter, migrated, converter);
+            queue.adopt(migrated);
+        }
+        if (otherSegmentDirectory.isDirectory() && !otherSegmentDirectory.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete %s", otherSegmentDirectory.getName());
+        }
+
+        if (!binary || queue.size() == 0) {
+            dictionary.reset();
+        }
+        return queue;
+    }
+
+    /**
+     * <p>
+     *     Creates a {@link MappedQueue} in the given {@link QueueFormat}. Each format has its own
+     *     mapped file.
+     * </p>
+     * <p>
+     *     Anything left by another backend is moved into the new queue: the single queue files
+     *     of the {@link QueueBackend#TAPE} backend and the segments of the
+     *     {@link QueueBackend#SEGMENTED} backend are migrated to the current format where needed
+     *     and taken over. The dictionary is reset whenever no binary entries remain, since
+     *     nothing can reference it at that point. Entries are protected by a
+     *     {@link ChecksumConverter} in either format.
+     * </p>
+     *
+     * @param queueFormat the {@link QueueFormat} of the queue files
+     * @param directory the directory holding the queue files
+     * @param name the base name of the queue files
+     * @param jsonConverter the converter used by the {@link QueueFormat#JSON} format
+     * @param binaryConverter the converter used by the {@link QueueFormat#BINARY} format
+     * @param dictionary the {@link QueueDictionary} used by the binary converter
+     * @param maxFileBytes the maximum size of the mapped file
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged files
+     * @param <T> the type of the queued objects
+     * @return a {@link MappedQueue}, or an in-memory queue if the file can't be mapped
+     */
+    private static <T> BaseQueue<T> createMappedQueue(QueueFormat queueFormat,
+                                                      File directory,
+                                                      String name,
+                                                      JsonEntryConverter<T> jsonConverter,
+                                                      BinaryConverter<T> binaryConverter,
+                                                      QueueDictionary dictionary,
+                                                      long maxFileBytes,
+                                                      QueueMetrics queueMetrics) {
+        File jsonFile = new File(directory, name);
+        File binaryFile = new File(directory, name + BINARY_QUEUE_FILE_SUFFIX);
+        File jsonSegments = new File(directory, name + SEGMENT_DIRECTORY_SUFFIX);
+        File binarySegments = new File(directory, name + BINARY_QUEUE_FILE_SUFFIX + SEGMENT_DIRECTORY_SUFFIX);
+
+        boolean binary = queueFormat == QueueFormat.BINARY;
+        ObjectQueue.Converter<T> converter =
+                new ChecksumConverter<>(binary ? binaryConverter : jsonConverter);
+        ObjectQueue.Converter<T> otherConverter =
+                new ChecksumConverter<>(binary ? jsonConverter : binaryConverter);
+        File singleFile = binary ? binaryFile : jsonFile;
+        File otherSingleFile = binary ? jsonFile : binaryFile;
+        File segmentDirectory = binary ? binarySegments : jsonSegments;
+        File otherSegmentDirectory = binary ? jsonSegments : binarySegments;
+
+        MappedQueue<T> queue;
+        try {
+            queue = new MappedQueue<>(new File(singleFile.getPath() + MAPPED_QUEUE_FILE_SUFFIX),
+                    converter,
+                    maxFileBytes,
+                    MAPPED_QUEUE_FORCE_INTERVAL,
+                    queueMetrics);
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to map %s, falling back on an in-memory queue", e, name);
+            return new ConnectQueue<>(ObjectQueue.<T>createInMemory());
+        }
+
+        QueueFileMigrator.migrate(otherSingleFile, otherConverter, singleFile, converter);
+        queue.adopt(singleFile);
+
+        File migrated = new File(otherSegmentDirectory, name);
+        for (File segment : SegmentedQueue.segmentFiles(segmentDirectory)) {
+            queue.adopt(segment);
+        }
+        for (File segment : SegmentedQueue.segmentFiles(otherSegmentDirectory)) {
+            QueueFileMigrator.migrate(segment, otherConverter, migrated, converter);
+            queue.adopt(migrated);
+        }
+        for (File segments : new File[] {segmentDirectory, otherSegmentDirectory}) {
+            if (segments.isDirectory() && !segments.delete()) {
+                Logger.e(LOG_TAG, "Failed to delete %s", segments.getName());
+            }
+        }
+
+        if (!binary || queue.size() == 0) {
+            dictionary.reset();
+        }
+        return queue;
+    }
+
     /**
      * Provides a {@link BaseQueue} for queueing {@link String} objects
      *
@@ -127,27 +552,211 @@ abstract class ConnectStorageModule {
     }
 
     /**
-     * Provides a {@link BaseQueue} for queueing {@link User} objects
+     * Provides a write-behind {@link BufferedQueue} for queueing {@link User} objects. Users are
+     * buffered in memory and written to the file backed queue by the writer as soon as possible.
      *
-     * @param userObjectQueue the {@link ObjectQueue} used by this {@link ConnectQueue}
+     * @param queueBackend the {@link QueueBackend} of the queue
+     * @param userObjectQueue the {@link ObjectQueue} used by the {@link QueueBackend#TAPE} backend
+     * @param userConverter converter used for serializing/deserializing {@link User}s as JSON
+     * @param gson an instance of {@link Gson}
+     * @param queueFormat the {@link QueueFormat} of the queue files
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged queue files
+     * @param writer the executor that flushes the buffered users
+     * @return an instance of a {@link BufferedQueue}
+     */
+    @Provides
+    @ConnectScope
+    static BufferedQueue<User> provideBufferedUserQueue(
+            QueueBackend queueBackend,
+            Lazy<ObjectQueue<User>> userObjectQueue,
+            GsonConverter<User> userConverter,
+            Gson gson,
+            QueueFormat queueFormat,
+            QueueMetrics queueMetrics,
+            Context context,
+            @ConnectWriterQualifier ScheduledExecutorService writer) {
+        BaseQueue<User> delegate;
+        if (queueBackend == QueueBackend.TAPE) {
+            delegate = new ConnectQueue<>(userObjectQueue.get());
+        } else if (queueBackend == QueueBackend.MAPPED) {
+            File directory = context.getFilesDir();
+            QueueDictionary dictionary = new QueueDictionary(
+                    new File(directory, CONNECT_USER_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+            delegate = createMappedQueue(queueFormat,
+                    directory,
+                    CONNECT_USER_QUEUE_FILE,
+                    userConverter,
+                    new UserBinaryConverter(gson, dictionary),
+                    dictionary,
+                    USER_QUEUE_MAX_TOTAL_BYTES,
+                    queueMetrics);
+        } else {
+            File directory = context.getFilesDir();
+            QueueDictionary dictionary = new QueueDictionary(
+                    new File(directory, CONNECT_USER_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+            delegate = createSegmentedQueue(queueFormat,
+                    directory,
+                    CONNECT_USER_QUEUE_FILE,
+                    userConverter,
+                    new UserBinaryConverter(gson, dictionary),
+                    dictionary,
+                    USER_QUEUE_MAX_SEGMENT_BYTES,
+                    USER_QUEUE_MAX_TOTAL_BYTES,
+                    queueMetrics);
+        }
+
+        return new BufferedQueue<>(delegate,
+                writer,
+                USER_BUFFER_CAPACITY,
+                USER_BUFFER_FLUSH_THRESHOLD,
+                USER_BUFFER_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Provides a {@link BaseQueue} for queueing {@link User} objects. Repeated identifies of
+     * the same user are folded by a {@link CoalescingUserQueue} when they are uploaded.
+     *
+     * @param bufferedUserQueue the {@link BufferedQueue} in front of the user queue file
      * @return an instance of a {@link BaseQueue}
      */
     @Provides
     @ConnectScope
-    static BaseQueue<User> provideUserQueue(ObjectQueue<User> userObjectQueue) {
-        return new ConnectQueue<>(userObjectQueue);
+    static BaseQueue<User> provideUserQueue(BufferedQueue<User> bufferedUserQueue) {
+        return new CoalescingUserQueue(bufferedUserQueue);
     }
 
     /**
-     * Provides a {@link BaseQueue} for queueing {@link Event} objects
+     * Provides a write-behind {@link BufferedQueue} for queueing {@link Event} objects. Events
+     * are buffered in memory and written to the file backed queue in groups by the writer.
      *
-     * @param eventObjectQueue the {@link ObjectQueue} used by this {@link ConnectQueue}
+     * @param queueBackend the {@link QueueBackend} of the queue
+     * @param eventObjectQueue the {@link ObjectQueue} used by the {@link QueueBackend#TAPE} backend
+     * @param eventConverter converter used for serializing/deserializing {@link Event}s as JSON
+     * @param gson an instance of {@link Gson}
+     * @param queueFormat the {@link QueueFormat} of the queue files
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged queue files
+     * @param writer the executor that flushes the buffered events
+     * @return an instance of a {@link BufferedQueue}
+     */
+    @Provides
+    @ConnectScope
+    static BufferedQueue<Event> provideBufferedEventQueue(
+            QueueBackend queueBackend,
+            Lazy<ObjectQueue<Event>> eventObjectQueue,
+            GsonConverter<Event> eventConverter,
+            Gson gson,
+            QueueFormat queueFormat,
+            QueueMetrics queueMetrics,
+            Context context,
+            @ConnectWriterQualifier ScheduledExecutorService writer) {
+        BaseQueue<Event> delegate;
+        if (queueBackend == QueueBackend.TAPE) {
+            delegate = new ConnectQueue<>(eventObjectQueue.get());
+        } else if (queueBackend == QueueBackend.MAPPED) {
+            File directory = context.getFilesDir();
+            QueueDictionary dictionary = new QueueDictionary(
+                    new File(directory, CONNECT_EVENT_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+            delegate = createMappedQueue(queueFormat,
+                    directory,
+                    CONNECT_EVENT_QUEUE_FILE,
+                    eventConverter,
+                    new EventBinaryConverter(gson, dictionary),
+                    dictionary,
+                    EVENT_QUEUE_MAX_TOTAL_BYTES,
+                    queueMetrics);
+        } else {
+            File directory = context.getFilesDir();
+            QueueDictionary dictionary = new QueueDictionary(
+                    new File(directory, CONNECT_EVENT_QUEUE_FILE + QUEUE_DICTIONARY_FILE_SUFFIX));
+
+            delegate = createSegmentedQueue(queueFormat,
+                    directory,
+                    CONNECT_EVENT_QUEUE_FILE,
+                    eventConverter,
+                    new EventBinaryConverter(gson, dictionary),
+                    dictionary,
+                    EVENT_QUEUE_MAX_SEGMENT_BYTES,
+                    EVENT_QUEUE_MAX_TOTAL_BYTES,
+                    queueMetrics);
+        }
+
+        return new BufferedQueue<>(delegate,
+                writer,
+                EVENT_BUFFER_CAPACITY,
+                EVENT_BUFFER_FLUSH_THRESHOLD,
+                EVENT_BUFFER_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Provides a {@link BaseQueue} for queueing {@link Event} objects. Events older than
+     * {@link #EVENT_QUEUE_MAX_AGE_MILLIS}, and the oldest events beyond
+     * {@link #EVENT_QUEUE_MAX_COUNT}, are dropped by an {@link ExpiringQueue} instead of being
+     * uploaded. Nothing is dropped while the {@link BatchReplay} has an event batch to send again.
+     *
+     * @param bufferedEventQueue the {@link BufferedQueue} in front of the event queue file
+     * @param queueMetrics the {@link QueueMetrics} the expired events are reported to
+     * @param replay the {@link BatchReplay} recording the event batch to send again
      * @return an instance of a {@link BaseQueue}
      */
     @Provides
     @ConnectScope
-    static BaseQueue<Event> provideEventQueue(ObjectQueue<Event> eventObjectQueue) {
-        return new ConnectQueue<>(eventObjectQueue);
+    static BaseQueue<Event> provideEventQueue(BufferedQueue<Event> bufferedEventQueue,
+                                              QueueMetrics queueMetrics,
+                                              final BatchReplay replay) {
+        return new ExpiringQueue<>(bufferedEventQueue,
+                new ExpiringQueue.Timestamper<Event>() {
+                    @Override
+                    public long timestampOf(Event event) {
+                        return event.getTimestamp();
+                    }
+                },
+                EVENT_QUEUE_MAX_AGE_MILLIS,
+                EVENT_QUEUE_MAX_COUNT,
+                queueMetrics,
+                new ExpiringQueue.Hold() {
+                    @Override
+                    public boolean isHeld() {
+                        return replay.eventBatchSize() > 0;
+                    }
+                });
     }
 
+    /**
+     * Provides the {@link DeadLetterStore} keeping the users and events rejected by the backend.
+     * It is kept in a {@link SegmentedQueue} of JSON entries limited to
+     * {@link #DEAD_LETTER_MAX_TOTAL_BYTES}, which drops the oldest items when it is full.
+     *
+     * @param gson an instance of {@link Gson}
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged segments
+     * @param context the application {@link Context}
+     * @return an instance of {@link DeadLetterStore}
+     */
+    @Provides
+    @ConnectScope
+    static DeadLetterStore provideDeadLetterStore(Gson gson, QueueMetrics queueMetrics, Context context) {
+        SegmentedQueue<DeadLetterStore.DeadLetter> queue = new SegmentedQueue<>(
+                new File(context.getFilesDir(), CONNECT_DEAD_LETTER_DIRECTORY),
+                new ChecksumConverter<>(new GsonConverter<>(gson, DeadLetterStore.DeadLetter.class)),
+                DEAD_LETTER_MAX_SEGMENT_BYTES,
+                DEAD_LETTER_MAX_TOTAL_BYTES,
+                SegmentEvictionPolicies.<DeadLetterStore.DeadLetter>dropOldest(),
+                queueMetrics);
+        return new DeadLetterStore(queue, gson);
+    }
+
+    /**
+     * Provides the {@link BatchReplay} recording the batches to send again as they are. The batch
+     * sizes are kept in the {@link BaseStorage} so they outlive the process.
+     *
+     * @param storage an implementation of {@link BaseStorage}
+     * @return an instance of {@link BatchReplay}
+     */
+    @Provides
+    @ConnectScope
+    static BatchReplay provideBatchReplay(BaseStorage storage) {
+        return new BatchReplay(storage);
+    }
 }
@@ -0,0 +1,240 @@
+package com.zendesk.connect;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+
+import javax.inject.Inject;
+
+/**
+ * <p>
+ *     Runs work on the single threaded SDK writer, one task at a time in the order it was
+ *     submitted, so callers such as the public {@link Connect} methods return without waiting
+ *     for any disk IO.
+ * </p>
+ * <p>
+ *     At most {@code capacity} tasks submitted from background threads can be waiting at once.
+ *     Once that many are waiting, {@link #execute(Runnable)} blocks those threads until the
+ *     writer catches up rather than dropping work or running it out of order. Tasks submitted
+ *     from the writer itself are never blocked, since the writer can't wait for itself.
+ * </p>
+ * <p>
+ *     The main thread is never blocked either, since stalling the UI on disk IO is what the
+ *     writer is there to avoid. When the writer is full its tasks wait in an overflow of at most
+ *     {@code capacity} tasks instead, which is handed to the writer in order as room frees up.
+ *     Once the overflow is full too, the oldest task in it submitted with
+ *     {@link #executeDroppable(Runnable)} is dropped to make room, and counted in
+ *     {@link QueueMetrics}. Only if none of the waiting tasks can be dropped does the overflow
+ *     grow past its limit, so that users and push settings are never lost.
+ * </p>
+ */
+@ConnectScope
+class ConnectWriter implements Executor {
+
+    private static final String LOG_TAG = "ConnectWriter";
+
+    private static final int CAPACITY = 256;
+
+    private final ScheduledExecutorService executor;
+    private final int capacity;
+    private final Semaphore permits;
+    private final QueueMetrics queueMetrics;
+
+    // Tasks from the main thread waiting for room in the writer, guarded by itself
+    private final ArrayDeque<Overflow> overflow = new ArrayDeque<>();
+
+    @Nullable private final Thread mainThread;
+
+    private volatile Thread writerThread;
+
+    @Inject
+    ConnectWriter(@ConnectWriterQualifier ScheduledExecutorService executor,
+                  Context context,
+                  QueueMetrics queueMetrics) {
+        this(executor, CAPACITY, mainThread(context), queueMetrics);
+    }
+
+    /**
+     * Creates this {@link ConnectWriter}
+     *
+     * @param executor the single threaded executor the tasks run on
+     * @param capacity the maximum number of tasks waiting to run, and of tasks from the main
+     *                 thread waiting for room
+     * @param mainThread the main thread of the host app, which is never blocked, or null if
+     *                   every thread may be blocked
+     * @param queueMetrics the {@link QueueMetrics} counting the tasks dropped from the overflow
+     */
+    @VisibleForTesting
+    ConnectWriter(ScheduledExecutorService executor,
+                  int capacity,
+                  @Nullable Thread mainThread,
+                  QueueMetrics queueMetrics) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+        this.mainThread = mainThread;
+        this.queueMetrics = queueMetrics;
+    }
+
+    /**
+     * Submits a task to the writer. A background thread waits for room first if the writer is
+     * full, the main thread leaves its task in the overflow instead. A task that can't be
+     * submitted because the writer has shut down is run on the caller thread instead.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(task, false);
+    }
+
+    /**
+     * Submits a task that may be dropped if the main thread submits it, or submits more tasks
+     * after it, while both the writer and its overflow are full. Used for tracked events, which
+     * are the only work that can be lost without leaving the SDK in a wrong state.
+     *
+     * @param task the task to run
+     */
+    void executeDroppable(Runnable task) {
+        execute(task, true);
+    }
+
+    private void execute(Runnable task, boolean droppable) {
+        Thread caller = Thread.currentThread();
+        if (caller == writerThread) {
+            submit(task, false);
+        } else if (caller == mainThread) {
+            offerFromMainThread(task, droppable);
+        } else {
+            permits.acquireUninterruptibly();
+            submit(task, true);
+        }
+    }
+
+    private void offerFromMainThread(Runnable task, boolean droppable) {
+        synchronized (overflow) {
+            // Tasks already waiting go first, so the main thread's tasks keep their order
+            if (overflow.isEmpty() && permits.tryAcquire()) {
+                submit(task, true);
+                return;
+            }
+
+            if (overflow.size() >= capacity && !dropOldest()) {
+                if (droppable) {
+                    queueMetrics.onWriterOverflow();
+                    Logger.w(LOG_TAG, "Writer is full, dropping a task from the main thread");
+                    return;
+                }
+                Logger.w(LOG_TAG, "Writer is full, keeping a task from the main thread past the limit");
+            }
+            overflow.add(new Overflow(task, droppable));
+        }
+    }
+
+    /**
+     * Drops the oldest droppable task waiting in the overflow. Must hold the overflow lock.
+     *
+     * @return true if a task was dropped
+     */
+    private boolean dropOldest() {
+        Iterator<Overflow> iterator = overflow.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().droppable) {
+                iterator.remove();
+                queueMetrics.onWriterOverflow();
+                Logger.w(LOG_TAG, "Writer is full, dropping the oldest waiting task from the main thread");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands tasks waiting in the overflow to the writer while it has room
+     */
+    private void drainOverflow() {
+        synchronized (overflow) {
+            while (!overflow.isEmpty() && permits.tryAcquire()) {
+                submit(overflow.poll().task, true);
+            }
+        }
+    }
+
+    private void submit(final Runnable task, final boolean bounded) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writerThread = Thread.currentThread();
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Logger.e(LOG_TAG, "Writer task failed", e);
+                    } finally {
+                        if (bounded) {
+                            permits.release();
+                            drainOverflow();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (bounded) {
+                permits.release();
+            }
+            Logger.w(LOG_TAG, "Writer is not running, running task on the caller thread", e);
+            task.run();
+        }
+    }
+
+    @Nullable
+    private static Thread mainThread(Context context) {
+        Looper looper = context.getMainLooper();
+        return looper != null ? looper.getThread() : null;
+    }
+
+    /**
+     * Gets the number of tasks holding a slot in the writer that haven't finished yet. Tasks
+     * waiting in the overflow aren't counted.
+     *
+     * @return the number of pending tasks
+     */
+    @VisibleForTesting
+    int pendingCount() {
+        return capacity - permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of tasks from the main thread waiting for room in the writer
+     *
+     * @return the number of tasks in the overflow
+     */
+    @VisibleForTesting
+    int overflowCount() {
+        synchronized (overflow) {
+            return overflow.size();
+        }
+    }
+
+    private static final class Overflow {
+
+        private final Runnable task;
+        private final boolean droppable;
+
+        Overflow(Runnable task, boolean droppable) {
+            this.task = task;
+            this.droppable = droppable;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.zendesk.connect;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import javax.inject.Qualifier;
+
+/**
+ * {@link Qualifier} to be used when providing or requiring as a dependency the single threaded
+ * executor the SDK uses for its background disk writes.
+ */
+@Qualifier
+@Retention(RetentionPolicy.RUNTIME)
+@interface ConnectWriterQualifier {
+}
@@ -0,0 +1,117 @@
+package com.zendesk.connect;
+
+import com.google.gson.Gson;
+import com.zendesk.logger.Logger;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * <p>
+ *     Keeps the users and events the backend rejected as invalid, so a single bad item is set
+ *     aside instead of blocking the queue it came from.
+ * </p>
+ * <p>
+ *     Each item is stored as the JSON that was sent, with the status code it was rejected with.
+ *     The store is bounded by its queue, which drops the oldest items when it is full.
+ * </p>
+ */
+class DeadLetterStore {
+
+    private static final String LOG_TAG = "DeadLetterStore";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String TYPE_USER = "user";
+    static final String TYPE_EVENT = "event";
+
+    private final BaseQueue<DeadLetter> queue;
+    private final Gson gson;
+
+    /**
+     * Creates this {@link DeadLetterStore}
+     *
+     * @param queue the queue the rejected items are kept in
+     * @param gson the {@link Gson} used to write the rejected items as JSON
+     */
+    DeadLetterStore(BaseQueue<DeadLetter> queue, Gson gson) {
+        this.queue = queue;
+        this.gson = gson;
+    }
+
+    /**
+     * Stores a rejected item
+     *
+     * @param type the type of the item, {@link #TYPE_USER} or {@link #TYPE_EVENT}
+     * @param status the status code the item was rejected with
+     * @param item the item, or the UTF-8 JSON of the item as a byte array
+     */
+    void add(String type, int status, Object item) {
+        String payload = item instanceof byte[]
+                ? new String((byte[]) item, UTF_8)
+                : gson.toJson(item);
+        queue.add(new DeadLetter(type, status, System.currentTimeMillis(), payload));
+        Logger.w(LOG_TAG, "The backend rejected a queued %s with status %d, it won't be sent again",
+                type, status);
+    }
+
+    /**
+     * Gets the number of stored items
+     *
+     * @return the number of items in the store
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the oldest stored items
+     *
+     * @param max the maximum number of items to get
+     * @return the stored items, oldest first
+     */
+    List<DeadLetter> peek(int max) {
+        return queue.peek(max);
+    }
+
+    /**
+     * Removes every stored item
+     */
+    void clear() {
+        queue.clear();
+    }
+
+    /**
+     * An item rejected by the backend
+     */
+    static final class DeadLetter {
+
+        private final String type;
+        private final int status;
+        private final long timestamp;
+        private final String payload;
+
+        DeadLetter(String type, int status, long timestamp, String payload) {
+            this.type = type;
+            this.status = status;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        String getPayload() {
+            return payload;
+        }
+    }
+}
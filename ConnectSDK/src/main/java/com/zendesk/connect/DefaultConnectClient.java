@@ -31,27 +31,37 @@ class DefaultConnectClient implements ConnectClient {
     private StorageController storageController;
     private BaseQueue<User> userQueue;
     private BaseQueue<Event> eventQueue;
-    private ConnectScheduler scheduler;
+    private FlushPolicy flushPolicy;
     private PushProvider pushProvider;
     private ConnectInstanceId instanceId;
+    private ConnectWriter writer;
+    private EventGate eventGate;
 
     @Inject
     DefaultConnectClient(StorageController storageController,
                          BaseQueue<User> userQueue,
                          BaseQueue<Event> eventQueue,
-                         ConnectScheduler scheduler,
+                         FlushPolicy flushPolicy,
                          PushProvider pushProvider,
-                         ConnectInstanceId instanceId) {
+                         ConnectInstanceId instanceId,
+                         ConnectWriter writer,
+                         EventGate eventGate) {
         this.storageController = storageController;
         this.userQueue = userQueue;
         this.eventQueue = eventQueue;
-        this.scheduler = scheduler;
+        this.flushPolicy = flushPolicy;
         this.pushProvider = pushProvider;
         this.instanceId = instanceId;
+        this.writer = writer;
+        this.eventGate = eventGate;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     *     The user is stored straight away, so events tracked after this call are attributed to
+     *     it. It is queued once its push token has been fetched, on the {@link ConnectWriter}.
+     * </p>
      *
      * @param user the user to be identified
      */
@@ -64,24 +74,41 @@ class DefaultConnectClient implements ConnectClient {
 
         final UserBuilder userBuilder = UserBuilder.newBuilder(user);
 
+        storageController.saveUser(user);
+
         OnSuccessListener<InstanceIdResult> successListener = new OnSuccessListener<InstanceIdResult>() {
             @Override
             public void onSuccess(InstanceIdResult instanceIdResult) {
                 userBuilder.setFcmToken(instanceIdResult.getToken());
-                persistUser(userBuilder.build());
+                persistUserOnWriter(userBuilder.build());
             }
         };
 
         OnFailureListener failureListener = new OnFailureListener() {
             @Override
             public void onFailure(@NonNull Exception e) {
-                persistUser(user);
+                persistUserOnWriter(user);
             }
         };
 
         instanceId.getToken(successListener, failureListener);
     }
 
+    /**
+     * Persists the given user on the {@link ConnectWriter}, since token callbacks are delivered
+     * on the main thread
+     *
+     * @param user the {@link User} to be stored and queued
+     */
+    private void persistUserOnWriter(final User user) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                persistUser(user);
+            }
+        });
+    }
+
     /**
      * Stores the given user into storageController and queues the user for processing
      *
@@ -90,8 +117,8 @@ class DefaultConnectClient implements ConnectClient {
     private void persistUser(User user) {
         Logger.d(LOG_TAG, "Identifying user: %s", user.getUserId());
         storageController.saveUser(user);
-        userQueue.add(user);
-        scheduler.scheduleQueuedNetworkRequests();
+        userQueue.addAsync(user);
+        flushPolicy.onQueued(FlushPolicy.USER_SIZE_BYTES);
     }
 
     /**
@@ -100,6 +127,10 @@ class DefaultConnectClient implements ConnectClient {
      *     The currently active user's id will be attached to the given {@link Event}. If there
      *     is no active user, then an anonymous user will be identified and attached to the event.
      * </p>
+     * <p>
+     *     Events dropped by the sample rate or rate limit configured for their name by the
+     *     {@link EventGate} are never queued.
+     * </p>
      */
     @Override
     public void trackEvent(Event event) {
@@ -108,6 +139,11 @@ class DefaultConnectClient implements ConnectClient {
             return;
         }
 
+        if (!eventGate.admit(event.getEvent())) {
+            Logger.d(LOG_TAG, "Dropping event %s, it is over its configured limit", event.getEvent());
+            return;
+        }
+
         User activeUser = storageController.getUser();
 
         // If there is no active user then we identify an anonymous user
@@ -123,8 +159,8 @@ class DefaultConnectClient implements ConnectClient {
 
         Logger.d(LOG_TAG, "Tracking event: %s", eventToTrack.toString());
 
-        eventQueue.add(eventToTrack);
-        scheduler.scheduleQueuedNetworkRequests();
+        eventQueue.addAsync(eventToTrack);
+        flushPolicy.onQueued(FlushPolicy.estimateSize(eventToTrack));
     }
 
     @Override
@@ -208,7 +244,7 @@ class DefaultConnectClient implements ConnectClient {
 
     @Override
     public void disablePush() {
-        final User activeUser = getUser();
+        final User activeUser = storageController.getUser();
         PushRegistration unregistration = createPushUnregistration(activeUser);
 
         if (unregistration != null) {
@@ -310,10 +346,18 @@ class DefaultConnectClient implements ConnectClient {
         eventQueue.clear();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The active user is shared and can't be changed, so a copy is returned that the host
+     *     app is free to change.
+     * </p>
+     */
     @Override
     @Nullable
     public User getUser() {
-        return storageController.getUser();
+        User activeUser = storageController.getUser();
+        return activeUser == null ? null : UserBuilder.copyOf(activeUser);
     }
 
     /**
@@ -0,0 +1,41 @@
+package com.zendesk.connect;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link BinaryConverter} for {@link Event} objects. The user id and event name are written
+ * as dictionary symbols since they repeat across almost every queued event.
+ */
+class EventBinaryConverter extends BinaryConverter<Event> {
+
+    /**
+     * Creates this {@link EventBinaryConverter}
+     *
+     * @param gson an instance of {@link Gson}
+     * @param dictionary the {@link QueueDictionary} of the event queue file
+     */
+    EventBinaryConverter(Gson gson, QueueDictionary dictionary) {
+        super(gson, dictionary);
+    }
+
+    @Override
+    void write(Event event, EntryWriter writer) throws IOException {
+        writer.writeSymbol(event.getUserId());
+        writer.writeSymbol(event.getEvent());
+        writer.writeValue(event.getProperties());
+        writer.writeLong(event.getTimestamp());
+    }
+
+    @Override
+    Event read(EntryReader reader) throws IOException {
+        String userId = reader.readString();
+        String eventName = reader.readString();
+        Map<String, Object> properties = reader.readMap();
+        long timestamp = reader.readLong();
+
+        return new Event(userId, eventName, properties, timestamp);
+    }
+}
@@ -0,0 +1,183 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+/**
+ * <p>
+ *     Decides whether a tracked {@link Event} is kept, using the {@link EventLimit}s delivered in
+ *     the {@link AccountConfig}. Events without a limit are always kept.
+ * </p>
+ * <p>
+ *     A sample rate keeps that fraction of the events with a name, spread evenly: a rate of
+ *     0.25 keeps every fourth event. A maximum per minute is enforced by a token bucket that
+ *     holds up to {@code burst} events, so short bursts get through while the average stays
+ *     within the limit. Dropped events are counted in the {@link QueueMetrics}.
+ * </p>
+ * <p>
+ *     The limits are read from the stored {@link Config} the first time they are needed and
+ *     again on {@link #reload()}. In between, {@link #admit(String)} doesn't lock or touch
+ *     storage: it reads an immutable map of rules and updates each rule with atomic operations.
+ * </p>
+ */
+@ConnectScope
+class EventGate {
+
+    private static final String LOG_TAG = "EventGate";
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final StorageController storageController;
+    private final QueueMetrics queueMetrics;
+
+    private volatile Map<String, Rule> rules;
+
+    @Inject
+    EventGate(StorageController storageController, QueueMetrics queueMetrics) {
+        this.storageController = storageController;
+        this.queueMetrics = queueMetrics;
+    }
+
+    /**
+     * Decides whether an event should be tracked
+     *
+     * @param eventName the name of the event
+     * @return true if the event should be queued, false if it should be dropped
+     */
+    boolean admit(@Nullable String eventName) {
+        return admit(eventName, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    boolean admit(@Nullable String eventName, long nowNanos) {
+        Map<String, Rule> current = rules;
+        if (current == null) {
+            current = reload();
+        }
+
+        Rule rule = eventName != null ? current.get(eventName) : null;
+        if (rule == null) {
+            return true;
+        }
+
+        if (!rule.sample()) {
+            queueMetrics.onSampled();
+            return false;
+        }
+        if (!rule.acquire(nowNanos)) {
+            queueMetrics.onRateLimited();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the limits from the stored {@link Config}. A rule whose limit hasn't changed keeps
+     * its state, so a config refresh doesn't hand out a fresh burst.
+     *
+     * @return the rules now in use
+     */
+    Map<String, Rule> reload() {
+        Config config = storageController.getConfig();
+        List<EventLimit> limits = config != null && config.getAccount() != null
+                ? config.getAccount().getEventLimits()
+                : null;
+
+        Map<String, Rule> previous = rules;
+        Map<String, Rule> updated = new HashMap<>();
+        if (limits != null) {
+            for (EventLimit limit : limits) {
+                if (limit == null || limit.getEvent() == null) {
+                    continue;
+                }
+                Rule rule = previous != null ? previous.get(limit.getEvent()) : null;
+                updated.put(limit.getEvent(),
+                        rule != null && rule.limit.equals(limit) ? rule : new Rule(limit));
+            }
+        }
+
+        Logger.d(LOG_TAG, "Loaded limits for %d events", updated.size());
+        Map<String, Rule> loaded = Collections.unmodifiableMap(updated);
+        rules = loaded;
+        return loaded;
+    }
+
+    /**
+     * The sampling and rate limiting state for one event name.
+     */
+    static final class Rule {
+
+        private final EventLimit limit;
+        private final double sampleRate;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        private final AtomicLong seen = new AtomicLong();
+        // Token bucket kept as the time the bucket will next be full, so one CAS updates it
+        private final AtomicLong fullAtNanos = new AtomicLong(Long.MIN_VALUE);
+
+        Rule(EventLimit limit) {
+            this.limit = limit;
+
+            Double rate = limit.getSampleRate();
+            sampleRate = rate == null ? 1 : Math.max(0, Math.min(1, rate));
+
+            Integer maxPerMinute = limit.getMaxPerMinute();
+            Integer burst = limit.getBurst();
+            if (maxPerMinute != null && maxPerMinute > 0) {
+                intervalNanos = NANOS_PER_MINUTE / maxPerMinute;
+                toleranceNanos = intervalNanos * (Math.max(burst != null ? burst : 1, 1) - 1);
+            } else {
+                intervalNanos = 0;
+                toleranceNanos = 0;
+            }
+        }
+
+        /**
+         * Counts an event against the sample rate
+         *
+         * @return true if the event is part of the sample
+         */
+        boolean sample() {
+            if (sampleRate >= 1) {
+                return true;
+            }
+            // Keeps the events where the running total of the rate crosses a whole number
+            long count = seen.getAndIncrement();
+            return (long) ((count + 1) * sampleRate) > (long) (count * sampleRate);
+        }
+
+        /**
+         * Takes a token from the bucket
+         *
+         * @param nowNanos the current time in nanoseconds
+         * @return true if a token was available
+         */
+        boolean acquire(long nowNanos) {
+            if (intervalNanos == 0) {
+                return true;
+            }
+            while (true) {
+                long fullAt = fullAtNanos.get();
+                long start = Math.max(fullAt, nowNanos);
+                if (start - nowNanos > toleranceNanos) {
+                    return false;
+                }
+                if (fullAtNanos.compareAndSet(fullAt, start + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.zendesk.connect;
+
+import com.zendesk.logger.Logger;
+
+import java.util.List;
+
+/**
+ * <p>
+ *     {@link BaseQueue} that drops stale objects before they are read for upload. Objects
+ *     older than a maximum age are expired, and so are the oldest objects beyond a maximum
+ *     count. Expired objects are reported to {@link QueueMetrics#onExpired(int)}.
+ * </p>
+ * <p>
+ *     Expiry runs whenever objects are read, never when they are added. Objects are expected
+ *     to be queued roughly in order of their timestamps, so only the oldest objects are
+ *     checked. Once the oldest object is known to be fresh, nothing is decoded again until it
+ *     would have expired, so reading a queue with nothing to expire costs no more than reading
+ *     its delegate.
+ * </p>
+ * <p>
+ *     Nothing is expired while the {@link Hold} says the head of the queue has to stay as it
+ *     is, such as while a failed batch waits to be sent again by the {@link BatchReplay}.
+ *     Dropping part of that batch would change its body and so its idempotency key.
+ * </p>
+ *
+ * @param <T> the type of the queued objects
+ */
+class ExpiringQueue<T> implements BaseQueue<T> {
+
+    private static final String LOG_TAG = "ExpiringQueue";
+
+    private static final int EXPIRY_BATCH_SIZE = 50;
+
+    /**
+     * Gets the time at which a queued object was created.
+     *
+     * @param <T> the type of the queued objects
+     */
+    interface Timestamper<T> {
+
+        /**
+         * Gets the timestamp of the given object
+         *
+         * @param object a queued object
+         * @return the time the object was created, in milliseconds since the epoch
+         */
+        long timestampOf(T object);
+    }
+
+    /**
+     * Tells whether the oldest queued objects must be left as they are for now.
+     */
+    interface Hold {
+
+        /**
+         * Checks whether expiry should wait
+         *
+         * @return true if no object may be dropped yet
+         */
+        boolean isHeld();
+    }
+
+    private static final Hold NEVER_HELD = new Hold() {
+        @Override
+        public boolean isHeld() {
+            return false;
+        }
+    };
+
+    private final BaseQueue<T> delegate;
+    private final Timestamper<T> timestamper;
+    private final long maxAgeMillis;
+    private final int maxCount;
+    private final QueueMetrics queueMetrics;
+    private final Hold hold;
+
+    // The oldest queued object doesn't expire before this time
+    private long freshUntilMillis;
+
+    /**
+     * Creates this {@link ExpiringQueue}
+     *
+     * @param delegate the {@link BaseQueue} holding the queued objects
+     * @param timestamper the {@link Timestamper} giving the age of queued objects
+     * @param maxAgeMillis the maximum age of a queued object in milliseconds
+     * @param maxCount the maximum number of queued objects
+     * @param queueMetrics the {@link QueueMetrics} the expired objects are reported to
+     */
+    ExpiringQueue(BaseQueue<T> delegate,
+                  Timestamper<T> timestamper,
+                  long maxAgeMillis,
+                  int maxCount,
+                  QueueMetrics queueMetrics) {
+        this(delegate, timestamper, maxAgeMillis, maxCount, queueMetrics, NEVER_HELD);
+    }
+
+    /**
+     * Creates this {@link ExpiringQueue}
+     *
+     * @param delegate the {@link BaseQueue} holding the queued objects
+     * @param timestamper the {@link Timestamper} giving the age of queued objects
+     * @param maxAgeMillis the maximum age of a queued object in milliseconds
+     * @param maxCount the maximum number of queued objects
+     * @param queueMetrics the {@link QueueMetrics} the expired objects are reported to
+     * @param hold the {@link Hold} telling when expiry has to wait
+     */
+    ExpiringQueue(BaseQueue<T> delegate,
+                  Timestamper<T> timestamper,
+                  long maxAgeMillis,
+                  int maxCount,
+                  QueueMetrics queueMetrics,
+                  Hold hold) {
+        this.delegate = delegate;
+        this.timestamper = timestamper;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxCount = maxCount;
+        this.queueMetrics = queueMetrics;
+        this.hold = hold;
+    }
+
+    @Override
+    public void add(T object) {
+        delegate.add(object);
+    }
+
+    @Override
+    public void addAsync(T object) {
+        delegate.addAsync(object);
+    }
+
+    @Override
+    public void addAll(List<T> objects) {
+        delegate.addAll(objects);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public synchronized T peek() {
+        expire();
+        return delegate.peek();
+    }
+
+    @Override
+    public synchronized List<T> peek(int max) {
+        expire();
+        return delegate.peek(max);
+    }
+
+    @Override
+    public synchronized List<byte[]> peekJson(int max) {
+        expire();
+        return delegate.peekJson(max);
+    }
+
+    @Override
+    public synchronized QueueCursor<T> cursor(int maxCount, long maxBytes) {
+        expire();
+        return delegate.cursor(maxCount, maxBytes);
+    }
+
+    @Override
+    public synchronized void remove(int max) {
+        delegate.remove(max);
+    }
+
+    @Override
+    public synchronized void clear() {
+        freshUntilMillis = 0;
+        delegate.clear();
+    }
+
+    /**
+     * Drops the oldest objects beyond the maximum count, then any objects past the maximum age,
+     * unless the {@link Hold} asks to wait.
+     */
+    private void expire() {
+        if (hold.isHeld()) {
+            return;
+        }
+        int expired = 0;
+
+        int excess = delegate.size() - maxCount;
+        if (excess > 0) {
+            delegate.remove(excess);
+            expired += excess;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= freshUntilMillis) {
+            expired += expireOlderThan(now - maxAgeMillis);
+        }
+
+        if (expired > 0) {
+            Logger.d(LOG_TAG, "Expired %d queued objects", expired);
+            queueMetrics.onExpired(expired);
+        }
+    }
+
+    /**
+     * Drops objects from the head of the queue until one is newer than the cut off.
+     *
+     * @param cutOffMillis objects with an older timestamp are dropped
+     * @return the number of dropped objects
+     */
+    private int expireOlderThan(long cutOffMillis) {
+        int expired = 0;
+        while (true) {
+            List<T> oldest = delegate.peek(EXPIRY_BATCH_SIZE);
+            if (oldest == null || oldest.isEmpty()) {
+                freshUntilMillis = 0;
+                return expired;
+            }
+
+            int checked = oldest.size();
+            int stale = 0;
+            for (T object : oldest) {
+                // An object that can't be read will never be sent, so it may as well go now
+                if (object != null) {
+                    long timestamp = timestamper.timestampOf(object);
+                    if (timestamp >= cutOffMillis) {
+                        freshUntilMillis = timestamp + maxAgeMillis;
+                        break;
+                    }
+                }
+                stale++;
+            }
+
+            int sizeBefore = delegate.size();
+            delegate.remove(stale);
+            expired += stale;
+            if (stale < checked || delegate.size() >= sizeBefore) {
+                return expired;
+            }
+        }
+    }
+}
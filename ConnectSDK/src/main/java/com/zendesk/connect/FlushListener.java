@@ -0,0 +1,17 @@
+package com.zendesk.connect;
+
+/**
+ * Defines a callback that is invoked each time the SDK has tried to upload its queued users and
+ * events. Set one with {@link Connect#setFlushListener(FlushListener)}.
+ */
+public interface FlushListener {
+
+    /**
+     * Invoked on a background thread once an upload has finished. Implementations should return
+     * quickly, since they run on the thread that uploads the queues.
+     *
+     * @param report the {@link FlushReport} describing the upload
+     */
+    void onFlush(FlushReport report);
+
+}
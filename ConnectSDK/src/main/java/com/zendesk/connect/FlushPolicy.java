@@ -0,0 +1,300 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import com.zendesk.logger.Logger;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     Decides when the queued users and events are worth uploading, so the upload work is
+ *     scheduled with the {@link ConnectScheduler} once per group of items rather than once per
+ *     item.
+ * </p>
+ * <p>
+ *     Items queued since the last upload are counted, along with an estimate of their size.
+ *     The upload is scheduled as soon as {@code maxItems} items or {@code maxBytes} bytes are
+ *     waiting, or once the first of them has waited for {@code maxLatencyMillis}, whichever
+ *     comes first. {@link #flush()} schedules it straight away, for when the process may be
+ *     killed soon.
+ * </p>
+ * <p>
+ *     Every item is on disk by the time the upload runs, and the counts and timer here only
+ *     live in memory. So when the first item of a group is queued, a backstop upload is
+ *     scheduled with the {@link ConnectScheduler} to run after {@code maxLatencyMillis}, and the
+ *     policy only ever brings it forward. If the process dies while items are waiting, the
+ *     backstop still sends them.
+ * </p>
+ * <p>
+ *     While the host app is in the foreground with a network available the policy is live:
+ *     items are sent in-process by the {@link QueuedRequestsFlusher} once the first of them has
+ *     waited for {@code liveLatencyMillis}, skipping the scheduling delay of WorkManager. When
+ *     it stops being live, the upload is scheduled with the {@link ConnectScheduler} if any items
+ *     were queued since the last one, to send whatever the in-process uploads left behind.
+ * </p>
+ */
+class FlushPolicy {
+
+    private static final String LOG_TAG = "FlushPolicy";
+
+    // Rough size of the JSON around an event's name and properties
+    private static final int EVENT_OVERHEAD_BYTES = 96;
+    private static final int PROPERTY_OVERHEAD_BYTES = 6;
+
+    // Users carry a handful of short fields, so they are counted at a fixed size
+    static final long USER_SIZE_BYTES = 512;
+
+    private final ConnectScheduler scheduler;
+    private final QueuedRequestsFlusher flusher;
+    private final ScheduledExecutorService timer;
+    private final int maxItems;
+    private final long maxBytes;
+    private final long maxLatencyMillis;
+    private final long liveLatencyMillis;
+
+    private int pendingItems;
+    private long pendingBytes;
+    @Nullable private ScheduledFuture<?> pendingTimer;
+
+    private boolean foreground;
+    // Assumed until a network callback says otherwise, a failed upload is retried by the worker
+    private boolean networkAvailable = true;
+    private boolean sentLive;
+
+    private int queuedCount;
+    private int scheduledCount;
+    private int savedCount;
+    private int liveCount;
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (FlushPolicy.this) {
+                pendingTimer = null;
+                scheduleUpload();
+            }
+        }
+    };
+
+    /**
+     * Creates this {@link FlushPolicy}
+     *
+     * @param scheduler the {@link ConnectScheduler} the upload is scheduled with
+     * @param flusher the {@link QueuedRequestsFlusher} sending the queues while live
+     * @param timer the executor running the latency timer
+     * @param maxItems the number of waiting items that triggers an upload
+     * @param maxBytes the estimated size of the waiting items that triggers an upload
+     * @param maxLatencyMillis the longest an item waits before an upload is triggered
+     * @param liveLatencyMillis the longest an item waits before an upload is triggered while live
+     */
+    FlushPolicy(ConnectScheduler scheduler,
+                QueuedRequestsFlusher flusher,
+                ScheduledExecutorService timer,
+                int maxItems,
+                long maxBytes,
+                long maxLatencyMillis,
+                long liveLatencyMillis) {
+        this.scheduler = scheduler;
+        this.flusher = flusher;
+        this.timer = timer;
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.liveLatencyMillis = liveLatencyMillis;
+    }
+
+    /**
+     * Records a newly queued item, scheduling the upload if a threshold has been crossed
+     *
+     * @param estimatedBytes the estimated size of the item
+     */
+    synchronized void onQueued(long estimatedBytes) {
+        queuedCount++;
+        pendingItems++;
+        pendingBytes += Math.max(estimatedBytes, 0);
+
+        if (pendingItems == 1) {
+            scheduler.scheduleQueuedNetworkBackstop(maxLatencyMillis);
+        }
+
+        if (pendingItems >= maxItems || pendingBytes >= maxBytes) {
+            scheduleUpload();
+        } else {
+            if (pendingItems > 1) {
+                savedCount++;
+            }
+            if (pendingTimer == null) {
+                startTimer();
+            }
+        }
+    }
+
+    /**
+     * Schedules the upload straight away if any item is waiting
+     */
+    synchronized void flush() {
+        scheduleUpload();
+    }
+
+    /**
+     * Records whether the host app is in the foreground
+     *
+     * @param foreground true if the host app is in the foreground
+     */
+    synchronized void setForeground(boolean foreground) {
+        boolean wasLive = isLive();
+        this.foreground = foreground;
+        onModeChanged(wasLive);
+    }
+
+    /**
+     * Records whether a network with internet access is available
+     *
+     * @param networkAvailable true if a network is available
+     */
+    synchronized void setNetworkAvailable(boolean networkAvailable) {
+        boolean wasLive = isLive();
+        this.networkAvailable = networkAvailable;
+        onModeChanged(wasLive);
+    }
+
+    /**
+     * Gets whether queued items are currently sent in-process
+     *
+     * @return true if the policy is live
+     */
+    synchronized boolean isLive() {
+        return foreground && networkAvailable && liveLatencyMillis > 0;
+    }
+
+    /**
+     * Gets the number of items recorded by {@link #onQueued(long)}
+     *
+     * @return the number of queued items
+     */
+    synchronized int queuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Gets the number of times the upload was scheduled to run straight away
+     *
+     * @return the number of scheduled uploads
+     */
+    synchronized int scheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * Gets the number of queued items that joined a waiting group without scheduling anything,
+     * neither a backstop nor an upload, where scheduling one upload per item would have
+     *
+     * @return the number of saved schedules
+     */
+    synchronized int savedCount() {
+        return savedCount;
+    }
+
+    /**
+     * Gets the number of uploads sent in-process while live
+     *
+     * @return the number of live uploads
+     */
+    synchronized int liveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Estimates the size of an {@link Event} once it is written as JSON, without writing it
+     *
+     * @param event the event
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(Event event) {
+        long size = EVENT_OVERHEAD_BYTES;
+        if (event.getEvent() != null) {
+            size += event.getEvent().length();
+        }
+        Map<String, Object> properties = event.getProperties();
+        if (properties != null) {
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                size += PROPERTY_OVERHEAD_BYTES
+                        + String.valueOf(property.getKey()).length()
+                        + String.valueOf(property.getValue()).length();
+            }
+        }
+        return size;
+    }
+
+    private void onModeChanged(boolean wasLive) {
+        boolean live = isLive();
+        if (live == wasLive) {
+            return;
+        }
+
+        Logger.d(LOG_TAG, live
+                ? "Sending queued items in-process"
+                : "Leaving queued items to the worker");
+        if (!live && sentLive) {
+            // Hand anything the in-process uploads didn't send over to the worker
+            scheduleWorker();
+        } else if (pendingTimer != null) {
+            // Restart the timer with the latency of the new mode
+            pendingTimer.cancel(false);
+            pendingTimer = null;
+            startTimer();
+        }
+    }
+
+    private void startTimer() {
+        long latencyMillis = isLive() ? liveLatencyMillis : maxLatencyMillis;
+        try {
+            pendingTimer = timer.schedule(timedFlush, latencyMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Logger.w(LOG_TAG, "Timer is unavailable, scheduling the upload straight away");
+            scheduleUpload();
+        }
+    }
+
+    private void scheduleUpload() {
+        if (pendingTimer != null) {
+            pendingTimer.cancel(false);
+            pendingTimer = null;
+        }
+        if (pendingItems == 0) {
+            return;
+        }
+
+        if (!isLive()) {
+            scheduleWorker();
+            return;
+        }
+
+        Logger.d(LOG_TAG, "Sending %d items in-process", pendingItems);
+        pendingItems = 0;
+        pendingBytes = 0;
+        liveCount++;
+        sentLive = true;
+        flusher.flushAsync(FlushReport.Trigger.FOREGROUND);
+    }
+
+    private void scheduleWorker() {
+        if (pendingTimer != null) {
+            pendingTimer.cancel(false);
+            pendingTimer = null;
+        }
+
+        Logger.d(LOG_TAG, "Scheduling upload of %d items, %d schedules saved so far",
+                pendingItems, savedCount);
+        pendingItems = 0;
+        pendingBytes = 0;
+        sentLive = false;
+        scheduledCount++;
+        scheduler.scheduleQueuedNetworkRequests();
+    }
+}
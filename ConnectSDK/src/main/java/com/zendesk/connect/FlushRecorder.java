@@ -0,0 +1,89 @@
+package com.zendesk.connect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects what happens during a run of the {@link QueuedRequestsJobProcessor} into a
+ * {@link FlushReport}. Requests are recorded from whichever thread sent them.
+ */
+class FlushRecorder {
+
+    private final long startTimeMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private final List<FlushReport.Request> requests = new ArrayList<>();
+    private int usersSent;
+    private int eventsSent;
+    private int usersSetAside;
+    private int eventsSetAside;
+
+    /**
+     * Records a request that got a response or failed to get one
+     *
+     * @param queue the queue the items in the request came from
+     * @param itemCount the number of items in the request
+     * @param bytes the size of the request body, or -1 if it isn't known
+     * @param latencyNanos how long the request took
+     * @param statusCode the status code of the response, or {@link FlushReport#NO_RESPONSE}
+     * @param retry whether the items had already been sent by an earlier request
+     */
+    synchronized void onRequest(FlushReport.Queue queue,
+                                int itemCount,
+                                long bytes,
+                                long latencyNanos,
+                                int statusCode,
+                                boolean retry) {
+        requests.add(new FlushReport.Request(queue, itemCount, bytes,
+                TimeUnit.NANOSECONDS.toMillis(latencyNanos), statusCode, retry));
+    }
+
+    /**
+     * Records items accepted by the backend
+     *
+     * @param queue the queue the items came from
+     * @param count the number of items
+     */
+    synchronized void onAccepted(FlushReport.Queue queue, int count) {
+        if (queue == FlushReport.Queue.USERS) {
+            usersSent += count;
+        } else {
+            eventsSent += count;
+        }
+    }
+
+    /**
+     * Records an item the backend rejected as invalid
+     *
+     * @param queue the queue the item came from
+     */
+    synchronized void onSetAside(FlushReport.Queue queue) {
+        if (queue == FlushReport.Queue.USERS) {
+            usersSetAside++;
+        } else {
+            eventsSetAside++;
+        }
+    }
+
+    /**
+     * Creates the {@link FlushReport} of everything recorded so far
+     *
+     * @param trigger what started the run
+     * @param usersRemaining the number of users still queued
+     * @param eventsRemaining the number of events still queued
+     * @param backoffMillis the time left to wait before sending again
+     * @param queueMetrics the {@link QueueMetrics} of the queues that were sent
+     * @return the report
+     */
+    synchronized FlushReport report(FlushReport.Trigger trigger,
+                                    int usersRemaining,
+                                    int eventsRemaining,
+                                    long backoffMillis,
+                                    QueueMetrics queueMetrics) {
+        return new FlushReport(trigger, startTimeMillis,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                new ArrayList<>(requests), usersSent, eventsSent, usersSetAside, eventsSetAside,
+                usersRemaining, eventsRemaining, backoffMillis, queueMetrics);
+    }
+}
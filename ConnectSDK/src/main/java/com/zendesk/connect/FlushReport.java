@@ -0,0 +1,360 @@
+package com.zendesk.connect;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ *     A record of one attempt to upload the queued users and events, passed to a
+ *     {@link FlushListener}.
+ * </p>
+ * <p>
+ *     Sizes are the sizes of the request bodies as sent. A run that was started while the SDK
+ *     was waiting after a failed request sends nothing, and reports the time left to wait in
+ *     {@link #getBackoffMillis()}.
+ * </p>
+ * <p>
+ *     Every report also carries counts of the users and events the SDK has lost or dropped on
+ *     the device since the process started, such as damaged queue files, expired events and
+ *     events left out by sampling or rate limits.
+ * </p>
+ */
+public final class FlushReport {
+
+    /**
+     * Status code of a request that got no response, for example because the network was down
+     */
+    public static final int NO_RESPONSE = -1;
+
+    /**
+     * What started an upload
+     */
+    public enum Trigger {
+        /**
+         * The upload was scheduled with WorkManager
+         */
+        WORKER,
+        /**
+         * The host app was backgrounded and the upload ran in-process
+         */
+        APP_BACKGROUNDED,
+        /**
+         * A network became available and the upload ran in-process
+         */
+        NETWORK_AVAILABLE,
+        /**
+         * Items were queued while the host app was in the foreground and the upload ran
+         * in-process shortly after
+         */
+        FOREGROUND
+    }
+
+    /**
+     * The queue a request was sent from
+     */
+    public enum Queue {
+        USERS,
+        EVENTS
+    }
+
+    /**
+     * A single request made during an upload
+     */
+    public static final class Request {
+
+        private final Queue queue;
+        private final int itemCount;
+        private final long bytes;
+        private final long latencyMillis;
+        private final int statusCode;
+        private final boolean retry;
+
+        Request(Queue queue, int itemCount, long bytes, long latencyMillis, int statusCode, boolean retry) {
+            this.queue = queue;
+            this.itemCount = itemCount;
+            this.bytes = bytes;
+            this.latencyMillis = latencyMillis;
+            this.statusCode = statusCode;
+            this.retry = retry;
+        }
+
+        /**
+         * @return the queue the items in the request came from
+         */
+        public Queue getQueue() {
+            return queue;
+        }
+
+        /**
+         * @return the number of users or events in the request
+         */
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        /**
+         * @return the size of the request body in bytes, or -1 if it isn't known
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the time from sending the request to receiving the response in milliseconds
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * @return the HTTP status code of the response, or {@link #NO_RESPONSE}
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return true if the items in the request had already been sent by an earlier request,
+         *         which failed or rejected other items sent with them
+         */
+        public boolean isRetry() {
+            return retry;
+        }
+    }
+
+    private final Trigger trigger;
+    private final long startTimeMillis;
+    private final long durationMillis;
+    private final List<Request> requests;
+    private final int usersSent;
+    private final int eventsSent;
+    private final int usersSetAside;
+    private final int eventsSetAside;
+    private final int usersRemaining;
+    private final int eventsRemaining;
+    private final long backoffMillis;
+    private final int recoveredFiles;
+    private final int salvagedItems;
+    private final int droppedItems;
+    private final int expiredEvents;
+    private final int sampledEvents;
+    private final int rateLimitedEvents;
+    private final int overflowedEvents;
+
+    FlushReport(Trigger trigger,
+                long startTimeMillis,
+                long durationMillis,
+                List<Request> requests,
+                int usersSent,
+                int eventsSent,
+                int usersSetAside,
+                int eventsSetAside,
+                int usersRemaining,
+                int eventsRemaining,
+                long backoffMillis,
+                QueueMetrics queueMetrics) {
+        this.trigger = trigger;
+        this.startTimeMillis = startTimeMillis;
+        this.durationMillis = durationMillis;
+        this.requests = Collections.unmodifiableList(requests);
+        this.usersSent = usersSent;
+        this.eventsSent = eventsSent;
+        this.usersSetAside = usersSetAside;
+        this.eventsSetAside = eventsSetAside;
+        this.usersRemaining = usersRemaining;
+        this.eventsRemaining = eventsRemaining;
+        this.backoffMillis = backoffMillis;
+        this.recoveredFiles = queueMetrics.recoveredFiles();
+        this.salvagedItems = queueMetrics.salvagedRecords();
+        this.droppedItems = queueMetrics.droppedRecords();
+        this.expiredEvents = queueMetrics.expiredRecords();
+        this.sampledEvents = queueMetrics.sampledEvents();
+        this.rateLimitedEvents = queueMetrics.rateLimitedEvents();
+        this.overflowedEvents = queueMetrics.overflowedEvents();
+    }
+
+    /**
+     * @return what started the upload
+     */
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    /**
+     * @return the time the upload started, in milliseconds since the epoch
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return how long the upload took in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return every request made during the upload, in the order the responses arrived
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of users accepted by the backend
+     */
+    public int getUsersSent() {
+        return usersSent;
+    }
+
+    /**
+     * @return the number of events accepted by the backend
+     */
+    public int getEventsSent() {
+        return eventsSent;
+    }
+
+    /**
+     * @return the number of users the backend rejected as invalid, which won't be sent again
+     */
+    public int getUsersSetAside() {
+        return usersSetAside;
+    }
+
+    /**
+     * @return the number of events the backend rejected as invalid, which won't be sent again
+     */
+    public int getEventsSetAside() {
+        return eventsSetAside;
+    }
+
+    /**
+     * @return the number of users still queued once the upload finished
+     */
+    public int getUsersRemaining() {
+        return usersRemaining;
+    }
+
+    /**
+     * @return the number of events still queued once the upload finished
+     */
+    public int getEventsRemaining() {
+        return eventsRemaining;
+    }
+
+    /**
+     * @return the total size in bytes of the requests the backend accepted
+     */
+    public long getBytesSent() {
+        long bytes = 0;
+        for (Request request : requests) {
+            if (isSuccessful(request) && request.getBytes() > 0) {
+                bytes += request.getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of requests that sent items again
+     */
+    public int getRetryCount() {
+        int retries = 0;
+        for (Request request : requests) {
+            if (request.isRetry()) {
+                retries++;
+            }
+        }
+        return retries;
+    }
+
+    /**
+     * @return how long the SDK waits before uploading again after a failed request, in
+     *         milliseconds, or 0 if it isn't waiting
+     */
+    public long getBackoffMillis() {
+        return backoffMillis;
+    }
+
+    /**
+     * @return the number of damaged queue files rebuilt since the process started
+     */
+    public int getRecoveredFiles() {
+        return recoveredFiles;
+    }
+
+    /**
+     * @return the number of users and events kept when rebuilding damaged queue files since the
+     *         process started
+     */
+    public int getSalvagedItems() {
+        return salvagedItems;
+    }
+
+    /**
+     * @return the number of users and events lost to damaged queue files since the process
+     *         started
+     */
+    public int getDroppedItems() {
+        return droppedItems;
+    }
+
+    /**
+     * @return the number of events dropped for being too old, or for being the oldest of too
+     *         many queued events, since the process started
+     */
+    public int getExpiredEvents() {
+        return expiredEvents;
+    }
+
+    /**
+     * @return the number of events left out by a sample rate since the process started
+     */
+    public int getSampledEvents() {
+        return sampledEvents;
+    }
+
+    /**
+     * @return the number of events left out by a rate limit since the process started
+     */
+    public int getRateLimitedEvents() {
+        return rateLimitedEvents;
+    }
+
+    /**
+     * @return the number of events dropped because they were tracked on the main thread while
+     *         the SDK was too busy to take them, since the process started
+     */
+    public int getOverflowedEvents() {
+        return overflowedEvents;
+    }
+
+    private static boolean isSuccessful(Request request) {
+        return request.getStatusCode() >= 200 && request.getStatusCode() < 300;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushReport{"
+                + "trigger=" + trigger
+                + ", durationMillis=" + durationMillis
+                + ", requests=" + requests.size()
+                + ", retries=" + getRetryCount()
+                + ", usersSent=" + usersSent
+                + ", eventsSent=" + eventsSent
+                + ", bytesSent=" + getBytesSent()
+                + ", usersSetAside=" + usersSetAside
+                + ", eventsSetAside=" + eventsSetAside
+                + ", usersRemaining=" + usersRemaining
+                + ", eventsRemaining=" + eventsRemaining
+                + ", backoffMillis=" + backoffMillis
+                + ", recoveredFiles=" + recoveredFiles
+                + ", droppedItems=" + droppedItems
+                + ", expiredEvents=" + expiredEvents
+                + ", sampledEvents=" + sampledEvents
+                + ", rateLimitedEvents=" + rateLimitedEvents
+                + ", overflowedEvents=" + overflowedEvents
+                + '}';
+    }
+}
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -12,13 +13,16 @@ import com.zendesk.logger.Logger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
 
 /**
  * A class that manages listeners of {@link Application.ActivityLifecycleCallbacks} and notifies
  * any active listeners once the host app is foregrounded and its current {@link Activity} stays
- * in the resumed state for at least {@link #DELAY_AFTER_FOREGROUND_IN_MILLIS}.
+ * in the resumed state for at least {@link #DELAY_AFTER_FOREGROUND_IN_MILLIS}. It also notifies
+ * {@link BackgroundCallback}s once the last started {@link Activity} of the host app is stopped,
+ * other than for a configuration change.
  */
 @ConnectScope
 class ForegroundListener implements Application.ActivityLifecycleCallbacks {
@@ -35,6 +39,18 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
         void onForeground();
     }
 
+    /**
+     * Callback interface to be implemented by classes that want to listen to a background event.
+     */
+    interface BackgroundCallback {
+
+        /**
+         * Called when the last started {@link Activity} of the host app is stopped, other than
+         * to be recreated for a configuration change.
+         */
+        void onBackground();
+    }
+
     private static final String LOG_TAG = "ForegroundListener";
 
     /**
@@ -46,10 +62,11 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
     /**
      * Flag that signals if the host app is in the foreground or not. This is updated based on
      * lifecycle events. Every time an {@link Activity} is stopped this is set to false, and every
-     * time an {@link Activity} is resumed this is set to true.
+     * time an {@link Activity} is resumed this is set to true. Read from the SDK writer when a
+     * callback is added.
      */
     @VisibleForTesting
-    boolean isHostAppInTheForeground = false;
+    volatile boolean isHostAppInTheForeground = false;
 
     /**
      * The {@link Class} of the last resumed {@link Activity}. This is updated based on
@@ -62,9 +79,25 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
 
     /**
      * The list of {@link Callback}s that should be notified once the host app is foregrounded.
+     * Callbacks can be added from the SDK writer while the main thread notifies them.
+     */
+    @VisibleForTesting
+    final List<Callback> callbacks = new CopyOnWriteArrayList<>();
+
+    /**
+     * The list of {@link BackgroundCallback}s that should be notified once the host app is
+     * backgrounded. Callbacks can be added from the SDK writer while the main thread notifies them.
+     */
+    @VisibleForTesting
+    final List<BackgroundCallback> backgroundCallbacks = new CopyOnWriteArrayList<>();
+
+    /**
+     * The number of started activities in the host app. Activities are started before the
+     * previous one is stopped during a transition, so this only drops to zero when the host app
+     * leaves the screen.
      */
     @VisibleForTesting
-    final List<Callback> callbacks = new ArrayList<>();
+    int startedActivityCount = 0;
 
     /**
      * The {@link Handler} responsible for posting the messages once the host app is foregrounded.
@@ -107,17 +140,27 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
 
     /**
      * Adds the given callback to the list of {@link Callback}s to be notified when the host app
-     * is foregrounded.
+     * is foregrounded. If an {@link Activity} is already resumed, it may have been resumed while
+     * there was no callback to notify, so the foreground delay is started on the main thread.
      *
      * @param callback a class that implements {@link Callback}
      */
-    void addCallback(Callback callback) {
+    synchronized void addCallback(Callback callback) {
         if (callbacks.contains(callback)) {
             Logger.d(LOG_TAG, "addCallback - Callback was already registered");
             return;
         }
         Logger.d(LOG_TAG, "addCallback - Adding callback");
         callbacks.add(callback);
+
+        if (isHostAppInTheForeground) {
+            postToMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    setupHandlerIfForeground();
+                }
+            });
+        }
     }
 
     /**
@@ -126,11 +169,35 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
      *
      * @param callback a class that implements {@link Callback}
      */
-    void removeCallback(Callback callback) {
+    synchronized void removeCallback(Callback callback) {
         Logger.d(LOG_TAG, "removeCallback - Removing callback");
         callbacks.remove(callback);
     }
 
+    /**
+     * Adds the given callback to the list of {@link BackgroundCallback}s to be notified when the
+     * host app is backgrounded.
+     *
+     * @param callback a class that implements {@link BackgroundCallback}
+     */
+    synchronized void addBackgroundCallback(BackgroundCallback callback) {
+        if (!backgroundCallbacks.contains(callback)) {
+            Logger.d(LOG_TAG, "addBackgroundCallback - Adding callback");
+            backgroundCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Removes the given callback from the list of {@link BackgroundCallback}s to be notified when
+     * the host app is backgrounded.
+     *
+     * @param callback a class that implements {@link BackgroundCallback}
+     */
+    synchronized void removeBackgroundCallback(BackgroundCallback callback) {
+        Logger.d(LOG_TAG, "removeBackgroundCallback - Removing callback");
+        backgroundCallbacks.remove(callback);
+    }
+
     @Override
     public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
         // Intentionally empty
@@ -138,7 +205,7 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
 
     @Override
     public void onActivityStarted(Activity activity) {
-        // Intentionally empty
+        startedActivityCount++;
     }
 
     /**
@@ -176,6 +243,27 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
         handler.postDelayed(runnable, DELAY_AFTER_FOREGROUND_IN_MILLIS);
     }
 
+    /**
+     * Calls {@link #setupHandler()} if an {@link Activity} is still resumed and no
+     * {@link #runnable} is waiting to call {@link #onForeground} already.
+     */
+    @VisibleForTesting
+    void setupHandlerIfForeground() {
+        if (isHostAppInTheForeground && handler == null) {
+            setupHandler();
+        }
+    }
+
+    /**
+     * Posts a {@link Runnable} to the main thread, where the lifecycle callbacks run.
+     *
+     * @param runnable the {@link Runnable} to run
+     */
+    @VisibleForTesting
+    void postToMainThread(Runnable runnable) {
+        new Handler(Looper.getMainLooper()).post(runnable);
+    }
+
     /**
      * Remove any callbacks for a previously posted {@link #runnable}.
      *
@@ -191,9 +279,18 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
         resetHandler();
     }
 
+    /**
+     * Calls {@link #onBackground} once the last started {@link Activity} is stopped, unless it
+     * is only stopped to be recreated for a configuration change such as a rotation.
+     *
+     * @param activity the stopped {@link Activity}
+     */
     @Override
     public void onActivityStopped(Activity activity) {
-        // Intentionally empty
+        startedActivityCount = Math.max(startedActivityCount - 1, 0);
+        if (startedActivityCount == 0 && !activity.isChangingConfigurations()) {
+            onBackground();
+        }
     }
 
     @Override
@@ -221,6 +318,20 @@ class ForegroundListener implements Application.ActivityLifecycleCallbacks {
         resetHandler();
     }
 
+    /**
+     * Invoked when the host app is backgrounded. It calls {@link BackgroundCallback#onBackground}
+     * on each item of {@link #backgroundCallbacks}.
+     */
+    @VisibleForTesting
+    void onBackground() {
+        Logger.d(LOG_TAG, "onBackground - Alerting background listeners");
+
+        List<BackgroundCallback> currentCallbacks = new ArrayList<>(backgroundCallbacks);
+        for (BackgroundCallback callback : currentCallbacks) {
+            callback.onBackground();
+        }
+    }
+
     /**
      * Service method to remove pending messages from {@link #runnable} to the {@link #handler}.
      * Also nullifies {@link #handler} and {@link #runnable}.
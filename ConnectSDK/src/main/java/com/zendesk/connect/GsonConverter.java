@@ -13,11 +13,11 @@ import java.io.OutputStreamWriter;
 
 /**
  * Concrete implementation of {@link ObjectQueue.Converter} for serializing and deserializing
- * objects from the object queue.
+ * objects from the object queue. Entries are stored as JSON, so they can be uploaded as is.
  *
  * @param <T> the type of the object
  */
-class GsonConverter<T> implements ObjectQueue.Converter<T> {
+class GsonConverter<T> implements JsonEntryConverter<T> {
 
     private Gson gson;
     private Class<T> clazz;
@@ -57,4 +57,16 @@ class GsonConverter<T> implements ObjectQueue.Converter<T> {
             gson.toJson(object, writer);
         }
     }
+
+    /**
+     * Entries are already stored as JSON, so they are returned unchanged.
+     *
+     * @param bytes the stored entry
+     * @return the same {@link Byte}s
+     */
+    @NonNull
+    @Override
+    public byte[] toJson(@NonNull byte[] bytes) {
+        return bytes;
+    }
 }
@@ -0,0 +1,68 @@
+package com.zendesk.connect;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * <p>
+ *     {@link Interceptor} that gzips request bodies and sets the {@code Content-Encoding} header.
+ * </p>
+ * <p>
+ *     Batches of users and events are JSON arrays where every element repeats the same keys,
+ *     so they compress well. Small bodies are sent as they are, since the gzip header and the
+ *     work of compressing them cost more than they save. The compressed body is buffered so
+ *     the request still carries a {@code Content-Length}.
+ * </p>
+ */
+class GzipRequestInterceptor implements Interceptor {
+
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String GZIP = "gzip";
+
+    private final long minBytes;
+
+    /**
+     * Creates this {@link GzipRequestInterceptor}
+     *
+     * @param minBytes the smallest body to compress. Bodies of unknown length are always compressed
+     */
+    GzipRequestInterceptor(long minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header(CONTENT_ENCODING) != null) {
+            return chain.proceed(request);
+        }
+
+        long length = body.contentLength();
+        if (length >= 0 && length < minBytes) {
+            return chain.proceed(request);
+        }
+
+        Request compressed = request.newBuilder()
+                .header(CONTENT_ENCODING, GZIP)
+                .method(request.method(), gzip(body))
+                .build();
+        return chain.proceed(compressed);
+    }
+
+    private static RequestBody gzip(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        BufferedSink sink = Okio.buffer(new GzipSink(buffer));
+        body.writeTo(sink);
+        sink.close();
+        return RequestBody.create(body.contentType(), buffer.readByteString());
+    }
+}
@@ -0,0 +1,90 @@
+package com.zendesk.connect;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * <p>
+ *     {@link Interceptor} that sets the {@code X-Outbound-GUID} header to a key derived from the
+ *     request, so the backend can tell a retried request from a new one.
+ * </p>
+ * <p>
+ *     Identify and track requests, single or batched, get a name based UUID of their method, URL
+ *     and body. They are only sent from the queues, built from the bytes stored there, and a
+ *     batch that failed in a way that may succeed later is sent again with the same entries, see
+ *     {@link BatchReplay}. The same goes for the single items sent while a rejected batch is
+ *     bisected. A retry of a request whose response was lost therefore carries the same key as
+ *     the first attempt, even after the process restarts.
+ * </p>
+ * <p>
+ *     Every other request gets a random UUID. The same request can legitimately be sent more
+ *     than once, like registering a push token again after disabling it, and must not be taken
+ *     for a retry.
+ * </p>
+ * <p>
+ *     The key has to be derived from the body before it is compressed, so this is added to the
+ *     client after the other interceptors and before the {@link GzipRequestInterceptor}, see
+ *     {@link ConnectOkHttpClientBuilder}.
+ * </p>
+ */
+class IdempotencyKeyInterceptor implements Interceptor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Paths of the requests built from the queues
+    private static final String[] QUEUED_PATHS = {
+            "/v2/identify",
+            "/v2/identify/batch",
+            "/v2/track",
+            "/v2/track/batch"
+    };
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Request keyed = request.newBuilder()
+                .header(ClientInterceptors.OutboundGuidInterceptor.HEADER_NAME, keyOf(request))
+                .build();
+        return chain.proceed(keyed);
+    }
+
+    /**
+     * Derives the idempotency key of a request
+     *
+     * @param request the request
+     * @return the key, the same for every identify or track with the same method, URL and body,
+     * or a random key for any other request
+     * @throws IOException if the body couldn't be read
+     */
+    static String keyOf(Request request) throws IOException {
+        RequestBody body = request.body();
+        if (body == null || !isQueued(request)) {
+            return UUID.randomUUID().toString();
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.writeString(request.method(), UTF_8);
+        buffer.writeByte(' ');
+        buffer.writeString(request.url().toString(), UTF_8);
+        buffer.writeByte('\n');
+        body.writeTo(buffer);
+        return UUID.nameUUIDFromBytes(buffer.readByteArray()).toString();
+    }
+
+    private static boolean isQueued(Request request) {
+        String path = request.url().encodedPath();
+        for (String queuedPath : QUEUED_PATHS) {
+            if (path.endsWith(queuedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,64 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * {@link RequestBody} that frames a list of already encoded JSON values into a JSON array and
+ * streams it to the connection, without building the array in memory first.
+ */
+class JsonArrayRequestBody extends RequestBody {
+
+    static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    private static final byte ARRAY_START = '[';
+    private static final byte ARRAY_END = ']';
+    private static final byte SEPARATOR = ',';
+
+    private final List<byte[]> values;
+    private final long contentLength;
+
+    /**
+     * Creates this {@link JsonArrayRequestBody}
+     *
+     * @param values the UTF-8 JSON of each element of the array, in order
+     */
+    JsonArrayRequestBody(List<byte[]> values) {
+        this.values = values;
+
+        long length = 2 + Math.max(values.size() - 1, 0);
+        for (byte[] value : values) {
+            length += value.length;
+        }
+        this.contentLength = length;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.writeByte(ARRAY_START);
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(SEPARATOR);
+            }
+            sink.write(values.get(i));
+        }
+        sink.writeByte(ARRAY_END);
+    }
+}
@@ -0,0 +1,26 @@
+package com.zendesk.connect;
+
+import androidx.annotation.NonNull;
+
+import com.squareup.tape2.ObjectQueue;
+
+import java.io.IOException;
+
+/**
+ * {@link ObjectQueue.Converter} that can turn a stored queue entry into the JSON sent to the API
+ * without handing the decoded object back to the caller.
+ *
+ * @param <T> the type of the object
+ */
+interface JsonEntryConverter<T> extends ObjectQueue.Converter<T> {
+
+    /**
+     * Gets the JSON representation of a stored entry
+     *
+     * @param bytes the stored entry, as written by {@link #toStream(Object, java.io.OutputStream)}
+     * @return the entry encoded as UTF-8 JSON
+     * @throws IOException if the entry is malformed
+     */
+    @NonNull
+    byte[] toJson(@NonNull byte[] bytes) throws IOException;
+}
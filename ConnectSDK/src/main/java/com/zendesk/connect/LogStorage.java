@@ -0,0 +1,578 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.zendesk.logger.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ *     An implementation of {@link BaseStorage} keeping every value in a single append-only file.
+ *     Uses a basic {@link Gson} object for serialisation / deserialisation, like
+ *     {@link SharedPreferencesStorage}.
+ * </p>
+ * <p>
+ *     The file starts with a magic number, followed by one record per change. A record holds an
+ *     operation byte, the varint length prefixed UTF-8 key, the varint length prefixed UTF-8 value
+ *     for a put, and a CRC32 checksum of everything before it. The whole file is read into an
+ *     in-memory index on first use, so reads never touch the disk and a write only appends one
+ *     record instead of rewriting every value. A torn or damaged record at the end of the file is
+ *     truncated away when the file is loaded.
+ * </p>
+ * <p>
+ *     Once the file holds more than twice as many bytes as the live values need, it is compacted:
+ *     the live values are written to a temporary file, which is synced and then renamed over the
+ *     log, so a crash during compaction leaves either the old or the new file in place. Appended
+ *     records are flushed but not synced, so like {@code SharedPreferences.apply()} they survive
+ *     the process being killed but not necessarily the device losing power.
+ * </p>
+ * <p>
+ *     If a record can't be appended, the whole log is rewritten from the in-memory index. If that
+ *     fails too, every value is moved to the fallback storage, if one was given, and changes are
+ *     written there from then on. The log file is deleted, so the values are moved back from the
+ *     fallback the next time the storage is created, see {@link ConnectStorageModule}. A file that
+ *     can't be read as a log is kept next to it with the {@code .corrupt} suffix before it is
+ *     replaced.
+ * </p>
+ */
+class LogStorage implements BaseStorage {
+
+    private static final String LOG_TAG = "LogStorage";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".compacting";
+    private static final String CORRUPT_FILE_SUFFIX = ".corrupt";
+
+    private static final int MAGIC = 0x4B560001;
+    private static final int HEADER_LENGTH = 4;
+    private static final int CHECKSUM_LENGTH = 4;
+
+    private static final byte OPERATION_PUT = 1;
+    private static final byte OPERATION_REMOVE = 2;
+
+    /**
+     * The log is never compacted while it is smaller than this, rewriting a small file would
+     * cost more than the space it saves.
+     */
+    @VisibleForTesting
+    static final long MIN_COMPACTION_BYTES = 16 * 1024;
+
+    private final File file;
+    private final Gson gson;
+    @Nullable private final BaseStorage fallback;
+    private final Map<String, String> values = new HashMap<>();
+
+    @Nullable
+    private FileOutputStream outputStream;
+    private long fileLength;
+    private long liveLength;
+    private boolean loaded = false;
+    // The log is missing changes held in the index, because writing them failed
+    private boolean unsaved = false;
+    // Changes are written to the fallback, because the log couldn't be written
+    private boolean fellBack = false;
+
+    /**
+     * Creates this {@link LogStorage} without a fallback. The backing file is read lazily on
+     * first use.
+     *
+     * @param file the file the values are persisted to
+     * @param gson the {@link Gson} used to serialise objects
+     */
+    LogStorage(File file, Gson gson) {
+        this(file, gson, null);
+    }
+
+    /**
+     * Creates this {@link LogStorage}. The backing file is read lazily on first use.
+     *
+     * @param file the file the values are persisted to
+     * @param gson the {@link Gson} used to serialise objects
+     * @param fallback the storage the values are moved to if the log can't be written
+     */
+    LogStorage(File file, Gson gson, @Nullable BaseStorage fallback) {
+        this.file = file;
+        this.gson = gson;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public synchronized void put(String key, @Nullable String value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        ensureLoaded();
+
+        String previous = values.get(key);
+        if (value.equals(previous)) {
+            return;
+        }
+
+        values.put(key, value);
+        if (fellBack) {
+            fallback.put(key, value);
+            return;
+        }
+
+        byte[] record = encode(OPERATION_PUT, key, value);
+        liveLength += record.length - (previous == null ? 0 : encode(OPERATION_PUT, key, previous).length);
+        append(record);
+    }
+
+    @Override
+    public void put(String key, Object object) {
+        String value = gson.toJson(object);
+        put(key, value);
+    }
+
+    /**
+     * Stores every given value with a single write.
+     *
+     * @param entries the keys and values to store
+     * @return true if the values were written to the log, false if they were written to the
+     * fallback or are only kept in memory
+     */
+    synchronized boolean putAll(Map<String, String> entries) {
+        ensureLoaded();
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String previous = values.get(entry.getKey());
+            if (entry.getValue().equals(previous)) {
+                continue;
+            }
+            values.put(entry.getKey(), entry.getValue());
+            if (fellBack) {
+                fallback.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            byte[] record = encode(OPERATION_PUT, entry.getKey(), entry.getValue());
+            liveLength += record.length
+                    - (previous == null ? 0 : encode(OPERATION_PUT, entry.getKey(), previous).length);
+            records.write(record, 0, record.length);
+        }
+
+        if (fellBack) {
+            return false;
+        }
+        return records.size() == 0 || append(records.toByteArray());
+    }
+
+    @Override
+    @Nullable
+    public synchronized String get(String key) {
+        ensureLoaded();
+        return values.get(key);
+    }
+
+    @Override
+    public <T> T get(String key, Class<T> clazz) {
+        try {
+            String storedValue = get(key);
+            return storedValue == null ? null : gson.fromJson(storedValue, clazz);
+        } catch (JsonSyntaxException e) {
+            Logger.e(LOG_TAG, "Unable to deserialise JSON String into type %s",
+                    clazz.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets a copy of every stored value.
+     *
+     * @return the stored keys and values
+     */
+    synchronized Map<String, String> getAll() {
+        ensureLoaded();
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        ensureLoaded();
+
+        String previous = values.remove(key);
+        if (previous == null) {
+            return;
+        }
+        if (fellBack) {
+            fallback.remove(key);
+            return;
+        }
+
+        liveLength -= encode(OPERATION_PUT, key, previous).length;
+        append(encode(OPERATION_REMOVE, key, null));
+    }
+
+    @Override
+    public synchronized void clear() {
+        ensureLoaded();
+        values.clear();
+        if (fellBack) {
+            fallback.clear();
+            return;
+        }
+
+        liveLength = HEADER_LENGTH;
+        if (!compact()) {
+            unsaved = true;
+            fallBack();
+        }
+    }
+
+    /**
+     * Gets the length of the log file, including records that have since been replaced.
+     *
+     * @return the length of the log file in bytes
+     */
+    @VisibleForTesting
+    synchronized long fileLength() {
+        ensureLoaded();
+        return fileLength;
+    }
+
+    /**
+     * Gets whether changes are written to the fallback storage instead of the log.
+     *
+     * @return true if the log couldn't be written and the storage fell back
+     */
+    @VisibleForTesting
+    synchronized boolean hasFallenBack() {
+        return fellBack;
+    }
+
+    /**
+     * Appends records to the log, compacting it if it has grown too large. The records must
+     * already be applied to the in-memory index. If there is no log yet, it is created with
+     * just a header before the records.
+     *
+     * @param records the encoded records to append
+     * @return true if the records were written to the log
+     */
+    private boolean append(byte[] records) {
+        if (unsaved) {
+            // An earlier change is missing from the log, only a full rewrite brings it back
+            return compact() || fallBack();
+        }
+
+        try {
+            if (outputStream == null) {
+                boolean create = fileLength == 0;
+                outputStream = new FileOutputStream(file, !create);
+                if (create) {
+                    byte[] header = new byte[HEADER_LENGTH];
+                    writeInt(MAGIC, header, 0);
+                    outputStream.write(header);
+                    fileLength = HEADER_LENGTH;
+                }
+            }
+            outputStream.write(records);
+            outputStream.flush();
+            fileLength += records.length;
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to append to %s, rewriting it", e, file.getName());
+            closeOutputStream();
+            unsaved = true;
+            return compact() || fallBack();
+        }
+
+        if (fileLength > MIN_COMPACTION_BYTES && fileLength > 2 * liveLength) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Moves every value to the fallback storage and deletes the log, after the log couldn't be
+     * written. Without a fallback, the values are only kept in memory until a write succeeds.
+     *
+     * @return false, as the values weren't written to the log
+     */
+    private boolean fallBack() {
+        if (fallback == null) {
+            Logger.e(LOG_TAG, "Failed to write %s, changes are only kept in memory", file.getName());
+            return false;
+        }
+
+        Logger.e(LOG_TAG, "Failed to write %s, moving %d values to %s",
+                file.getName(), values.size(), fallback.getClass().getSimpleName());
+        fallback.clear();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            fallback.put(entry.getKey(), entry.getValue());
+        }
+        fellBack = true;
+        closeOutputStream();
+        deleteFile(file);
+        return false;
+    }
+
+    /**
+     * Rewrites the log with only the live values. The new file is written to a temporary file
+     * and renamed over the log once it is synced.
+     *
+     * @return true if the log was rewritten
+     */
+    private boolean compact() {
+        closeOutputStream();
+
+        File temporary = new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        byte[] header = new byte[HEADER_LENGTH];
+        writeInt(MAGIC, header, 0);
+        snapshot.write(header, 0, header.length);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            byte[] record = encode(OPERATION_PUT, entry.getKey(), entry.getValue());
+            snapshot.write(record, 0, record.length);
+        }
+
+        try (FileOutputStream temporaryStream = new FileOutputStream(temporary)) {
+            temporaryStream.write(snapshot.toByteArray());
+            temporaryStream.getFD().sync();
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to compact %s", e, file.getName());
+            deleteFile(temporary);
+            return false;
+        }
+
+        if (!temporary.renameTo(file)) {
+            Logger.e(LOG_TAG, "Failed to move compacted file into place");
+            deleteFile(temporary);
+            return false;
+        }
+
+        fileLength = snapshot.size();
+        liveLength = snapshot.size();
+        unsaved = false;
+        return true;
+    }
+
+    /**
+     * Reads the log into memory the first time the storage is accessed. Records after the first
+     * torn or damaged one are truncated away.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        liveLength = HEADER_LENGTH;
+
+        deleteFile(new File(file.getPath() + TEMPORARY_FILE_SUFFIX));
+        if (!file.exists()) {
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = readFile();
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to read %s, keeping a copy", e, file.getName());
+            keepCorruptFile();
+            return;
+        }
+
+        if (bytes.length < HEADER_LENGTH || readInt(bytes, 0) != MAGIC) {
+            Logger.e(LOG_TAG, "%s is not a storage log, keeping a copy", file.getName());
+            keepCorruptFile();
+            return;
+        }
+
+        int position = HEADER_LENGTH;
+        while (position < bytes.length) {
+            int end = decode(bytes, position);
+            if (end < 0) {
+                break;
+            }
+            position = end;
+        }
+
+        fileLength = position;
+        if (position < bytes.length) {
+            Logger.w(LOG_TAG, "Discarding %d bytes of a partially written record",
+                    bytes.length - position);
+            truncate(position);
+        }
+    }
+
+    /**
+     * Applies the record starting at the given position to the in-memory index.
+     *
+     * @param bytes the contents of the log
+     * @param position the position of the record
+     * @return the position after the record, or -1 if the record is torn or damaged
+     */
+    private int decode(byte[] bytes, int position) {
+        byte operation = bytes[position];
+        if (operation != OPERATION_PUT && operation != OPERATION_REMOVE) {
+            return -1;
+        }
+
+        long keyLength = VarInts.read(bytes, position + 1, bytes.length);
+        if (keyLength < 0) {
+            return -1;
+        }
+        int keyStart = position + 1 + VarInts.sizeOf(keyLength);
+        if (keyStart + keyLength > bytes.length) {
+            return -1;
+        }
+        int end = keyStart + (int) keyLength;
+
+        int valueStart = end;
+        long valueLength = 0;
+        if (operation == OPERATION_PUT) {
+            valueLength = VarInts.read(bytes, end, bytes.length);
+            if (valueLength < 0) {
+                return -1;
+            }
+            valueStart = end + VarInts.sizeOf(valueLength);
+            if (valueStart + valueLength > bytes.length) {
+                return -1;
+            }
+            end = valueStart + (int) valueLength;
+        }
+
+        if (end + CHECKSUM_LENGTH > bytes.length
+                || readInt(bytes, end) != checksum(bytes, position, end - position)) {
+            return -1;
+        }
+
+        String key = new String(bytes, keyStart, (int) keyLength, UTF_8);
+        String previous;
+        if (operation == OPERATION_PUT) {
+            String value = new String(bytes, valueStart, (int) valueLength, UTF_8);
+            previous = values.put(key, value);
+            liveLength += end + CHECKSUM_LENGTH - position;
+        } else {
+            previous = values.remove(key);
+        }
+        if (previous != null) {
+            liveLength -= encode(OPERATION_PUT, key, previous).length;
+        }
+        return end + CHECKSUM_LENGTH;
+    }
+
+    /**
+     * Encodes a single record.
+     *
+     * @param operation {@link #OPERATION_PUT} or {@link #OPERATION_REMOVE}
+     * @param key the key of the record
+     * @param value the value of a put, or null for a remove
+     * @return the encoded record
+     */
+    private static byte[] encode(byte operation, String key, @Nullable String value) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(UTF_8);
+
+        int length = 1 + VarInts.sizeOf(keyBytes.length) + keyBytes.length + CHECKSUM_LENGTH;
+        if (valueBytes != null) {
+            length += VarInts.sizeOf(valueBytes.length) + valueBytes.length;
+        }
+
+        byte[] record = new byte[length];
+        record[0] = operation;
+        int offset = VarInts.write(keyBytes.length, record, 1);
+        System.arraycopy(keyBytes, 0, record, offset, keyBytes.length);
+        offset += keyBytes.length;
+        if (valueBytes != null) {
+            offset = VarInts.write(valueBytes.length, record, offset);
+            System.arraycopy(valueBytes, 0, record, offset, valueBytes.length);
+            offset += valueBytes.length;
+        }
+        writeInt(checksum(record, 0, offset), record, offset);
+        return record;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+                | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8)
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(int value, byte[] bytes, int offset) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private byte[] readFile() throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = inputStream.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return read == bytes.length ? bytes : Arrays.copyOf(bytes, read);
+        }
+    }
+
+    /**
+     * Truncates the log file to the given length.
+     *
+     * @param length the new length of the file
+     */
+    private void truncate(long length) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(length);
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to truncate %s", e, file.getName());
+        }
+    }
+
+    /**
+     * Moves a file that can't be read as a log out of the way, replacing any earlier copy, so
+     * it isn't lost when the log is created again.
+     */
+    private void keepCorruptFile() {
+        File corrupt = new File(file.getPath() + CORRUPT_FILE_SUFFIX);
+        deleteFile(corrupt);
+        if (!file.renameTo(corrupt)) {
+            Logger.e(LOG_TAG, "Failed to keep a copy of %s", file.getName());
+        }
+    }
+
+    private void closeOutputStream() {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to close %s", e, file.getName());
+        }
+        outputStream = null;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete %s", file.getName());
+        }
+    }
+}
@@ -0,0 +1,767 @@
+package com.zendesk.connect;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.squareup.tape2.ObjectQueue;
+import com.squareup.tape2.QueueFile;
+import com.zendesk.logger.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *     {@link BaseQueue} that keeps its objects in a ring buffer inside a memory-mapped file.
+ * </p>
+ * <p>
+ *     The whole file is mapped with a {@link MappedByteBuffer}, so adding an object is a memory
+ *     copy and reading or removing objects only moves positions in the mapping. Nothing calls
+ *     into the file system on those paths apart from {@link #force()}, which runs after every
+ *     {@code forceInterval} changes. Changes that haven't been forced survive the process being
+ *     killed, since they are already in the page cache, but not a crash of the device.
+ * </p>
+ * <p>
+ *     The file starts with a header holding a magic number, the object count and the positions
+ *     of the first and next record. Each record is its length followed by the entry written by
+ *     the converter. A record never wraps around the end of the ring: if it doesn't fit, a wrap
+ *     marker is left behind and the record is written at the start instead.
+ * </p>
+ * <p>
+ *     The file doubles in size whenever a record doesn't fit, up to {@code maxFileBytes}, after
+ *     which the oldest objects are dropped to make room. A file whose records no longer line up,
+ *     or an entry that can't be read, is rebuilt from the records that are still intact.
+ * </p>
+ * <p>
+ *     Growing the file maps it again through a new {@link RandomAccessFile}. The previous file is
+ *     closed and the previous mapping is no longer referenced, so it is released once it is
+ *     garbage collected, since a mapping can't be released explicitly. {@link #close()} releases
+ *     the file of a queue that is no longer used.
+ * </p>
+ *
+ * @param <T> the type of the queued objects
+ */
+class MappedQueue<T> implements BaseQueue<T>, Closeable {
+
+    private static final String LOG_TAG = "MappedQueue";
+
+    private static final int MAGIC = 0x4D510001;
+    private static final int HEADER_LENGTH = 16;
+    private static final int RECORD_HEADER_LENGTH = 4;
+    private static final int WRAP_MARKER = -1;
+    private static final int INITIAL_FILE_BYTES = 4096;
+
+    private final File file;
+    private final ObjectQueue.Converter<T> converter;
+    private final long maxFileBytes;
+    private final int forceInterval;
+    private final QueueMetrics queueMetrics;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Size of the ring, the part of the file after the header.
+     */
+    private int capacity;
+
+    /**
+     * Ring position of the first record. Always the start of a record while the queue isn't
+     * empty, never a wrap marker.
+     */
+    private int head;
+
+    /**
+     * Ring position the next record is written at.
+     */
+    private int tail;
+
+    private int count;
+    private int unforcedChanges;
+    private int evictedCount;
+
+    /**
+     * Number of objects removed from the head since the queue was opened, and the number of
+     * times objects were lost in a way that doesn't keep that count meaningful. Together they
+     * tell a cursor which of the objects it covered are still queued.
+     */
+    private long removedCount;
+    private int generation;
+
+    /**
+     * Creates this {@link MappedQueue}, mapping the given file and creating it if missing.
+     *
+     * @param file the file holding the queue
+     * @param converter the converter used for the entries
+     * @param maxFileBytes the size the file may grow to before the oldest objects are dropped
+     * @param forceInterval the number of changes after which the mapping is forced to disk
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of a damaged file
+     * @throws IOException if the file can't be opened or mapped
+     */
+    MappedQueue(File file,
+                ObjectQueue.Converter<T> converter,
+                long maxFileBytes,
+                int forceInterval,
+                QueueMetrics queueMetrics) throws IOException {
+        this.file = file;
+        this.converter = converter;
+        this.maxFileBytes = Math.min(Math.max(maxFileBytes, INITIAL_FILE_BYTES), Integer.MAX_VALUE);
+        this.forceInterval = Math.max(forceInterval, 1);
+        this.queueMetrics = queueMetrics;
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void add(T object) {
+        if (object == null) {
+            Logger.e(LOG_TAG, "Cannot add a null object to the queue");
+            return;
+        }
+
+        if (write(object)) {
+            changed();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     This queue has no writer of its own, so the object is written before returning. Put
+     *     a {@link BufferedQueue} in front of it to move the write off the caller thread.
+     * </p>
+     */
+    @Override
+    public void addAsync(T object) {
+        add(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The mapping is considered for a {@link #force()} once for the whole list.
+     * </p>
+     */
+    @Override
+    public synchronized void addAll(List<T> objects) {
+        boolean written = false;
+        for (T object : objects) {
+            if (object == null) {
+                Logger.e(LOG_TAG, "Cannot add a null object to the queue");
+                continue;
+            }
+            written |= write(object);
+        }
+        if (written) {
+            changed();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized T peek() {
+        List<T> objects = peek(1);
+        return objects.isEmpty() ? null : objects.get(0);
+    }
+
+    @Override
+    public synchronized List<T> peek(int max) {
+        max = Math.max(max, 0); // Negative numbers become 0
+        List<T> objects = new ArrayList<>(Math.min(max, count));
+        try {
+            readObjects(max, objects);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to read %s, recovering it", e, file.getName());
+            objects.clear();
+            repair();
+            try {
+                readObjects(max, objects);
+            } catch (IOException | RuntimeException retryException) {
+                Logger.e(LOG_TAG, "Failed to read recovered %s, discarding it",
+                        retryException, file.getName());
+                objects.clear();
+                evictedCount += count;
+                clear();
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Supported when the converter is a {@link JsonEntryConverter}. Entries are copied out of
+     *     the mapping and never turned into objects of the queued type.
+     * </p>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized List<byte[]> peekJson(int max) {
+        if (!(converter instanceof JsonEntryConverter)) {
+            return null;
+        }
+        JsonEntryConverter<T> jsonConverter = (JsonEntryConverter<T>) converter;
+
+        max = Math.max(max, 0); // Negative numbers become 0
+        List<byte[]> entries = new ArrayList<>(Math.min(max, count));
+        try {
+            readJson(jsonConverter, max, entries);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to read %s, recovering it", e, file.getName());
+            entries.clear();
+            repair();
+            try {
+                readJson(jsonConverter, max, entries);
+            } catch (IOException | RuntimeException retryException) {
+                Logger.e(LOG_TAG, "Failed to read recovered %s, discarding it",
+                        retryException, file.getName());
+                entries.clear();
+                evictedCount += count;
+                clear();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The stored entries are copied out of the mapping, up to the limits, and only decoded
+     *     by the cursor. Objects dropped to make room while the cursor is open are not removed
+     *     a second time when it commits, so objects added since are never removed unsent.
+     * </p>
+     */
+    @Override
+    public synchronized QueueCursor<T> cursor(int maxCount, long maxBytes) {
+        List<byte[]> entries = new ArrayList<>();
+        try {
+            readEntries(maxCount, maxBytes, entries);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to read %s, recovering it", e, file.getName());
+            entries.clear();
+            repair();
+            try {
+                readEntries(maxCount, maxBytes, entries);
+            } catch (IOException | RuntimeException retryException) {
+                Logger.e(LOG_TAG, "Failed to read recovered %s, discarding it",
+                        retryException, file.getName());
+                entries.clear();
+                evictedCount += count;
+                clear();
+            }
+        }
+        return QueueCursor.ofEntries(new CursorRemover(removedCount, generation), entries, converter);
+    }
+
+    @Override
+    public synchronized void remove(int max) {
+        int removed = Math.min(Math.max(max, 0), count); // Negative numbers become 0
+        if (removed == 0) {
+            return;
+        }
+
+        try {
+            int position = head;
+            for (int i = 0; i < removed; i++) {
+                position = next(position);
+            }
+            count -= removed;
+            removedCount += removed;
+            head = count == 0 ? 0 : recordStart(position);
+            if (count == 0) {
+                tail = 0;
+            }
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to remove objects from %s, discarding it", e, file.getName());
+            evictedCount += count - removed;
+            count = 0;
+            head = 0;
+            tail = 0;
+            generation++;
+        }
+        writeHeader();
+        changed();
+    }
+
+    @Override
+    public synchronized void clear() {
+        generation++;
+        count = 0;
+        head = 0;
+        tail = 0;
+        writeHeader();
+        changed();
+    }
+
+    /**
+     * Moves the entries of an existing queue file, written with the same converter, into this
+     * queue and deletes the file. Entries are copied as they are, without being decoded.
+     *
+     * @param queueFile the queue file to take over
+     * @return true if the file was taken over
+     */
+    synchronized boolean adopt(File queueFile) {
+        if (!queueFile.exists()) {
+            return false;
+        }
+
+        try {
+            QueueFile source = QueueFileRecovery.open(queueFile, converter, queueMetrics);
+            try {
+                for (byte[] entry : source) {
+                    writeEntry(entry);
+                }
+            } finally {
+                source.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to take over %s", e, queueFile.getName());
+            return false;
+        }
+        force();
+
+        if (!queueFile.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete %s", queueFile.getName());
+        }
+        return true;
+    }
+
+    /**
+     * Writes every change to the mapping through to the disk.
+     */
+    synchronized void force() {
+        buffer.force();
+        unforcedChanges = 0;
+    }
+
+    /**
+     * Writes every change through to the disk and closes the file. The queue must not be used
+     * afterwards.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        randomAccessFile.close();
+    }
+
+    /**
+     * Gets the total number of objects dropped to make room or because they were damaged.
+     *
+     * @return the number of dropped objects
+     */
+    synchronized int evictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Gets the size of the queue file
+     *
+     * @return the size of the queue file in bytes
+     */
+    @VisibleForTesting
+    synchronized long fileBytes() {
+        return HEADER_LENGTH + capacity;
+    }
+
+    /**
+     * Maps the file and reads its header. A new file is initialised, and a header that can't
+     * be trusted is reset, dropping the objects it described.
+     */
+    private void open() throws IOException {
+        long length = randomAccessFile.length();
+        boolean created = length < HEADER_LENGTH + INITIAL_FILE_BYTES;
+        if (created) {
+            length = HEADER_LENGTH + INITIAL_FILE_BYTES;
+        }
+        map((int) Math.min(length, Integer.MAX_VALUE));
+
+        if (created) {
+            writeHeader();
+            force();
+            return;
+        }
+
+        int magic = buffer.getInt(0);
+        count = buffer.getInt(4);
+        head = buffer.getInt(8);
+        tail = buffer.getInt(12);
+        if (magic != MAGIC || count < 0 || head < 0 || head > capacity || tail < 0 || tail > capacity) {
+            Logger.e(LOG_TAG, "Damaged header in %s, resetting it", file.getName());
+            queueMetrics.onRecovery(new QueueFileRecovery.Result(0, 0));
+            clear();
+            force();
+            return;
+        }
+
+        if (count == 0) {
+            head = 0;
+            tail = 0;
+        } else if (!isConsistent()) {
+            Logger.e(LOG_TAG, "Records in %s don't line up, recovering it", file.getName());
+            queueMetrics.onRecovery(rebuild(capacity, false));
+        }
+    }
+
+    /**
+     * Walks the records from the head, checking that they end exactly at the tail.
+     */
+    private boolean isConsistent() {
+        try {
+            int position = head;
+            for (int i = 0; i < count; i++) {
+                position = next(position);
+            }
+            return (position == tail) || (recordStart(position) == tail);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps the file at the given length. When the file is already mapped, the new mapping is
+     * made through a new {@link RandomAccessFile} and the previous one is closed once the new
+     * mapping is in place, so a failure leaves the previous mapping usable.
+     *
+     * @param fileLength the length of the file to map
+     * @throws IOException if the file can't be resized or mapped
+     */
+    private void map(int fileLength) throws IOException {
+        if (buffer == null) {
+            randomAccessFile.setLength(fileLength);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+            capacity = fileLength - HEADER_LENGTH;
+            return;
+        }
+
+        buffer.force();
+        RandomAccessFile resized = new RandomAccessFile(file, "rw");
+        MappedByteBuffer mapping;
+        try {
+            resized.setLength(fileLength);
+            mapping = resized.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+        } catch (IOException e) {
+            closeQuietly(resized);
+            throw e;
+        }
+
+        closeQuietly(randomAccessFile);
+        randomAccessFile = resized;
+        buffer = mapping;
+        capacity = fileLength - HEADER_LENGTH;
+    }
+
+    private void closeQuietly(RandomAccessFile randomAccessFile) {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to close %s", e, file.getName());
+        }
+    }
+
+    private boolean write(T object) {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        try {
+            converter.toStream(object, entry);
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to convert object, discarding object", e);
+            return false;
+        }
+
+        try {
+            writeEntry(entry.toByteArray());
+            return true;
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to add object to %s, discarding object", e, file.getName());
+            return false;
+        }
+    }
+
+    /**
+     * Appends an entry to the ring, growing the file or dropping the oldest objects until it
+     * fits.
+     */
+    private void writeEntry(byte[] entry) throws IOException {
+        int recordLength = RECORD_HEADER_LENGTH + entry.length;
+        if (recordLength > maxFileBytes - HEADER_LENGTH) {
+            throw new IOException("Entry of " + entry.length + " bytes is larger than the queue");
+        }
+
+        int position = reserve(recordLength);
+        while (position < 0) {
+            if (HEADER_LENGTH + (long) capacity < maxFileBytes) {
+                int previousCapacity = capacity;
+                long grown = Math.min((long) capacity * 2 + HEADER_LENGTH, maxFileBytes);
+                rebuild((int) (grown - HEADER_LENGTH), false);
+                if (capacity == previousCapacity) {
+                    throw new IOException("Failed to grow " + file.getName());
+                }
+            } else {
+                remove(1);
+                evictedCount++;
+            }
+            position = reserve(recordLength);
+        }
+
+        buffer.putInt(HEADER_LENGTH + position, entry.length);
+        ByteBuffer writer = buffer.duplicate();
+        writer.position(HEADER_LENGTH + position + RECORD_HEADER_LENGTH);
+        writer.put(entry);
+
+        tail = position + recordLength;
+        count++;
+        writeHeader();
+    }
+
+    /**
+     * Finds the ring position a record of the given length can be written at, leaving a wrap
+     * marker at the tail if the record has to go at the start of the ring instead. The tail
+     * never catches up with the head from behind, so a full ring can't be mistaken for an
+     * empty one.
+     *
+     * @return the position, or -1 if the ring has no room
+     */
+    private int reserve(int recordLength) {
+        if (count == 0) {
+            head = 0;
+            tail = 0;
+            return recordLength <= capacity ? 0 : -1;
+        }
+
+        if (tail >= head) {
+            if (capacity - tail >= recordLength) {
+                return tail;
+            }
+            if (head > recordLength) {
+                if (capacity - tail >= RECORD_HEADER_LENGTH) {
+                    buffer.putInt(HEADER_LENGTH + tail, WRAP_MARKER);
+                }
+                return 0;
+            }
+            return -1;
+        }
+        return head - tail > recordLength ? tail : -1;
+    }
+
+    /**
+     * Gets the position of the record at or after the given position, following a wrap marker
+     * or a gap too small to hold one back to the start of the ring.
+     */
+    private int recordStart(int position) {
+        if (capacity - position < RECORD_HEADER_LENGTH
+                || buffer.getInt(HEADER_LENGTH + position) == WRAP_MARKER) {
+            return 0;
+        }
+        return position;
+    }
+
+    /**
+     * Gets the position right after the record at or after the given position.
+     *
+     * @throws IOException if the record doesn't fit in the ring
+     */
+    private int next(int position) throws IOException {
+        int start = recordStart(position);
+        return start + RECORD_HEADER_LENGTH + entryLength(start);
+    }
+
+    private int entryLength(int start) throws IOException {
+        int length = buffer.getInt(HEADER_LENGTH + start);
+        if (length < 0 || (long) start + RECORD_HEADER_LENGTH + length > capacity) {
+            throw new IOException("Damaged record at " + start + " in " + file.getName());
+        }
+        return length;
+    }
+
+    private byte[] readEntry(int start) throws IOException {
+        byte[] entry = new byte[entryLength(start)];
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(HEADER_LENGTH + start + RECORD_HEADER_LENGTH);
+        reader.get(entry);
+        return entry;
+    }
+
+    private void readObjects(int max, List<T> objects) throws IOException {
+        int position = head;
+        int limit = Math.min(max, count);
+        for (int i = 0; i < limit; i++) {
+            int start = recordStart(position);
+            byte[] entry = readEntry(start);
+            objects.add(converter.from(entry));
+            position = start + RECORD_HEADER_LENGTH + entry.length;
+        }
+    }
+
+    private void readJson(JsonEntryConverter<T> jsonConverter, int max, List<byte[]> entries)
+            throws IOException {
+        int position = head;
+        int limit = Math.min(max, count);
+        for (int i = 0; i < limit; i++) {
+            int start = recordStart(position);
+            byte[] entry = readEntry(start);
+            entries.add(jsonConverter.toJson(entry));
+            position = start + RECORD_HEADER_LENGTH + entry.length;
+        }
+    }
+
+    /**
+     * Copies stored entries until {@code maxCount} entries or {@code maxBytes} bytes have been
+     * copied. The first entry is always copied. Entry lengths are known up front, so an entry
+     * past the limit is never read.
+     */
+    private void readEntries(int maxCount, long maxBytes, List<byte[]> entries) throws IOException {
+        int position = head;
+        long bytes = 0;
+        int limit = Math.min(maxCount, count);
+        for (int i = 0; i < limit; i++) {
+            int start = recordStart(position);
+            int length = entryLength(start);
+            if (i > 0 && bytes + length > maxBytes) {
+                break;
+            }
+            entries.add(readEntry(start));
+            bytes += length;
+            position = start + RECORD_HEADER_LENGTH + length;
+        }
+    }
+
+    /**
+     * Rebuilds the ring in place from the records that can still be read, recording the
+     * outcome.
+     */
+    private void repair() {
+        QueueFileRecovery.Result result = rebuild(capacity, true);
+        queueMetrics.onRecovery(result);
+        evictedCount += result.dropped();
+    }
+
+    /**
+     * Copies the records out of the ring, in order, and writes them back from the start of a
+     * ring of the given capacity. The walk stops at the first record that doesn't fit in the
+     * ring, since nothing after it can be found.
+     *
+     * @param newCapacity the capacity of the rebuilt ring
+     * @param validate whether records that fail {@link QueueFileRecovery#isValid} are dropped
+     * @return the number of records kept and dropped
+     */
+    private QueueFileRecovery.Result rebuild(int newCapacity, boolean validate) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(Math.min(capacity, newCapacity));
+        int kept = 0;
+        int scanned = 0;
+        int position = head;
+        try {
+            for (; scanned < count; scanned++) {
+                int start = recordStart(position);
+                byte[] entry = readEntry(start);
+                position = start + RECORD_HEADER_LENGTH + entry.length;
+                if (validate && !QueueFileRecovery.isValid(entry, converter)) {
+                    continue;
+                }
+                if (records.size() + RECORD_HEADER_LENGTH + entry.length > newCapacity) {
+                    break;
+                }
+                writeInt(records, entry.length);
+                records.write(entry, 0, entry.length);
+                kept++;
+            }
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Stopped reading %s at a damaged record", e, file.getName());
+        }
+
+        try {
+            if (newCapacity != capacity) {
+                map(HEADER_LENGTH + newCapacity);
+            }
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to resize %s", e, file.getName());
+        }
+
+        byte[] bytes = records.toByteArray();
+        ByteBuffer writer = buffer.duplicate();
+        writer.position(HEADER_LENGTH);
+        writer.put(bytes);
+
+        int dropped = count - kept;
+        if (dropped > 0) {
+            generation++;
+        }
+        count = kept;
+        head = 0;
+        tail = bytes.length;
+        writeHeader();
+        force();
+        return new QueueFileRecovery.Result(kept, dropped);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, count);
+        buffer.putInt(8, head);
+        buffer.putInt(12, tail);
+    }
+
+    /**
+     * Forces the mapping to disk once enough changes have been made since the last time.
+     */
+    private void changed() {
+        if (++unforcedChanges >= forceInterval) {
+            force();
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream outputStream, int value) {
+        outputStream.write(value >>> 24);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 8);
+        outputStream.write(value);
+    }
+
+    /**
+     * Removes the objects a cursor covered, counting from the head the queue had when the cursor
+     * was opened. Objects dropped to make room since then are already gone and are skipped. If
+     * the queue was cleared or rebuilt since, nothing is removed and the objects are sent again.
+     */
+    private final class CursorRemover implements QueueCursor.Remover {
+
+        private final long firstIndex;
+        private final int openGeneration;
+
+        CursorRemover(long firstIndex, int openGeneration) {
+            this.firstIndex = firstIndex;
+            this.openGeneration = openGeneration;
+        }
+
+        @Override
+        public void remove(int from, int count) {
+            synchronized (MappedQueue.this) {
+                if (generation != openGeneration) {
+                    Logger.w(LOG_TAG, "%s changed while it was read, leaving its objects queued",
+                            file.getName());
+                    return;
+                }
+                long excess = firstIndex + from + count - removedCount;
+                if (excess > 0) {
+                    MappedQueue.this.remove((int) excess);
+                }
+            }
+        }
+    }
+}
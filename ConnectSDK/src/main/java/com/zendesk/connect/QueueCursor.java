@@ -0,0 +1,276 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import com.squareup.tape2.ObjectQueue;
+import com.zendesk.logger.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *     Cursor over the oldest objects of a {@link BaseQueue}, opened with
+ *     {@link BaseQueue#cursor(int, long)}.
+ * </p>
+ * <p>
+ *     Where the queue hands over its stored entries, each entry is only decoded when the cursor
+ *     reaches it and is released as soon as it has been returned, so no more than one object
+ *     is alive at a time unless the caller keeps them. An entry that can't be decoded is
+ *     returned as null.
+ * </p>
+ * <p>
+ *     {@link #commit()} removes exactly the entries the cursor has moved past from the queue,
+ *     including any that couldn't be decoded. {@link #commit(int)} removes part of them and
+ *     leaves the cursor open, so a cursor can be read a batch at a time. A cursor isn't thread
+ *     safe, and nothing else should remove objects from the queue while it is open. Queues that
+ *     evict objects on their own hand out cursors with a {@link Remover} that only removes the
+ *     objects the cursor covered.
+ * </p>
+ *
+ * @param <T> the type of the queued objects
+ */
+class QueueCursor<T> {
+
+    private static final String LOG_TAG = "QueueCursor";
+
+    private final Remover remover;
+    @Nullable private final List<byte[]> entries;
+    @Nullable private final ObjectQueue.Converter<T> converter;
+    @Nullable private final List<T> objects;
+
+    private int position;
+    private int removed;
+    private long consumedBytes;
+    private boolean committed;
+    private boolean canPushBack;
+    @Nullable private byte[] lastEntry;
+
+    /**
+     * Removes the objects a cursor has moved past from the queue it was opened on.
+     */
+    interface Remover {
+
+        /**
+         * Removes some of the objects the cursor was opened over, skipping any that have
+         * already left the queue some other way since
+         *
+         * @param from the position of the first object to remove among those the cursor covers
+         * @param count the number of objects to remove
+         */
+        void remove(int from, int count);
+    }
+
+    private QueueCursor(Remover remover,
+                        @Nullable List<byte[]> entries,
+                        @Nullable ObjectQueue.Converter<T> converter,
+                        @Nullable List<T> objects) {
+        this.remover = remover;
+        this.entries = entries;
+        this.converter = converter;
+        this.objects = objects;
+    }
+
+    /**
+     * Creates a cursor over stored entries, decoding each one as it is reached.
+     *
+     * @param queue the queue the entries were read from, oldest first
+     * @param entries the stored entries, which the cursor releases as it moves past them
+     * @param converter the converter the entries were written with
+     * @param <T> the type of the queued objects
+     * @return a {@link QueueCursor} over the entries
+     */
+    static <T> QueueCursor<T> ofEntries(BaseQueue<T> queue,
+                                        List<byte[]> entries,
+                                        ObjectQueue.Converter<T> converter) {
+        return new QueueCursor<>(removerOf(queue), entries, converter, null);
+    }
+
+    /**
+     * Creates a cursor over stored entries, decoding each one as it is reached, for queues
+     * that can drop entries on their own while the cursor is open. The {@link Remover} makes
+     * sure a commit only removes entries the cursor actually covered.
+     *
+     * @param remover the {@link Remover} removing the entries from their queue
+     * @param entries the stored entries, which the cursor releases as it moves past them
+     * @param converter the converter the entries were written with
+     * @param <T> the type of the queued objects
+     * @return a {@link QueueCursor} over the entries
+     */
+    static <T> QueueCursor<T> ofEntries(Remover remover,
+                                        List<byte[]> entries,
+                                        ObjectQueue.Converter<T> converter) {
+        return new QueueCursor<>(remover, entries, converter, null);
+    }
+
+    /**
+     * Creates a cursor over objects that have already been read, for queues that can't hand
+     * over their stored entries.
+     *
+     * @param queue the queue the objects were read from, oldest first
+     * @param objects the objects
+     * @param <T> the type of the queued objects
+     * @return a {@link QueueCursor} over the objects
+     */
+    static <T> QueueCursor<T> ofObjects(BaseQueue<T> queue, List<T> objects) {
+        return new QueueCursor<>(removerOf(queue), null, null, objects);
+    }
+
+    /**
+     * Creates a {@link Remover} that removes objects from the head of a queue, for queues that
+     * only ever lose objects through {@link BaseQueue#remove(int)}
+     */
+    private static Remover removerOf(final BaseQueue<?> queue) {
+        return new Remover() {
+            @Override
+            public void remove(int from, int count) {
+                queue.remove(count);
+            }
+        };
+    }
+
+    /**
+     * Checks whether the cursor has another object
+     *
+     * @return true if {@link #next()} can be called
+     */
+    boolean hasNext() {
+        return !committed && position < (entries != null ? entries.size() : objects.size());
+    }
+
+    /**
+     * Moves past the next object and returns it
+     *
+     * @return the next object, or null if its entry couldn't be decoded
+     */
+    @Nullable
+    T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (objects != null) {
+            canPushBack = true;
+            return objects.get(position++);
+        }
+
+        byte[] entry = advance();
+        try {
+            return converter.from(entry);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to decode queued entry, it will be removed on commit", e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether this cursor can return its objects as JSON with {@link #nextJson()}
+     *
+     * @return true if the entries were written by a {@link JsonEntryConverter}
+     */
+    boolean supportsJson() {
+        return entries != null && converter instanceof JsonEntryConverter;
+    }
+
+    /**
+     * Moves past the next object and returns it as the JSON sent to the API, without turning
+     * it into an object of the queued type. Only supported if {@link #supportsJson()}.
+     *
+     * @return the UTF-8 JSON of the next object, or null if its entry couldn't be read
+     */
+    @Nullable
+    byte[] nextJson() {
+        if (!supportsJson()) {
+            throw new UnsupportedOperationException("The queued entries can't be read as JSON");
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        byte[] entry = advance();
+        try {
+            return ((JsonEntryConverter<T>) converter).toJson(entry);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to read queued entry, it will be removed on commit", e);
+            return null;
+        }
+    }
+
+    /**
+     * Moves the cursor back before the object it returned last, so that object is returned
+     * again and isn't removed by {@link #commit()}. Can only be called once after each call
+     * to {@link #next()} or {@link #nextJson()}.
+     */
+    void pushBack() {
+        if (committed || !canPushBack || position == removed) {
+            throw new IllegalStateException("There is no object to push back");
+        }
+        canPushBack = false;
+        position--;
+        if (entries != null) {
+            entries.set(position, lastEntry);
+            consumedBytes -= lastEntry.length;
+            lastEntry = null;
+        }
+    }
+
+    /**
+     * Gets the number of objects the cursor has moved past
+     *
+     * @return the number of consumed objects
+     */
+    int consumedCount() {
+        return position;
+    }
+
+    /**
+     * Gets the stored size of the entries the cursor has moved past
+     *
+     * @return the number of consumed bytes, or 0 if the queue didn't hand over its entries
+     */
+    long consumedBytes() {
+        return consumedBytes;
+    }
+
+    /**
+     * Removes every object the cursor has moved past from the queue. The cursor can't be used
+     * after this.
+     */
+    void commit() {
+        if (committed) {
+            return;
+        }
+        committed = true;
+        if (position > removed) {
+            remover.remove(removed, position - removed);
+            removed = position;
+        }
+    }
+
+    /**
+     * Removes the oldest objects the cursor has moved past from the queue, leaving the cursor
+     * open. Objects removed this way aren't removed again by a later commit.
+     *
+     * @param count the number of objects to remove, at most the number the cursor has moved
+     *              past and not yet removed
+     */
+    void commit(int count) {
+        if (committed || count < 0 || count > position - removed) {
+            throw new IllegalStateException("Can't remove " + count + " objects from this cursor");
+        }
+        if (count > 0) {
+            remover.remove(removed, count);
+            removed += count;
+        }
+    }
+
+    private byte[] advance() {
+        byte[] entry = entries.get(position);
+        entries.set(position, null);
+        position++;
+        consumedBytes += entry.length;
+        lastEntry = entry;
+        canPushBack = true;
+        return entry;
+    }
+}
@@ -0,0 +1,210 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *     Append-only table of strings shared by every entry of a single queue file. Repeated values
+ *     such as event names and property keys are stored once here and referenced by index from
+ *     the entries written by a {@link BinaryConverter}.
+ * </p>
+ * <p>
+ *     The table is persisted in a companion file as a sequence of varint length prefixed UTF-8
+ *     strings. Indices are never reused, so an entry stays decodable for as long as the
+ *     dictionary file exists. New strings are written and synced to disk before they are handed
+ *     out, which means a queue entry can never reference an index that was not persisted, even
+ *     after a power loss. A torn write at the end of the file is discarded when the dictionary is
+ *     loaded.
+ * </p>
+ */
+class QueueDictionary {
+
+    private static final String LOG_TAG = "QueueDictionary";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Upper bound on the number of entries in the dictionary. Once reached, new strings are
+     * written inline by the converter instead, so high cardinality values can't grow the
+     * dictionary without limit.
+     */
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Strings longer than this are always written inline, they are unlikely to repeat.
+     */
+    @VisibleForTesting
+    static final int MAX_ENTRY_LENGTH = 128;
+
+    static final int NOT_FOUND = -1;
+
+    private final File file;
+    private final List<String> entries = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    private boolean loaded = false;
+
+    /**
+     * Creates this {@link QueueDictionary}. The backing file is read lazily on first use.
+     *
+     * @param file the file the dictionary is persisted to
+     */
+    QueueDictionary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the index of the given string, adding it to the dictionary if it isn't there yet.
+     *
+     * @param value the string to look up
+     * @return the index of the string, or {@link #NOT_FOUND} if it can't be stored in the dictionary
+     */
+    synchronized int intern(String value) {
+        ensureLoaded();
+
+        Integer index = indices.get(value);
+        if (index != null) {
+            return index;
+        }
+
+        if (entries.size() >= MAX_ENTRIES || value.length() > MAX_ENTRY_LENGTH) {
+            return NOT_FOUND;
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+            byte[] bytes = value.getBytes(UTF_8);
+            byte[] record = new byte[VarInts.sizeOf(bytes.length) + bytes.length];
+            int offset = VarInts.write(bytes.length, record, 0);
+            System.arraycopy(bytes, 0, record, offset, bytes.length);
+            outputStream.write(record);
+            outputStream.flush();
+            // The index can be referenced by a queue entry as soon as it is returned, so it has
+            // to reach the disk first
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to persist dictionary entry, writing value inline", e);
+            return NOT_FOUND;
+        }
+
+        int newIndex = entries.size();
+        entries.add(value);
+        indices.put(value, newIndex);
+        return newIndex;
+    }
+
+    /**
+     * Gets the string stored at the given index.
+     *
+     * @param index the index of the string
+     * @return the stored string, or null if there is no string for that index
+     */
+    @Nullable
+    synchronized String get(int index) {
+        ensureLoaded();
+        return index >= 0 && index < entries.size() ? entries.get(index) : null;
+    }
+
+    /**
+     * Gets the number of strings in the dictionary.
+     *
+     * @return the number of strings in the dictionary
+     */
+    synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * Removes every string from the dictionary. Must only be called when no queue entry
+     * references the dictionary anymore, for example when the queue file is empty.
+     */
+    synchronized void reset() {
+        entries.clear();
+        indices.clear();
+        loaded = true;
+        if (file.exists() && !file.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete dictionary file %s", file.getName());
+        }
+    }
+
+    /**
+     * Reads the dictionary file into memory the first time the dictionary is accessed. A
+     * partially written record at the end of the file is truncated away.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        byte[] bytes;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = inputStream.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to read dictionary file", e);
+            return;
+        }
+
+        int position = 0;
+        while (position < bytes.length) {
+            long length = VarInts.read(bytes, position, bytes.length);
+            if (length < 0) {
+                break;
+            }
+            int start = position + VarInts.sizeOf(length);
+            if (start + length > bytes.length) {
+                break;
+            }
+            String value = new String(bytes, start, (int) length, UTF_8);
+            indices.put(value, entries.size());
+            entries.add(value);
+            position = start + (int) length;
+        }
+
+        if (position < bytes.length) {
+            Logger.w(LOG_TAG, "Discarding %d bytes of a partially written dictionary entry",
+                    bytes.length - position);
+            truncate(position);
+        }
+    }
+
+    /**
+     * Truncates the dictionary file to the given length.
+     *
+     * @param length the new length of the file
+     */
+    private void truncate(long length) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(length);
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to truncate dictionary file", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.zendesk.connect;
+
+import com.squareup.tape2.ObjectQueue;
+import com.squareup.tape2.QueueFile;
+import com.zendesk.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Moves the entries of a queue file written with one {@link ObjectQueue.Converter} into a new
+ * queue file written with another, used when the on-disk format of a queue changes.
+ */
+final class QueueFileMigrator {
+
+    private static final String LOG_TAG = "QueueFileMigrator";
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".migrating";
+
+    private QueueFileMigrator() {
+    }
+
+    /**
+     * <p>
+     *     Converts every entry of the source queue file and writes it to the target queue file,
+     *     then deletes the source file. Entries that can't be decoded are dropped.
+     * </p>
+     * <p>
+     *     Entries are written to a temporary file which is renamed to the target once complete,
+     *     so an interrupted migration is simply repeated on the next launch. Migration only
+     *     happens while the target doesn't exist; if both files exist the target is the result
+     *     of a completed migration and the source is deleted.
+     * </p>
+     *
+     * @param source the queue file to migrate from
+     * @param sourceConverter the converter the source file was written with
+     * @param target the queue file to migrate to
+     * @param targetConverter the converter the target file will be written with
+     * @param <T> the type of the queued objects
+     * @return the number of entries migrated
+     */
+    static <T> int migrate(File source,
+                           ObjectQueue.Converter<T> sourceConverter,
+                           File target,
+                           ObjectQueue.Converter<T> targetConverter) {
+        if (!source.exists()) {
+            return 0;
+        }
+
+        if (target.exists()) {
+            Logger.d(LOG_TAG, "%s was already migrated, deleting it", source.getName());
+            deleteFile(source);
+            return 0;
+        }
+
+        File temporary = new File(target.getPath() + TEMPORARY_FILE_SUFFIX);
+        deleteFile(temporary);
+
+        int migrated = 0;
+        int dropped = 0;
+        try (QueueFile sourceFile = new QueueFile.Builder(source).build();
+             ObjectQueue<T> targetQueue = ObjectQueue.create(
+                     new QueueFile.Builder(temporary).build(), targetConverter)) {
+
+            for (byte[] bytes : sourceFile) {
+                T entry;
+                try {
+                    entry = sourceConverter.from(bytes);
+                } catch (IOException | RuntimeException e) {
+                    dropped++;
+                    continue;
+                }
+                if (entry == null) {
+                    dropped++;
+                    continue;
+                }
+                targetQueue.add(entry);
+                migrated++;
+            }
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to migrate %s, keeping the original file", e, source.getName());
+            deleteFile(temporary);
+            return 0;
+        }
+
+        if (!temporary.renameTo(target)) {
+            Logger.e(LOG_TAG, "Failed to move migrated queue file into place");
+            deleteFile(temporary);
+            return 0;
+        }
+
+        deleteFile(source);
+        Logger.d(LOG_TAG, "Migrated %d entries from %s to %s, dropped %d unreadable entries",
+                migrated, source.getName(), target.getName(), dropped);
+        return migrated;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.e(LOG_TAG, "Failed to delete %s", file.getName());
+        }
+    }
+}
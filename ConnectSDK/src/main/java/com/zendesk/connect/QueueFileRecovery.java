@@ -0,0 +1,301 @@
+package com.zendesk.connect;
+
+import com.squareup.tape2.ObjectQueue;
+import com.squareup.tape2.QueueFile;
+import com.zendesk.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *     Rebuilds damaged tape queue files from whatever records can still be read.
+ * </p>
+ * <p>
+ *     The scanner reads the {@link QueueFile} header as far as it can be trusted and walks the
+ *     records from the first one. A record whose length runs past the end of the file is a
+ *     torn write, so the walk stops there. A record that fails its {@link ChecksumConverter}
+ *     checksum or can't be decoded is skipped. The records that survive are written to a new
+ *     queue file, which replaces the damaged one.
+ * </p>
+ */
+final class QueueFileRecovery {
+
+    private static final String LOG_TAG = "QueueFileRecovery";
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".recovering";
+
+    private static final int VERSIONED_HEADER = 0x80000001;
+    private static final int VERSIONED_HEADER_LENGTH = 32;
+    private static final int LEGACY_HEADER_LENGTH = 16;
+    private static final int RECORD_HEADER_LENGTH = 4;
+
+    private QueueFileRecovery() {
+    }
+
+    /**
+     * Outcome of a recovery
+     */
+    static final class Result {
+
+        private final int salvaged;
+        private final int dropped;
+
+        Result(int salvaged, int dropped) {
+            this.salvaged = salvaged;
+            this.dropped = dropped;
+        }
+
+        /**
+         * Gets the number of records kept
+         *
+         * @return the number of salvaged records
+         */
+        int salvaged() {
+            return salvaged;
+        }
+
+        /**
+         * Gets the number of records known to be lost
+         *
+         * @return the number of dropped records
+         */
+        int dropped() {
+            return dropped;
+        }
+    }
+
+    /**
+     * Opens a queue file, recovering it first if it can't be opened as it is.
+     *
+     * @param file the queue file
+     * @param converter the converter the records were written with, used to validate them
+     * @param queueMetrics the {@link QueueMetrics} recording the outcome of any recovery
+     * @return the opened {@link QueueFile}
+     * @throws IOException if the file can't be opened even after recovery
+     */
+    static QueueFile open(File file, ObjectQueue.Converter<?> converter, QueueMetrics queueMetrics)
+            throws IOException {
+        try {
+            return new QueueFile.Builder(file).build();
+        } catch (IOException | RuntimeException e) {
+            Logger.w(LOG_TAG, "Failed to open %s, recovering it", e, file.getName());
+        }
+
+        queueMetrics.onRecovery(recover(file, converter));
+        return new QueueFile.Builder(file).build();
+    }
+
+    /**
+     * Replaces a queue file with a new one containing every record that can still be read.
+     *
+     * @param file the damaged queue file
+     * @param converter the converter the records were written with, used to validate them
+     * @return the {@link Result} of the recovery
+     * @throws IOException if the file can't be read or the new file can't be written
+     */
+    static Result recover(File file, ObjectQueue.Converter<?> converter) throws IOException {
+        List<byte[]> salvaged = new ArrayList<>();
+        int dropped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            dropped = scan(raf, converter, salvaged);
+        }
+
+        File temporary = new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+        if (temporary.exists() && !temporary.delete()) {
+            throw new IOException("Failed to delete " + temporary.getName());
+        }
+        try (QueueFile queueFile = new QueueFile.Builder(temporary).build()) {
+            for (byte[] record : salvaged) {
+                queueFile.add(record);
+            }
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Failed to replace " + file.getName());
+        }
+
+        Logger.d(LOG_TAG, "Recovered %s, salvaged %d records and dropped %d",
+                file.getName(), salvaged.size(), dropped);
+        return new Result(salvaged.size(), dropped);
+    }
+
+    /**
+     * Walks the records of a queue file, adding the intact ones to {@code salvaged}.
+     *
+     * @return the number of records known to be lost
+     */
+    private static int scan(RandomAccessFile raf, ObjectQueue.Converter<?> converter, List<byte[]> salvaged)
+            throws IOException {
+        Ring ring = Ring.read(raf);
+        if (ring == null) {
+            return 0;
+        }
+
+        int dropped = 0;
+        int scanned = 0;
+        long position = ring.firstPosition;
+        long consumed = 0;
+        long capacity = ring.length - ring.headerLength;
+        byte[] lengthBytes = new byte[RECORD_HEADER_LENGTH];
+
+        for (; scanned < ring.elementCount; scanned++) {
+            if (consumed + RECORD_HEADER_LENGTH > capacity || !ring.read(position, lengthBytes)) {
+                break;
+            }
+            int length = ((lengthBytes[0] & 0xFF) << 24) | ((lengthBytes[1] & 0xFF) << 16)
+                    | ((lengthBytes[2] & 0xFF) << 8) | (lengthBytes[3] & 0xFF);
+            if (length < 0 || consumed + RECORD_HEADER_LENGTH + length > capacity) {
+                break;
+            }
+
+            byte[] record = new byte[length];
+            if (!ring.read(ring.wrap(position + RECORD_HEADER_LENGTH), record)) {
+                break;
+            }
+
+            if (isValid(record, converter)) {
+                salvaged.add(record);
+            } else if (ring.elementCountKnown) {
+                dropped++;
+            } else {
+                // Without a record count, garbage can't be told apart from a damaged record
+                break;
+            }
+
+            position = ring.wrap(position + RECORD_HEADER_LENGTH + length);
+            consumed += RECORD_HEADER_LENGTH + length;
+        }
+
+        if (ring.elementCountKnown) {
+            dropped += ring.elementCount - scanned;
+        }
+        return dropped;
+    }
+
+    /**
+     * Checks whether a stored record can still be read
+     *
+     * @param record the stored record
+     * @param converter the converter the record was written with
+     * @return true if the record passes its checksum and can be decoded
+     */
+    static boolean isValid(byte[] record, ObjectQueue.Converter<?> converter) {
+        if (!ChecksumConverter.isIntact(record)) {
+            return false;
+        }
+        try {
+            return converter.from(record) != null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The ring buffer layout of a queue file, as far as its header can be trusted.
+     */
+    private static final class Ring {
+
+        private final RandomAccessFile raf;
+        private final long actualLength;
+        private final int headerLength;
+        private final long length;
+        private final int elementCount;
+        private final boolean elementCountKnown;
+        private final long firstPosition;
+
+        private Ring(RandomAccessFile raf,
+                     long actualLength,
+                     int headerLength,
+                     long length,
+                     int elementCount,
+                     boolean elementCountKnown,
+                     long firstPosition) {
+            this.raf = raf;
+            this.actualLength = actualLength;
+            this.headerLength = headerLength;
+            this.length = length;
+            this.elementCount = elementCount;
+            this.elementCountKnown = elementCountKnown;
+            this.firstPosition = firstPosition;
+        }
+
+        /**
+         * Reads the header of a queue file. Values that are out of range are replaced by the
+         * most likely layout: a ring as long as the file, starting right after the header,
+         * holding as many records as can be read.
+         *
+         * @return the {@link Ring}, or null if the file is too short to hold any record
+         */
+        static Ring read(RandomAccessFile raf) throws IOException {
+            long actualLength = raf.length();
+            if (actualLength < LEGACY_HEADER_LENGTH) {
+                return null;
+            }
+
+            raf.seek(0);
+            int version = raf.readInt();
+            int headerLength;
+            long length;
+            int elementCount;
+            long firstPosition;
+            if ((version & 0x80000000) != 0) {
+                if (version != VERSIONED_HEADER || actualLength < VERSIONED_HEADER_LENGTH) {
+                    return new Ring(raf, actualLength, VERSIONED_HEADER_LENGTH, actualLength,
+                            Integer.MAX_VALUE, false, VERSIONED_HEADER_LENGTH);
+                }
+                headerLength = VERSIONED_HEADER_LENGTH;
+                length = raf.readLong();
+                elementCount = raf.readInt();
+                firstPosition = raf.readLong();
+            } else {
+                headerLength = LEGACY_HEADER_LENGTH;
+                length = version;
+                elementCount = raf.readInt();
+                firstPosition = raf.readInt();
+            }
+
+            if (length <= headerLength) {
+                length = actualLength;
+            }
+            // Every record takes at least its length header, so larger counts are garbage
+            boolean elementCountKnown = elementCount >= 0
+                    && elementCount <= (length - headerLength) / RECORD_HEADER_LENGTH;
+            if (!elementCountKnown) {
+                elementCount = Integer.MAX_VALUE;
+            }
+            if (firstPosition < headerLength || firstPosition >= length) {
+                firstPosition = headerLength;
+            }
+            return new Ring(raf, actualLength, headerLength, length, elementCount, elementCountKnown,
+                    firstPosition);
+        }
+
+        long wrap(long position) {
+            return position < length ? position : headerLength + position - length;
+        }
+
+        /**
+         * Reads bytes starting at a ring position, wrapping around the end of the ring.
+         *
+         * @return false if any of the bytes lie past the end of the file
+         */
+        boolean read(long position, byte[] buffer) throws IOException {
+            int offset = 0;
+            while (offset < buffer.length) {
+                position = wrap(position);
+                int count = (int) Math.min(buffer.length - offset, length - position);
+                if (position + count > actualLength) {
+                    return false;
+                }
+                raf.seek(position);
+                raf.readFully(buffer, offset, count);
+                offset += count;
+                position += count;
+            }
+            return true;
+        }
+    }
+}
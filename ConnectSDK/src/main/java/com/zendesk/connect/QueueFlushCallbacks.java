@@ -0,0 +1,171 @@
+package com.zendesk.connect;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.zendesk.logger.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+/**
+ * <p>
+ *     Flushes the write-behind {@link BufferedQueue}s when the process is likely to be killed soon.
+ * </p>
+ * <p>
+ *     {@link #onTrimMemory(int)} is called with {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}
+ *     as soon as the host app is backgrounded, and with other levels as the system comes under
+ *     memory pressure. Either way the process becomes a candidate for being killed, so any
+ *     buffered users and events are written to disk straight away, and the upload held back
+ *     by the {@link FlushPolicy} is scheduled rather than left to a timer that dies with the
+ *     process.
+ * </p>
+ * <p>
+ *     The queues are also sent in-process by the {@link QueuedRequestsFlusher}, without waiting
+ *     for the {@link QueuedRequestsWorker}, when the last activity of the host app is stopped
+ *     and, from API 21, whenever a network with internet access becomes available.
+ * </p>
+ * <p>
+ *     The {@link FlushPolicy} is told when the host app enters and leaves the foreground and,
+ *     from API 21, when networks come and go, so it can send new items in-process while the app
+ *     is in use.
+ * </p>
+ */
+@ConnectScope
+class QueueFlushCallbacks implements ComponentCallbacks2, ForegroundListener.Callback,
+        ForegroundListener.BackgroundCallback {
+
+    private static final String LOG_TAG = "QueueFlushCallbacks";
+
+    private final BufferedQueue<User> userQueue;
+    private final BufferedQueue<Event> eventQueue;
+    private final FlushPolicy flushPolicy;
+    private final QueuedRequestsFlusher flusher;
+
+    @Inject
+    QueueFlushCallbacks(Application application,
+                        BufferedQueue<User> userQueue,
+                        BufferedQueue<Event> eventQueue,
+                        FlushPolicy flushPolicy,
+                        ForegroundListener foregroundListener,
+                        QueuedRequestsFlusher flusher) {
+        this.userQueue = userQueue;
+        this.eventQueue = eventQueue;
+        this.flushPolicy = flushPolicy;
+        this.flusher = flusher;
+        application.registerComponentCallbacks(this);
+        foregroundListener.addCallback(this);
+        foregroundListener.addBackgroundCallback(this);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            NetworkFlushCallback.register(application, flusher, flushPolicy);
+        }
+    }
+
+    @Override
+    public void onForeground() {
+        Logger.d(LOG_TAG, "onForeground - Sending new users and events in-process");
+        flushPolicy.setForeground(true);
+    }
+
+    @Override
+    public void onBackground() {
+        Logger.d(LOG_TAG, "onBackground - Sending queued users and events");
+        flushPolicy.setForeground(false);
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        Logger.d(LOG_TAG, "onTrimMemory - Flushing buffered users and events, level %d", level);
+        userQueue.flush();
+        eventQueue.flush();
+        flushPolicy.flush();
+    }
+
+    @Override
+    public void onLowMemory() {
+        Logger.d(LOG_TAG, "onLowMemory - Flushing buffered users and events");
+        userQueue.flush();
+        eventQueue.flush();
+        flushPolicy.flush();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Intentionally empty
+    }
+
+    /**
+     * Sends the queued users and events whenever a network with internet access becomes
+     * available. This is also called straight after registering if there already is one, which
+     * sends anything left over from an earlier session. The {@link FlushPolicy} is told whether
+     * any such network is left as they come and go.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    static class NetworkFlushCallback extends ConnectivityManager.NetworkCallback {
+
+        private final QueuedRequestsFlusher flusher;
+        private final FlushPolicy flushPolicy;
+        private final Set<Network> availableNetworks = new HashSet<>();
+
+        NetworkFlushCallback(QueuedRequestsFlusher flusher, FlushPolicy flushPolicy) {
+            this.flusher = flusher;
+            this.flushPolicy = flushPolicy;
+        }
+
+        static void register(Context context, QueuedRequestsFlusher flusher, FlushPolicy flushPolicy) {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivityManager == null) {
+                Logger.w(LOG_TAG, "ConnectivityManager is unavailable, not listening for the network");
+                return;
+            }
+
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            try {
+                connectivityManager.registerNetworkCallback(request,
+                        new NetworkFlushCallback(flusher, flushPolicy));
+            } catch (RuntimeException e) {
+                // Thrown by some devices when the app has too many callbacks registered
+                Logger.w(LOG_TAG, "Couldn't listen for the network", e);
+            }
+        }
+
+        @Override
+        public void onAvailable(Network network) {
+            Logger.d(LOG_TAG, "onAvailable - Sending queued users and events");
+            synchronized (availableNetworks) {
+                availableNetworks.add(network);
+            }
+            flushPolicy.setNetworkAvailable(true);
+            flusher.flushAsync(FlushReport.Trigger.NETWORK_AVAILABLE);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            boolean anyAvailable;
+            synchronized (availableNetworks) {
+                availableNetworks.remove(network);
+                anyAvailable = !availableNetworks.isEmpty();
+            }
+            if (!anyAvailable) {
+                Logger.d(LOG_TAG, "onLost - No network left, leaving queued items to the worker");
+                flushPolicy.setNetworkAvailable(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.zendesk.connect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+/**
+ * Counters describing the health of the on-disk queues, and the events dropped before they
+ * reach them, shared by every queue of a {@link ConnectComponent}. The counts cover the life of
+ * the process and are passed to the host app with every {@link FlushReport}.
+ */
+@ConnectScope
+class QueueMetrics {
+
+    private final AtomicInteger recoveredFiles = new AtomicInteger();
+    private final AtomicInteger salvagedRecords = new AtomicInteger();
+    private final AtomicInteger droppedRecords = new AtomicInteger();
+    private final AtomicInteger expiredRecords = new AtomicInteger();
+    private final AtomicInteger sampledEvents = new AtomicInteger();
+    private final AtomicInteger rateLimitedEvents = new AtomicInteger();
+    private final AtomicInteger overflowedEvents = new AtomicInteger();
+
+    @Inject
+    QueueMetrics() {
+    }
+
+    /**
+     * Records the outcome of a {@link QueueFileRecovery}
+     *
+     * @param result the {@link QueueFileRecovery.Result} of the recovery
+     */
+    void onRecovery(QueueFileRecovery.Result result) {
+        recoveredFiles.incrementAndGet();
+        salvagedRecords.addAndGet(result.salvaged());
+        droppedRecords.addAndGet(result.dropped());
+    }
+
+    /**
+     * Records objects dropped by an {@link ExpiringQueue} for being too old, or for being the
+     * oldest beyond its maximum count
+     *
+     * @param count the number of expired objects
+     */
+    void onExpired(int count) {
+        expiredRecords.addAndGet(count);
+    }
+
+    /**
+     * Records an event dropped by the sample rate of an {@link EventGate}
+     */
+    void onSampled() {
+        sampledEvents.incrementAndGet();
+    }
+
+    /**
+     * Records an event dropped by the rate limit of an {@link EventGate}
+     */
+    void onRateLimited() {
+        rateLimitedEvents.incrementAndGet();
+    }
+
+    /**
+     * Records an event dropped by the {@link ConnectWriter} because the main thread tracked it
+     * while the writer was full
+     */
+    void onWriterOverflow() {
+        overflowedEvents.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of damaged queue files that have been recovered
+     *
+     * @return the number of recovered files
+     */
+    int recoveredFiles() {
+        return recoveredFiles.get();
+    }
+
+    /**
+     * Gets the number of records kept when recovering damaged queue files
+     *
+     * @return the number of salvaged records
+     */
+    int salvagedRecords() {
+        return salvagedRecords.get();
+    }
+
+    /**
+     * Gets the number of records lost when recovering damaged queue files
+     *
+     * @return the number of dropped records
+     */
+    int droppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Gets the number of queued objects dropped by an {@link ExpiringQueue} before upload
+     *
+     * @return the number of expired records
+     */
+    int expiredRecords() {
+        return expiredRecords.get();
+    }
+
+    /**
+     * Gets the number of events dropped by a sample rate
+     *
+     * @return the number of sampled out events
+     */
+    int sampledEvents() {
+        return sampledEvents.get();
+    }
+
+    /**
+     * Gets the number of events dropped for going over a maximum per minute
+     *
+     * @return the number of rate limited events
+     */
+    int rateLimitedEvents() {
+        return rateLimitedEvents.get();
+    }
+
+    /**
+     * Gets the number of events dropped because the writer was full
+     *
+     * @return the number of overflowed events
+     */
+    int overflowedEvents() {
+        return overflowedEvents.get();
+    }
+}
@@ -0,0 +1,159 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * <p>
+ *     Drains the user and event queues with the {@link QueuedRequestsJobProcessor}, either for
+ *     the {@link QueuedRequestsWorker} or in-process when something suggests the queues are worth
+ *     sending straight away, such as the host app being backgrounded or the network coming back.
+ * </p>
+ * <p>
+ *     Drains never overlap: {@link QueuedRequestsJobProcessor} runs one at a time, so a worker
+ *     started during an in-process drain waits for it and then finds little or nothing left to
+ *     send. In-process requests made while one is already waiting to start are folded into it.
+ * </p>
+ * <p>
+ *     Every drain is described to the {@link FlushListener} set by the host app, if any.
+ * </p>
+ */
+@ConnectScope
+class QueuedRequestsFlusher {
+
+    private static final String LOG_TAG = "QueuedRequestsFlusher";
+
+    @Nullable private static volatile FlushListener flushListener;
+
+    private final BaseQueue<User> userQueue;
+    private final BaseQueue<Event> eventQueue;
+    private final IdentifyProvider identifyProvider;
+    private final EventProvider eventProvider;
+    private final Executor executor;
+    private final BatchSizer batchSizer;
+    private final RequestBackoff backoff;
+    private final DeadLetterStore deadLetters;
+    private final BatchReplay replay;
+    private final ConnectScheduler scheduler;
+    private final QueueMetrics queueMetrics;
+
+    private final AtomicReference<FlushReport.Trigger> pendingTrigger = new AtomicReference<>();
+
+    private final Runnable pendingFlush = new Runnable() {
+        @Override
+        public void run() {
+            drain(pendingTrigger.getAndSet(null));
+        }
+    };
+
+    @Inject
+    QueuedRequestsFlusher(BaseQueue<User> userQueue,
+                          BaseQueue<Event> eventQueue,
+                          IdentifyProvider identifyProvider,
+                          EventProvider eventProvider,
+                          OkHttpClient okHttpClient,
+                          BatchSizer batchSizer,
+                          RequestBackoff backoff,
+                          DeadLetterStore deadLetters,
+                          BatchReplay replay,
+                          ConnectScheduler scheduler,
+                          QueueMetrics queueMetrics) {
+        // Requests are sent on the OkHttp dispatcher, which grows to run them side by side
+        this(userQueue, eventQueue, identifyProvider, eventProvider,
+                okHttpClient.dispatcher().executorService(), batchSizer, backoff, deadLetters,
+                replay, scheduler, queueMetrics);
+    }
+
+    @VisibleForTesting
+    QueuedRequestsFlusher(BaseQueue<User> userQueue,
+                          BaseQueue<Event> eventQueue,
+                          IdentifyProvider identifyProvider,
+                          EventProvider eventProvider,
+                          Executor executor,
+                          BatchSizer batchSizer,
+                          RequestBackoff backoff,
+                          DeadLetterStore deadLetters,
+                          BatchReplay replay,
+                          ConnectScheduler scheduler,
+                          QueueMetrics queueMetrics) {
+        this.userQueue = userQueue;
+        this.eventQueue = eventQueue;
+        this.identifyProvider = identifyProvider;
+        this.eventProvider = eventProvider;
+        this.executor = executor;
+        this.batchSizer = batchSizer;
+        this.backoff = backoff;
+        this.deadLetters = deadLetters;
+        this.replay = replay;
+        this.scheduler = scheduler;
+        this.queueMetrics = queueMetrics;
+    }
+
+    /**
+     * Sets the {@link FlushListener} told about every drain, replacing any set before
+     *
+     * @param listener the listener, or null to stop reporting drains
+     */
+    static void setFlushListener(@Nullable FlushListener listener) {
+        flushListener = listener;
+    }
+
+    /**
+     * Drains both queues on the calling thread, waiting for any drain already running to finish
+     * first. A failure that may succeed later is retried by the {@link QueuedRequestsWorker}
+     * once the {@link RequestBackoff} has passed.
+     *
+     * @param trigger what started the drain
+     */
+    void drain(FlushReport.Trigger trigger) {
+        FlushRecorder recorder = new FlushRecorder();
+        QueuedRequestsJobProcessor.process(userQueue, eventQueue, identifyProvider, eventProvider,
+                executor, batchSizer, backoff, deadLetters, replay, recorder);
+
+        long retryDelayMillis = backoff.remainingMillis();
+        if (retryDelayMillis > 0) {
+            scheduler.scheduleQueuedNetworkRetry(retryDelayMillis);
+        }
+
+        FlushListener listener = flushListener;
+        if (listener != null) {
+            FlushReport report = recorder.report(trigger, userQueue.size(), eventQueue.size(),
+                    retryDelayMillis, queueMetrics);
+            try {
+                listener.onFlush(report);
+            } catch (RuntimeException e) {
+                Logger.e(LOG_TAG, "Flush listener threw an exception", e);
+            }
+        }
+    }
+
+    /**
+     * Drains both queues in the background, unless a background drain is already waiting to
+     * start, in which case that one covers this request.
+     *
+     * @param trigger what started the drain
+     */
+    void flushAsync(FlushReport.Trigger trigger) {
+        if (!pendingTrigger.compareAndSet(null, trigger)) {
+            Logger.d(LOG_TAG, "A flush is already pending");
+            return;
+        }
+
+        try {
+            executor.execute(pendingFlush);
+        } catch (RejectedExecutionException e) {
+            Logger.w(LOG_TAG, "Couldn't start a flush, leaving the queues to the worker");
+            pendingTrigger.set(null);
+        }
+    }
+}
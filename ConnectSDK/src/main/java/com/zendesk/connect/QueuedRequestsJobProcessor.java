@@ -1,11 +1,24 @@
 package com.zendesk.connect;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.gson.Gson;
+import com.squareup.tape2.ObjectQueue;
 import com.zendesk.logger.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
+import retrofit2.Response;
 
 /**
  * <p>
@@ -16,6 +29,19 @@ import retrofit2.Call;
  *     {@link QueuedRequestsJobProcessor#MAX_BATCH_SIZE} is set to 100 because that is the maximum
  *     number of items allowed by the backend for any batch request.
  * </p>
+ * <p>
+ *     Each batch is read through a {@link QueueCursor}, which decodes the queued entries one at a
+ *     time and removes exactly the entries it read once the batch has been sent. Entries that
+ *     can't be read are removed along with the batch rather than blocking the queue.
+ * </p>
+ * <p>
+ *     A batch in which the backend rejects items, as told by {@link RequestBackoff#isRejected},
+ *     is sent again in halves, and halves of those, until the items it rejects on their own are
+ *     found. Those go to the {@link DeadLetterStore} and the rest are sent, so one bad item
+ *     can't hold up the items behind it. Each drain makes at most {@link #MAX_BISECT_REQUESTS}
+ *     such requests in a run. Any other failure, or a rejection past that limit, stops the
+ *     drain and starts a wait in the {@link RequestBackoff}.
+ * </p>
  */
 class QueuedRequestsJobProcessor {
 
@@ -24,86 +50,909 @@ class QueuedRequestsJobProcessor {
     private static final int MAX_BATCH_SIZE = 100;
 
     /**
-     * Grab all objects from the {@link BaseQueue}s and sends the network requests.
+     * Upper bound on the stored size of the entries read for a single batch, so a large backlog
+     * is read a bounded amount at a time however big its entries are.
+     */
+    private static final long MAX_BATCH_BYTES = 256 * 1024;
+
+    /**
+     * The number of event batches read from the queue at once, so the next batch can be read
+     * while the previous one is being sent.
+     */
+    private static final int PIPELINE_BATCHES = 4;
+
+    /**
+     * The number of requests each queue may send while bisecting rejected batches in a single
+     * run, enough to bisect one full batch down to single items.
+     */
+    private static final int MAX_BISECT_REQUESTS = 2 * MAX_BATCH_SIZE;
+
+    /**
+     * Grab all objects from the {@link BaseQueue}s and sends the network requests, draining the
+     * user queue before the event queue on the calling thread.
      *
      * @param userQueue an instance of {@link BaseQueue} for storing {@link User} objects
      * @param eventQueue an instance of {@link BaseQueue} for storing {@link Event} objects
      * @param identifyProvider an implementation of {@link IdentifyProvider}
      * @param eventProvider an implementation of {@link EventProvider}
      */
-    static synchronized void process(BaseQueue<User> userQueue,
+    @VisibleForTesting
+    static void process(BaseQueue<User> userQueue,
+                        BaseQueue<Event> eventQueue,
+                        IdentifyProvider identifyProvider,
+                        EventProvider eventProvider) {
+        Executor inline = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        DeadLetterStore deadLetters = new DeadLetterStore(
+                new ConnectQueue<>(ObjectQueue.<DeadLetterStore.DeadLetter>createInMemory()), new Gson());
+        process(userQueue, eventQueue, identifyProvider, eventProvider, inline, new BatchSizer(),
+                new RequestBackoff(), deadLetters, new BatchReplay(null), new FlushRecorder());
+    }
+
+    /**
+     * Grab all objects from the {@link BaseQueue}s and sends the network requests, without
+     * remembering failed batches beyond this process.
+     *
+     * @see #process(BaseQueue, BaseQueue, IdentifyProvider, EventProvider, Executor, BatchSizer,
+     * RequestBackoff, DeadLetterStore, BatchReplay, FlushRecorder)
+     */
+    @VisibleForTesting
+    static void process(BaseQueue<User> userQueue,
+                        BaseQueue<Event> eventQueue,
+                        IdentifyProvider identifyProvider,
+                        EventProvider eventProvider,
+                        Executor executor,
+                        BatchSizer batchSizer,
+                        RequestBackoff backoff,
+                        DeadLetterStore deadLetters) {
+        process(userQueue, eventQueue, identifyProvider, eventProvider, executor, batchSizer,
+                backoff, deadLetters, new BatchReplay(null), new FlushRecorder());
+    }
+
+    /**
+     * <p>
+     *     Grab all objects from the {@link BaseQueue}s and sends the network requests. The user
+     *     queue is drained on the given executor while the event queue is drained on the calling
+     *     thread, so a slow identify doesn't hold up every event.
+     * </p>
+     * <p>
+     *     An event is never sent before the identify of its user: an event whose user is still
+     *     waiting in the user queue is held back, along with every event behind it, until that
+     *     user has been identified. Events are held back for good if the identify fails. This
+     *     returns once both queues have been drained.
+     * </p>
+     * <p>
+     *     Event batches are sized by the {@link BatchSizer}, which learns from each request.
+     *     Each event request is also sent on the executor while the next batch is read, so the
+     *     executor should be able to run more than one task at a time.
+     * </p>
+     * <p>
+     *     Nothing is sent from a queue while the {@link RequestBackoff} is waiting after an
+     *     earlier failure of that queue.
+     *     A batch that failed that way is sent again with the same entries, as recorded by the
+     *     {@link BatchReplay}, so it keeps its idempotency key.
+     * </p>
+     *
+     * @param userQueue an instance of {@link BaseQueue} for storing {@link User} objects
+     * @param eventQueue an instance of {@link BaseQueue} for storing {@link Event} objects
+     * @param identifyProvider an implementation of {@link IdentifyProvider}
+     * @param eventProvider an implementation of {@link EventProvider}
+     * @param executor the executor the user queue is drained and event requests are sent on
+     * @param batchSizer the {@link BatchSizer} sizing the event batches
+     * @param backoff the {@link RequestBackoff} told about failures that may succeed later
+     * @param deadLetters the {@link DeadLetterStore} keeping the items the backend rejects
+     * @param replay the {@link BatchReplay} recording the batches to send again as they are
+     * @param recorder the {@link FlushRecorder} told about every request
+     */
+    static synchronized void process(final BaseQueue<User> userQueue,
                                      BaseQueue<Event> eventQueue,
-                                     IdentifyProvider identifyProvider,
-                                     EventProvider eventProvider) {
+                                     final IdentifyProvider identifyProvider,
+                                     EventProvider eventProvider,
+                                     Executor executor,
+                                     BatchSizer batchSizer,
+                                     final RequestBackoff backoff,
+                                     final DeadLetterStore deadLetters,
+                                     final BatchReplay replay,
+                                     final FlushRecorder recorder) {
 
-        if (userQueue == null || eventQueue == null || identifyProvider == null || eventProvider == null) {
+        if (userQueue == null || eventQueue == null || identifyProvider == null || eventProvider == null
+                || batchSizer == null || backoff == null || deadLetters == null || replay == null
+                || recorder == null) {
             Logger.e(LOG_TAG, "Object queues and network providers must not be null");
             return;
         }
 
         Logger.d(LOG_TAG, "Beginning network request worker, sending queued items");
 
+        final PendingUsers pendingUsers = PendingUsers.of(userQueue);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        processUserQueue(identifyProvider, userQueue, pendingUsers, backoff, deadLetters,
+                                replay, recorder);
+                    } catch (IOException e) {
+                        Logger.e(LOG_TAG, "Error while sending queued requests", e);
+                    } finally {
+                        pendingUsers.finish();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logger.e(LOG_TAG, "Failed to start sending queued users", e);
+            pendingUsers.finish();
+        }
+
         try {
-            processUserQueue(identifyProvider, userQueue);
-            processEventQueue(eventProvider, eventQueue);
+            processEventQueue(eventProvider, eventQueue, pendingUsers, batchSizer, executor,
+                    backoff, deadLetters, replay, recorder);
         } catch (IOException e) {
             Logger.e(LOG_TAG, "Error while sending queued requests", e);
         }
+
+        pendingUsers.awaitFinish();
     }
 
     /**
      * Processes the user queue, sending all {@link User}s in identify and identify batch requests
-     * until the queue is empty.
+     * until the queue is empty. A rejected batch is only removed once every user in it has been
+     * sent or set aside: users can't be removed from the middle of a folded batch, and sending
+     * an identify again is harmless.
      *
      * @param identifyProvider the provider for making identify requests
      * @param userQueue the queue containing the {@link User} objects
+     * @param pendingUsers the {@link PendingUsers} told about each identified user
+     * @param backoff the {@link RequestBackoff} told about failures that may succeed later
+     * @param deadLetters the {@link DeadLetterStore} keeping the users the backend rejects
+     * @param replay the {@link BatchReplay} recording the user batch to send again
+     * @param recorder the {@link FlushRecorder} told about every request
      */
     private static void processUserQueue(IdentifyProvider identifyProvider,
-                                         BaseQueue<User> userQueue) throws IOException {
-        int queueSize = userQueue.size();
-        Call<Void> call = null;
-        while (queueSize > 0) {
-            List<User> users = userQueue.peek(MAX_BATCH_SIZE);
-            if (users.size() > 1) {
-                call = identifyProvider.identifyBatch(users);
-            } else if (users.size() == 1) {
-                call = identifyProvider.identify(users.get(0));
-            }
-
-            if (call != null && call.execute().isSuccessful()) {
-                userQueue.remove(users.size());
-                queueSize = userQueue.size();
+                                         BaseQueue<User> userQueue,
+                                         PendingUsers pendingUsers,
+                                         RequestBackoff backoff,
+                                         DeadLetterStore deadLetters,
+                                         BatchReplay replay,
+                                         FlushRecorder recorder) throws IOException {
+        if (isWaiting(backoff, FlushReport.Queue.USERS)) {
+            return;
+        }
+        BatchSender<User> sender = userSender(identifyProvider);
+        BisectBudget budget = new BisectBudget();
+        while (userQueue.size() > 0) {
+            int replaySize = replay.userBatchSize();
+            QueueCursor<User> cursor = replaySize > 0
+                    ? userQueue.cursor(replaySize, Long.MAX_VALUE)
+                    : userQueue.cursor(MAX_BATCH_SIZE, MAX_BATCH_BYTES);
+            List<User> users = new ArrayList<>();
+            while (cursor.hasNext()) {
+                User user = cursor.next();
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+
+            if (users.isEmpty()) {
+                if (cursor.consumedCount() == 0) {
+                    break;
+                }
+                // Nothing in this batch could be read, so there is nothing to send
+                cursor.commit();
+                replay.setUserBatchSize(0);
+                continue;
+            }
+
+            Response<Void> response;
+            try {
+                response = execute(sender.send(users), FlushReport.Queue.USERS, users.size(),
+                        replaySize > 0, recorder);
+            } catch (IOException e) {
+                backoff.onFailure(FlushReport.Queue.USERS, null);
+                replay.setUserBatchSize(cursor.consumedCount());
+                throw e;
+            }
+
+            boolean resolved;
+            if (response.isSuccessful()) {
+                recorder.onAccepted(FlushReport.Queue.USERS, users.size());
+                resolved = true;
+            } else if (shouldBisect(response, users.size(), budget)) {
+                resolved = bisect(users, sender, FlushReport.Queue.USERS, response.code(),
+                        budget, backoff, deadLetters, recorder) == users.size();
             } else {
+                backoff.onFailure(FlushReport.Queue.USERS, response);
+                resolved = false;
+            }
+
+            if (!resolved) {
+                // The halves already sent are sent again with the same keys
+                replay.setUserBatchSize(cursor.consumedCount());
                 break;
             }
+            backoff.onSuccess(FlushReport.Queue.USERS);
+            cursor.commit();
+            replay.setUserBatchSize(0);
+            pendingUsers.identified(users);
         }
     }
 
     /**
-     * Processes the event queue, sending all {@link Event}s in track and track batch requests
-     * until the queue is empty.
+     * <p>
+     *     Processes the event queue, sending all {@link Event}s in track and track batch requests
+     *     until the queue is empty. Where the queue can provide its entries as JSON, and no user
+     *     is waiting to be identified, the request body is streamed from those bytes and no
+     *     {@link Event} objects are created.
+     * </p>
+     * <p>
+     *     The queue is read through a cursor covering up to {@link #PIPELINE_BATCHES} batches.
+     *     Each batch is sent on the executor while the next one is read from the cursor, and is
+     *     only removed from the queue once it has been accepted. When a request fails, the batch
+     *     read behind it is dropped without being sent.
+     * </p>
      *
      * @param eventProvider the provider for making track requests
      * @param eventQueue the queue containing the {@link Event} objects
+     * @param pendingUsers the {@link PendingUsers} deciding which events are held back
+     * @param batchSizer the {@link BatchSizer} sizing each batch and told how it went
+     * @param executor the executor the requests are sent on
+     * @param backoff the {@link RequestBackoff} told about failures that may succeed later
+     * @param deadLetters the {@link DeadLetterStore} keeping the events the backend rejects
+     * @param replay the {@link BatchReplay} recording the event batch to send again
+     * @param recorder the {@link FlushRecorder} told about every request
      */
     private static void processEventQueue(EventProvider eventProvider,
-                                          BaseQueue<Event> eventQueue) throws IOException {
-        int queueSize = eventQueue.size();
-        Call<Void> call = null;
-        while (queueSize > 0) {
-            List<Event> events = eventQueue.peek(MAX_BATCH_SIZE);
-            if (events.size() > 1) {
-                call = eventProvider.trackBatch(events);
-            } else if (events.size() == 1) {
-                call = eventProvider.track(events.get(0));
-            }
-
-            if (call != null && call.execute().isSuccessful()) {
-                eventQueue.remove(events.size());
-                queueSize = eventQueue.size();
-            } else {
+                                          BaseQueue<Event> eventQueue,
+                                          PendingUsers pendingUsers,
+                                          BatchSizer batchSizer,
+                                          Executor executor,
+                                          RequestBackoff backoff,
+                                          DeadLetterStore deadLetters,
+                                          BatchReplay replay,
+                                          FlushRecorder recorder) throws IOException {
+        if (isWaiting(backoff, FlushReport.Queue.EVENTS)) {
+            return;
+        }
+        EventSenders senders = new EventSenders(eventProvider);
+        BisectBudget budget = new BisectBudget();
+        while (eventQueue.size() > 0) {
+            // A batch to send again is read on its own, so it is cut exactly as before
+            boolean replaying = replay.eventBatchSize() > 0;
+            QueueCursor<Event> cursor = replaying
+                    ? eventQueue.cursor(replay.eventBatchSize(), Long.MAX_VALUE)
+                    : eventQueue.cursor(batchSizer.maxCount() * PIPELINE_BATCHES,
+                            batchSizer.maxBytes() * PIPELINE_BATCHES);
+            if (!processEventCursor(senders, cursor, pendingUsers, batchSizer, executor, budget,
+                    backoff, deadLetters, replay, recorder, replaying)) {
                 break;
             }
         }
     }
+
+    /**
+     * Sends the events covered by a cursor, one batch at a time
+     *
+     * @param replaying whether the cursor covers exactly one batch to send again
+     * @return true if every batch was sent and the queue should be read again
+     */
+    private static boolean processEventCursor(EventSenders senders,
+                                              QueueCursor<Event> cursor,
+                                              PendingUsers pendingUsers,
+                                              BatchSizer batchSizer,
+                                              Executor executor,
+                                              BisectBudget budget,
+                                              RequestBackoff backoff,
+                                              DeadLetterStore deadLetters,
+                                              BatchReplay replay,
+                                              FlushRecorder recorder,
+                                              boolean replaying) throws IOException {
+        Upload<?> inFlight = null;
+        boolean sentAny = false;
+        while (true) {
+            if (inFlight != null && inFlight.hasFailed()) {
+                // Settle the failure before reading on, it may stop the run
+                if (!finish(inFlight, cursor, budget, backoff, deadLetters, replay, recorder)) {
+                    return false;
+                }
+                inFlight = null;
+            }
+
+            EventBatch<?> batch = nextEventBatch(senders, cursor, pendingUsers,
+                    replaying ? Integer.MAX_VALUE : batchSizer.maxCount(),
+                    replaying ? Long.MAX_VALUE : batchSizer.maxBytes());
+
+            if (inFlight != null) {
+                if (!finish(inFlight, cursor, budget, backoff, deadLetters, replay, recorder)) {
+                    return false;
+                }
+                inFlight = null;
+            }
+
+            if (batch == null) {
+                return sentAny;
+            }
+            sentAny = true;
+
+            if (batch.call == null) {
+                // Nothing in this batch could be read, or the oldest event is held back
+                cursor.commit(batch.count);
+                if (batch.count > 0) {
+                    replay.setEventBatchSize(0);
+                }
+                if (batch.heldBackUserId == null || pendingUsers.awaitIdentified(batch.heldBackUserId)) {
+                    continue;
+                }
+                Logger.d(LOG_TAG, "Holding back events until user %s has been identified",
+                        batch.heldBackUserId);
+                return false;
+            }
+
+            inFlight = new Upload<>(batch, batchSizer, recorder, replaying);
+            try {
+                executor.execute(inFlight);
+            } catch (RejectedExecutionException e) {
+                inFlight.run();
+            }
+        }
+    }
+
+    /**
+     * Waits for an event batch to be sent and removes what was accepted or set aside from the
+     * queue. A rejected batch is bisected first.
+     *
+     * @return true if the whole batch was removed and sending can go on
+     */
+    private static <T> boolean finish(Upload<T> upload,
+                                      QueueCursor<Event> cursor,
+                                      BisectBudget budget,
+                                      RequestBackoff backoff,
+                                      DeadLetterStore deadLetters,
+                                      BatchReplay replay,
+                                      FlushRecorder recorder) throws IOException {
+        EventBatch<T> batch = upload.batch;
+        Response<Void> response;
+        try {
+            response = upload.await();
+        } catch (IOException e) {
+            backoff.onFailure(FlushReport.Queue.EVENTS, null);
+            replay.setEventBatchSize(batch.count);
+            throw e;
+        }
+        if (response == null) {
+            return false;
+        }
+
+        if (!response.isSuccessful()) {
+            if (!shouldBisect(response, batch.items.size(), budget)) {
+                backoff.onFailure(FlushReport.Queue.EVENTS, response);
+                replay.setEventBatchSize(batch.count);
+                return false;
+            }
+            int resolved = bisect(batch.items, batch.sender, FlushReport.Queue.EVENTS,
+                    response.code(), budget, backoff, deadLetters, recorder);
+            if (resolved < batch.items.size()) {
+                // Only the events before the one that failed can be removed
+                int removed = resolved > 0 ? batch.ends[resolved - 1] : 0;
+                cursor.commit(removed);
+                replay.setEventBatchSize(batch.count - removed);
+                return false;
+            }
+        }
+
+        if (response.isSuccessful()) {
+            recorder.onAccepted(FlushReport.Queue.EVENTS, batch.items.size());
+        }
+        backoff.onSuccess(FlushReport.Queue.EVENTS);
+        cursor.commit(batch.count);
+        replay.setEventBatchSize(0);
+        return true;
+    }
+
+    /**
+     * Reads the next batch of events from a cursor and creates the request sending them,
+     * stopping before the first event whose user is still waiting to be identified
+     *
+     * @return the next batch, or null if the cursor has no more events
+     */
+    @Nullable
+    private static EventBatch<?> nextEventBatch(EventSenders senders,
+                                                QueueCursor<Event> cursor,
+                                                PendingUsers pendingUsers,
+                                                int maxCount,
+                                                long maxBytes) {
+        int startCount = cursor.consumedCount();
+        long startBytes = cursor.consumedBytes();
+
+        if (cursor.supportsJson() && !pendingUsers.hasPending()) {
+            List<byte[]> entries = new ArrayList<>();
+            List<Integer> ends = new ArrayList<>();
+            while (cursor.hasNext() && cursor.consumedCount() - startCount < maxCount) {
+                byte[] entry = cursor.nextJson();
+                if (exceedsBudget(cursor, startCount, startBytes, maxBytes)) {
+                    cursor.pushBack();
+                    break;
+                }
+                if (entry != null) {
+                    entries.add(entry);
+                    ends.add(cursor.consumedCount() - startCount);
+                }
+            }
+            return EventBatch.of(senders.json, entries, ends, cursor, startCount, startBytes, null);
+        }
+
+        List<Event> events = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        String heldBackUserId = null;
+        while (cursor.hasNext() && cursor.consumedCount() - startCount < maxCount) {
+            Event event = cursor.next();
+            if (exceedsBudget(cursor, startCount, startBytes, maxBytes)) {
+                cursor.pushBack();
+                break;
+            }
+            if (event != null && pendingUsers.isPending(event.getUserId())) {
+                cursor.pushBack();
+                heldBackUserId = event.getUserId();
+                break;
+            }
+            if (event != null) {
+                events.add(event);
+                ends.add(cursor.consumedCount() - startCount);
+            }
+        }
+        return EventBatch.of(senders.objects, events, ends, cursor, startCount, startBytes, heldBackUserId);
+    }
+
+    /**
+     * Checks whether the entry just read takes a batch over its byte budget. The first entry of
+     * a batch is always accepted however large it is.
+     */
+    private static boolean exceedsBudget(QueueCursor<Event> cursor,
+                                         int startCount,
+                                         long startBytes,
+                                         long maxBytes) {
+        return cursor.consumedCount() - startCount > 1 && cursor.consumedBytes() - startBytes > maxBytes;
+    }
+
+    /**
+     * Checks whether a queue has to wait after an earlier failure before sending again
+     */
+    private static boolean isWaiting(RequestBackoff backoff, FlushReport.Queue queue) {
+        long waitMillis = backoff.remainingMillis(queue);
+        if (waitMillis > 0) {
+            Logger.d(LOG_TAG, "Waiting %d ms after a failed %s request before sending again",
+                    waitMillis, queue);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a failed batch should be bisected: the backend rejected items in it, and
+     * the {@link BisectBudget} has enough requests left to bisect it down to single items
+     */
+    private static boolean shouldBisect(Response<Void> response, int itemCount, BisectBudget budget) {
+        if (!RequestBackoff.isRejected(response)) {
+            return false;
+        }
+        if (!budget.covers(itemCount)) {
+            Logger.w(LOG_TAG, "Too many rejected batches in this run, sending the rest later");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends items that the backend rejected together in two halves, splitting each rejected half
+     * again until single rejected items are left, which go to the {@link DeadLetterStore}.
+     * Halves are sent in order and the first failure that may succeed later stops the search.
+     *
+     * @param items the rejected items
+     * @param sender the {@link BatchSender} for the items
+     * @param queue the queue the items came from
+     * @param status the status code the items were rejected with
+     * @param budget the {@link BisectBudget} each request is taken from
+     * @param backoff the {@link RequestBackoff} told about failures that may succeed later
+     * @param deadLetters the {@link DeadLetterStore} keeping the rejected items
+     * @param recorder the {@link FlushRecorder} told about every request
+     * @param <T> the type of the items
+     * @return the number of leading items that were sent or set aside
+     */
+    private static <T> int bisect(List<T> items,
+                                  BatchSender<T> sender,
+                                  FlushReport.Queue queue,
+                                  int status,
+                                  BisectBudget budget,
+                                  RequestBackoff backoff,
+                                  DeadLetterStore deadLetters,
+                                  FlushRecorder recorder) {
+        if (items.size() == 1) {
+            deadLetters.add(queue == FlushReport.Queue.USERS ? DeadLetterStore.TYPE_USER : DeadLetterStore.TYPE_EVENT,
+                    status, items.get(0));
+            recorder.onSetAside(queue);
+            return 1;
+        }
+
+        int middle = items.size() / 2;
+        List<List<T>> halves = Arrays.asList(items.subList(0, middle), items.subList(middle, items.size()));
+        int resolved = 0;
+        for (List<T> half : halves) {
+            Response<Void> response;
+            budget.spend();
+            try {
+                response = execute(sender.send(half), queue, half.size(), true, recorder);
+            } catch (IOException e) {
+                Logger.e(LOG_TAG, "Error while sending queued requests", e);
+                backoff.onFailure(queue, null);
+                return resolved;
+            }
+
+            if (response.isSuccessful()) {
+                recorder.onAccepted(queue, half.size());
+                resolved += half.size();
+            } else if (RequestBackoff.isRejected(response)) {
+                int halfResolved = bisect(half, sender, queue, response.code(), budget, backoff,
+                        deadLetters, recorder);
+                resolved += halfResolved;
+                if (halfResolved < half.size()) {
+                    return resolved;
+                }
+            } else {
+                backoff.onFailure(queue, response);
+                return resolved;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Sends a request and tells the {@link FlushRecorder} how it went
+     *
+     * @param call the request
+     * @param queue the queue the items in the request came from
+     * @param itemCount the number of items in the request
+     * @param retry whether the items had already been sent by an earlier request
+     * @param recorder the {@link FlushRecorder} told about the request
+     * @return the response
+     * @throws IOException if the request couldn't be sent
+     */
+    private static Response<Void> execute(Call<Void> call,
+                                          FlushReport.Queue queue,
+                                          int itemCount,
+                                          boolean retry,
+                                          FlushRecorder recorder) throws IOException {
+        long bytes = bodySize(call);
+        long start = System.nanoTime();
+        try {
+            Response<Void> response = call.execute();
+            recorder.onRequest(queue, itemCount, bytes, System.nanoTime() - start, response.code(), retry);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            recorder.onRequest(queue, itemCount, bytes, System.nanoTime() - start,
+                    FlushReport.NO_RESPONSE, retry);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the size of the body of a request
+     *
+     * @return the size in bytes, or -1 if it isn't known
+     */
+    private static long bodySize(Call<Void> call) {
+        try {
+            okhttp3.Request request = call.request();
+            RequestBody body = request != null ? request.body() : null;
+            return body != null ? body.contentLength() : -1;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates the request sending a list of items
+     *
+     * @param <T> the type of the items
+     */
+    private interface BatchSender<T> {
+
+        Call<Void> send(List<T> items);
+    }
+
+    private static BatchSender<User> userSender(final IdentifyProvider identifyProvider) {
+        return new BatchSender<User>() {
+            @Override
+            public Call<Void> send(List<User> users) {
+                return users.size() > 1
+                        ? identifyProvider.identifyBatch(users)
+                        : identifyProvider.identify(users.get(0));
+            }
+        };
+    }
+
+    /**
+     * The {@link BatchSender}s for events read as JSON and as {@link Event} objects
+     */
+    private static final class EventSenders {
+
+        final BatchSender<byte[]> json;
+        final BatchSender<Event> objects;
+
+        EventSenders(final EventProvider eventProvider) {
+            json = new BatchSender<byte[]>() {
+                @Override
+                public Call<Void> send(List<byte[]> entries) {
+                    return entries.size() > 1
+                            ? eventProvider.trackBatchJson(new JsonArrayRequestBody(entries))
+                            : eventProvider.trackJson(RequestBody.create(JsonArrayRequestBody.JSON, entries.get(0)));
+                }
+            };
+            objects = new BatchSender<Event>() {
+                @Override
+                public Call<Void> send(List<Event> events) {
+                    return events.size() > 1
+                            ? eventProvider.trackBatch(events)
+                            : eventProvider.track(events.get(0));
+                }
+            };
+        }
+    }
+
+    /**
+     * A batch of events read from a cursor, with the request that sends it
+     *
+     * @param <T> the type the events were read as
+     */
+    private static final class EventBatch<T> {
+
+        final BatchSender<T> sender;
+        final List<T> items;
+        // For each item, the number of entries the batch covers up to and including it
+        final int[] ends;
+        // The request, or null if there is nothing to send
+        @Nullable final Call<Void> call;
+        // The number of entries the batch covers, including any that couldn't be read
+        final int count;
+        final long bytes;
+        // The user the batch stopped at when nothing could be sent before it, otherwise null
+        @Nullable final String heldBackUserId;
+
+        private EventBatch(BatchSender<T> sender,
+                           List<T> items,
+                           int[] ends,
+                           int count,
+                           long bytes,
+                           @Nullable String heldBackUserId) {
+            this.sender = sender;
+            this.items = items;
+            this.ends = ends;
+            this.call = items.isEmpty() ? null : sender.send(items);
+            this.count = count;
+            this.bytes = bytes;
+            this.heldBackUserId = items.isEmpty() ? heldBackUserId : null;
+        }
+
+        /**
+         * Creates a batch of the items read from a cursor since it was at the given position
+         *
+         * @return the batch, or null if nothing was read and nothing is held back
+         */
+        @Nullable
+        static <T> EventBatch<T> of(BatchSender<T> sender,
+                                    List<T> items,
+                                    List<Integer> ends,
+                                    QueueCursor<Event> cursor,
+                                    int startCount,
+                                    long startBytes,
+                                    @Nullable String heldBackUserId) {
+            int count = cursor.consumedCount() - startCount;
+            if (count == 0 && heldBackUserId == null) {
+                return null;
+            }
+            int[] itemEnds = new int[ends.size()];
+            for (int i = 0; i < itemEnds.length; i++) {
+                itemEnds[i] = ends.get(i);
+            }
+            return new EventBatch<>(sender, items, itemEnds, count,
+                    cursor.consumedBytes() - startBytes, heldBackUserId);
+        }
+    }
+
+    /**
+     * Sends an {@link EventBatch} and tells the {@link BatchSizer} how it went as soon as the
+     * response arrives.
+     *
+     * @param <T> the type the events were read as
+     */
+    private static final class Upload<T> implements Runnable {
+
+        final EventBatch<T> batch;
+
+        private final BatchSizer batchSizer;
+        private final FlushRecorder recorder;
+        private final boolean retry;
+
+        private boolean done;
+        @Nullable private Response<Void> response;
+        @Nullable private IOException error;
+
+        Upload(EventBatch<T> batch, BatchSizer batchSizer, FlushRecorder recorder, boolean retry) {
+            this.batch = batch;
+            this.batchSizer = batchSizer;
+            this.recorder = recorder;
+            this.retry = retry;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            Response<Void> result = null;
+            IOException failure = null;
+            try {
+                result = execute(batch.call, FlushReport.Queue.EVENTS, batch.items.size(), retry, recorder);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            }
+
+            if (result != null && result.isSuccessful()) {
+                batchSizer.onSuccess(batch.bytes, System.nanoTime() - start);
+            } else if (result == null || !RequestBackoff.isRejected(result)) {
+                batchSizer.onFailure();
+            }
+
+            synchronized (this) {
+                response = result;
+                error = failure;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Checks whether the request has already finished without being accepted
+         */
+        synchronized boolean hasFailed() {
+            return done && (response == null || !response.isSuccessful());
+        }
+
+        /**
+         * Waits for the request to finish
+         *
+         * @return the response, or null if the wait was interrupted
+         * @throws IOException if the request couldn't be sent
+         */
+        @Nullable
+        synchronized Response<Void> await() throws IOException {
+            try {
+                while (!done) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (error != null) {
+                throw error;
+            }
+            return response;
+        }
+    }
+
+    /**
+     * The requests left for bisecting rejected batches of one queue during a run
+     */
+    private static final class BisectBudget {
+
+        private int remaining = MAX_BISECT_REQUESTS;
+
+        /**
+         * Checks whether enough requests are left to bisect a batch down to single items
+         */
+        boolean covers(int itemCount) {
+            return remaining >= 2 * itemCount - 2;
+        }
+
+        void spend() {
+            remaining--;
+        }
+    }
+
+    /**
+     * <p>
+     *     Tracks the users still waiting in the user queue while it is being drained, so events
+     *     can wait for the identify of their user.
+     * </p>
+     * <p>
+     *     The ids are read up front through a cursor that is never committed, and only the ids
+     *     are kept. The cursor covers every queued user within {@link #MAX_BATCH_BYTES}, which
+     *     is as much as the user queue keeps on disk, so an event is only held back for a user
+     *     that is actually queued.
+     * </p>
+     */
+    private static final class PendingUsers {
+
+        // Ids of the queued users that haven't been identified yet
+        private final Set<String> pending = new HashSet<>();
+        private boolean finished;
+
+        /**
+         * Reads the ids of the queued users
+         */
+        static PendingUsers of(BaseQueue<User> userQueue) {
+            PendingUsers pendingUsers = new PendingUsers();
+            int queued = userQueue.size();
+            if (queued == 0) {
+                return pendingUsers;
+            }
+            QueueCursor<User> cursor = userQueue.cursor(queued, MAX_BATCH_BYTES);
+            while (cursor.hasNext()) {
+                User user = cursor.next();
+                if (user != null && user.getUserId() != null) {
+                    pendingUsers.pending.add(user.getUserId());
+                }
+            }
+            if (cursor.consumedCount() < queued) {
+                Logger.w(LOG_TAG, "Only read %d of %d queued users, events of the others won't wait",
+                        cursor.consumedCount(), queued);
+            }
+            return pendingUsers;
+        }
+
+        synchronized boolean hasPending() {
+            return !pending.isEmpty();
+        }
+
+        synchronized boolean isPending(@Nullable String userId) {
+            return userId != null && pending.contains(userId);
+        }
+
+        /**
+         * Records users that have been identified, waking any event waiting for them
+         */
+        synchronized void identified(List<User> users) {
+            for (User user : users) {
+                pending.remove(user.getUserId());
+            }
+            notifyAll();
+        }
+
+        /**
+         * Records that the user queue won't be drained any further
+         */
+        synchronized void finish() {
+            this.finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until a user has been identified or the user queue has stopped draining
+         *
+         * @return true if the user has been identified
+         */
+        synchronized boolean awaitIdentified(String userId) {
+            try {
+                while (pending.contains(userId) && !finished) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return !pending.contains(userId);
+        }
+
+        synchronized void awaitFinish() {
+            try {
+                while (!finished) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -17,6 +17,7 @@ public class QueuedRequestsWorker extends Worker {
     private static final String LOG_TAG = "QueuedRequestsWorker";
 
     static final String QUEUED_REQUESTS_WORKER_TAG = "connect_queued_requests_worker_tag";
+    static final String QUEUED_REQUESTS_RETRY_WORKER_TAG = "connect_queued_requests_retry_worker_tag";
 
     public QueuedRequestsWorker(@NonNull Context appContext, @NonNull WorkerParameters params) {
         super(appContext, params);
@@ -33,12 +34,8 @@ public class QueuedRequestsWorker extends Worker {
 
         Logger.d(LOG_TAG, "Starting %s", LOG_TAG);
 
-        BaseQueue<User> userQueue = connectComponent.userQueue();
-        BaseQueue<Event> eventQueue = connectComponent.eventQueue();
-        IdentifyProvider identifyProvider = connectComponent.identifyProvider();
-        EventProvider eventProvider = connectComponent.eventProvider();
-
-        QueuedRequestsJobProcessor.process(userQueue, eventQueue, identifyProvider, eventProvider);
+        // Waits for any in-process drain started by the QueueFlushCallbacks to finish first
+        connectComponent.queuedRequestsFlusher().drain(FlushReport.Trigger.WORKER);
 
         return Result.success();
     }
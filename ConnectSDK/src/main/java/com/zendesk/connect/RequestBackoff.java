@@ -0,0 +1,177 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.zendesk.logger.Logger;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import okhttp3.Headers;
+import retrofit2.Response;
+
+/**
+ * <p>
+ *     Decides how long the {@link QueuedRequestsJobProcessor} waits before sending again after
+ *     a request failed in a way that may succeed later: a connection problem, a server error,
+ *     a timeout, a rate limit or a request the backend didn't accept as a whole.
+ * </p>
+ * <p>
+ *     The wait doubles with each failure in a row, from {@link #BASE_DELAY_MILLIS} up to
+ *     {@link #MAX_DELAY_MILLIS}, and a random half of it is added as jitter so devices that
+ *     failed together don't all come back together. A {@code Retry-After} header asking for
+ *     a longer wait is honoured. The wait is cleared by the next successful request.
+ * </p>
+ * <p>
+ *     The user queue and the event queue are drained separately, so each has its own failure
+ *     count and wait. A success in one drain doesn't clear a wait started by the other.
+ * </p>
+ */
+@ConnectScope
+class RequestBackoff {
+
+    private static final String LOG_TAG = "RequestBackoff";
+
+    private static final String RETRY_AFTER = "Retry-After";
+
+    @VisibleForTesting
+    static final long BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    @VisibleForTesting
+    static final long MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    @VisibleForTesting
+    static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final Random random;
+
+    // Indexed by the ordinal of the FlushReport.Queue
+    private final int[] failures = new int[FlushReport.Queue.values().length];
+    private final long[] retryAtMillis = new long[FlushReport.Queue.values().length];
+
+    @Inject
+    RequestBackoff() {
+        this(new Random());
+    }
+
+    @VisibleForTesting
+    RequestBackoff(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * <p>
+     *     Checks whether a response means the backend rejected some of the items in the
+     *     request, so sending them again as they are is pointless: a malformed request, a body
+     *     that is too large or an item that fails validation.
+     * </p>
+     * <p>
+     *     Any other failure is about the request as a whole rather than its items, such as a
+     *     private key that is no longer accepted or an endpoint that can't be found, and may
+     *     succeed later.
+     * </p>
+     *
+     * @param response the response to a request
+     * @return true if the backend rejected items in the request
+     */
+    static boolean isRejected(Response<?> response) {
+        int code = response.code();
+        return code == 400 || code == 413 || code == 422;
+    }
+
+    /**
+     * Records a failure that may succeed later and starts a wait for the queue
+     *
+     * @param queue the queue the failed request was sent from
+     * @param response the response to the failed request, or null if there was no response
+     * @return the time to wait in milliseconds
+     */
+    long onFailure(FlushReport.Queue queue, @Nullable Response<?> response) {
+        return onFailure(queue, response, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long onFailure(FlushReport.Queue queue, @Nullable Response<?> response, long nowMillis) {
+        int failures = ++this.failures[queue.ordinal()];
+        long ceiling = BASE_DELAY_MILLIS << Math.min(failures - 1, 16);
+        ceiling = Math.min(ceiling, MAX_DELAY_MILLIS);
+        long delay = ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+
+        long retryAfter = retryAfterMillis(response, nowMillis);
+        if (retryAfter > delay) {
+            delay = Math.min(retryAfter, MAX_RETRY_AFTER_MILLIS);
+        }
+
+        retryAtMillis[queue.ordinal()] = nowMillis + delay;
+        Logger.d(LOG_TAG, "Request for %s failed %d times in a row, waiting %d ms", queue, failures, delay);
+        return delay;
+    }
+
+    /**
+     * Records a successful request, clearing any wait for the queue
+     *
+     * @param queue the queue the request was sent from
+     */
+    synchronized void onSuccess(FlushReport.Queue queue) {
+        failures[queue.ordinal()] = 0;
+        retryAtMillis[queue.ordinal()] = 0;
+    }
+
+    /**
+     * Gets how much longer requests from a queue should wait
+     *
+     * @param queue the queue to check
+     * @return the remaining wait in milliseconds, or 0 if requests can be sent
+     */
+    long remainingMillis(FlushReport.Queue queue) {
+        return remainingMillis(queue, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long remainingMillis(FlushReport.Queue queue, long nowMillis) {
+        return Math.max(0, retryAtMillis[queue.ordinal()] - nowMillis);
+    }
+
+    /**
+     * Gets how long until the first queue that is waiting can send again
+     *
+     * @return the shortest remaining wait in milliseconds, or 0 if no queue is waiting
+     */
+    long remainingMillis() {
+        return remainingMillis(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long remainingMillis(long nowMillis) {
+        long shortest = 0;
+        for (FlushReport.Queue queue : FlushReport.Queue.values()) {
+            long remaining = remainingMillis(queue, nowMillis);
+            if (remaining > 0 && (shortest == 0 || remaining < shortest)) {
+                shortest = remaining;
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * Reads a {@code Retry-After} header given either in seconds or as an HTTP date
+     *
+     * @return the wait asked for in milliseconds, or -1 if there is none
+     */
+    private static long retryAfterMillis(@Nullable Response<?> response, long nowMillis) {
+        Headers headers = response != null ? response.headers() : null;
+        String value = headers != null ? headers.get(RETRY_AFTER) : null;
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            Date date = headers.getDate(RETRY_AFTER);
+            return date != null ? date.getTime() - nowMillis : -1;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Factory methods for the {@link SegmentEvictionPolicy} implementations used by {@link SegmentedQueue}.
+ */
+final class SegmentEvictionPolicies {
+
+    private SegmentEvictionPolicies() {
+    }
+
+    /**
+     * Assigns a priority to a queued object. Objects with a higher priority are kept longer by
+     * {@link #dropLowestPriority(Prioritizer)}.
+     *
+     * @param <T> the type of the queued objects
+     */
+    interface Prioritizer<T> {
+
+        /**
+         * Gets the priority of the given object
+         *
+         * @param object a queued object
+         * @return the priority of the object, higher values are more important
+         */
+        int priorityOf(T object);
+    }
+
+    /**
+     * Creates a policy that evicts the oldest segments while the queue is over budget.
+     *
+     * @param <T> the type of the queued objects
+     * @return a {@link SegmentEvictionPolicy}
+     */
+    static <T> SegmentEvictionPolicy<T> dropOldest() {
+        return new SegmentEvictionPolicy<T>() {
+            @Nullable
+            @Override
+            public SegmentedQueue.Segment<T> selectVictim(List<SegmentedQueue.Segment<T>> candidates,
+                                                          boolean overBudget) {
+                return overBudget && !candidates.isEmpty() ? candidates.get(0) : null;
+            }
+        };
+    }
+
+    /**
+     * Creates a policy that, while the queue is over budget, evicts the segment whose most
+     * important object has the lowest priority. The oldest segment wins a tie.
+     *
+     * @param prioritizer the {@link Prioritizer} assigning priorities to queued objects
+     * @param <T> the type of the queued objects
+     * @return a {@link SegmentEvictionPolicy}
+     */
+    static <T> SegmentEvictionPolicy<T> dropLowestPriority(final Prioritizer<T> prioritizer) {
+        return new SegmentEvictionPolicy<T>() {
+            @Nullable
+            @Override
+            public SegmentedQueue.Segment<T> selectVictim(List<SegmentedQueue.Segment<T>> candidates,
+                                                          boolean overBudget) {
+                if (!overBudget) {
+                    return null;
+                }
+
+                SegmentedQueue.Segment<T> victim = null;
+                int lowestPriority = Integer.MAX_VALUE;
+                for (SegmentedQueue.Segment<T> candidate : candidates) {
+                    int priority = candidate.maxPriority(prioritizer);
+                    if (victim == null || priority < lowestPriority) {
+                        victim = candidate;
+                        lowestPriority = priority;
+                    }
+                }
+                return victim;
+            }
+        };
+    }
+
+    /**
+     * Creates a policy that evicts any segment that was last written to more than
+     * {@code maxAgeMillis} ago, whether or not the queue is over budget. If the queue is still
+     * over budget once those are gone, the oldest segments are evicted.
+     *
+     * @param maxAgeMillis the maximum age of a segment in milliseconds
+     * @param <T> the type of the queued objects
+     * @return a {@link SegmentEvictionPolicy}
+     */
+    static <T> SegmentEvictionPolicy<T> dropOlderThan(final long maxAgeMillis) {
+        return new SegmentEvictionPolicy<T>() {
+            @Nullable
+            @Override
+            public SegmentedQueue.Segment<T> selectVictim(List<SegmentedQueue.Segment<T>> candidates,
+                                                          boolean overBudget) {
+                if (candidates.isEmpty()) {
+                    return null;
+                }
+
+                long cutOff = System.currentTimeMillis() - maxAgeMillis;
+                SegmentedQueue.Segment<T> oldest = candidates.get(0);
+                if (oldest.lastModifiedMillis() < cutOff || overBudget) {
+                    return oldest;
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Decides which segment of a {@link SegmentedQueue} is evicted when the queue needs to free
+ * disk space. Whole segments are evicted at a time. See {@link SegmentEvictionPolicies} for
+ * the available implementations.
+ *
+ * @param <T> the type of the queued objects
+ */
+interface SegmentEvictionPolicy<T> {
+
+    /**
+     * Picks the next segment to evict. Called repeatedly until it returns null.
+     *
+     * @param candidates the segments that may be evicted, oldest first. The segment currently
+     *                   being written to is never a candidate
+     * @param overBudget true if the queue is using more disk space than it is allowed to
+     * @return the segment to evict, or null if nothing should be evicted
+     */
+    @Nullable
+    SegmentedQueue.Segment<T> selectVictim(List<SegmentedQueue.Segment<T>> candidates, boolean overBudget);
+}
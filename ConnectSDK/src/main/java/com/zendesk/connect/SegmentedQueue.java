@@ -0,0 +1,742 @@
+package com.zendesk.connect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.squareup.tape2.ObjectQueue;
+import com.squareup.tape2.QueueFile;
+import com.zendesk.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ *     {@link BaseQueue} that stores its objects across a directory of small queue files, called
+ *     segments, instead of a single file that grows without limit.
+ * </p>
+ * <p>
+ *     Objects are always added to the newest segment. Once it reaches {@code maxSegmentBytes} a
+ *     new segment is started, and segments are deleted as soon as all of their objects have been
+ *     removed. Whenever the segments use more than {@code maxTotalBytes} of disk, or the
+ *     {@link SegmentEvictionPolicy} asks for it, whole segments are evicted, dropping the objects
+ *     in them.
+ * </p>
+ * <p>
+ *     A segment that can't be opened or read is rebuilt by {@link QueueFileRecovery} from the
+ *     records that are still intact, and only deleted if that fails too. Either way corruption
+ *     only costs objects of the damaged segment rather than every object in the queue.
+ * </p>
+ *
+ * @param <T> the type of the queued objects
+ */
+class SegmentedQueue<T> implements BaseQueue<T> {
+
+    private static final String LOG_TAG = "SegmentedQueue";
+
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+
+    private final File directory;
+    private final ObjectQueue.Converter<T> converter;
+    private final long maxSegmentBytes;
+    private final long maxTotalBytes;
+    private final SegmentEvictionPolicy<T> evictionPolicy;
+    private final QueueMetrics queueMetrics;
+
+    /**
+     * Open segments, oldest first. The last segment is the one being written to.
+     */
+    private final List<Segment<T>> segments = new ArrayList<>();
+
+    private long nextSequence;
+    private int evictedCount;
+
+    /**
+     * Creates this {@link SegmentedQueue}, opening any segments already in the directory.
+     *
+     * @param directory the directory holding the segment files, created if missing
+     * @param converter the converter used for every segment
+     * @param maxSegmentBytes the size at which a new segment is started
+     * @param maxTotalBytes the maximum disk space used by all segments together
+     * @param evictionPolicy the {@link SegmentEvictionPolicy} deciding which segments to evict
+     * @param queueMetrics the {@link QueueMetrics} recording the recovery of damaged segments
+     */
+    SegmentedQueue(File directory,
+                   ObjectQueue.Converter<T> converter,
+                   long maxSegmentBytes,
+                   long maxTotalBytes,
+                   SegmentEvictionPolicy<T> evictionPolicy,
+                   QueueMetrics queueMetrics) {
+        this.directory = directory;
+        this.converter = converter;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.evictionPolicy = evictionPolicy;
+        this.queueMetrics = queueMetrics;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.e(LOG_TAG, "Failed to create segment directory %s", directory.getName());
+        }
+
+        for (File file : segmentFiles(directory)) {
+            Segment<T> segment = openSegment(file, parseSequence(file));
+            if (segment != null) {
+                segments.add(segment);
+            }
+        }
+        nextSequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).sequence + 1;
+
+        deleteEmptySegments();
+        evict();
+    }
+
+    @Override
+    public synchronized void add(T object) {
+        if (object == null) {
+            Logger.e(LOG_TAG, "Cannot add a null object to the queue");
+            return;
+        }
+
+        if (write(object)) {
+            evict();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     This queue has no writer of its own, so the object is written before returning. Put
+     *     a {@link BufferedQueue} in front of it to move the write off the caller thread.
+     * </p>
+     */
+    @Override
+    public void addAsync(T object) {
+        add(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Eviction is checked once for the whole list rather than after every object.
+     * </p>
+     */
+    @Override
+    public synchronized void addAll(List<T> objects) {
+        boolean written = false;
+        for (T object : objects) {
+            if (object == null) {
+                Logger.e(LOG_TAG, "Cannot add a null object to the queue");
+                continue;
+            }
+            written |= write(object);
+        }
+        if (written) {
+            evict();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized T peek() {
+        List<T> objects = peek(1);
+        return objects.isEmpty() ? null : objects.get(0);
+    }
+
+    @Override
+    public synchronized List<T> peek(int max) {
+        max = Math.max(max, 0); // Negative numbers become 0
+        List<T> objects = new ArrayList<>(Math.min(max, size()));
+
+        for (Segment<T> segment : new ArrayList<>(segments)) {
+            int remaining = max - objects.size();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                objects.addAll(segment.queue.peek(Math.min(remaining, segment.size())));
+            } catch (IOException | RuntimeException e) {
+                Logger.e(LOG_TAG, "Failed to read segment %d, recovering it", e, segment.sequence);
+                Segment<T> repaired = repair(segment);
+                if (repaired != null) {
+                    try {
+                        objects.addAll(repaired.queue.peek(Math.min(remaining, repaired.size())));
+                    } catch (IOException | RuntimeException retryException) {
+                        Logger.e(LOG_TAG, "Failed to read recovered segment %d, discarding it",
+                                retryException, repaired.sequence);
+                        dropSegment(repaired);
+                    }
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     Supported when the converter is a {@link JsonEntryConverter}. Entries are read from
+     *     the segment files as bytes and never turned into objects of the queued type.
+     * </p>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized List<byte[]> peekJson(int max) {
+        if (!(converter instanceof JsonEntryConverter)) {
+            return null;
+        }
+        JsonEntryConverter<T> jsonConverter = (JsonEntryConverter<T>) converter;
+
+        max = Math.max(max, 0); // Negative numbers become 0
+        List<byte[]> entries = new ArrayList<>(Math.min(max, size()));
+
+        for (Segment<T> segment : new ArrayList<>(segments)) {
+            if (entries.size() >= max) {
+                break;
+            }
+            int start = entries.size();
+            try {
+                readJson(segment, jsonConverter, max, entries);
+            } catch (IOException | RuntimeException e) {
+                Logger.e(LOG_TAG, "Failed to read segment %d, recovering it", e, segment.sequence);
+                entries.subList(start, entries.size()).clear();
+                Segment<T> repaired = repair(segment);
+                if (repaired != null) {
+                    try {
+                        readJson(repaired, jsonConverter, max, entries);
+                    } catch (IOException | RuntimeException retryException) {
+                        Logger.e(LOG_TAG, "Failed to read recovered segment %d, discarding it",
+                                retryException, repaired.sequence);
+                        entries.subList(start, entries.size()).clear();
+                        dropSegment(repaired);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void readJson(Segment<T> segment,
+                          JsonEntryConverter<T> jsonConverter,
+                          int max,
+                          List<byte[]> entries) throws IOException {
+        for (byte[] bytes : segment.queue.file()) {
+            if (entries.size() >= max) {
+                break;
+            }
+            entries.add(jsonConverter.toJson(bytes));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *     The stored entries are copied out of the segment files, up to the limits, and only
+     *     decoded by the cursor. A commit only removes entries from the segments the cursor read
+     *     them from, so segments evicted while the cursor is open never cost entries added since.
+     * </p>
+     */
+    @Override
+    public synchronized QueueCursor<T> cursor(int maxCount, long maxBytes) {
+        maxCount = Math.max(maxCount, 0); // Negative numbers become 0
+        List<byte[]> entries = new ArrayList<>();
+        List<Span<T>> spans = new ArrayList<>();
+
+        for (Segment<T> segment : new ArrayList<>(segments)) {
+            int start = entries.size();
+            Segment<T> read = segment;
+            boolean limitReached = false;
+            try {
+                limitReached = readEntries(segment, maxCount, maxBytes, entries);
+            } catch (IOException | RuntimeException e) {
+                Logger.e(LOG_TAG, "Failed to read segment %d, recovering it", e, segment.sequence);
+                entries.subList(start, entries.size()).clear();
+                read = repair(segment);
+                if (read != null) {
+                    try {
+                        limitReached = readEntries(read, maxCount, maxBytes, entries);
+                    } catch (IOException | RuntimeException retryException) {
+                        Logger.e(LOG_TAG, "Failed to read recovered segment %d, discarding it",
+                                retryException, read.sequence);
+                        entries.subList(start, entries.size()).clear();
+                        dropSegment(read);
+                    }
+                }
+            }
+            if (entries.size() > start) {
+                spans.add(new Span<>(read, read.removedCount, entries.size() - start));
+            }
+            if (limitReached) {
+                break;
+            }
+        }
+        return QueueCursor.ofEntries(new CursorRemover(spans), entries, converter);
+    }
+
+    /**
+     * Copies the stored entries of a segment until {@code maxCount} entries or {@code maxBytes}
+     * bytes have been copied in total. The first entry is always copied.
+     *
+     * @return true if a limit was reached
+     */
+    private boolean readEntries(Segment<T> segment,
+                                int maxCount,
+                                long maxBytes,
+                                List<byte[]> entries) throws IOException {
+        long bytes = 0;
+        for (byte[] entry : entries) {
+            bytes += entry.length;
+        }
+        for (byte[] entry : segment.queue.file()) {
+            if (entries.size() >= maxCount || (!entries.isEmpty() && bytes + entry.length > maxBytes)) {
+                return true;
+            }
+            entries.add(entry);
+            bytes += entry.length;
+        }
+        return entries.size() >= maxCount;
+    }
+
+    @Override
+    public synchronized void remove(int max) {
+        int remaining = Math.max(max, 0); // Negative numbers become 0
+
+        for (Segment<T> segment : new ArrayList<>(segments)) {
+            if (remaining <= 0) {
+                break;
+            }
+            int count = Math.min(remaining, segment.size());
+            try {
+                segment.remove(count);
+                remaining -= count;
+            } catch (IOException | RuntimeException e) {
+                Logger.e(LOG_TAG, "Failed to remove objects from segment %d, discarding it",
+                        e, segment.sequence);
+                remaining -= segment.size();
+                dropSegment(segment);
+            }
+        }
+        deleteEmptySegments();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Segment<T> segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Moves an existing queue file, written with the same converter, into this queue as its
+     * newest segment. Used to take over the contents of a single file queue.
+     *
+     * @param queueFile the queue file to move
+     * @return true if the file was moved
+     */
+    synchronized boolean adopt(File queueFile) {
+        if (!queueFile.exists()) {
+            return false;
+        }
+
+        long sequence = nextSequence++;
+        File target = segmentFile(sequence);
+        if (!queueFile.renameTo(target)) {
+            Logger.e(LOG_TAG, "Failed to move %s into the segment directory", queueFile.getName());
+            return false;
+        }
+
+        Segment<T> segment = openSegment(target, sequence);
+        if (segment == null) {
+            return false;
+        }
+        segments.add(segment);
+        deleteEmptySegments();
+        evict();
+        return true;
+    }
+
+    /**
+     * Gets the total number of objects dropped because their segment was evicted or damaged.
+     *
+     * @return the number of dropped objects
+     */
+    synchronized int evictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Gets the number of segments currently on disk
+     *
+     * @return the number of segments
+     */
+    @VisibleForTesting
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Gets the disk space currently used by all segments
+     *
+     * @return the size of all segment files in bytes
+     */
+    @VisibleForTesting
+    synchronized long totalBytes() {
+        long total = 0;
+        for (Segment<T> segment : segments) {
+            total += segment.byteCount();
+        }
+        return total;
+    }
+
+    /**
+     * Lists the segment files in the given directory, oldest first.
+     *
+     * @param directory the segment directory
+     * @return the segment files, or an empty list if the directory doesn't exist
+     */
+    static List<File> segmentFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+
+        List<File> segmentFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (parseSequence(file) >= 0) {
+                segmentFiles.add(file);
+            }
+        }
+        Collections.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstSequence = parseSequence(first);
+                long secondSequence = parseSequence(second);
+                return firstSequence < secondSequence ? -1 : (firstSequence == secondSequence ? 0 : 1);
+            }
+        });
+        return segmentFiles;
+    }
+
+    /**
+     * Writes an object to the newest segment, starting a new segment first if the newest one
+     * is full.
+     *
+     * @param object the object to write
+     * @return true if the object was written
+     */
+    private boolean write(T object) {
+        Segment<T> segment = writableSegment();
+        if (segment == null) {
+            Logger.e(LOG_TAG, "No segment available, discarding object");
+            return false;
+        }
+
+        try {
+            segment.add(object);
+            return true;
+        } catch (IOException e) {
+            Logger.e(LOG_TAG, "Failed to add object to segment %d, discarding object", e, segment.sequence);
+            return false;
+        }
+    }
+
+    @Nullable
+    private Segment<T> writableSegment() {
+        if (!segments.isEmpty()) {
+            Segment<T> newest = segments.get(segments.size() - 1);
+            if (newest.byteCount() < maxSegmentBytes || newest.size() == 0) {
+                return newest;
+            }
+        }
+
+        long sequence = nextSequence++;
+        Segment<T> segment = openSegment(segmentFile(sequence), sequence);
+        if (segment != null) {
+            segments.add(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Asks the eviction policy for segments to evict until it has none left to offer. The
+     * segment being written to is never evicted.
+     */
+    private void evict() {
+        while (segments.size() > 1) {
+            List<Segment<T>> candidates = Collections.unmodifiableList(
+                    new ArrayList<>(segments.subList(0, segments.size() - 1)));
+            boolean overBudget = totalBytes() > maxTotalBytes;
+
+            Segment<T> victim = evictionPolicy.selectVictim(candidates, overBudget);
+            if (victim == null || !candidates.contains(victim)) {
+                return;
+            }
+
+            Logger.d(LOG_TAG, "Evicting segment %d with %d objects", victim.sequence, victim.size());
+            dropSegment(victim);
+        }
+    }
+
+    /**
+     * Deletes every empty segment apart from the one being written to.
+     */
+    private void deleteEmptySegments() {
+        for (int i = segments.size() - 2; i >= 0; i--) {
+            Segment<T> segment = segments.get(i);
+            if (segment.size() == 0) {
+                dropSegment(segment);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a segment that failed to read from its intact records, replacing it in place.
+     * The segment is dropped if it can't be rebuilt.
+     *
+     * @param segment the damaged segment
+     * @return the rebuilt segment, or null if it was dropped
+     */
+    @Nullable
+    private Segment<T> repair(Segment<T> segment) {
+        int index = segments.indexOf(segment);
+        segment.close();
+        try {
+            QueueFileRecovery.Result result = QueueFileRecovery.recover(segment.file, converter);
+            queueMetrics.onRecovery(result);
+            evictedCount += result.dropped();
+
+            Segment<T> repaired = new Segment<>(segment.sequence, segment.file,
+                    ObjectQueue.create(new QueueFile.Builder(segment.file).build(), converter));
+            segments.set(index, repaired);
+            return repaired;
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to recover segment %d, discarding it", e, segment.sequence);
+            dropSegment(segment);
+            return null;
+        }
+    }
+
+    private void dropSegment(Segment<T> segment) {
+        segments.remove(segment);
+        evictedCount += segment.size();
+        segment.delete();
+    }
+
+    @Nullable
+    private Segment<T> openSegment(File file, long sequence) {
+        try {
+            return new Segment<>(sequence, file,
+                    ObjectQueue.create(QueueFileRecovery.open(file, converter, queueMetrics), converter));
+        } catch (IOException | RuntimeException e) {
+            Logger.e(LOG_TAG, "Failed to open segment %s, deleting it", e, file.getName());
+            if (file.exists() && !file.delete()) {
+                Logger.e(LOG_TAG, "Failed to delete segment %s", file.getName());
+            }
+            return null;
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, SEGMENT_FILE_PREFIX + sequence);
+    }
+
+    private static long parseSequence(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_FILE_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A single queue file of a {@link SegmentedQueue}
+     *
+     * @param <T> the type of the queued objects
+     */
+    static final class Segment<T> {
+
+        private final long sequence;
+        private final File file;
+        private final ObjectQueue<T> queue;
+
+        private boolean maxPriorityKnown;
+        private int maxPriority;
+        // The number of objects removed from the head of this segment since it was opened
+        private long removedCount;
+
+        Segment(long sequence, File file, ObjectQueue<T> queue) {
+            this.sequence = sequence;
+            this.file = file;
+            this.queue = queue;
+        }
+
+        /**
+         * Gets the position of this segment in the queue, higher values are newer
+         *
+         * @return the sequence number of this segment
+         */
+        long sequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the number of objects in this segment
+         *
+         * @return the number of objects
+         */
+        int size() {
+            return queue.size();
+        }
+
+        /**
+         * Gets the disk space used by this segment
+         *
+         * @return the size of the segment file in bytes
+         */
+        long byteCount() {
+            return file.length();
+        }
+
+        /**
+         * Gets the time this segment was last written to
+         *
+         * @return the last modified time of the segment file in milliseconds
+         */
+        long lastModifiedMillis() {
+            return file.lastModified();
+        }
+
+        /**
+         * Gets the highest priority of any object in this segment. The result is cached until
+         * the segment changes. A segment that can't be read has the lowest possible priority.
+         *
+         * @param prioritizer the {@link SegmentEvictionPolicies.Prioritizer} to use
+         * @return the highest priority in this segment
+         */
+        int maxPriority(SegmentEvictionPolicies.Prioritizer<T> prioritizer) {
+            if (!maxPriorityKnown) {
+                int priority = Integer.MIN_VALUE;
+                try {
+                    for (T object : queue.asList()) {
+                        priority = Math.max(priority, prioritizer.priorityOf(object));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Logger.e(LOG_TAG, "Failed to read segment %d", e, sequence);
+                    priority = Integer.MIN_VALUE;
+                }
+                maxPriority = priority;
+                maxPriorityKnown = true;
+            }
+            return maxPriority;
+        }
+
+        private void add(T object) throws IOException {
+            queue.add(object);
+            maxPriorityKnown = false;
+        }
+
+        private void remove(int count) throws IOException {
+            queue.remove(count);
+            removedCount += count;
+            maxPriorityKnown = false;
+        }
+
+        private void close() {
+            try {
+                queue.close();
+            } catch (IOException e) {
+                Logger.e(LOG_TAG, "Failed to close segment %d", e, sequence);
+            }
+        }
+
+        private void delete() {
+            close();
+            if (file.exists() && !file.delete()) {
+                Logger.e(LOG_TAG, "Failed to delete segment %d", sequence);
+            }
+        }
+    }
+
+    /**
+     * The entries a cursor read from one segment
+     *
+     * @param <T> the type of the queued objects
+     */
+    private static final class Span<T> {
+
+        final Segment<T> segment;
+        // The number of objects removed from the segment before the first entry read
+        final long firstIndex;
+        final int count;
+
+        Span(Segment<T> segment, long firstIndex, int count) {
+            this.segment = segment;
+            this.firstIndex = firstIndex;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Removes the entries a cursor covered from the segments they were read from. Entries in a
+     * segment that has been evicted, recovered or cleared since are skipped, since they are
+     * either gone already or can no longer be told apart from the rest of the segment.
+     */
+    private final class CursorRemover implements QueueCursor.Remover {
+
+        private final List<Span<T>> spans;
+
+        CursorRemover(List<Span<T>> spans) {
+            this.spans = spans;
+        }
+
+        @Override
+        public void remove(int from, int count) {
+            synchronized (SegmentedQueue.this) {
+                int end = from + count;
+                int offset = 0;
+                for (Span<T> span : spans) {
+                    int spanEnd = offset + span.count;
+                    if (end > offset && from < spanEnd && segments.contains(span.segment)) {
+                        removeThrough(span.segment, span.firstIndex + Math.min(end, spanEnd) - offset);
+                    }
+                    offset = spanEnd;
+                }
+                deleteEmptySegments();
+            }
+        }
+
+        /**
+         * Removes the objects of a segment up to the given index, counted from the first object
+         * the segment ever held
+         */
+        private void removeThrough(Segment<T> segment, long index) {
+            int excess = (int) Math.min(index - segment.removedCount, segment.size());
+            if (excess <= 0) {
+                return;
+            }
+            try {
+                segment.remove(excess);
+            } catch (IOException | RuntimeException e) {
+                Logger.e(LOG_TAG, "Failed to remove objects from segment %d, discarding it",
+                        e, segment.sequence);
+                dropSegment(segment);
+            }
+        }
+    }
+}
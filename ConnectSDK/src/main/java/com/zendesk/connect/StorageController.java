@@ -4,8 +4,29 @@ import androidx.annotation.Nullable;
 
 import com.zendesk.util.DigestUtils;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.inject.Inject;
 
+/**
+ * <p>
+ *     Reads and writes the SDK's persisted state through a {@link BaseStorage}.
+ * </p>
+ * <p>
+ *     The stored {@link User} is read on every tracked event, so it is kept in memory once read.
+ *     The in-memory copy is dropped whenever the user is saved or cleared, and read again from
+ *     storage the next time it is needed. Its collections can't be modified, so every caller
+ *     can share it.
+ * </p>
+ * <p>
+ *     The stored {@link Config} gates every public API call, so it is also kept in memory once
+ *     read. It is replaced by each {@link Config} saved by the {@link ConfigJobProcessor},
+ *     without reading it back from storage.
+ * </p>
+ */
 @ConnectScope
 class StorageController {
 
@@ -17,6 +38,11 @@ class StorageController {
 
     private BaseStorage storage;
 
+    private final AtomicReference<Snapshot<User>> userSnapshot =
+            new AtomicReference<>(new Snapshot<User>());
+    private final AtomicReference<Snapshot<Config>> configSnapshot =
+            new AtomicReference<>(new Snapshot<Config>());
+
     @Inject
     StorageController(BaseStorage storage) {
         this.storage = storage;
@@ -41,18 +67,28 @@ class StorageController {
      */
     void saveConfig(Config config) {
         storage.put(PREFERENCES_KEY_CONFIG, config);
+        configSnapshot.set(new Snapshot<>(config));
     }
 
     /**
      * <p>
-     *     Retrieves the {@link Config} stored in the provided {@link BaseStorage}
+     *     Retrieves the {@link Config} stored in the provided {@link BaseStorage}, reading it
+     *     from storage only the first time
      * </p>
      *
      * @return the stored {@link Config}, or null if it doesn't exist
      */
     @Nullable
     Config getConfig() {
-        return storage.get(PREFERENCES_KEY_CONFIG, Config.class);
+        Snapshot<Config> snapshot = configSnapshot.get();
+        if (snapshot.loaded) {
+            return snapshot.value;
+        }
+
+        Snapshot<Config> loaded = new Snapshot<>(storage.get(PREFERENCES_KEY_CONFIG, Config.class));
+        // Only keep it if no config was saved or cleared while it was being read
+        configSnapshot.compareAndSet(snapshot, loaded);
+        return loaded.value;
     }
 
     /**
@@ -62,6 +98,7 @@ class StorageController {
      */
     void clearConfig() {
         storage.remove(PREFERENCES_KEY_CONFIG);
+        configSnapshot.set(new Snapshot<Config>(null));
     }
 
     /**
@@ -73,18 +110,29 @@ class StorageController {
      */
     void saveUser(User user) {
         storage.put(PREFERENCES_KEY_USER, user);
+        userSnapshot.set(new Snapshot<User>());
     }
 
     /**
      * <p>
-     *     Retrieves the {@link User} stored in the provided {@link BaseStorage}
+     *     Retrieves the {@link User} stored in the provided {@link BaseStorage}, reading it from
+     *     storage only if it hasn't been read since it was last saved
      * </p>
      *
-     * @return the stored {@link User}, or null if it doesn't exist
+     * @return the stored {@link User}, whose collections can't be modified, or null if it
+     *         doesn't exist
      */
     @Nullable
     User getUser() {
-        return storage.get(PREFERENCES_KEY_USER, User.class);
+        Snapshot<User> snapshot = userSnapshot.get();
+        if (snapshot.loaded) {
+            return snapshot.value;
+        }
+
+        Snapshot<User> loaded = new Snapshot<>(freeze(storage.get(PREFERENCES_KEY_USER, User.class)));
+        // Only keep it if the user wasn't saved or cleared while it was being read
+        userSnapshot.compareAndSet(snapshot, loaded);
+        return loaded.value;
     }
 
     /**
@@ -94,6 +142,7 @@ class StorageController {
      */
     void clearUser() {
         storage.remove(PREFERENCES_KEY_USER);
+        userSnapshot.set(new Snapshot<User>());
     }
 
     /**
@@ -138,5 +187,65 @@ class StorageController {
      */
     void clearAllStorage() {
         storage.clear();
+        userSnapshot.set(new Snapshot<User>());
+        configSnapshot.set(new Snapshot<Config>(null));
+    }
+
+    /**
+     * Creates a copy of a {@link User} whose collections can't be modified
+     *
+     * @param user the {@link User} to copy
+     * @return the copy, or null if user is null
+     */
+    @Nullable
+    private static User freeze(@Nullable User user) {
+        if (user == null) {
+            return null;
+        }
+        return new User(user.getUserId(),
+                user.getPreviousId(),
+                user.getFirstName(),
+                user.getLastName(),
+                user.getEmail(),
+                user.getPhoneNumber(),
+                unmodifiable(user.getAttributes()),
+                user.getGroupId(),
+                unmodifiable(user.getGroupAttributes()),
+                user.getTimezone(),
+                unmodifiable(user.getFcm()),
+                unmodifiable(user.getApns()));
+    }
+
+    @Nullable
+    private static <K, V> Map<K, V> unmodifiable(@Nullable Map<K, V> map) {
+        return map == null ? null : Collections.unmodifiableMap(map);
+    }
+
+    @Nullable
+    private static <T> List<T> unmodifiable(@Nullable List<T> list) {
+        return list == null ? null : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * A value read from storage, or a placeholder saying it hasn't been read yet. A new
+     * snapshot is set whenever the value changes, so a read that started before the change
+     * can tell it is out of date.
+     *
+     * @param <T> the type of the value
+     */
+    private static final class Snapshot<T> {
+
+        final boolean loaded;
+        @Nullable final T value;
+
+        Snapshot() {
+            this.loaded = false;
+            this.value = null;
+        }
+
+        Snapshot(@Nullable T value) {
+            this.loaded = true;
+            this.value = value;
+        }
     }
 }
@@ -0,0 +1,59 @@
+package com.zendesk.connect;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link BinaryConverter} for {@link User} objects. Identifiers and the timezone are written
+ * as dictionary symbols, personal details are written inline.
+ */
+class UserBinaryConverter extends BinaryConverter<User> {
+
+    /**
+     * Creates this {@link UserBinaryConverter}
+     *
+     * @param gson an instance of {@link Gson}
+     * @param dictionary the {@link QueueDictionary} of the user queue file
+     */
+    UserBinaryConverter(Gson gson, QueueDictionary dictionary) {
+        super(gson, dictionary);
+    }
+
+    @Override
+    void write(User user, EntryWriter writer) throws IOException {
+        writer.writeSymbol(user.getUserId());
+        writer.writeSymbol(user.getPreviousId());
+        writer.writeString(user.getFirstName());
+        writer.writeString(user.getLastName());
+        writer.writeString(user.getEmail());
+        writer.writeString(user.getPhoneNumber());
+        writer.writeValue(user.getAttributes());
+        writer.writeSymbol(user.getGroupId());
+        writer.writeValue(user.getGroupAttributes());
+        writer.writeSymbol(user.getTimezone());
+        writer.writeValue(user.getFcm());
+        writer.writeValue(user.getApns());
+    }
+
+    @Override
+    User read(EntryReader reader) throws IOException {
+        String userId = reader.readString();
+        String previousId = reader.readString();
+        String firstName = reader.readString();
+        String lastName = reader.readString();
+        String email = reader.readString();
+        String phoneNumber = reader.readString();
+        Map<String, Object> attributes = reader.readMap();
+        String groupId = reader.readString();
+        Map<String, Object> groupAttributes = reader.readMap();
+        String timezone = reader.readString();
+        List<String> fcm = reader.readStringList();
+        List<String> apns = reader.readStringList();
+
+        return new User(userId, previousId, firstName, lastName, email, phoneNumber,
+                attributes, groupId, groupAttributes, timezone, fcm, apns);
+    }
+}
@@ -4,7 +4,9 @@ import androidx.annotation.NonNull;
 
 import com.zendesk.util.StringUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -99,13 +101,14 @@ public class UserBuilder {
     }
 
     /**
-     * Sets the user's attributes
+     * Sets the user's attributes. The map is copied, so changing it afterwards doesn't change
+     * the user.
      *
      * @param userAttributes the user's attributes
      * @return the builder
      */
     public UserBuilder setUserAttributes(Map<String, Object> userAttributes) {
-        this.userAttributes = userAttributes;
+        this.userAttributes = copy(userAttributes);
         return this;
     }
 
@@ -121,13 +124,14 @@ public class UserBuilder {
     }
 
     /**
-     * Sets the user's group attributes
+     * Sets the user's group attributes. The map is copied, so changing it afterwards doesn't
+     * change the user.
      *
      * @param groupAttributes the user's group attributes
      * @return the builder
      */
     public UserBuilder setGroupAttributes(Map<String, Object> groupAttributes) {
-        this.groupAttributes = groupAttributes;
+        this.groupAttributes = copy(groupAttributes);
         return this;
     }
 
@@ -222,11 +226,41 @@ public class UserBuilder {
                 user.getLastName(),
                 user.getEmail(),
                 user.getPhoneNumber(),
-                user.getAttributes(),
+                copy(user.getAttributes()),
                 user.getGroupId(),
-                user.getGroupAttributes(),
+                copy(user.getGroupAttributes()),
                 user.getTimezone(),
-                user.getFcm(),
+                copy(user.getFcm()),
                 null);
     }
+
+    /**
+     * Copies a {@link User}, including its collections, so the copy can be changed without
+     * changing the original
+     *
+     * @param user the user to copy
+     * @return the copy
+     */
+    static User copyOf(@NonNull User user) {
+        return new User(user.getUserId(),
+                user.getPreviousId(),
+                user.getFirstName(),
+                user.getLastName(),
+                user.getEmail(),
+                user.getPhoneNumber(),
+                copy(user.getAttributes()),
+                user.getGroupId(),
+                copy(user.getGroupAttributes()),
+                user.getTimezone(),
+                copy(user.getFcm()),
+                copy(user.getApns()));
+    }
+
+    private static <K, V> Map<K, V> copy(Map<K, V> map) {
+        return map == null ? null : new HashMap<>(map);
+    }
+
+    private static <T> List<T> copy(List<T> list) {
+        return list == null ? null : new ArrayList<>(list);
+    }
 }
@@ -0,0 +1,112 @@
+package com.zendesk.connect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Helpers for reading and writing LEB128 style variable length integers, where each byte
+ * carries seven bits of the value and the high bit signals that more bytes follow. Small
+ * values such as lengths, counts and dictionary indices take a single byte.
+ */
+final class VarInts {
+
+    /**
+     * The maximum number of bytes a 64 bit value can occupy once encoded.
+     */
+    static final int MAX_LENGTH = 10;
+
+    private VarInts() {
+    }
+
+    /**
+     * Gets the number of bytes needed to encode the given value.
+     *
+     * @param value the value to be encoded, interpreted as unsigned
+     * @return the encoded length in bytes
+     */
+    static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the given value into a byte array.
+     *
+     * @param value the value to be encoded, interpreted as unsigned
+     * @param buffer the target array, must have room for {@link #sizeOf(long)} bytes
+     * @param offset the position in the array to start writing at
+     * @return the position in the array after the written value
+     */
+    static int write(long value, byte[] buffer, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Writes the given value to an {@link OutputStream}.
+     *
+     * @param value the value to be encoded, interpreted as unsigned
+     * @param outputStream the target {@link OutputStream}
+     * @throws IOException if the value could not be written
+     */
+    static void write(long value, OutputStream outputStream) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    /**
+     * Reads a non-negative value from a byte array without throwing on truncated input.
+     * Intended for reading lengths, which never use the sign bit.
+     *
+     * @param buffer the array to read from
+     * @param offset the position of the first byte of the value
+     * @param limit the position after the last readable byte
+     * @return the decoded value, or -1 if the value is truncated or malformed
+     */
+    static long read(byte[] buffer, int offset, int limit) {
+        long result = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            if (offset >= limit) {
+                return -1;
+            }
+            byte b = buffer[offset++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a signed value onto an unsigned one so that values close to zero, negative or
+     * positive, encode to few bytes.
+     *
+     * @param value the signed value
+     * @return the zig-zag encoded value
+     */
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigZag(long)}.
+     *
+     * @param value the zig-zag encoded value
+     * @return the original signed value
+     */
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,70 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+class BatchReplayTests {
+
+    private val mockStorage = mock<BaseStorage>()
+
+    @Test
+    fun `batch sizes should start at zero without storage`() {
+        val replay = BatchReplay(null)
+
+        assertThat(replay.userBatchSize()).isEqualTo(0)
+        assertThat(replay.eventBatchSize()).isEqualTo(0)
+    }
+
+    @Test
+    fun `batch sizes should be read from storage`() {
+        `when`(mockStorage.get("connect_replay_user_batch")).thenReturn("3")
+        `when`(mockStorage.get("connect_replay_event_batch")).thenReturn("42")
+
+        val replay = BatchReplay(mockStorage)
+
+        assertThat(replay.userBatchSize()).isEqualTo(3)
+        assertThat(replay.eventBatchSize()).isEqualTo(42)
+    }
+
+    @Test
+    fun `an unreadable stored batch size should be ignored`() {
+        `when`(mockStorage.get("connect_replay_event_batch")).thenReturn("rum ham")
+
+        val replay = BatchReplay(mockStorage)
+
+        assertThat(replay.eventBatchSize()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a new batch size should be written to storage`() {
+        val replay = BatchReplay(mockStorage)
+
+        replay.setEventBatchSize(17)
+
+        verify(mockStorage).put("connect_replay_event_batch", "17")
+    }
+
+    @Test
+    fun `clearing a batch size should remove it from storage`() {
+        `when`(mockStorage.get("connect_replay_user_batch")).thenReturn("3")
+        val replay = BatchReplay(mockStorage)
+
+        replay.setUserBatchSize(0)
+
+        verify(mockStorage).remove("connect_replay_user_batch")
+    }
+
+    @Test
+    fun `an unchanged batch size should not be written again`() {
+        val replay = BatchReplay(mockStorage)
+
+        replay.setEventBatchSize(0)
+
+        verify(mockStorage, never()).put(anyString(), anyString())
+        verify(mockStorage, never()).remove(anyString())
+    }
+}
@@ -0,0 +1,78 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class BatchSizerTests {
+
+    private val batchSizer = BatchSizer()
+
+    private val fast = TimeUnit.MILLISECONDS.toNanos(200)
+    private val slow = BatchSizer.TARGET_LATENCY_NANOS * 2
+
+    @Test
+    fun `batches should start at the backend limit`() {
+        assertThat(batchSizer.maxCount()).isEqualTo(BatchSizer.MAX_COUNT)
+        assertThat(batchSizer.maxBytes()).isEqualTo(BatchSizer.MAX_BYTES)
+    }
+
+    @Test
+    fun `a failure should halve the batch size`() {
+        batchSizer.onFailure()
+
+        assertThat(batchSizer.maxCount()).isEqualTo(BatchSizer.MAX_COUNT / 2)
+        assertThat(batchSizer.maxBytes()).isEqualTo(BatchSizer.MAX_BYTES / 2)
+    }
+
+    @Test
+    fun `a slow request should halve the batch size`() {
+        batchSizer.onSuccess(1024, slow)
+
+        assertThat(batchSizer.maxCount()).isEqualTo(BatchSizer.MAX_COUNT / 2)
+    }
+
+    @Test
+    fun `fast requests should grow the batch size step by step`() {
+        batchSizer.onFailure()
+        batchSizer.onFailure()
+        val shrunk = batchSizer.maxCount()
+
+        batchSizer.onSuccess(1024, fast)
+        val grownOnce = batchSizer.maxCount()
+        batchSizer.onSuccess(1024, fast)
+
+        assertThat(grownOnce).isGreaterThan(shrunk)
+        assertThat(batchSizer.maxCount() - grownOnce).isEqualTo(grownOnce - shrunk)
+    }
+
+    @Test
+    fun `the batch size should stay within its bounds`() {
+        repeat(20) { batchSizer.onFailure() }
+
+        assertThat(batchSizer.maxCount()).isEqualTo(BatchSizer.MIN_COUNT)
+        assertThat(batchSizer.maxBytes()).isEqualTo(BatchSizer.MIN_BYTES)
+
+        repeat(100) { batchSizer.onSuccess(1024, fast) }
+
+        assertThat(batchSizer.maxCount()).isEqualTo(BatchSizer.MAX_COUNT)
+        assertThat(batchSizer.maxBytes()).isEqualTo(BatchSizer.MAX_BYTES)
+    }
+
+    @Test
+    fun `throughput should be the stored bytes sent per second`() {
+        assertThat(batchSizer.throughputBytesPerSecond()).isEqualTo(0)
+
+        batchSizer.onSuccess(1000, TimeUnit.MILLISECONDS.toNanos(500))
+
+        assertThat(batchSizer.throughputBytesPerSecond()).isEqualTo(2000)
+    }
+
+    @Test
+    fun `throughput should be weighted towards recent requests`() {
+        batchSizer.onSuccess(1000, TimeUnit.SECONDS.toNanos(1))
+        batchSizer.onSuccess(6000, TimeUnit.SECONDS.toNanos(1))
+
+        assertThat(batchSizer.throughputBytesPerSecond()).isEqualTo(2000)
+    }
+}
@@ -0,0 +1,145 @@
+package com.zendesk.connect
+
+import com.zendesk.logger.Logger
+import org.junit.Assume
+import org.junit.rules.TestRule
+import org.junit.runners.model.Statement
+import java.lang.management.ManagementFactory
+import java.util.Locale
+
+/**
+ * Minimal harness for the micro benchmarks in this source set. Benchmarks are skipped with the
+ * unit tests and only run with `./gradlew test -Pbenchmarks`. They run on the JVM, so the numbers
+ * are only meaningful relative to each other within a run, and benchmarks only assert on what
+ * they produced, never on how long it took.
+ */
+object Benchmarks {
+
+    /**
+     * The system property that has to be set for benchmarks to run
+     */
+    const val ENABLED_PROPERTY = "connect.benchmarks"
+
+    private const val LOG_TAG = "Benchmarks"
+    private const val WARM_UP_ROUNDS = 3
+
+    private val threadBean = ManagementFactory.getThreadMXBean()
+
+    /**
+     * The result of a single benchmark.
+     *
+     * @property name the name of the benchmark
+     * @property operations the number of measured operations
+     * @property nanosPerOperation the mean duration of an operation
+     * @property p99Nanos the 99th percentile duration of an operation, or -1 if not sampled
+     * @property bytesAllocatedPerOperation the mean heap allocation of an operation, or -1 if
+     * the JVM can't report allocations
+     */
+    data class Result(
+            val name: String,
+            val operations: Int,
+            val nanosPerOperation: Double,
+            val p99Nanos: Long,
+            val bytesAllocatedPerOperation: Double
+    ) {
+        override fun toString(): String = String.format(Locale.US,
+                "%-40s %12.1f ns/op %12s p99 %12s B/op",
+                name,
+                nanosPerOperation,
+                if (p99Nanos < 0) "-" else "$p99Nanos ns",
+                if (bytesAllocatedPerOperation < 0) "-" else String.format(Locale.US, "%.1f", bytesAllocatedPerOperation))
+    }
+
+    /**
+     * A rule skipping every test of a benchmark class unless [ENABLED_PROPERTY] is set, and
+     * turning on logging so the results of [report] are shown
+     */
+    fun enabled(): TestRule = TestRule { base, _ ->
+        object : Statement() {
+            override fun evaluate() {
+                Assume.assumeTrue("Benchmarks only run with -Pbenchmarks",
+                        System.getProperty(ENABLED_PROPERTY) != null)
+                Logger.setLoggable(true)
+                base.evaluate()
+            }
+        }
+    }
+
+    /**
+     * Runs the given operation a number of times after a few warm up rounds, measuring the
+     * total time and allocations.
+     *
+     * @param name the name of the benchmark
+     * @param operations the number of operations per round
+     * @param operation the operation to be measured, receives the index of the operation
+     */
+    fun measure(name: String, operations: Int, operation: (Int) -> Unit): Result {
+        repeat(WARM_UP_ROUNDS) {
+            for (i in 0 until operations) operation(i)
+        }
+
+        val allocatedBefore = allocatedBytes()
+        val start = System.nanoTime()
+        for (i in 0 until operations) operation(i)
+        val elapsed = System.nanoTime() - start
+        val allocatedAfter = allocatedBytes()
+
+        return Result(name,
+                operations,
+                elapsed.toDouble() / operations,
+                -1,
+                if (allocatedBefore < 0) -1.0 else (allocatedAfter - allocatedBefore).toDouble() / operations)
+    }
+
+    /**
+     * Like [measure], but times every operation individually so the 99th percentile can be
+     * reported. Per operation timing adds overhead, so prefer [measure] for very cheap operations.
+     *
+     * @param name the name of the benchmark
+     * @param operations the number of operations per round
+     * @param operation the operation to be measured, receives the index of the operation
+     */
+    fun measureWithLatency(name: String, operations: Int, operation: (Int) -> Unit): Result {
+        repeat(WARM_UP_ROUNDS) {
+            for (i in 0 until operations) operation(i)
+        }
+
+        val samples = LongArray(operations)
+        var total = 0L
+        for (i in 0 until operations) {
+            val start = System.nanoTime()
+            operation(i)
+            samples[i] = System.nanoTime() - start
+            total += samples[i]
+        }
+        samples.sort()
+
+        return Result(name,
+                operations,
+                total.toDouble() / operations,
+                samples[((operations - 1) * 0.99).toInt()],
+                -1.0)
+    }
+
+    /**
+     * Logs the results of a benchmark run.
+     *
+     * @param title a title for the run
+     * @param results the results to log
+     * @param extra any additional lines to log after the results
+     */
+    fun report(title: String, results: List<Result>, vararg extra: String) {
+        Logger.i(LOG_TAG, "=== %s ===", title)
+        results.forEach { Logger.i(LOG_TAG, "%s", it) }
+        extra.forEach { Logger.i(LOG_TAG, "%s", it) }
+    }
+
+    private fun allocatedBytes(): Long {
+        val bean = threadBean as? com.sun.management.ThreadMXBean ?: return -1
+        return if (bean.isThreadAllocatedMemorySupported) {
+            bean.getThreadAllocatedBytes(Thread.currentThread().id)
+        } else {
+            -1
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.math.BigDecimal
+
+class BinaryConverterTests {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = Gson()
+
+    private lateinit var dictionaryFile: File
+    private lateinit var dictionary: QueueDictionary
+    private lateinit var eventConverter: EventBinaryConverter
+    private lateinit var userConverter: UserBinaryConverter
+
+    @Before
+    fun setUp() {
+        dictionaryFile = File(temporaryFolder.root, "dictionary")
+        dictionary = QueueDictionary(dictionaryFile)
+        eventConverter = EventBinaryConverter(gson, dictionary)
+        userConverter = UserBinaryConverter(gson, dictionary)
+    }
+
+    private fun <T> BinaryConverter<T>.encode(value: T): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        toStream(value, outputStream)
+        return outputStream.toByteArray()
+    }
+
+    @Test
+    fun `an event should survive a round trip through the converter`() {
+        val properties = mapOf<String, Any?>(
+                "long" to Long.MAX_VALUE,
+                "negative" to -42L,
+                "double" to 3.5,
+                "float" to 1.1f,
+                "decimal" to BigDecimal("12.50"),
+                "boolean" to true,
+                "string" to "Paddy's Pub",
+                "null" to null,
+                "list" to listOf("Charlie", 2L, false),
+                "map" to mapOf("nested" to "Rum Ham")
+        )
+        val event = Event("mac", "karate", properties, 1234567890L)
+
+        val decoded = eventConverter.from(eventConverter.encode(event))
+
+        assertThat(decoded).isEqualTo(event)
+    }
+
+    @Test
+    fun `decoded integer properties should serialize to the same json as the original`() {
+        val event = Event("dee", "bird", mapOf<String, Any>("count" to 3), 1L)
+
+        val decoded = eventConverter.from(eventConverter.encode(event))
+
+        assertThat(gson.toJson(decoded)).isEqualTo(gson.toJson(event))
+    }
+
+    @Test
+    fun `to json should produce the same json as serializing the event`() {
+        val event = Event("dee", "bird", mapOf<String, Any>("caw" to "caw", "count" to 3L), 42L)
+
+        val json = String(eventConverter.toJson(eventConverter.encode(event)))
+
+        assertThat(json).isEqualTo(gson.toJson(event))
+    }
+
+    @Test
+    fun `an event with no properties should survive a round trip`() {
+        val event = Event(null, "dennis system", null, 0L)
+
+        assertThat(eventConverter.from(eventConverter.encode(event))).isEqualTo(event)
+    }
+
+    @Test
+    fun `a user should survive a round trip through the converter`() {
+        val user = UserBuilder("frank")
+                .setPreviousId("frank_reynolds")
+                .setFirstName("Frank")
+                .setLastName("Reynolds")
+                .setEmail("frank@paddys.pub")
+                .setPhoneNumber("555-0199")
+                .setUserAttributes(mapOf<String, Any>("egg" to "magnum dong"))
+                .setGroupId("the gang")
+                .setGroupAttributes(mapOf<String, Any>("bar" to "Paddy's"))
+                .setFcmToken("token")
+                .build()
+
+        assertThat(userConverter.from(userConverter.encode(user))).isEqualTo(user)
+    }
+
+    @Test
+    fun `repeated event names and property keys should be written to the dictionary once`() {
+        val first = eventConverter.encode(Event("charlie", "kitten mittens", mapOf<String, Any>("paws" to 4L), 1L))
+        val second = eventConverter.encode(Event("charlie", "kitten mittens", mapOf<String, Any>("paws" to 4L), 1L))
+
+        assertThat(dictionary.size()).isEqualTo(3)
+        assertThat(second.size).isEqualTo(first.size)
+    }
+
+    @Test
+    fun `a binary event should be smaller than its json representation`() {
+        val event = Event("charlie", "kitten mittens", mapOf<String, Any>("paws" to 4L, "colour" to "grey"), 1L)
+
+        assertThat(eventConverter.encode(event).size).isLessThan(gson.toJson(event).toByteArray().size)
+    }
+
+    @Test
+    fun `entries should be readable by a converter using a reloaded dictionary`() {
+        val event = Event("dennis", "implication", mapOf<String, Any>("boat" to true), 5L)
+        val bytes = eventConverter.encode(event)
+
+        val reloaded = EventBinaryConverter(gson, QueueDictionary(dictionaryFile))
+
+        assertThat(reloaded.from(bytes)).isEqualTo(event)
+    }
+
+    @Test
+    fun `strings should be written inline once the dictionary is full`() {
+        for (i in 0 until QueueDictionary.MAX_ENTRIES) {
+            dictionary.intern("key $i")
+        }
+        val event = Event("cricket", "street rat", null, 1L)
+
+        val decoded = eventConverter.from(eventConverter.encode(event))
+
+        assertThat(decoded).isEqualTo(event)
+        assertThat(dictionary.size()).isEqualTo(QueueDictionary.MAX_ENTRIES)
+    }
+
+    @Test(expected = IOException::class)
+    fun `an entry referencing a missing dictionary entry should throw`() {
+        val bytes = eventConverter.encode(Event("mac", "project badass", null, 1L))
+
+        dictionary.reset()
+
+        eventConverter.from(bytes)
+    }
+
+    @Test(expected = IOException::class)
+    fun `an entry with an unknown format version should throw`() {
+        eventConverter.from(byteArrayOf(99, 0, 0))
+    }
+
+    @Test(expected = IOException::class)
+    fun `a truncated entry should throw`() {
+        val bytes = eventConverter.encode(Event("mac", "project badass", mapOf<String, Any>("a" to "b"), 1L))
+
+        eventConverter.from(bytes.copyOf(bytes.size - 2))
+    }
+}
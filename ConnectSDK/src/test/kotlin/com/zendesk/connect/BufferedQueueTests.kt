@@ -0,0 +1,172 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.zendesk.logger.Logger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class BufferedQueueTests {
+
+    companion object {
+        private const val NULL_OBJECT_WARNING = "Cannot add a null object to the queue"
+
+        private const val CAPACITY = 8
+        private const val FLUSH_THRESHOLD = 4
+        private const val MAX_DELAY_MILLIS = 60_000L
+    }
+
+    private val logAppender = TestLogAppender().apply {
+        Logger.setLoggable(true)
+        Logger.addLogAppender(this)
+    }
+
+    private val queueGenerator = MockedObjectQueue<String>()
+
+    private lateinit var writer: ScheduledExecutorService
+    private lateinit var delegate: ConnectQueue<String>
+    private lateinit var bufferedQueue: BufferedQueue<String>
+
+    @Before
+    fun setup() {
+        writer = Executors.newSingleThreadScheduledExecutor()
+        delegate = ConnectQueue(queueGenerator.getObjectQueue())
+        bufferedQueue = BufferedQueue(delegate, writer, CAPACITY, FLUSH_THRESHOLD, MAX_DELAY_MILLIS)
+    }
+
+    @After
+    fun teardown() {
+        writer.shutdownNow()
+        logAppender.reset()
+    }
+
+    private fun awaitWriter() {
+        writer.submit {}.get(5, TimeUnit.SECONDS)
+    }
+
+    @Test
+    fun `add should buffer the object instead of writing it to the delegate`() {
+        bufferedQueue.add("Rum ham")
+
+        assertThat(bufferedQueue.pendingCount()).isEqualTo(1)
+        assertThat(queueGenerator.getCopyOfBackingList()).isEmpty()
+    }
+
+    @Test
+    fun `calling add with a null object should not buffer anything`() {
+        bufferedQueue.add(null)
+
+        assertThat(bufferedQueue.pendingCount()).isEqualTo(0)
+        assertThat(logAppender.lastLog()).isEqualTo(NULL_OBJECT_WARNING)
+    }
+
+    @Test
+    fun `reaching the flush threshold should flush the buffer on the writer`() {
+        repeat(FLUSH_THRESHOLD) { bufferedQueue.add("Egg $it") }
+
+        awaitWriter()
+
+        assertThat(bufferedQueue.pendingCount()).isEqualTo(0)
+        assertThat(queueGenerator.getCopyOfBackingList()).hasSize(FLUSH_THRESHOLD)
+    }
+
+    @Test
+    fun `buffered objects should be flushed once the maximum delay has passed`() {
+        val timedQueue = BufferedQueue(delegate, writer, CAPACITY, FLUSH_THRESHOLD, 10)
+
+        timedQueue.add("Kitten mittens")
+        Thread.sleep(50)
+        awaitWriter()
+
+        assertThat(queueGenerator.getCopyOfBackingList()).containsExactly("Kitten mittens")
+    }
+
+    @Test
+    fun `flush should write the buffered objects to the delegate in order`() {
+        val objects = listOf("Charlie", "Dee", "Mac")
+        objects.forEach { bufferedQueue.add(it) }
+
+        bufferedQueue.flush()
+
+        assertThat(queueGenerator.getCopyOfBackingList()).isEqualTo(objects)
+    }
+
+    @Test
+    fun `reads should include objects that have not been flushed yet`() {
+        bufferedQueue.add("Dennis")
+        bufferedQueue.add("Frank")
+
+        assertThat(bufferedQueue.size()).isEqualTo(2)
+        assertThat(bufferedQueue.peek()).isEqualTo("Dennis")
+        assertThat(bufferedQueue.peek(2)).isEqualTo(listOf("Dennis", "Frank"))
+    }
+
+    @Test
+    fun `peek json should flush before reading from the delegate`() {
+        bufferedQueue.add("Rum ham")
+
+        assertThat(bufferedQueue.peekJson(1)).isNull()
+        assertThat(bufferedQueue.pendingCount()).isEqualTo(0)
+        assertThat(queueGenerator.getCopyOfBackingList()).containsExactly("Rum ham")
+    }
+
+    @Test
+    fun `remove should include objects that have not been flushed yet`() {
+        bufferedQueue.add("Dennis")
+        bufferedQueue.add("Frank")
+
+        bufferedQueue.remove(1)
+
+        assertThat(bufferedQueue.peek(2)).isEqualTo(listOf("Frank"))
+    }
+
+    @Test
+    fun `clear should drop buffered objects as well as the delegate queue`() {
+        delegate.add("Cricket")
+        bufferedQueue.add("Artemis")
+
+        bufferedQueue.clear()
+
+        assertThat(bufferedQueue.pendingCount()).isEqualTo(0)
+        assertThat(bufferedQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a full buffer should be flushed by the caller instead of dropping objects`() {
+        writer.shutdownNow()
+        val unflushedQueue = BufferedQueue(delegate, writer, CAPACITY, Int.MAX_VALUE, MAX_DELAY_MILLIS)
+
+        repeat(CAPACITY * 3) { unflushedQueue.add("Item $it") }
+
+        assertThat(unflushedQueue.size()).isEqualTo(CAPACITY * 3)
+        assertThat(unflushedQueue.peek(CAPACITY * 3)).isEqualTo((0 until CAPACITY * 3).map { "Item $it" })
+    }
+
+    @Test
+    fun `objects added concurrently should all reach the delegate`() {
+        val threads = 4
+        val perThread = 250
+        val latch = CountDownLatch(threads)
+        val producers = Executors.newFixedThreadPool(threads)
+
+        repeat(threads) { thread ->
+            producers.execute {
+                repeat(perThread) { bufferedQueue.add("$thread-$it") }
+                latch.countDown()
+            }
+        }
+        latch.await(5, TimeUnit.SECONDS)
+        producers.shutdown()
+
+        val written = bufferedQueue.peek(threads * perThread)
+        assertThat(written).hasSize(threads * perThread)
+        repeat(threads) { thread ->
+            val ordered = written.filter { it.startsWith("$thread-") }
+            assertThat(ordered).isEqualTo((0 until perThread).map { "$thread-$it" })
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+class ChecksumConverterTests {
+
+    private val gson = Gson()
+    private val gsonConverter = GsonConverter(gson, Event::class.java)
+    private val checksumConverter = ChecksumConverter(gsonConverter)
+
+    private val event = Event("frank", "rum ham", mapOf<String, Any>("rum" to "ham"), 1L)
+
+    private fun encode(value: Event): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        checksumConverter.toStream(value, outputStream)
+        return outputStream.toByteArray()
+    }
+
+    @Test
+    fun `an event should survive a round trip through the converter`() {
+        assertThat(checksumConverter.from(encode(event))).isEqualTo(event)
+    }
+
+    @Test
+    fun `entries written without a checksum should still be readable`() {
+        val legacy = gson.toJson(event).toByteArray()
+
+        assertThat(checksumConverter.from(legacy)).isEqualTo(event)
+        assertThat(ChecksumConverter.isIntact(legacy)).isTrue()
+    }
+
+    @Test
+    fun `to json should return the json of the payload`() {
+        assertThat(String(checksumConverter.toJson(encode(event)))).isEqualTo(gson.toJson(event))
+    }
+
+    @Test
+    fun `a damaged payload should fail the checksum`() {
+        val bytes = encode(event)
+        bytes[bytes.size - 3] = (bytes[bytes.size - 3] + 1).toByte()
+
+        assertThat(ChecksumConverter.isIntact(bytes)).isFalse()
+    }
+
+    @Test(expected = IOException::class)
+    fun `reading a damaged entry should throw`() {
+        val bytes = encode(event)
+        bytes[bytes.size - 3] = (bytes[bytes.size - 3] + 1).toByte()
+
+        checksumConverter.from(bytes)
+    }
+
+    @Test
+    fun `a truncated header should fail the checksum`() {
+        val bytes = encode(event).copyOf(3)
+
+        assertThat(ChecksumConverter.isIntact(bytes)).isFalse()
+    }
+}
@@ -0,0 +1,126 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class CoalescingUserQueueTests {
+
+    private val queueGenerator = MockedObjectQueue<User>()
+
+    private lateinit var delegate: ConnectQueue<User>
+    private lateinit var coalescingQueue: CoalescingUserQueue
+
+    @Before
+    fun setup() {
+        delegate = ConnectQueue(queueGenerator.getObjectQueue())
+        coalescingQueue = CoalescingUserQueue(delegate)
+    }
+
+    @Test
+    fun `repeated identifies of the same user should be folded into one`() {
+        coalescingQueue.addAll(listOf(
+                UserBuilder("charlie").setFirstName("Charlie").build(),
+                UserBuilder("charlie").setEmail("charlie@paddys.com").build(),
+                UserBuilder("charlie").setFirstName("Charles").build()
+        ))
+
+        val users = coalescingQueue.peek(10)
+
+        assertThat(users).hasSize(1)
+        assertThat(users[0].userId).isEqualTo("charlie")
+        assertThat(users[0].firstName).isEqualTo("Charles")
+        assertThat(users[0].email).isEqualTo("charlie@paddys.com")
+    }
+
+    @Test
+    fun `folded users should keep the position of their first identify`() {
+        coalescingQueue.addAll(listOf(
+                UserBuilder("charlie").build(),
+                UserBuilder("dennis").build(),
+                UserBuilder("charlie").build()
+        ))
+
+        val users = coalescingQueue.peek(10)
+
+        assertThat(users.map { it.userId }).containsExactly("charlie", "dennis").inOrder()
+    }
+
+    @Test
+    fun `attributes should be merged with the newer value winning`() {
+        coalescingQueue.addAll(listOf(
+                UserBuilder("mac").setUserAttributes(mapOf("belt" to "yellow", "rank" to 1)).build(),
+                UserBuilder("mac").setUserAttributes(mapOf("rank" to 2, "dojo" to "paddy's")).build()
+        ))
+
+        val users = coalescingQueue.peek(10)
+
+        assertThat(users[0].attributes).containsExactly("belt", "yellow", "rank", 2, "dojo", "paddy's")
+    }
+
+    @Test
+    fun `group attributes should be replaced when the user changes group`() {
+        val older = UserBuilder("dee").setGroupId("waitresses").setGroupAttributes(mapOf("tips" to 5)).build()
+        val newer = UserBuilder("dee").setGroupId("actresses").setGroupAttributes(mapOf("roles" to 0)).build()
+
+        val merged = CoalescingUserQueue.merge(older, newer)
+
+        assertThat(merged.groupId).isEqualTo("actresses")
+        assertThat(merged.groupAttributes).containsExactly("roles", 0)
+    }
+
+    @Test
+    fun `users should not be folded across an alias`() {
+        val alias = UserBuilder.aliased(UserBuilder("anonymous").build(), "charlie")
+        coalescingQueue.addAll(listOf(
+                UserBuilder("charlie").build(),
+                alias,
+                UserBuilder("charlie").setFirstName("Charlie").build()
+        ))
+
+        val users = coalescingQueue.peek(10)
+
+        assertThat(users).hasSize(3)
+        assertThat(users[1]).isEqualTo(alias)
+    }
+
+    @Test
+    fun `removing the size of the last peek should remove every folded identify`() {
+        coalescingQueue.addAll(listOf(
+                UserBuilder("charlie").build(),
+                UserBuilder("charlie").build(),
+                UserBuilder("charlie").build(),
+                UserBuilder("frank").build()
+        ))
+
+        val users = coalescingQueue.peek(3)
+        coalescingQueue.remove(users.size)
+
+        assertThat(users).hasSize(1)
+        assertThat(coalescingQueue.size()).isEqualTo(1)
+        assertThat(coalescingQueue.peek()!!.userId).isEqualTo("frank")
+        assertThat(coalescingQueue.foldedCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun `removing any other count should remove that many queued users`() {
+        coalescingQueue.addAll(listOf(
+                UserBuilder("charlie").build(),
+                UserBuilder("charlie").build(),
+                UserBuilder("frank").build()
+        ))
+
+        coalescingQueue.peek(3)
+        coalescingQueue.remove(1)
+
+        assertThat(coalescingQueue.size()).isEqualTo(2)
+        assertThat(coalescingQueue.foldedCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `peek json should not be supported`() {
+        coalescingQueue.add(UserBuilder("charlie").build())
+
+        assertThat(coalescingQueue.peekJson(1)).isNull()
+    }
+}
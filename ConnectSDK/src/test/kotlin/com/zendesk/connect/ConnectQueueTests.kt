@@ -62,6 +62,14 @@ class ConnectQueueTests {
         assertThat(logAppender.lastLog()).isEqualTo(ADD_OBJECT_WARNING)
     }
 
+    @Test
+    fun `calling addAll should add every object to the queue in order`() {
+        val lines = listOf("Wildcard!", "Bitch!")
+        connectQueue.addAll(lines)
+
+        assertThat(connectQueue.peek(2)).isEqualTo(lines)
+    }
+
     @Test
     fun `size should return the size of the queue`() {
         val obj1 = "I can't get this Fight Milk out of the damn couch!"
@@ -199,4 +207,10 @@ class ConnectQueueTests {
         assertThat(connectQueue.size()).isEqualTo(0)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun `peek json should not be supported`() {
+        connectQueue.add("Wild card")
+
+        assertThat(connectQueue.peekJson(1)).isNull()
+    }
+}
@@ -57,6 +57,38 @@ class ConnectSchedulerTests {
         assertThat(captor.value.workSpec.constraints).isEqualTo(expectedConstrains)
     }
 
+    @Test
+    fun `scheduleQueuedNetworkBackstop should keep any upload already scheduled`() {
+        val captor = ArgumentCaptor.forClass(OneTimeWorkRequest::class.java)
+
+        connectScheduler.scheduleQueuedNetworkBackstop(TimeUnit.MINUTES.toMillis(5))
+
+        verify(mockWorkManager).enqueueUniqueWork(
+            eq(QueuedRequestsWorker.QUEUED_REQUESTS_WORKER_TAG),
+            eq(ExistingWorkPolicy.KEEP),
+            captor.capture()
+        )
+
+        assertThat(captor.value.workSpec.initialDelay).isEqualTo(TimeUnit.MINUTES.toMillis(5))
+        assertThat(captor.value.workSpec.constraints).isEqualTo(expectedConstrains)
+    }
+
+    @Test
+    fun `scheduleQueuedNetworkRetry should enqueueUniqueWork with the delay under its own name`() {
+        val captor = ArgumentCaptor.forClass(OneTimeWorkRequest::class.java)
+
+        connectScheduler.scheduleQueuedNetworkRetry(TimeUnit.MINUTES.toMillis(5))
+
+        verify(mockWorkManager).enqueueUniqueWork(
+            eq(QueuedRequestsWorker.QUEUED_REQUESTS_RETRY_WORKER_TAG),
+            eq(ExistingWorkPolicy.REPLACE),
+            captor.capture()
+        )
+
+        assertThat(captor.value.workSpec.initialDelay).isEqualTo(TimeUnit.MINUTES.toMillis(5))
+        assertThat(captor.value.workSpec.constraints).isEqualTo(expectedConstrains)
+    }
+
     @Test
     fun `scheduleIpmTimeToLive should enqueueUniqueWork`() {
         val mockTimeToLive = 42L
@@ -5,9 +5,14 @@ import com.zendesk.logger.Logger
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.any
 import org.mockito.ArgumentMatchers.anyString
 import org.mockito.BDDMockito.given
 import org.mockito.Mockito.`when`
+import org.mockito.Mockito.inOrder
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 
 class ConnectTests {
@@ -30,6 +35,7 @@ class ConnectTests {
     private val mockEventQueue = mock<ConnectQueue<Event>>()
     private val mockConnectScheduler = mock<ConnectScheduler>()
     private val mockInstanceId = mock<ConnectInstanceId>()
+    private val mockWriter = mock<ConnectWriter>()
 
     @Before
     fun setUp() {
@@ -38,6 +44,7 @@ class ConnectTests {
         given(mockConnectComponent.eventQueue()).willReturn(mockEventQueue)
         given(mockConnectComponent.scheduler()).willReturn(mockConnectScheduler)
         given(mockConnectComponent.instanceId()).willReturn(mockInstanceId)
+        given(mockConnectComponent.writer()).willReturn(mockWriter)
     }
 
     @After
@@ -52,6 +59,101 @@ class ConnectTests {
         verify(mockConnectComponent).foregroundListener()
     }
 
+    @Test
+    fun `init should hand loading storage to the writer instead of running it on the caller thread`() {
+        Connect.INSTANCE.init(mockConnectComponent, testProdKey)
+
+        verify(mockWriter).execute(any<Runnable>())
+        verify(mockStorageController, never()).config
+        verify(mockStorageController, never()).savePrivateKey(anyString())
+        verify(mockConnectComponent, never()).queueFlushCallbacks()
+    }
+
+    @Test
+    fun `calls made during init should run on the writer after storage is loaded`() {
+        val captor = ArgumentCaptor.forClass(Runnable::class.java)
+        Connect.INSTANCE.init(mockConnectComponent, testProdKey)
+        Connect.INSTANCE.trackEvent(EventFactory.createEvent("mailroom"))
+
+        verify(mockWriter).execute(captor.capture())
+        verify(mockWriter).executeDroppable(any<Runnable>())
+        captor.value.run()
+
+        verify(mockStorageController).savePrivateKey(testProdKey)
+        verify(mockConnectComponent, never()).client()
+    }
+
+    @Test
+    fun `warmUp should call queueFlushCallbacks on the component`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, null, false)
+
+        verify(mockConnectComponent).queueFlushCallbacks()
+    }
+
+    @Test
+    fun `warmUp should read the stored config`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, null, false)
+
+        verify(mockStorageController).config
+    }
+
+    @Test
+    fun `warmUp should store the provided private key`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, testProdKey, false)
+
+        verify(mockStorageController).savePrivateKey(testProdKey)
+    }
+
+    @Test
+    fun `warmUp should schedule config only after checking the private key on a cold start`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, testProdKey, true)
+
+        val inOrder = inOrder(mockStorageController, mockConnectScheduler)
+        inOrder.verify(mockStorageController).savePrivateKey(testProdKey)
+        inOrder.verify(mockConnectScheduler).scheduleRecurringConfigRequests()
+    }
+
+    @Test
+    fun `warmUp should not schedule config if this is not a cold start`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, testProdKey, false)
+
+        verify(mockConnectScheduler, never()).scheduleRecurringConfigRequests()
+    }
+
+    @Test
+    fun `init should not schedule config on the caller thread`() {
+        Connect.INSTANCE.init(mockConnectComponent, testProdKey)
+
+        verify(mockConnectScheduler, never()).scheduleRecurringConfigRequests()
+    }
+
+    @Test
+    fun `warmUp should keep the stored private key if none is provided`() {
+        Connect.INSTANCE.warmUp(mockConnectComponent, null, false)
+
+        verify(mockStorageController, never()).savePrivateKey(anyString())
+    }
+
+    @Test
+    fun `identifyUser should be handed to the writer instead of running on the caller thread`() {
+        Connect.INSTANCE.init(mockConnectComponent)
+
+        Connect.INSTANCE.identifyUser(UserBuilder("charlie").build())
+
+        verify(mockWriter, times(2)).execute(any<Runnable>())
+        verify(mockConnectComponent, never()).client()
+    }
+
+    @Test
+    fun `trackEvent should be handed to the writer instead of running on the caller thread`() {
+        Connect.INSTANCE.init(mockConnectComponent)
+
+        Connect.INSTANCE.trackEvent(EventFactory.createEvent("mailroom"))
+
+        verify(mockWriter).executeDroppable(any<Runnable>())
+        verify(mockConnectComponent, never()).client()
+    }
+
     @Test
     fun `getComponent should return null if the SDK has not been initialised`() {
         assertThat(Connect.INSTANCE.component).isNull()
@@ -131,4 +233,15 @@ class ConnectTests {
         assertThat(logAppender.lastLog()).isEqualTo(NOT_INITIALIZED_LOG)
     }
 
+    @Test
+    fun `getUser should return the user kept in memory without waiting for the writer`() {
+        val user = UserBuilder.anonymousUser()
+        val mockClient = mock<ConnectClient>()
+        given(mockConnectComponent.client()).willReturn(mockClient)
+        given(mockClient.user).willReturn(user)
+        Connect.INSTANCE.init(mockConnectComponent)
+
+        assertThat(Connect.INSTANCE.user).isEqualTo(user)
+    }
+
 }
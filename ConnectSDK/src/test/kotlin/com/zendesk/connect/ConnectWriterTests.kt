@@ -0,0 +1,193 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class ConnectWriterTests {
+
+    companion object {
+        private const val CAPACITY = 4
+    }
+
+    private lateinit var executor: ScheduledExecutorService
+    private lateinit var writer: ConnectWriter
+    private val queueMetrics = QueueMetrics()
+
+    @Before
+    fun setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor()
+        writer = ConnectWriter(executor, CAPACITY, null, queueMetrics)
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private fun awaitWriter() {
+        // Tasks leaving the overflow are only handed to the writer as earlier tasks finish
+        do {
+            executor.submit {}.get(5, TimeUnit.SECONDS)
+        } while (writer.overflowCount() > 0)
+        executor.submit {}.get(5, TimeUnit.SECONDS)
+    }
+
+    @Test
+    fun `tasks should run off the caller thread in the order they were submitted`() {
+        val caller = Thread.currentThread()
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val threads = Collections.synchronizedSet(mutableSetOf<Thread>())
+
+        for (i in 0 until 20) {
+            writer.execute {
+                order.add(i)
+                threads.add(Thread.currentThread())
+            }
+        }
+        awaitWriter()
+
+        assertThat(order).isEqualTo((0 until 20).toList())
+        assertThat(threads).hasSize(1)
+        assertThat(threads).doesNotContain(caller)
+    }
+
+    @Test
+    fun `submitting should block once the writer is full`() {
+        val release = CountDownLatch(1)
+        repeat(CAPACITY) { writer.execute { release.await() } }
+
+        val submitter = Thread { writer.execute {} }
+        submitter.start()
+        submitter.join(200)
+
+        assertThat(submitter.isAlive).isTrue()
+        assertThat(writer.pendingCount()).isEqualTo(CAPACITY)
+
+        release.countDown()
+        submitter.join(5000)
+
+        assertThat(submitter.isAlive).isFalse()
+    }
+
+    @Test
+    fun `the main thread should queue past the limit instead of blocking`() {
+        val release = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val mainThread = Thread {
+            repeat(CAPACITY + 2) { i -> writer.execute { release.await(); order.add(i) } }
+        }
+        writer = ConnectWriter(executor, CAPACITY, mainThread, queueMetrics)
+
+        mainThread.start()
+        mainThread.join(5000)
+
+        assertThat(mainThread.isAlive).isFalse()
+        release.countDown()
+        awaitWriter()
+        assertThat(order).isEqualTo((0 until CAPACITY + 2).toList())
+        assertThat(writer.pendingCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `the main thread should drop the oldest droppable task once the overflow is full`() {
+        val release = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val mainThread = Thread {
+            repeat(CAPACITY) { writer.execute { release.await() } }
+            repeat(CAPACITY + 2) { i -> writer.executeDroppable { order.add(i) } }
+        }
+        writer = ConnectWriter(executor, CAPACITY, mainThread, queueMetrics)
+
+        mainThread.start()
+        mainThread.join(5000)
+
+        assertThat(mainThread.isAlive).isFalse()
+        assertThat(writer.overflowCount()).isEqualTo(CAPACITY)
+        assertThat(queueMetrics.overflowedEvents()).isEqualTo(2)
+        release.countDown()
+        awaitWriter()
+        assertThat(order).isEqualTo((2 until CAPACITY + 2).toList())
+        assertThat(writer.overflowCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `the main thread should keep tasks that can't be dropped past the overflow limit`() {
+        val release = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val mainThread = Thread {
+            repeat(CAPACITY) { writer.execute { release.await() } }
+            repeat(CAPACITY + 2) { i -> writer.execute { order.add(i) } }
+        }
+        writer = ConnectWriter(executor, CAPACITY, mainThread, queueMetrics)
+
+        mainThread.start()
+        mainThread.join(5000)
+
+        assertThat(writer.overflowCount()).isEqualTo(CAPACITY + 2)
+        release.countDown()
+        awaitWriter()
+        assertThat(order).isEqualTo((0 until CAPACITY + 2).toList())
+        assertThat(queueMetrics.overflowedEvents()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a droppable task should be dropped if none of the waiting tasks can be`() {
+        val release = CountDownLatch(1)
+        val ran = Collections.synchronizedList(mutableListOf<Int>())
+        val mainThread = Thread {
+            repeat(CAPACITY) { writer.execute { release.await() } }
+            repeat(CAPACITY) { writer.execute {} }
+            writer.executeDroppable { ran.add(1) }
+        }
+        writer = ConnectWriter(executor, CAPACITY, mainThread, queueMetrics)
+
+        mainThread.start()
+        mainThread.join(5000)
+        release.countDown()
+        awaitWriter()
+
+        assertThat(ran).isEmpty()
+        assertThat(queueMetrics.overflowedEvents()).isEqualTo(1)
+    }
+
+    @Test
+    fun `tasks submitted from the writer should not wait for room`() {
+        val done = CountDownLatch(1)
+        writer.execute {
+            repeat(CAPACITY * 2) { writer.execute {} }
+            writer.execute { done.countDown() }
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+    }
+
+    @Test
+    fun `a failing task should not stop later tasks`() {
+        val done = CountDownLatch(1)
+
+        writer.execute { throw IllegalStateException("mac's tears") }
+        writer.execute { done.countDown() }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        awaitWriter()
+        assertThat(writer.pendingCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `tasks should run on the caller thread once the writer has shut down`() {
+        executor.shutdownNow()
+        var ranOn: Thread? = null
+
+        writer.execute { ranOn = Thread.currentThread() }
+
+        assertThat(ranOn).isSameInstanceAs(Thread.currentThread())
+        assertThat(writer.pendingCount()).isEqualTo(0)
+    }
+}
@@ -0,0 +1,47 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+class DeadLetterStoreTests {
+
+    private val gson = Gson()
+
+    private val deadLetters = DeadLetterStore(
+            ConnectQueue(MockedObjectQueue<DeadLetterStore.DeadLetter>().getObjectQueue()), gson)
+
+    @Test
+    fun `an item should be stored as json with its status`() {
+        val event = Event("charlie", "wildcard", null, 0)
+
+        deadLetters.add(DeadLetterStore.TYPE_EVENT, 400, event)
+
+        val deadLetter = deadLetters.peek(1)[0]
+        assertThat(deadLetter.type).isEqualTo(DeadLetterStore.TYPE_EVENT)
+        assertThat(deadLetter.status).isEqualTo(400)
+        assertThat(deadLetter.payload).isEqualTo(gson.toJson(event))
+    }
+
+    @Test
+    fun `json bytes should be stored as they are`() {
+        deadLetters.add(DeadLetterStore.TYPE_EVENT, 422, "{\"event\":\"wildcard\"}".toByteArray())
+
+        assertThat(deadLetters.peek(1)[0].payload).isEqualTo("{\"event\":\"wildcard\"}")
+    }
+
+    @Test
+    fun `a stored item should survive being written to a queue file`() {
+        val converter = GsonConverter(gson, DeadLetterStore.DeadLetter::class.java)
+        val deadLetter = DeadLetterStore.DeadLetter(DeadLetterStore.TYPE_USER, 400, 42L, "{\"user_id\":\"mac\"}")
+
+        val bytes = ByteArrayOutputStream().also { converter.toStream(deadLetter, it) }.toByteArray()
+        val read = converter.from(bytes)
+
+        assertThat(read.type).isEqualTo(DeadLetterStore.TYPE_USER)
+        assertThat(read.status).isEqualTo(400)
+        assertThat(read.timestamp).isEqualTo(42L)
+        assertThat(read.payload).isEqualTo("{\"user_id\":\"mac\"}")
+    }
+}
@@ -15,6 +15,8 @@ import org.mockito.Mockito
 import org.mockito.Mockito.`when`
 import org.mockito.Mockito.any
 import org.mockito.Mockito.anyString
+import org.mockito.Mockito.atLeastOnce
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.Mockito.verifyZeroInteractions
 import org.mockito.MockitoAnnotations
@@ -22,6 +24,7 @@ import org.mockito.junit.MockitoJUnitRunner
 import retrofit2.Call
 import retrofit2.Callback
 import retrofit2.Response
+import java.util.concurrent.ScheduledExecutorService
 
 @RunWith(MockitoJUnitRunner.Silent::class)
 class DefaultConnectClientTests {
@@ -63,12 +66,15 @@ class DefaultConnectClientTests {
     @Mock private lateinit var mockStorageController: StorageController
     @Mock private lateinit var mockUserQueue: BaseQueue<User>
     @Mock private lateinit var mockEventQueue: BaseQueue<Event>
-    @Mock private lateinit var mockScheduler: ConnectScheduler
+    @Mock private lateinit var mockFlushPolicy: FlushPolicy
     @Mock private lateinit var mockPushProvider: PushProvider
     @Mock private lateinit var mockInstanceId: ConnectInstanceId
     @Mock private lateinit var mockIdResult: InstanceIdResult
     @Mock private lateinit var mockCall: Call<Void>
     @Mock private lateinit var mockResponse: Response<Void>
+    @Mock private lateinit var mockWriter: ConnectWriter
+    @Mock private lateinit var mockExecutor: ScheduledExecutorService
+    @Mock private lateinit var mockEventGate: EventGate
 
     @Before
     @Suppress("UNCHECKED_CAST")
@@ -82,10 +88,14 @@ class DefaultConnectClientTests {
 
         MockitoAnnotations.initMocks(DefaultConnectClientTests::class.java)
 
+        Mockito.doAnswer { (it.arguments[0] as Runnable).run() }.`when`(mockExecutor).execute(any<Runnable>())
+
         connectClient = DefaultConnectClient(mockStorageController, mockUserQueue,
-                mockEventQueue, mockScheduler, mockPushProvider, mockInstanceId)
+                mockEventQueue, mockFlushPolicy, mockPushProvider, mockInstanceId, ConnectWriter(mockExecutor, 256, null, QueueMetrics()),
+                mockEventGate)
 
         `when`(mockStorageController.user).thenReturn(testStoredUser)
+        `when`(mockEventGate.admit(anyString())).thenReturn(true)
         `when`(mockIdResult.token).thenReturn(testToken)
         `when`(mockInstanceId.getToken(any<OnSuccessListener<InstanceIdResult>>(), any<OnFailureListener>()))
                 .then { (it.arguments[0] as OnSuccessListener<InstanceIdResult>).onSuccess(mockIdResult) }
@@ -111,14 +121,14 @@ class DefaultConnectClientTests {
 
         verifyZeroInteractions(mockStorageController)
         verifyZeroInteractions(mockUserQueue)
-        verifyZeroInteractions(mockScheduler)
+        verifyZeroInteractions(mockFlushPolicy)
     }
 
     @Test
     fun `calling identify with a non null user should add that user to the user queue`() {
         connectClient.identifyUser(testUser)
 
-        verify(mockUserQueue).add(userCaptor.capture())
+        verify(mockUserQueue).addAsync(userCaptor.capture())
         assertThat(userCaptor.value.userId).isEqualTo(testUser.userId)
     }
 
@@ -126,15 +136,15 @@ class DefaultConnectClientTests {
     fun `calling identify with a non null user should add that user to storage`() {
         connectClient.identifyUser(testUser)
 
-        verify(mockStorageController).saveUser(userCaptor.capture())
+        verify(mockStorageController, times(2)).saveUser(userCaptor.capture())
         assertThat(userCaptor.value.userId).isEqualTo(testUser.userId)
     }
 
     @Test
-    fun `calling identify with a non null user should schedule the queued request service`() {
+    fun `calling identify with a non null user should record it with the flush policy`() {
         connectClient.identifyUser(testUser)
 
-        verify(mockScheduler).scheduleQueuedNetworkRequests()
+        verify(mockFlushPolicy).onQueued(FlushPolicy.USER_SIZE_BYTES)
     }
 
     @Test
@@ -152,10 +162,32 @@ class DefaultConnectClientTests {
         connectClient.identifyUser(testUser)
 
         val captor = ArgumentCaptor.forClass(User::class.java)
-        verify(mockStorageController).saveUser(captor.capture())
+        verify(mockStorageController, times(2)).saveUser(captor.capture())
         assertThat(captor.value.fcm).contains(testToken)
     }
 
+    @Test
+    fun `calling identify should store the user before its token has been fetched`() {
+        Mockito.reset(mockInstanceId)
+
+        connectClient.identifyUser(testUser)
+
+        verify(mockStorageController).saveUser(testUser)
+        verifyZeroInteractions(mockUserQueue)
+    }
+
+    @Test
+    fun `the identified user should be queued on the writer`() {
+        connectClient = DefaultConnectClient(mockStorageController, mockUserQueue,
+                mockEventQueue, mockFlushPolicy, mockPushProvider, mockInstanceId, mockWriter,
+                mockEventGate)
+
+        connectClient.identifyUser(testUser)
+
+        verify(mockWriter).execute(any<Runnable>())
+        verifyZeroInteractions(mockUserQueue)
+    }
+
     @Test
     fun `failed token retrieval should not set the fcm token for the identified user`() {
         Mockito.reset(mockInstanceId)
@@ -175,7 +207,7 @@ class DefaultConnectClientTests {
 
         verifyZeroInteractions(mockStorageController)
         verifyZeroInteractions(mockEventQueue)
-        verifyZeroInteractions(mockScheduler)
+        verifyZeroInteractions(mockFlushPolicy)
     }
 
     @Test
@@ -189,7 +221,7 @@ class DefaultConnectClientTests {
     fun `calling track should attach the active user id to the event`() {
         connectClient.trackEvent(testEvent)
 
-        verify(mockEventQueue).add(eventCaptor.capture())
+        verify(mockEventQueue).addAsync(eventCaptor.capture())
         assertThat(eventCaptor.value.userId).isEqualTo(testStoredUser.userId)
     }
 
@@ -202,7 +234,7 @@ class DefaultConnectClientTests {
 
         connectClient.trackEvent(testEvent)
 
-        verify(mockEventQueue).add(eventCaptor.capture())
+        verify(mockEventQueue).addAsync(eventCaptor.capture())
         assertThat(eventCaptor.value.userId).isNotNull()
     }
 
@@ -213,7 +245,7 @@ class DefaultConnectClientTests {
 
         connectClient.trackEvent(testEvent)
 
-        verify(mockStorageController).saveUser(any<User>())
+        verify(mockStorageController, atLeastOnce()).saveUser(any<User>())
     }
 
     @Test
@@ -222,7 +254,7 @@ class DefaultConnectClientTests {
 
         connectClient.trackEvent(testEvent)
 
-        verify(mockEventQueue).add(eventCaptor.capture())
+        verify(mockEventQueue).addAsync(eventCaptor.capture())
         assertThat(eventCaptor.value.userId).isNotNull()
     }
 
@@ -230,21 +262,31 @@ class DefaultConnectClientTests {
     fun `calling track should add an event to the event queue`() {
         connectClient.trackEvent(testEvent)
 
-        verify(mockEventQueue).add(any<Event>())
+        verify(mockEventQueue).addAsync(any<Event>())
+    }
+
+    @Test
+    fun `calling track with an event over its configured limit should not queue it`() {
+        `when`(mockEventGate.admit(testEvent.event)).thenReturn(false)
+
+        connectClient.trackEvent(testEvent)
+
+        verifyZeroInteractions(mockEventQueue)
+        verifyZeroInteractions(mockFlushPolicy)
     }
 
     @Test
-    fun `calling track should schedule the queued request service`() {
+    fun `calling track should record the event with the flush policy`() {
         connectClient.trackEvent(testEvent)
 
-        verify(mockScheduler).scheduleQueuedNetworkRequests()
+        verify(mockFlushPolicy).onQueued(FlushPolicy.estimateSize(testEvent))
     }
 
     @Test
     fun `calling track should log the details of the event being tracked`() {
         connectClient.trackEvent(testEvent)
 
-        verify(mockEventQueue).add(eventCaptor.capture())
+        verify(mockEventQueue).addAsync(eventCaptor.capture())
         assertThat(logAppender.lastLog())
                 .isEqualTo(String.format(TRACK_EVENT_MESSAGE_FORMAT, eventCaptor.value))
     }
@@ -279,7 +321,7 @@ class DefaultConnectClientTests {
 
         connectClient.registerForPush()
 
-        verify(mockUserQueue).add(any<User>())
+        verify(mockUserQueue).addAsync(any<User>())
     }
 
     @Test
@@ -422,4 +464,16 @@ class DefaultConnectClientTests {
         assertThat(connectClient.user).isEqualTo(testStoredUser)
     }
 
+    @Test
+    fun `get active user should return a copy the host app can change`() {
+        val activeUser = UserBuilder.newBuilder(testStoredUser)
+                .setUserAttributes(mapOf("Funny" to false))
+                .build()
+        `when`(mockStorageController.user).thenReturn(activeUser)
+
+        connectClient.user!!.attributes["Funny"] = true
+
+        assertThat(activeUser.attributes).containsExactly("Funny", false)
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+import java.util.concurrent.TimeUnit
+
+@RunWith(MockitoJUnitRunner.Silent::class)
+class EventGateTests {
+
+    companion object {
+        private const val SCROLL = "scroll"
+        private const val PURCHASE = "purchase"
+        private val SECOND = TimeUnit.SECONDS.toNanos(1)
+    }
+
+    @Mock private lateinit var mockStorageController: StorageController
+
+    private val queueMetrics = QueueMetrics()
+
+    private lateinit var eventGate: EventGate
+
+    @Before
+    fun setUp() {
+        eventGate = EventGate(mockStorageController, queueMetrics)
+    }
+
+    private fun configure(vararg limits: EventLimit) {
+        `when`(mockStorageController.config).thenReturn(Config(true, AccountConfig(false, null, null, limits.toList())))
+    }
+
+    private fun admitted(count: Int, name: String = SCROLL, nowNanos: Long = 0) =
+            (0 until count).count { eventGate.admit(name, nowNanos) }
+
+    @Test
+    fun `events should all be admitted when no config is stored`() {
+        assertThat(admitted(100)).isEqualTo(100)
+    }
+
+    @Test
+    fun `events without a limit should all be admitted`() {
+        configure(EventLimit(SCROLL, 0.0, null, null))
+
+        assertThat(admitted(100, PURCHASE)).isEqualTo(100)
+        assertThat(eventGate.admit(null)).isTrue()
+    }
+
+    @Test
+    fun `a sample rate should keep that fraction of the events`() {
+        configure(EventLimit(SCROLL, 0.25, null, null))
+
+        assertThat(admitted(100)).isEqualTo(25)
+        assertThat(queueMetrics.sampledEvents()).isEqualTo(75)
+    }
+
+    @Test
+    fun `a sample rate of zero should drop every event`() {
+        configure(EventLimit(SCROLL, 0.0, null, null))
+
+        assertThat(admitted(10)).isEqualTo(0)
+    }
+
+    @Test
+    fun `a rate limit should admit a burst and then refill over time`() {
+        configure(EventLimit(SCROLL, null, 60, 5))
+
+        assertThat(admitted(10, nowNanos = 0)).isEqualTo(5)
+        assertThat(queueMetrics.rateLimitedEvents()).isEqualTo(5)
+        assertThat(admitted(10, nowNanos = SECOND)).isEqualTo(1)
+        assertThat(admitted(10, nowNanos = 10 * SECOND)).isEqualTo(5)
+    }
+
+    @Test
+    fun `a rate limit without a burst should admit one event per interval`() {
+        configure(EventLimit(SCROLL, null, 60, null))
+
+        assertThat(admitted(3, nowNanos = 0)).isEqualTo(1)
+        assertThat(admitted(3, nowNanos = SECOND / 2)).isEqualTo(0)
+        assertThat(admitted(3, nowNanos = SECOND)).isEqualTo(1)
+    }
+
+    @Test
+    fun `the stored config should only be read once until it is reloaded`() {
+        configure(EventLimit(SCROLL, 0.5, null, null))
+
+        admitted(10)
+        eventGate.reload()
+        admitted(10)
+
+        verify(mockStorageController, times(2)).config
+    }
+
+    @Test
+    fun `reloading an unchanged limit should keep its state`() {
+        configure(EventLimit(SCROLL, null, 60, 2))
+        admitted(2)
+
+        eventGate.reload()
+
+        assertThat(admitted(1)).isEqualTo(0)
+    }
+
+    @Test
+    fun `reloading a changed limit should apply the new limit`() {
+        configure(EventLimit(SCROLL, null, 60, 2))
+        admitted(2)
+
+        configure(EventLimit(SCROLL, null, 60, 4))
+        eventGate.reload()
+
+        assertThat(admitted(10)).isEqualTo(4)
+    }
+}
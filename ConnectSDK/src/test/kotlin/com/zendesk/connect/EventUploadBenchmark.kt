@@ -0,0 +1,118 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.FieldNamingPolicy
+import com.google.gson.GsonBuilder
+import okhttp3.RequestBody
+import okio.Buffer
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.`when`
+import retrofit2.Call
+import retrofit2.Response
+import java.io.File
+import java.util.Locale
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+/**
+ * Drains a backlog of events from a segmented queue of binary entries, sending each batch in
+ * order with and without reading the next batch while the current one is in flight. Requests
+ * write their body and then wait a fixed time to stand in for the network.
+ */
+class EventUploadBenchmark {
+
+    companion object {
+        private const val EVENTS = 5_000
+        private const val ROUNDS = 2
+        private const val REQUEST_MILLIS = 5L
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create()
+
+    private val events = (0 until EVENTS).map { i ->
+        Event("user_123456789",
+                "screen_view_${i % 4}",
+                mapOf<String, Any>(
+                        "screen" to "checkout",
+                        "position" to i,
+                        "price" to 19.99,
+                        "tags" to listOf("sale", "summer")
+                ),
+                1565000000000L + i)
+    }
+
+    private val eventProvider = mock<EventProvider>().apply {
+        `when`(trackBatch(any())).then { sleepingCall { gson.toJson(it.arguments[0]).length } }
+        `when`(track(any())).then { sleepingCall { gson.toJson(it.arguments[0]).length } }
+        `when`(trackBatchJson(any())).then { sleepingCall { (it.arguments[0] as RequestBody).size() } }
+        `when`(trackJson(any())).then { sleepingCall { (it.arguments[0] as RequestBody).size() } }
+    }
+
+    private fun RequestBody.size() = Buffer().also { writeTo(it) }.size()
+
+    private fun sleepingCall(writeBody: () -> Number): Call<Void> {
+        val response = Response.success<Void>(null)
+        return mock<Call<Void>>().apply {
+            `when`(execute()).then {
+                writeBody()
+                Thread.sleep(REQUEST_MILLIS)
+                response
+            }
+        }
+    }
+
+    @Test
+    fun `pipelined upload against sequential upload`() {
+        val pool = Executors.newCachedThreadPool()
+        try {
+            val sequential = eventsPerSecond("sequential", Executor { it.run() })
+            val pipelined = eventsPerSecond("pipelined", pool)
+
+            Benchmarks.report("Event backlog upload", emptyList(),
+                    String.format(Locale.US, "Sequential %8.0f events/s", sequential),
+                    String.format(Locale.US, "Pipelined  %8.0f events/s", pipelined))
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    private fun eventsPerSecond(name: String, executor: Executor): Double {
+        val userQueue = ConnectQueue<User>(MockedObjectQueue<User>().getObjectQueue())
+        val identifyProvider = mock<IdentifyProvider>()
+        val deadLetters = DeadLetterStore(
+                ConnectQueue(MockedObjectQueue<DeadLetterStore.DeadLetter>().getObjectQueue()), gson)
+        var bestNanos = Long.MAX_VALUE
+        repeat(ROUNDS) { round ->
+            val eventQueue = createEventQueue("$name-$round")
+            val start = System.nanoTime()
+            QueuedRequestsJobProcessor.process(userQueue, eventQueue, identifyProvider, eventProvider,
+                    executor, BatchSizer(), RequestBackoff(), deadLetters)
+            bestNanos = minOf(bestNanos, System.nanoTime() - start)
+            assertThat(eventQueue.size()).isEqualTo(0)
+        }
+        return EVENTS * 1_000_000_000.0 / bestNanos
+    }
+
+    private fun createEventQueue(name: String): BaseQueue<Event> {
+        val directory = File(temporaryFolder.root, name)
+        val converter = ChecksumConverter(EventBinaryConverter(gson,
+                QueueDictionary(File(directory, "dictionary"))))
+        return SegmentedQueue(File(directory, "events"),
+                converter,
+                512L * 1024,
+                8L * 1024 * 1024,
+                SegmentEvictionPolicies.dropOldest(),
+                QueueMetrics()).apply { addAll(events) }
+    }
+}
@@ -0,0 +1,152 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class ExpiringQueueTests {
+
+    companion object {
+        private val MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1)
+        private const val MAX_COUNT = 10
+    }
+
+    private val queueGenerator = MockedObjectQueue<Event>()
+    private val queueMetrics = QueueMetrics()
+
+    private var timestampReads = 0
+
+    private lateinit var delegate: ConnectQueue<Event>
+    private lateinit var expiringQueue: ExpiringQueue<Event>
+
+    @Before
+    fun setup() {
+        delegate = ConnectQueue(queueGenerator.getObjectQueue())
+        expiringQueue = ExpiringQueue(delegate,
+                ExpiringQueue.Timestamper<Event> {
+                    timestampReads++
+                    it.timestamp
+                },
+                MAX_AGE_MILLIS,
+                MAX_COUNT,
+                queueMetrics)
+    }
+
+    private fun event(name: String, ageMillis: Long = 0) =
+            Event(null, name, null, System.currentTimeMillis() - ageMillis)
+
+    @Test
+    fun `events older than the maximum age should be dropped when the queue is read`() {
+        expiringQueue.addAll(listOf(
+                event("mailroom", MAX_AGE_MILLIS * 3),
+                event("avatar plan", MAX_AGE_MILLIS * 2),
+                event("dennis system")
+        ))
+
+        val events = expiringQueue.peek(10)
+
+        assertThat(events.map { it.event }).containsExactly("dennis system")
+        assertThat(expiringQueue.size()).isEqualTo(1)
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(2)
+    }
+
+    @Test
+    fun `expiry should not run when objects are added`() {
+        expiringQueue.add(event("mailroom", MAX_AGE_MILLIS * 2))
+
+        assertThat(expiringQueue.size()).isEqualTo(1)
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(0)
+    }
+
+    @Test
+    fun `stale events spanning several expiry batches should all be dropped`() {
+        val stale = (0 until 120).map { event("stale $it", MAX_AGE_MILLIS * 2) }
+        delegate.addAll(stale + event("fresh"))
+        val largeQueue = ExpiringQueue(delegate,
+                ExpiringQueue.Timestamper<Event> { it.timestamp },
+                MAX_AGE_MILLIS,
+                1000,
+                queueMetrics)
+
+        assertThat(largeQueue.peek()!!.event).isEqualTo("fresh")
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(120)
+    }
+
+    @Test
+    fun `the oldest events beyond the maximum count should be dropped`() {
+        expiringQueue.addAll((0 until MAX_COUNT + 5).map { event("event $it") })
+
+        val events = expiringQueue.peek(MAX_COUNT + 5)
+
+        assertThat(events).hasSize(MAX_COUNT)
+        assertThat(events[0].event).isEqualTo("event 5")
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(5)
+    }
+
+    @Test
+    fun `a fresh oldest event should not be checked again until it could have expired`() {
+        expiringQueue.addAll(listOf(event("mailroom"), event("avatar plan")))
+
+        expiringQueue.peek(10)
+        val readsAfterFirstPeek = timestampReads
+        expiringQueue.peek(10)
+        expiringQueue.cursor(10, Long.MAX_VALUE)
+
+        assertThat(readsAfterFirstPeek).isEqualTo(1)
+        assertThat(timestampReads).isEqualTo(1)
+    }
+
+    @Test
+    fun `clearing the queue should check the next oldest event again`() {
+        expiringQueue.add(event("mailroom"))
+        expiringQueue.peek()
+
+        expiringQueue.clear()
+        expiringQueue.add(event("avatar plan", MAX_AGE_MILLIS * 2))
+
+        assertThat(expiringQueue.peek()).isNull()
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(1)
+    }
+
+    @Test
+    fun `a cursor should only cover events that have not expired`() {
+        expiringQueue.addAll(listOf(event("mailroom", MAX_AGE_MILLIS * 2), event("avatar plan")))
+
+        val cursor = expiringQueue.cursor(10, Long.MAX_VALUE)
+
+        assertThat(cursor.next()!!.event).isEqualTo("avatar plan")
+        assertThat(cursor.hasNext()).isFalse()
+    }
+
+    @Test
+    fun `nothing should expire while the head of the queue is held`() {
+        var held = true
+        val heldQueue = ExpiringQueue(delegate,
+                ExpiringQueue.Timestamper<Event> { it.timestamp },
+                MAX_AGE_MILLIS,
+                MAX_COUNT,
+                queueMetrics,
+                ExpiringQueue.Hold { held })
+        heldQueue.addAll(listOf(event("mailroom", MAX_AGE_MILLIS * 2), event("avatar plan")))
+
+        val cursor = heldQueue.cursor(10, Long.MAX_VALUE)
+
+        assertThat(cursor.next()!!.event).isEqualTo("mailroom")
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(0)
+
+        held = false
+        assertThat(heldQueue.peek()!!.event).isEqualTo("avatar plan")
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(1)
+    }
+
+    @Test
+    fun `nothing should be reported when nothing has expired`() {
+        expiringQueue.addAll(listOf(event("mailroom"), event("avatar plan")))
+
+        expiringQueue.peek(10)
+
+        assertThat(expiringQueue.size()).isEqualTo(2)
+        assertThat(queueMetrics.expiredRecords()).isEqualTo(0)
+    }
+}
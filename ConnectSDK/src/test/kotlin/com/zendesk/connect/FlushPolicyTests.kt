@@ -0,0 +1,249 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class FlushPolicyTests {
+
+    companion object {
+        private const val MAX_ITEMS = 5
+        private const val MAX_BYTES = 1_000L
+        private const val MAX_LATENCY_MILLIS = 60_000L
+        private const val SHORT_LATENCY_MILLIS = 20L
+    }
+
+    private val mockScheduler = mock<ConnectScheduler>()
+    private val mockFlusher = mock<QueuedRequestsFlusher>()
+
+    private lateinit var timer: ScheduledExecutorService
+    private lateinit var flushPolicy: FlushPolicy
+
+    @Before
+    fun setup() {
+        timer = Executors.newSingleThreadScheduledExecutor()
+        flushPolicy = createFlushPolicy()
+    }
+
+    private fun createFlushPolicy(latencyMillis: Long = MAX_LATENCY_MILLIS,
+                                  liveLatencyMillis: Long = MAX_LATENCY_MILLIS) =
+            FlushPolicy(mockScheduler, mockFlusher, timer, MAX_ITEMS, MAX_BYTES, latencyMillis, liveLatencyMillis)
+
+    @After
+    fun teardown() {
+        timer.shutdownNow()
+    }
+
+    private fun awaitTimer(delayMillis: Long) {
+        timer.schedule({}, delayMillis, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS)
+    }
+
+    @Test
+    fun `queued items below the thresholds should not schedule the upload`() {
+        repeat(MAX_ITEMS - 1) { flushPolicy.onQueued(10) }
+
+        verify(mockScheduler, never()).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `reaching the item threshold should schedule the upload once`() {
+        repeat(MAX_ITEMS) { flushPolicy.onQueued(10) }
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `reaching the byte threshold should schedule the upload`() {
+        flushPolicy.onQueued(MAX_BYTES / 2)
+        flushPolicy.onQueued(MAX_BYTES / 2)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `the thresholds should be counted again after the upload is scheduled`() {
+        repeat(MAX_ITEMS * 2 + 1) { flushPolicy.onQueued(10) }
+
+        verify(mockScheduler, times(2)).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `the latency timer should schedule the upload of waiting items`() {
+        flushPolicy = createFlushPolicy(latencyMillis = SHORT_LATENCY_MILLIS)
+
+        flushPolicy.onQueued(10)
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `the latency timer should not schedule the upload again after a threshold was reached`() {
+        flushPolicy = createFlushPolicy(latencyMillis = SHORT_LATENCY_MILLIS)
+
+        repeat(MAX_ITEMS) { flushPolicy.onQueued(10) }
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `flush should schedule the upload of waiting items straight away`() {
+        flushPolicy.onQueued(10)
+
+        flushPolicy.flush()
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `flush should not schedule the upload if nothing is waiting`() {
+        flushPolicy.flush()
+
+        verify(mockScheduler, never()).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `a stopped timer should schedule the upload straight away`() {
+        timer.shutdownNow()
+
+        flushPolicy.onQueued(10)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `the counters should report the schedules saved by grouping items`() {
+        repeat(MAX_ITEMS * 4) { flushPolicy.onQueued(10) }
+
+        assertThat(flushPolicy.queuedCount()).isEqualTo(MAX_ITEMS * 4)
+        assertThat(flushPolicy.scheduledCount()).isEqualTo(4)
+        assertThat(flushPolicy.savedCount()).isEqualTo((MAX_ITEMS - 2) * 4)
+    }
+
+    @Test
+    fun `items sent in-process should not be counted as saved schedules`() {
+        flushPolicy = createFlushPolicy(liveLatencyMillis = SHORT_LATENCY_MILLIS)
+        flushPolicy.setForeground(true)
+
+        flushPolicy.onQueued(10)
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        assertThat(flushPolicy.liveCount()).isEqualTo(1)
+        assertThat(flushPolicy.savedCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `the first queued item should schedule a backstop upload`() {
+        repeat(MAX_ITEMS - 1) { flushPolicy.onQueued(10) }
+
+        verify(mockScheduler).scheduleQueuedNetworkBackstop(MAX_LATENCY_MILLIS)
+    }
+
+    @Test
+    fun `a backstop upload should be scheduled again for items queued after an upload`() {
+        repeat(MAX_ITEMS + 1) { flushPolicy.onQueued(10) }
+
+        verify(mockScheduler, times(2)).scheduleQueuedNetworkBackstop(MAX_LATENCY_MILLIS)
+    }
+
+    @Test
+    fun `estimateSize should grow with the event name and properties`() {
+        val bare = EventFactory.createEvent("Rum ham")
+        val withProperties = EventFactory.createEvent("Rum ham", mapOf("flavour" to "spicy"))
+
+        assertThat(FlushPolicy.estimateSize(withProperties)).isGreaterThan(FlushPolicy.estimateSize(bare))
+    }
+
+    @Test
+    fun `the policy should only be live in the foreground with a network`() {
+        assertThat(flushPolicy.isLive).isFalse()
+
+        flushPolicy.setForeground(true)
+        assertThat(flushPolicy.isLive).isTrue()
+
+        flushPolicy.setNetworkAvailable(false)
+        assertThat(flushPolicy.isLive).isFalse()
+    }
+
+    @Test
+    fun `a threshold crossed while live should send the items in-process`() {
+        flushPolicy.setForeground(true)
+
+        repeat(MAX_ITEMS) { flushPolicy.onQueued(10) }
+
+        verify(mockFlusher).flushAsync(FlushReport.Trigger.FOREGROUND)
+        verify(mockScheduler, never()).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `the live latency timer should send waiting items in-process`() {
+        flushPolicy = createFlushPolicy(liveLatencyMillis = SHORT_LATENCY_MILLIS)
+        flushPolicy.setForeground(true)
+
+        flushPolicy.onQueued(10)
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        verify(mockFlusher).flushAsync(FlushReport.Trigger.FOREGROUND)
+        assertThat(flushPolicy.liveCount()).isEqualTo(1)
+    }
+
+    @Test
+    fun `entering the foreground should restart a waiting timer with the live latency`() {
+        flushPolicy = createFlushPolicy(liveLatencyMillis = SHORT_LATENCY_MILLIS)
+        flushPolicy.onQueued(10)
+
+        flushPolicy.setForeground(true)
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        verify(mockFlusher).flushAsync(FlushReport.Trigger.FOREGROUND)
+    }
+
+    @Test
+    fun `leaving the foreground after sending in-process should schedule the worker`() {
+        flushPolicy.setForeground(true)
+        repeat(MAX_ITEMS) { flushPolicy.onQueued(10) }
+
+        flushPolicy.setForeground(false)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `leaving the foreground without queuing anything should not schedule the worker`() {
+        flushPolicy.setForeground(true)
+
+        flushPolicy.setForeground(false)
+
+        verify(mockScheduler, never()).scheduleQueuedNetworkRequests()
+    }
+
+    @Test
+    fun `losing the network while live should leave waiting items to the worker`() {
+        flushPolicy = createFlushPolicy(latencyMillis = SHORT_LATENCY_MILLIS)
+        flushPolicy.setForeground(true)
+        flushPolicy.onQueued(10)
+
+        flushPolicy.setNetworkAvailable(false)
+        awaitTimer(SHORT_LATENCY_MILLIS * 2)
+
+        verify(mockScheduler).scheduleQueuedNetworkRequests()
+        verify(mockFlusher, never()).flushAsync(FlushReport.Trigger.FOREGROUND)
+    }
+
+    @Test
+    fun `a zero live latency should turn the live mode off`() {
+        flushPolicy = createFlushPolicy(liveLatencyMillis = 0)
+
+        flushPolicy.setForeground(true)
+
+        assertThat(flushPolicy.isLive).isFalse()
+    }
+}
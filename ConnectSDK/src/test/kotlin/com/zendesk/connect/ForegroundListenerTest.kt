@@ -1,10 +1,14 @@
 package com.zendesk.connect
 
+import android.app.Activity
 import android.app.Application
 import com.google.common.truth.Truth.assertThat
 import com.zendesk.logger.Logger
 import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.BDDMockito.willAnswer
 import org.mockito.BDDMockito.willDoNothing
+import org.mockito.Mockito.`when`
 import org.mockito.Mockito.never
 import org.mockito.Mockito.spy
 import org.mockito.Mockito.verify
@@ -24,6 +28,8 @@ class ForegroundListenerTest {
 
     private val mockApplication = mock<Application>()
     private val mockCallback = mock<ForegroundListener.Callback>()
+    private val mockBackgroundCallback = mock<ForegroundListener.BackgroundCallback>()
+    private val mockActivity = mock<Activity>()
 
     private val foregroundListener = spy(ForegroundListener(mockApplication))
 
@@ -167,6 +173,41 @@ class ForegroundListenerTest {
 
         verify(foregroundListener, never()).setupHandler()
     }
+
+    @Test
+    fun `adding a callback after an activity was resumed should call setupHandler on the main thread`() {
+        willDoNothing().given(foregroundListener).setupHandler()
+        willAnswer { (it.arguments[0] as Runnable).run() }.given(foregroundListener).postToMainThread(any())
+        foregroundListener.onActivityResumed(mock())
+
+        foregroundListener.addCallback(mockCallback)
+
+        verify(foregroundListener).setupHandler()
+    }
+
+    @Test
+    fun `adding a callback while no activity is resumed should not call setupHandler`() {
+        willDoNothing().given(foregroundListener).setupHandler()
+
+        foregroundListener.addCallback(mockCallback)
+
+        verify(foregroundListener, never()).postToMainThread(any())
+        verify(foregroundListener, never()).setupHandler()
+    }
+
+    @Test
+    fun `a callback added after an activity was resumed should not call setupHandler once it is paused`() {
+        willDoNothing().given(foregroundListener).setupHandler()
+        val posted = mutableListOf<Runnable>()
+        willAnswer { posted.add(it.arguments[0] as Runnable) }.given(foregroundListener).postToMainThread(any())
+        foregroundListener.onActivityResumed(mock())
+
+        foregroundListener.addCallback(mockCallback)
+        foregroundListener.onActivityPaused(mock())
+        posted.forEach { it.run() }
+
+        verify(foregroundListener, never()).setupHandler()
+    }
     // endregion
 
     @Test
@@ -210,4 +251,68 @@ class ForegroundListenerTest {
 
         verify(foregroundListener).resetHandler()
     }
+
+    // region background
+    @Test
+    fun `stopping the last started activity should alert the background callbacks`() {
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+        foregroundListener.onActivityStarted(mockActivity)
+
+        foregroundListener.onActivityStopped(mockActivity)
+
+        verify(mockBackgroundCallback).onBackground()
+    }
+
+    @Test
+    fun `stopping an activity while another is started should not alert the background callbacks`() {
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+        foregroundListener.onActivityStarted(mockActivity)
+        foregroundListener.onActivityStarted(mockActivity)
+
+        foregroundListener.onActivityStopped(mockActivity)
+
+        verify(mockBackgroundCallback, never()).onBackground()
+    }
+
+    @Test
+    fun `rotating the only activity should not alert the background callbacks`() {
+        val rotatingActivity = mock<Activity>()
+        `when`(rotatingActivity.isChangingConfigurations).thenReturn(true)
+        val recreatedActivity = mock<Activity>()
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+        foregroundListener.onActivityStarted(rotatingActivity)
+        foregroundListener.onActivityResumed(rotatingActivity)
+
+        foregroundListener.onActivityPaused(rotatingActivity)
+        foregroundListener.onActivityStopped(rotatingActivity)
+        foregroundListener.onActivityDestroyed(rotatingActivity)
+        foregroundListener.onActivityCreated(recreatedActivity, null)
+        foregroundListener.onActivityStarted(recreatedActivity)
+        foregroundListener.onActivityResumed(recreatedActivity)
+
+        verify(mockBackgroundCallback, never()).onBackground()
+
+        foregroundListener.onActivityPaused(recreatedActivity)
+        foregroundListener.onActivityStopped(recreatedActivity)
+
+        verify(mockBackgroundCallback).onBackground()
+    }
+
+    @Test
+    fun `addBackgroundCallback should not add the same callback more than once`() {
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+
+        assertThat(foregroundListener.backgroundCallbacks).isEqualTo(listOf(mockBackgroundCallback))
+    }
+
+    @Test
+    fun `removeBackgroundCallback should remove the callback from the list`() {
+        foregroundListener.addBackgroundCallback(mockBackgroundCallback)
+
+        foregroundListener.removeBackgroundCallback(mockBackgroundCallback)
+
+        assertThat(foregroundListener.backgroundCallbacks).isEmpty()
+    }
+    // endregion
 }
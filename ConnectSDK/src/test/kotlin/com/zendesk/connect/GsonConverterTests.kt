@@ -31,6 +31,13 @@ class GsonConverterTests {
         assertThat(gsonConverter.from(bytes)).isEqualTo(episode)
     }
 
+    @Test
+    fun `to json should return the stored bytes unchanged`() {
+        val bytes = gson.toJson(Episode("The Gang Gets Invincible")).toByteArray()
+
+        assertThat(gsonConverter.toJson(bytes)).isSameInstanceAs(bytes)
+    }
+
     @Test
     fun `to stream should write the given object to the given output stream`() {
         val episode = Episode("The Gang Saves the Day")
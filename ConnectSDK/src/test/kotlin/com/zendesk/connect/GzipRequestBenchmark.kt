@@ -0,0 +1,100 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.FieldNamingPolicy
+import com.google.gson.GsonBuilder
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import okio.GzipSink
+import okio.Okio
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import java.util.Locale
+
+/**
+ * Compares the bytes on the wire for a batch of 100 events sent as they are and sent through the
+ * [GzipRequestInterceptor], as received by a local server. Also reports the time and allocations
+ * needed to write the batch with and without compression.
+ */
+class GzipRequestBenchmark {
+
+    companion object {
+        private const val OPERATIONS = 2_000
+        private const val BATCH_SIZE = 100
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    private val server = MockWebServer()
+
+    private val gson = GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create()
+
+    private val batch = (0 until BATCH_SIZE).map { i ->
+        gson.toJson(Event("user_123456789",
+                "screen_view_${i % 4}",
+                mapOf<String, Any>(
+                        "screen" to "checkout",
+                        "position" to i,
+                        "price" to 19.99,
+                        "logged_in" to (i % 2 == 0),
+                        "tags" to listOf("sale", "summer")
+                ),
+                1565000000000L + i)).toByteArray()
+    }
+
+    @Before
+    fun setUp() {
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun `gzipped batches against plain batches`() {
+        val plainClient = OkHttpClient()
+        val gzipClient = OkHttpClient.Builder()
+                .addInterceptor(GzipRequestInterceptor(ConnectNetworkModule.COMPRESS_MIN_BYTES))
+                .build()
+
+        send(plainClient)
+        val plainBytes = server.takeRequest().bodySize
+        send(gzipClient)
+        val gzipBytes = server.takeRequest().bodySize
+
+        val results = listOf(
+                Benchmarks.measure("Write plain batch of $BATCH_SIZE", OPERATIONS) {
+                    JsonArrayRequestBody(batch).writeTo(Buffer())
+                },
+                Benchmarks.measure("Write gzipped batch of $BATCH_SIZE", OPERATIONS) {
+                    Okio.buffer(GzipSink(Buffer())).use { JsonArrayRequestBody(batch).writeTo(it) }
+                }
+        )
+
+        Benchmarks.report("Track batch compression", results,
+                String.format(Locale.US, "Plain   %d bytes/batch", plainBytes),
+                String.format(Locale.US, "Gzipped %d bytes/batch (%.1fx smaller)",
+                        gzipBytes, plainBytes.toDouble() / gzipBytes))
+
+        assertThat(gzipBytes).isLessThan(plainBytes)
+    }
+
+    private fun send(client: OkHttpClient) {
+        server.enqueue(MockResponse())
+        val request = Request.Builder()
+                .url(server.url("/events/track"))
+                .post(JsonArrayRequestBody(batch))
+                .build()
+        client.newCall(request).execute().close()
+    }
+}
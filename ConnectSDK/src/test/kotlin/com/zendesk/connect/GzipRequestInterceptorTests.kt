@@ -0,0 +1,109 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.MediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import okio.GzipSource
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class GzipRequestInterceptorTests {
+
+    companion object {
+        private const val MIN_BYTES = 64L
+        private val JSON = MediaType.parse("application/json; charset=UTF-8")
+    }
+
+    private val server = MockWebServer()
+
+    private lateinit var client: OkHttpClient
+
+    @Before
+    fun setUp() {
+        server.start()
+        client = OkHttpClient.Builder()
+                .addInterceptor(GzipRequestInterceptor(MIN_BYTES))
+                .build()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun post(body: RequestBody, contentEncoding: String? = null) {
+        server.enqueue(MockResponse())
+        val request = Request.Builder()
+                .url(server.url("/track"))
+                .post(body)
+                .apply { if (contentEncoding != null) header(GzipRequestInterceptor.CONTENT_ENCODING, contentEncoding) }
+                .build()
+        client.newCall(request).execute().close()
+    }
+
+    private fun gunzip(body: Buffer) = Buffer().also { it.writeAll(GzipSource(body)) }.readUtf8()
+
+    private val largeJson = (0 until 20).joinToString(",", "[", "]") { "{\"event\":\"rum ham $it\"}" }
+
+    @Test
+    fun `a body over the threshold should be sent gzipped`() {
+        post(RequestBody.create(JSON, largeJson))
+
+        val recorded = server.takeRequest()
+        assertThat(recorded.getHeader(GzipRequestInterceptor.CONTENT_ENCODING)).isEqualTo("gzip")
+        assertThat(recorded.bodySize).isLessThan(largeJson.length.toLong())
+        assertThat(gunzip(recorded.body)).isEqualTo(largeJson)
+    }
+
+    @Test
+    fun `a gzipped body should keep its content type and declare its length`() {
+        post(RequestBody.create(JSON, largeJson))
+
+        val recorded = server.takeRequest()
+        assertThat(recorded.getHeader("Content-Type")).isEqualTo(JSON.toString())
+        assertThat(recorded.getHeader("Content-Length")).isEqualTo(recorded.bodySize.toString())
+    }
+
+    @Test
+    fun `a streamed json array should be sent gzipped`() {
+        val values = (0 until 20).map { "{\"event\":\"wild card $it\"}".toByteArray() }
+
+        post(JsonArrayRequestBody(values))
+
+        val recorded = server.takeRequest()
+        assertThat(gunzip(recorded.body)).isEqualTo(values.joinToString(",", "[", "]") { String(it) })
+    }
+
+    @Test
+    fun `a body under the threshold should be sent as it is`() {
+        post(RequestBody.create(JSON, "[]"))
+
+        val recorded = server.takeRequest()
+        assertThat(recorded.getHeader(GzipRequestInterceptor.CONTENT_ENCODING)).isNull()
+        assertThat(recorded.body.readUtf8()).isEqualTo("[]")
+    }
+
+    @Test
+    fun `a body that is already encoded should not be compressed again`() {
+        post(RequestBody.create(JSON, largeJson), "identity")
+
+        val recorded = server.takeRequest()
+        assertThat(recorded.getHeader(GzipRequestInterceptor.CONTENT_ENCODING)).isEqualTo("identity")
+        assertThat(recorded.body.readUtf8()).isEqualTo(largeJson)
+    }
+
+    @Test
+    fun `a request without a body should be sent as it is`() {
+        server.enqueue(MockResponse())
+
+        client.newCall(Request.Builder().url(server.url("/config")).build()).execute().close()
+
+        assertThat(server.takeRequest().getHeader(GzipRequestInterceptor.CONTENT_ENCODING)).isNull()
+    }
+}
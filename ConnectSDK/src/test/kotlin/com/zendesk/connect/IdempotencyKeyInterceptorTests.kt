@@ -0,0 +1,137 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.MediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.UUID
+
+class IdempotencyKeyInterceptorTests {
+
+    companion object {
+        private const val GUID_HEADER = "X-Outbound-GUID"
+        private val JSON = MediaType.parse("application/json; charset=UTF-8")
+    }
+
+    private val server = MockWebServer()
+
+    private lateinit var client: OkHttpClient
+
+    @Before
+    fun setUp() {
+        server.start()
+        client = OkHttpClient.Builder()
+                .addInterceptor(IdempotencyKeyInterceptor())
+                .build()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun send(path: String, body: String?): String {
+        server.enqueue(MockResponse())
+        val request = Request.Builder()
+                .url(server.url(path))
+                .apply { if (body != null) post(RequestBody.create(JSON, body)) }
+                .build()
+        client.newCall(request).execute().close()
+        return server.takeRequest().getHeader(GUID_HEADER)
+    }
+
+    @Test
+    fun `sending the same batch again should send the same key`() {
+        val batch = "[{\"event\":\"mailroom\"},{\"event\":\"avatar plan\"}]"
+
+        assertThat(send("/v2/track/batch", batch)).isEqualTo(send("/v2/track/batch", batch))
+    }
+
+    @Test
+    fun `sending the same single identify or track again should send the same key`() {
+        val user = "{\"user_id\":\"charlie\"}"
+        val event = "{\"event\":\"mailroom\"}"
+
+        assertThat(send("/v2/identify", user)).isEqualTo(send("/v2/identify", user))
+        assertThat(send("/v2/track", event)).isEqualTo(send("/v2/track", event))
+    }
+
+    @Test
+    fun `different batches should send different keys`() {
+        val first = send("/v2/track/batch", "[{\"event\":\"mailroom\"}]")
+        val second = send("/v2/track/batch", "[{\"event\":\"avatar plan\"}]")
+
+        assertThat(first).isNotEqualTo(second)
+    }
+
+    @Test
+    fun `the same body sent to different endpoints should send different keys`() {
+        val body = "[{\"user_id\":\"charlie\"}]"
+
+        assertThat(send("/v2/identify/batch", body)).isNotEqualTo(send("/v2/track/batch", body))
+    }
+
+    @Test
+    fun `sending the same request to an endpoint other than identify or track should send a random key`() {
+        val body = "{\"token\":\"rum ham\"}"
+
+        assertThat(send("/v2/android/register", body)).isNotEqualTo(send("/v2/android/register", body))
+    }
+
+    @Test
+    fun `requests without a body should send a random key`() {
+        val first = send("/config", null)
+        val second = send("/config", null)
+
+        assertThat(first).isNotEqualTo(second)
+    }
+
+    @Test
+    fun `the key should be a uuid`() {
+        val key = send("/v2/track/batch", "[]")
+
+        assertThat(UUID.fromString(key).toString()).isEqualTo(key)
+    }
+
+    @Test
+    fun `the key should replace a key set by an earlier interceptor`() {
+        client = OkHttpClient.Builder()
+                .addInterceptor(ClientInterceptors.OutboundGuidInterceptor("random"))
+                .addInterceptor(IdempotencyKeyInterceptor())
+                .build()
+
+        val key = send("/v2/track/batch", "[]")
+
+        assertThat(server.requestCount).isEqualTo(1)
+        assertThat(key).isNotEqualTo("random")
+    }
+
+    @Test
+    fun `the key should be derived from the body before it is compressed`() {
+        val batch = "[{\"event\":\"mailroom\"}]"
+        val plainKey = send("/v2/track/batch", batch)
+        client = OkHttpClient.Builder()
+                .addInterceptor(IdempotencyKeyInterceptor())
+                .addInterceptor(GzipRequestInterceptor(0))
+                .build()
+
+        assertThat(send("/v2/track/batch", batch)).isEqualTo(plainKey)
+    }
+
+    @Test
+    fun `the client should key requests after the other interceptors and compress them last`() {
+        val headers = ClientInterceptors.OutboundGuidInterceptor("random")
+        val idempotency = IdempotencyKeyInterceptor()
+        val gzip = GzipRequestInterceptor(0)
+
+        val interceptors = ConnectOkHttpClientBuilder(setOf(headers), idempotency, gzip).build().interceptors()
+
+        assertThat(interceptors).containsExactly(headers, idempotency, gzip).inOrder()
+    }
+}
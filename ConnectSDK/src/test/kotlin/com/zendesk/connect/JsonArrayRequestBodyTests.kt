@@ -0,0 +1,41 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import okio.Buffer
+import org.junit.Test
+
+class JsonArrayRequestBodyTests {
+
+    private val values = listOf("{\"event\":\"wild card\"}", "{\"event\":\"rum ham\"}", "42")
+
+    private fun JsonArrayRequestBody.readUtf8() = Buffer().also { writeTo(it) }.readUtf8()
+
+    @Test
+    fun `the body should frame the values into a json array`() {
+        val body = JsonArrayRequestBody(values.map { it.toByteArray() })
+
+        assertThat(body.readUtf8()).isEqualTo(values.joinToString(",", "[", "]"))
+    }
+
+    @Test
+    fun `the content length should match the bytes written`() {
+        val body = JsonArrayRequestBody(values.map { it.toByteArray() })
+
+        assertThat(body.contentLength()).isEqualTo(body.readUtf8().toByteArray().size.toLong())
+    }
+
+    @Test
+    fun `an empty list should be written as an empty array`() {
+        val body = JsonArrayRequestBody(emptyList())
+
+        assertThat(body.readUtf8()).isEqualTo("[]")
+        assertThat(body.contentLength()).isEqualTo(2)
+    }
+
+    @Test
+    fun `the content type should be json`() {
+        val body = JsonArrayRequestBody(emptyList())
+
+        assertThat(body.contentType().toString()).isEqualTo("application/json; charset=UTF-8")
+    }
+}
@@ -0,0 +1,214 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.zendesk.test.MockedSharedPreferences
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+
+class LogStorageTests {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = Gson()
+
+    private lateinit var file: File
+    private lateinit var storage: LogStorage
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.root, "storage_log")
+        storage = LogStorage(file, gson)
+    }
+
+    @Test
+    fun `put should store the value`() {
+        storage.put("bar", "Paddy's")
+
+        assertThat(storage.get("bar")).isEqualTo("Paddy's")
+    }
+
+    @Test
+    fun `put object should store it as json`() {
+        val user = UserBuilder("c137").setFirstName("Rick").build()
+
+        storage.put("user", user)
+
+        assertThat(storage.get("user", User::class.java)).isEqualTo(user)
+    }
+
+    @Test
+    fun `values should be read back from the file`() {
+        storage.put("bar", "Paddy's")
+        storage.put("owner", "Frank")
+        storage.put("owner", "Dee")
+        storage.remove("bar")
+
+        val reloaded = LogStorage(file, gson)
+
+        assertThat(reloaded.getAll()).containsExactly("owner", "Dee")
+    }
+
+    @Test
+    fun `put null should remove the value`() {
+        storage.put("bar", "Paddy's")
+
+        storage.put("bar", null as String?)
+
+        assertThat(storage.get("bar")).isNull()
+        assertThat(LogStorage(file, gson).get("bar")).isNull()
+    }
+
+    @Test
+    fun `putting an unchanged value should not write to the file`() {
+        storage.put("bar", "Paddy's")
+        val length = file.length()
+
+        storage.put("bar", "Paddy's")
+
+        assertThat(file.length()).isEqualTo(length)
+    }
+
+    @Test
+    fun `clear should remove every value from the file`() {
+        storage.put("bar", "Paddy's")
+        storage.put("owner", "Frank")
+
+        storage.clear()
+
+        assertThat(storage.getAll()).isEmpty()
+        assertThat(LogStorage(file, gson).getAll()).isEmpty()
+    }
+
+    @Test
+    fun `a partially written record at the end of the file should be discarded`() {
+        storage.put("bar", "Paddy's")
+        val length = file.length()
+        FileOutputStream(file, true).use { it.write(byteArrayOf(1, 5, 'o'.toByte())) }
+
+        val reloaded = LogStorage(file, gson)
+
+        assertThat(reloaded.getAll()).containsExactly("bar", "Paddy's")
+        assertThat(file.length()).isEqualTo(length)
+        reloaded.put("owner", "Frank")
+        assertThat(LogStorage(file, gson).get("owner")).isEqualTo("Frank")
+    }
+
+    @Test
+    fun `a damaged record should be discarded with everything after it`() {
+        storage.put("bar", "Paddy's")
+        val length = file.length()
+        storage.put("owner", "Frank")
+        RandomAccessFile(file, "rw").use {
+            it.seek(file.length() - 6)
+            it.write('F'.toInt())
+        }
+
+        val reloaded = LogStorage(file, gson)
+
+        assertThat(reloaded.getAll()).containsExactly("bar", "Paddy's")
+        assertThat(file.length()).isEqualTo(length)
+    }
+
+    @Test
+    fun `a file that is not a storage log should be replaced and kept as a copy`() {
+        val contents = "<map><string name=\"bar\">Paddy's</string></map>"
+        file.writeText(contents)
+
+        val reloaded = LogStorage(file, gson)
+        reloaded.put("owner", "Frank")
+
+        assertThat(LogStorage(file, gson).getAll()).containsExactly("owner", "Frank")
+        assertThat(File(file.path + ".corrupt").readText()).isEqualTo(contents)
+    }
+
+    @Test
+    fun `a new log should be created without compacting it`() {
+        // A directory in the way of the compaction file makes every compaction fail
+        File(file.path + ".compacting").apply { mkdir() }.resolve("blocker").writeText("")
+
+        storage.put("bar", "Paddy's")
+
+        assertThat(LogStorage(file, gson).get("bar")).isEqualTo("Paddy's")
+    }
+
+    @Test
+    fun `values should be moved to the fallback if the log can't be written`() {
+        val sharedPreferences = MockedSharedPreferences().getSharedPreferences()
+        val unwritable = LogStorage(File(temporaryFolder.root, "missing/storage_log"), gson,
+                SharedPreferencesStorage(sharedPreferences, gson))
+
+        unwritable.put("bar", "Paddy's")
+        unwritable.put("owner", "Frank")
+        unwritable.remove("bar")
+
+        assertThat(unwritable.hasFallenBack()).isTrue()
+        assertThat(unwritable.get("owner")).isEqualTo("Frank")
+        assertThat(sharedPreferences.getAll()).containsExactly("owner", "Frank")
+    }
+
+    @Test
+    fun `values kept in memory should be written once the log can be written again`() {
+        val directory = File(temporaryFolder.root, "missing")
+        val logFile = File(directory, "storage_log")
+        val unwritable = LogStorage(logFile, gson)
+        unwritable.put("bar", "Paddy's")
+
+        directory.mkdir()
+        unwritable.put("owner", "Frank")
+
+        assertThat(unwritable.hasFallenBack()).isFalse()
+        assertThat(LogStorage(logFile, gson).getAll()).containsExactly("bar", "Paddy's", "owner", "Frank")
+    }
+
+    @Test
+    fun `the file should be compacted once it is mostly replaced values`() {
+        val value = "a".repeat(100)
+        for (i in 0 until 1000) {
+            storage.put("counter", "$value$i")
+        }
+
+        assertThat(storage.fileLength()).isAtMost(LogStorage.MIN_COMPACTION_BYTES + 200)
+        assertThat(file.length()).isEqualTo(storage.fileLength())
+        assertThat(LogStorage(file, gson).get("counter")).isEqualTo("${value}999")
+    }
+
+    @Test
+    fun `a leftover compaction file should be deleted`() {
+        val temporary = File(file.path + ".compacting")
+        temporary.writeText("partial")
+
+        storage.get("bar")
+
+        assertThat(temporary.exists()).isFalse()
+    }
+
+    @Test
+    fun `shared preferences should be migrated to the log`() {
+        val sharedPreferences = MockedSharedPreferences().getSharedPreferences()
+        sharedPreferences.edit().putString("bar", "Paddy's").putString("owner", "Frank").commit()
+
+        ConnectStorageModule.migrateSharedPreferences(sharedPreferences, storage)
+
+        assertThat(LogStorage(file, gson).getAll()).containsExactly("bar", "Paddy's", "owner", "Frank")
+        assertThat(sharedPreferences.getAll()).isEmpty()
+    }
+
+    @Test
+    fun `the log should be migrated back to shared preferences`() {
+        storage.put("bar", "Paddy's")
+        val sharedPreferences = MockedSharedPreferences().getSharedPreferences()
+
+        ConnectStorageModule.migrateLogStorage(LogStorage(file, gson),
+                SharedPreferencesStorage(sharedPreferences, gson), file)
+
+        assertThat(sharedPreferences.getString("bar", null)).isEqualTo("Paddy's")
+        assertThat(file.exists()).isFalse()
+    }
+}
@@ -0,0 +1,77 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.FieldNamingPolicy
+import com.google.gson.GsonBuilder
+import com.squareup.tape2.ObjectQueue
+import com.squareup.tape2.QueueFile
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * Compares a [MappedQueue] against the [ConnectQueue] over a tape [QueueFile] it can replace.
+ * Both queues store the same checksummed binary entries. Reports the mean and 99th percentile
+ * time of adding an event, peeking at the head of the queue and removing it.
+ */
+class MappedQueueBenchmark {
+
+    companion object {
+        private const val OPERATIONS = 2_000
+        private const val BATCH_SIZE = 10
+        private const val MAX_FILE_BYTES = 4L * 1024 * 1024
+        private const val FORCE_INTERVAL = 32
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create()
+
+    private val events = (0 until 16).map { i ->
+        Event("user_123456789",
+                "screen_view_${i % 4}",
+                mapOf<String, Any>(
+                        "screen" to "checkout",
+                        "position" to i,
+                        "price" to 19.99
+                ),
+                1565000000000L + i)
+    }
+
+    @Test
+    fun `mapped queue against tape queue`() {
+        val converter = ChecksumConverter(EventBinaryConverter(gson,
+                QueueDictionary(File(temporaryFolder.root, "dictionary"))))
+
+        val tapeQueue = ConnectQueue(ObjectQueue.create(
+                QueueFile.Builder(File(temporaryFolder.root, "tape")).build(), converter))
+        val mappedQueue = MappedQueue(File(temporaryFolder.root, "mapped"),
+                converter, MAX_FILE_BYTES, FORCE_INTERVAL, QueueMetrics())
+
+        val results = listOf(tapeQueue to "ConnectQueue", mappedQueue to "MappedQueue").flatMap { (queue, name) ->
+            listOf(
+                    Benchmarks.measureWithLatency("$name add", OPERATIONS) {
+                        queue.add(events[it % events.size])
+                    },
+                    Benchmarks.measureWithLatency("$name peek($BATCH_SIZE)", OPERATIONS) {
+                        queue.peek(BATCH_SIZE)
+                    },
+                    Benchmarks.measureWithLatency("$name remove($BATCH_SIZE)", OPERATIONS / BATCH_SIZE) {
+                        queue.remove(BATCH_SIZE)
+                    }
+            )
+        }
+
+        Benchmarks.report("Event queue backends", results)
+
+        assertThat(mappedQueue.size()).isEqualTo(tapeQueue.size())
+        assertThat(mappedQueue.peek(BATCH_SIZE)).isEqualTo(tapeQueue.peek(BATCH_SIZE))
+    }
+}
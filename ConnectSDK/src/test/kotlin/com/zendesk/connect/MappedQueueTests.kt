@@ -0,0 +1,355 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.squareup.tape2.ObjectQueue
+import com.squareup.tape2.QueueFile
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class MappedQueueTests {
+
+    companion object {
+        private const val MAX_FILE_BYTES = 32L * 1024
+        private const val FORCE_INTERVAL = 4
+
+        // Roughly a kilobyte per entry, so the initial file fills up after a handful of entries
+        private val PADDING = "x".repeat(1000)
+    }
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val converter = ChecksumConverter(GsonConverter(Gson(), String::class.java))
+    private val queueMetrics = QueueMetrics()
+
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.root, "mapped")
+    }
+
+    private fun createQueue() = MappedQueue(file, converter, MAX_FILE_BYTES, FORCE_INTERVAL, queueMetrics)
+
+    private fun entry(index: Int) = "$index:$PADDING"
+
+    private fun entries(range: IntRange) = range.map { entry(it) }
+
+    @Test
+    fun `objects should be returned in the order they were added`() {
+        val queue = createQueue()
+        val added = entries(0 until 3)
+
+        queue.addAll(added)
+
+        assertThat(queue.size()).isEqualTo(added.size)
+        assertThat(queue.peek(added.size)).isEqualTo(added)
+        assertThat(queue.peek()).isEqualTo(added[0])
+    }
+
+    @Test
+    fun `peek should not return more objects than requested`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        assertThat(queue.peek(2)).isEqualTo(entries(0 until 2))
+        assertThat(queue.peek(-1)).isEmpty()
+    }
+
+    @Test
+    fun `remove should drop objects from the head of the queue`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        queue.remove(2)
+
+        assertThat(queue.size()).isEqualTo(1)
+        assertThat(queue.peek(3)).containsExactly(entry(2))
+    }
+
+    @Test
+    fun `null objects should not be added`() {
+        val queue = createQueue()
+
+        queue.add(null)
+
+        assertThat(queue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `objects should survive the queue being reopened`() {
+        createQueue().apply {
+            addAll(entries(0 until 3))
+            remove(1)
+            close()
+        }
+
+        val queue = createQueue()
+
+        assertThat(queue.peek(3)).isEqualTo(entries(1 until 3))
+    }
+
+    @Test
+    fun `records should wrap around the ring without the file growing`() {
+        val queue = createQueue()
+        val initialBytes = queue.fileBytes()
+
+        for (i in 0 until 20) {
+            queue.add(entry(i))
+            if (queue.size() > 2) {
+                queue.remove(1)
+            }
+        }
+
+        assertThat(queue.fileBytes()).isEqualTo(initialBytes)
+        assertThat(queue.peek(3)).isEqualTo(entries(18 until 20))
+        assertThat(createQueue().peek(3)).isEqualTo(entries(18 until 20))
+    }
+
+    @Test
+    fun `the file should grow while keeping wrapped records in order`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+        queue.remove(2)
+        queue.addAll(entries(3 until 6))
+        val initialBytes = queue.fileBytes()
+
+        queue.addAll(entries(6 until 12))
+
+        assertThat(queue.fileBytes()).isGreaterThan(initialBytes)
+        assertThat(queue.peek(20)).isEqualTo(entries(2 until 12))
+    }
+
+    @Test
+    fun `growing the file should not keep the previous file open`() {
+        val descriptors = File("/proc/self/fd")
+        assumeTrue(descriptors.isDirectory)
+        val queue = createQueue()
+        val openBefore = descriptors.list()!!.size
+
+        queue.addAll(entries(0 until 40))
+
+        assertThat(queue.fileBytes()).isGreaterThan(8192L)
+        assertThat(descriptors.list()!!.size).isAtMost(openBefore)
+    }
+
+    @Test
+    fun `objects in a grown file should survive the queue being closed and reopened`() {
+        createQueue().apply {
+            addAll(entries(0 until 12))
+            close()
+        }
+
+        assertThat(createQueue().peek(20)).isEqualTo(entries(0 until 12))
+    }
+
+    @Test
+    fun `the oldest objects should be dropped once the file is at its maximum size`() {
+        val queue = createQueue()
+
+        queue.addAll(entries(0 until 60))
+
+        assertThat(queue.fileBytes()).isAtMost(MAX_FILE_BYTES)
+        assertThat(queue.evictedCount()).isGreaterThan(0)
+        assertThat(queue.size() + queue.evictedCount()).isEqualTo(60)
+        assertThat(queue.peek(60)).isEqualTo(entries(queue.evictedCount() until 60))
+    }
+
+    @Test
+    fun `an entry larger than the maximum file size should be discarded`() {
+        val queue = createQueue()
+
+        queue.add("x".repeat(MAX_FILE_BYTES.toInt()))
+
+        assertThat(queue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `peek json should return the json of each entry`() {
+        val queue = createQueue()
+        queue.addAll(listOf("charlie", "dennis"))
+
+        val json = queue.peekJson(5)!!.map { String(it) }
+
+        assertThat(json).containsExactly("\"charlie\"", "\"dennis\"").inOrder()
+    }
+
+    @Test
+    fun `peek json should not be supported without a json converter`() {
+        val plainConverter = object : ObjectQueue.Converter<String> by converter {}
+        val queue = MappedQueue(file, plainConverter, MAX_FILE_BYTES, FORCE_INTERVAL, queueMetrics)
+
+        assertThat(queue.peekJson(1)).isNull()
+    }
+
+    @Test
+    fun `a cursor should cover the first objects up to the count`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 5))
+
+        val cursor = queue.cursor(3, Long.MAX_VALUE)
+        val covered = generateSequence { if (cursor.hasNext()) cursor.next() else null }.toList()
+
+        assertThat(covered).isEqualTo(entries(0 until 3))
+        assertThat(queue.size()).isEqualTo(5)
+    }
+
+    @Test
+    fun `a cursor should stop before an entry that would exceed the byte budget`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 5))
+
+        val cursor = queue.cursor(5, 2L * 1024)
+        while (cursor.hasNext()) {
+            cursor.next()
+        }
+
+        assertThat(cursor.consumedCount()).isEqualTo(2)
+        assertThat(cursor.consumedBytes()).isAtMost(2L * 1024)
+    }
+
+    @Test
+    fun `a cursor should always cover the first entry however large it is`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        val cursor = queue.cursor(3, 1)
+
+        assertThat(cursor.next()).isEqualTo(entry(0))
+        assertThat(cursor.hasNext()).isFalse()
+    }
+
+    @Test
+    fun `committing a cursor should remove only the objects it moved past`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 5))
+
+        val cursor = queue.cursor(5, Long.MAX_VALUE)
+        repeat(2) { cursor.next() }
+        cursor.commit()
+
+        assertThat(queue.peek(5)).isEqualTo(entries(2 until 5))
+    }
+
+    @Test
+    fun `committing a cursor after its objects were dropped to make room should not remove newer objects`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        val cursor = queue.cursor(10, Long.MAX_VALUE)
+        repeat(10) { cursor.next() }
+        queue.addAll(entries(20 until 45))
+        val queued = queue.peek(queue.size())
+        cursor.commit()
+
+        assertThat(queue.evictedCount()).isGreaterThan(0)
+        assertThat(queued).doesNotContain(entry(0))
+        assertThat(queue.peek(queue.size())).isEqualTo(queued - entries(0 until 10))
+    }
+
+    @Test
+    fun `committing a cursor after the queue was cleared should not remove newer objects`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 5))
+
+        val cursor = queue.cursor(5, Long.MAX_VALUE)
+        repeat(5) { cursor.next() }
+        queue.clear()
+        queue.addAll(entries(5 until 8))
+        cursor.commit()
+
+        assertThat(queue.peek(5)).isEqualTo(entries(5 until 8))
+    }
+
+    @Test
+    fun `clear should remove every object`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        queue.clear()
+
+        assertThat(queue.size()).isEqualTo(0)
+        assertThat(createQueue().size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a damaged entry should be dropped without losing the rest of the queue`() {
+        createQueue().apply {
+            addAll(entries(0 until 3))
+            force()
+        }
+        val bytes = file.readBytes()
+        bytes[String(bytes, Charsets.ISO_8859_1).indexOf("1:x") + 10] = 'y'.toByte()
+        file.writeBytes(bytes)
+
+        val queue = createQueue()
+
+        assertThat(queue.peek(3)).containsExactly(entry(0), entry(2)).inOrder()
+        assertThat(queue.size()).isEqualTo(2)
+        assertThat(queue.evictedCount()).isEqualTo(1)
+        assertThat(queueMetrics.recoveredFiles()).isEqualTo(1)
+        assertThat(queueMetrics.droppedRecords()).isEqualTo(1)
+    }
+
+    @Test
+    fun `records that no longer line up should be cut at the damage`() {
+        createQueue().apply {
+            addAll(entries(0 until 3))
+            force()
+        }
+        val secondRecord = String(file.readBytes(), Charsets.ISO_8859_1).indexOf("1:x") - 6
+        RandomAccessFile(file, "rw").use {
+            it.seek(secondRecord.toLong() - 4)
+            it.writeInt(Int.MAX_VALUE)
+        }
+
+        val queue = createQueue()
+
+        assertThat(queue.peek(3)).containsExactly(entry(0))
+        assertThat(queueMetrics.droppedRecords()).isEqualTo(2)
+    }
+
+    @Test
+    fun `a damaged header should reset the queue`() {
+        createQueue().apply {
+            addAll(entries(0 until 3))
+            force()
+        }
+        RandomAccessFile(file, "rw").use { it.writeInt(0) }
+
+        val queue = createQueue()
+
+        assertThat(queue.size()).isEqualTo(0)
+        assertThat(queueMetrics.recoveredFiles()).isEqualTo(1)
+        queue.add(entry(0))
+        assertThat(queue.peek()).isEqualTo(entry(0))
+    }
+
+    @Test
+    fun `adopt should take over the entries of a queue file`() {
+        val queueFile = File(temporaryFolder.root, "tape")
+        ObjectQueue.create(QueueFile.Builder(queueFile).build(), converter).use { tape ->
+            entries(0 until 3).forEach { tape.add(it) }
+        }
+        val queue = createQueue()
+        queue.add(entry(-1))
+
+        assertThat(queue.adopt(queueFile)).isTrue()
+
+        assertThat(queueFile.exists()).isFalse()
+        assertThat(queue.peek(5)).isEqualTo(listOf(entry(-1)) + entries(0 until 3))
+    }
+
+    @Test
+    fun `adopt should ignore a missing file`() {
+        val queue = createQueue()
+
+        assertThat(queue.adopt(File(temporaryFolder.root, "missing"))).isFalse()
+    }
+}
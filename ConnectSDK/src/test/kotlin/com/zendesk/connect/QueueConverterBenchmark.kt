@@ -0,0 +1,86 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.FieldNamingPolicy
+import com.google.gson.GsonBuilder
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.Locale
+
+/**
+ * Compares the [BinaryConverter] used by the event queue against the [GsonConverter] it replaces.
+ * Reports the encoded size of an event, and the time and allocations needed to encode and
+ * decode it.
+ */
+class QueueConverterBenchmark {
+
+    companion object {
+        private const val OPERATIONS = 20_000
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create()
+
+    private val events = (0 until 16).map { i ->
+        Event("user_123456789",
+                "screen_view_${i % 4}",
+                mapOf<String, Any>(
+                        "screen" to "checkout",
+                        "position" to i,
+                        "price" to 19.99,
+                        "logged_in" to (i % 2 == 0),
+                        "tags" to listOf("sale", "summer")
+                ),
+                1565000000000L + i)
+    }
+
+    @Test
+    fun `binary converter against gson converter`() {
+        val gsonConverter = GsonConverter(gson, Event::class.java)
+        val binaryConverter = EventBinaryConverter(gson,
+                QueueDictionary(File(temporaryFolder.root, "dictionary")))
+
+        val jsonBytes = events.map { encode(gsonConverter, it) }
+        val binaryBytes = events.map { encode(binaryConverter, it) }
+
+        val results = listOf(
+                Benchmarks.measure("GsonConverter encode", OPERATIONS) {
+                    encode(gsonConverter, events[it % events.size])
+                },
+                Benchmarks.measure("BinaryConverter encode", OPERATIONS) {
+                    encode(binaryConverter, events[it % events.size])
+                },
+                Benchmarks.measure("GsonConverter decode", OPERATIONS) {
+                    gsonConverter.from(jsonBytes[it % jsonBytes.size])
+                },
+                Benchmarks.measure("BinaryConverter decode", OPERATIONS) {
+                    binaryConverter.from(binaryBytes[it % binaryBytes.size])
+                }
+        )
+
+        val jsonBytesPerEvent = jsonBytes.sumBy { it.size }.toDouble() / events.size
+        val binaryBytesPerEvent = binaryBytes.sumBy { it.size }.toDouble() / events.size
+
+        Benchmarks.report("Event queue converters", results,
+                String.format(Locale.US, "GsonConverter   %.1f bytes/event", jsonBytesPerEvent),
+                String.format(Locale.US, "BinaryConverter %.1f bytes/event", binaryBytesPerEvent))
+
+        assertThat(binaryBytesPerEvent).isLessThan(jsonBytesPerEvent)
+    }
+
+    private fun encode(converter: com.squareup.tape2.ObjectQueue.Converter<Event>, event: Event): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        converter.toStream(event, outputStream)
+        return outputStream.toByteArray()
+    }
+}
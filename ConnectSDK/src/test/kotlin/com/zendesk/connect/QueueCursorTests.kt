@@ -0,0 +1,211 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.squareup.tape2.ObjectQueue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+import java.io.ByteArrayOutputStream
+
+@RunWith(MockitoJUnitRunner.Silent::class)
+class QueueCursorTests {
+
+    private val converter = ChecksumConverter(GsonConverter(Gson(), String::class.java))
+
+    @Mock
+    private lateinit var mockQueue: BaseQueue<String>
+
+    private lateinit var entries: MutableList<ByteArray>
+
+    @Before
+    fun setUp() {
+        entries = mutableListOf(encode("charlie"), encode("dennis"), encode("mac"))
+    }
+
+    private fun encode(value: String) = ByteArrayOutputStream().also { converter.toStream(value, it) }.toByteArray()
+
+    @Test
+    fun `next should decode the entries in order`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        assertThat(cursor.next()).isEqualTo("charlie")
+        assertThat(cursor.next()).isEqualTo("dennis")
+        assertThat(cursor.next()).isEqualTo("mac")
+        assertThat(cursor.hasNext()).isFalse()
+    }
+
+    @Test
+    fun `an entry should be released once the cursor has moved past it`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+
+        assertThat(entries[0]).isNull()
+        assertThat(entries[1]).isNotNull()
+    }
+
+    @Test
+    fun `an entry that cannot be decoded should be returned as null`() {
+        entries[1] = encode("dennis").also { it[it.size - 2] = 'x'.toByte() }
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        val covered = listOf(cursor.next(), cursor.next(), cursor.next())
+
+        assertThat(covered).containsExactly("charlie", null, "mac").inOrder()
+        assertThat(cursor.consumedCount()).isEqualTo(3)
+    }
+
+    @Test(expected = NoSuchElementException::class)
+    fun `next should throw once every entry has been consumed`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, mutableListOf(encode("charlie")), converter)
+
+        cursor.next()
+        cursor.next()
+    }
+
+    @Test
+    fun `consumed bytes should be the stored size of the consumed entries`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+        val expectedBytes = (entries[0].size + entries[1].size).toLong()
+
+        cursor.next()
+        cursor.next()
+
+        assertThat(cursor.consumedBytes()).isEqualTo(expectedBytes)
+    }
+
+    @Test
+    fun `commit should remove exactly the consumed objects`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.next()
+        cursor.commit()
+
+        verify(mockQueue).remove(2)
+    }
+
+    @Test
+    fun `commit should not touch the queue if nothing was consumed`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.commit()
+
+        verify(mockQueue, never()).remove(0)
+    }
+
+    @Test
+    fun `a committed cursor should not cover any more objects`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.commit()
+        cursor.commit()
+
+        assertThat(cursor.hasNext()).isFalse()
+        verify(mockQueue).remove(1)
+    }
+
+    @Test
+    fun `a pushed back entry should be returned again and not removed on commit`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+        val firstEntryBytes = entries[0].size.toLong()
+
+        cursor.next()
+        cursor.next()
+        cursor.pushBack()
+
+        assertThat(cursor.consumedCount()).isEqualTo(1)
+        assertThat(cursor.consumedBytes()).isEqualTo(firstEntryBytes)
+        assertThat(cursor.next()).isEqualTo("dennis")
+        cursor.pushBack()
+        cursor.commit()
+
+        verify(mockQueue).remove(1)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun `push back should only undo the last object`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.pushBack()
+        cursor.pushBack()
+    }
+
+    @Test
+    fun `next json should return the json of each entry without decoding it`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        assertThat(cursor.supportsJson()).isTrue()
+        assertThat(String(cursor.nextJson()!!)).isEqualTo("\"charlie\"")
+    }
+
+    @Test(expected = UnsupportedOperationException::class)
+    fun `next json should not be supported without a json converter`() {
+        val plainConverter = object : ObjectQueue.Converter<String> by converter {}
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, plainConverter)
+
+        assertThat(cursor.supportsJson()).isFalse()
+        cursor.nextJson()
+    }
+
+    @Test
+    fun `a cursor over objects should return them and remove them on commit`() {
+        val cursor = QueueCursor.ofObjects(mockQueue, listOf("charlie", "dennis"))
+
+        assertThat(cursor.supportsJson()).isFalse()
+        assertThat(cursor.next()).isEqualTo("charlie")
+        cursor.commit()
+
+        verify(mockQueue).remove(1)
+    }
+
+    @Test
+    fun `a partial commit should remove the oldest consumed objects and keep the cursor open`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.next()
+        cursor.commit(1)
+
+        verify(mockQueue).remove(1)
+        assertThat(cursor.next()).isEqualTo("mac")
+    }
+
+    @Test
+    fun `a final commit should only remove what partial commits have not`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.commit(1)
+        cursor.next()
+        cursor.next()
+        cursor.commit()
+
+        verify(mockQueue).remove(1)
+        verify(mockQueue).remove(2)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun `a partial commit should not remove objects the cursor has not moved past`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.commit(2)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun `a removed object should not be pushed back`() {
+        val cursor = QueueCursor.ofEntries(mockQueue, entries, converter)
+
+        cursor.next()
+        cursor.commit(1)
+        cursor.pushBack()
+    }
+}
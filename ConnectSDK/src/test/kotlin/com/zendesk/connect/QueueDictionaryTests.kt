@@ -0,0 +1,77 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+
+class QueueDictionaryTests {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var file: File
+    private lateinit var dictionary: QueueDictionary
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.root, "dictionary")
+        dictionary = QueueDictionary(file)
+    }
+
+    @Test
+    fun `intern should return the same index for the same string`() {
+        val index = dictionary.intern("Charlie")
+
+        assertThat(dictionary.intern("Charlie")).isEqualTo(index)
+        assertThat(dictionary.get(index)).isEqualTo("Charlie")
+    }
+
+    @Test
+    fun `interned strings should be persisted to the dictionary file`() {
+        dictionary.intern("Dee")
+        dictionary.intern("Dennis")
+
+        val reloaded = QueueDictionary(file)
+
+        assertThat(reloaded.get(0)).isEqualTo("Dee")
+        assertThat(reloaded.get(1)).isEqualTo("Dennis")
+    }
+
+    @Test
+    fun `a partially written entry at the end of the file should be discarded`() {
+        dictionary.intern("Frank")
+        FileOutputStream(file, true).use { it.write(byteArrayOf(10, 'M'.toByte())) }
+
+        val reloaded = QueueDictionary(file)
+
+        assertThat(reloaded.size()).isEqualTo(1)
+        assertThat(reloaded.intern("Mac")).isEqualTo(1)
+        assertThat(QueueDictionary(file).get(1)).isEqualTo("Mac")
+    }
+
+    @Test
+    fun `long strings should not be added to the dictionary`() {
+        val value = "a".repeat(QueueDictionary.MAX_ENTRY_LENGTH + 1)
+
+        assertThat(dictionary.intern(value)).isEqualTo(QueueDictionary.NOT_FOUND)
+    }
+
+    @Test
+    fun `get should return null for an unknown index`() {
+        assertThat(dictionary.get(3)).isNull()
+    }
+
+    @Test
+    fun `reset should remove all strings and delete the file`() {
+        dictionary.intern("Cricket")
+
+        dictionary.reset()
+
+        assertThat(dictionary.size()).isEqualTo(0)
+        assertThat(file.exists()).isFalse()
+    }
+}
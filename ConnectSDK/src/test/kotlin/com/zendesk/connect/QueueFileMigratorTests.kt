@@ -0,0 +1,96 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.squareup.tape2.ObjectQueue
+import com.squareup.tape2.QueueFile
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class QueueFileMigratorTests {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = Gson()
+    private val jsonConverter = GsonConverter(gson, Event::class.java)
+
+    private lateinit var jsonFile: File
+    private lateinit var binaryFile: File
+    private lateinit var binaryConverter: EventBinaryConverter
+
+    private val events = listOf(
+            Event("charlie", "wild card", mapOf<String, Any>("rats" to 12.0), 1L),
+            Event("charlie", "wild card", null, 2L),
+            Event("mac", "occupation", mapOf<String, Any>("role" to "security"), 3L)
+    )
+
+    @Before
+    fun setUp() {
+        jsonFile = File(temporaryFolder.root, "json_queue")
+        binaryFile = File(temporaryFolder.root, "binary_queue")
+        binaryConverter = EventBinaryConverter(gson, QueueDictionary(File(temporaryFolder.root, "dictionary")))
+    }
+
+    private fun writeJsonQueue() {
+        ObjectQueue.create(QueueFile.Builder(jsonFile).build(), jsonConverter).use { queue ->
+            events.forEach { queue.add(it) }
+        }
+    }
+
+    @Test
+    fun `migrate should move every entry into the target file in order`() {
+        writeJsonQueue()
+
+        val migrated = QueueFileMigrator.migrate(jsonFile, jsonConverter, binaryFile, binaryConverter)
+
+        assertThat(migrated).isEqualTo(events.size)
+        ObjectQueue.create(QueueFile.Builder(binaryFile).build(), binaryConverter).use { queue ->
+            assertThat(queue.peek(events.size)).isEqualTo(events)
+        }
+    }
+
+    @Test
+    fun `migrate should delete the source file once complete`() {
+        writeJsonQueue()
+
+        QueueFileMigrator.migrate(jsonFile, jsonConverter, binaryFile, binaryConverter)
+
+        assertThat(jsonFile.exists()).isFalse()
+    }
+
+    @Test
+    fun `migrate should do nothing if there is no source file`() {
+        val migrated = QueueFileMigrator.migrate(jsonFile, jsonConverter, binaryFile, binaryConverter)
+
+        assertThat(migrated).isEqualTo(0)
+        assertThat(binaryFile.exists()).isFalse()
+    }
+
+    @Test
+    fun `a source file left behind by a completed migration should be deleted`() {
+        writeJsonQueue()
+        QueueFile.Builder(binaryFile).build().close()
+
+        val migrated = QueueFileMigrator.migrate(jsonFile, jsonConverter, binaryFile, binaryConverter)
+
+        assertThat(migrated).isEqualTo(0)
+        assertThat(jsonFile.exists()).isFalse()
+    }
+
+    @Test
+    fun `entries that can't be decoded should be dropped`() {
+        QueueFile.Builder(jsonFile).build().use { queueFile ->
+            queueFile.add(gson.toJson(events[0]).toByteArray())
+            queueFile.add("{ not json".toByteArray())
+            queueFile.add(gson.toJson(events[2]).toByteArray())
+        }
+
+        val migrated = QueueFileMigrator.migrate(jsonFile, jsonConverter, binaryFile, binaryConverter)
+
+        assertThat(migrated).isEqualTo(2)
+    }
+}
@@ -0,0 +1,136 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.squareup.tape2.ObjectQueue
+import com.squareup.tape2.QueueFile
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class QueueFileRecoveryTests {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val converter = ChecksumConverter(GsonConverter(Gson(), String::class.java))
+
+    private lateinit var file: File
+    private lateinit var queueMetrics: QueueMetrics
+
+    private val entries = (0 until 10).map { "$it: Dayman, fighter of the Nightman" }
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.root, "queue")
+        queueMetrics = QueueMetrics()
+    }
+
+    private fun writeQueue(values: List<String> = entries) {
+        ObjectQueue.create(QueueFile.Builder(file).build(), converter).use { queue ->
+            values.forEach { queue.add(it) }
+        }
+    }
+
+    private fun readQueue(): List<String> {
+        ObjectQueue.create(QueueFile.Builder(file).build(), converter).use { queue ->
+            return queue.asList()
+        }
+    }
+
+    /**
+     * Returns the offset of the first byte of the given entry's text in the queue file
+     */
+    private fun offsetOf(value: String) = String(file.readBytes(), Charsets.ISO_8859_1).indexOf(value)
+
+    @Test
+    fun `an intact file should be recovered unchanged`() {
+        writeQueue()
+
+        val result = QueueFileRecovery.recover(file, converter)
+
+        assertThat(result.salvaged()).isEqualTo(entries.size)
+        assertThat(result.dropped()).isEqualTo(0)
+        assertThat(readQueue()).isEqualTo(entries)
+    }
+
+    @Test
+    fun `a file truncated through its last record should keep every earlier record`() {
+        writeQueue()
+        val tornAt = offsetOf(entries.last()) + 5
+        RandomAccessFile(file, "rw").use { it.setLength(tornAt.toLong()) }
+
+        val queueFile = QueueFileRecovery.open(file, converter, queueMetrics)
+        queueFile.close()
+
+        assertThat(readQueue()).isEqualTo(entries.dropLast(1))
+        assertThat(queueMetrics.recoveredFiles()).isEqualTo(1)
+        assertThat(queueMetrics.salvagedRecords()).isEqualTo(entries.size - 1)
+        assertThat(queueMetrics.droppedRecords()).isEqualTo(1)
+    }
+
+    @Test
+    fun `a file truncated through the middle should keep the records before the tear`() {
+        writeQueue()
+        RandomAccessFile(file, "rw").use { it.setLength(offsetOf(entries[4]).toLong()) }
+
+        QueueFileRecovery.open(file, converter, queueMetrics).close()
+
+        assertThat(readQueue()).isEqualTo(entries.take(4))
+        assertThat(queueMetrics.droppedRecords()).isEqualTo(entries.size - 4)
+    }
+
+    @Test
+    fun `a record with a bad checksum should be skipped`() {
+        writeQueue()
+        val damaged = offsetOf(entries[3]) + 10
+        RandomAccessFile(file, "rw").use {
+            it.seek(damaged.toLong())
+            it.write('X'.toInt())
+        }
+
+        val result = QueueFileRecovery.recover(file, converter)
+
+        assertThat(result.dropped()).isEqualTo(1)
+        assertThat(readQueue()).isEqualTo(entries.filterIndexed { index, _ -> index != 3 })
+    }
+
+    @Test
+    fun `a file with a damaged header should keep the records it can still find`() {
+        writeQueue()
+        RandomAccessFile(file, "rw").use { it.write(byteArrayOf(0xFF.toByte(), 0, 0, 0)) }
+
+        QueueFileRecovery.open(file, converter, queueMetrics).close()
+
+        assertThat(readQueue()).isEqualTo(entries)
+    }
+
+    @Test
+    fun `records should be recovered in order from a file that has wrapped around`() {
+        val longEntries = (0 until 40).map { "$it:" + "x".repeat(100) }
+        ObjectQueue.create(QueueFile.Builder(file).build(), converter).use { queue ->
+            longEntries.take(30).forEach { queue.add(it) }
+            queue.remove(25)
+            longEntries.drop(30).forEach { queue.add(it) }
+        }
+        val expected = longEntries.drop(25)
+        assertThat(readQueue()).isEqualTo(expected)
+
+        val result = QueueFileRecovery.recover(file, converter)
+
+        assertThat(result.salvaged()).isEqualTo(expected.size)
+        assertThat(readQueue()).isEqualTo(expected)
+    }
+
+    @Test
+    fun `a file too short to hold a header should be replaced by an empty queue`() {
+        file.writeBytes(byteArrayOf(1, 2, 3))
+
+        QueueFileRecovery.open(file, converter, queueMetrics).close()
+
+        assertThat(readQueue()).isEmpty()
+    }
+}
@@ -0,0 +1,151 @@
+package com.zendesk.connect
+
+import android.app.Application
+import android.content.ComponentCallbacks2
+import android.net.Network
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner.Silent::class)
+class QueueFlushCallbacksTests {
+
+    @Mock private lateinit var mockApplication: Application
+    @Mock private lateinit var mockUserQueue: BufferedQueue<User>
+    @Mock private lateinit var mockEventQueue: BufferedQueue<Event>
+    @Mock private lateinit var mockFlushPolicy: FlushPolicy
+    @Mock private lateinit var mockForegroundListener: ForegroundListener
+    @Mock private lateinit var mockFlusher: QueuedRequestsFlusher
+
+    private fun createCallbacks() = QueueFlushCallbacks(mockApplication, mockUserQueue, mockEventQueue,
+        mockFlushPolicy, mockForegroundListener, mockFlusher)
+
+    @Test
+    fun `creating the callbacks should register them with the application`() {
+        val callbacks = createCallbacks()
+
+        verify(mockApplication).registerComponentCallbacks(callbacks)
+    }
+
+    @Test
+    fun `creating the callbacks should register them for foreground events`() {
+        val callbacks = createCallbacks()
+
+        verify(mockForegroundListener).addCallback(callbacks)
+    }
+
+    @Test
+    fun `creating the callbacks should register them for background events`() {
+        val callbacks = createCallbacks()
+
+        verify(mockForegroundListener).addBackgroundCallback(callbacks)
+    }
+
+    @Test
+    fun `backgrounding the app should flush the event queue`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        verify(mockEventQueue).flush()
+    }
+
+    @Test
+    fun `backgrounding the app should flush the user queue`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        verify(mockUserQueue).flush()
+    }
+
+    @Test
+    fun `low memory should flush the event queue`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onLowMemory()
+
+        verify(mockEventQueue).flush()
+    }
+
+    @Test
+    fun `low memory should flush the user queue`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onLowMemory()
+
+        verify(mockUserQueue).flush()
+    }
+
+    @Test
+    fun `backgrounding the app should flush the flush policy`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        verify(mockFlushPolicy).flush()
+    }
+
+    @Test
+    fun `low memory should flush the flush policy`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onLowMemory()
+
+        verify(mockFlushPolicy).flush()
+    }
+
+    @Test
+    fun `backgrounding the app should send the queues in-process`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onBackground()
+
+        verify(mockFlusher).flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+    }
+
+    @Test
+    fun `a network becoming available should send the queues in-process`() {
+        val networkCallback = QueueFlushCallbacks.NetworkFlushCallback(mockFlusher, mockFlushPolicy)
+
+        networkCallback.onAvailable(mock())
+
+        verify(mockFlusher).flushAsync(FlushReport.Trigger.NETWORK_AVAILABLE)
+    }
+
+    @Test
+    fun `foregrounding the app should tell the flush policy`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onForeground()
+
+        verify(mockFlushPolicy).setForeground(true)
+    }
+
+    @Test
+    fun `backgrounding the app should tell the flush policy`() {
+        val callbacks = createCallbacks()
+
+        callbacks.onBackground()
+
+        verify(mockFlushPolicy).setForeground(false)
+    }
+
+    @Test
+    fun `losing the last network should tell the flush policy`() {
+        val networkCallback = QueueFlushCallbacks.NetworkFlushCallback(mockFlusher, mockFlushPolicy)
+        val wifi = mock<Network>()
+        val cellular = mock<Network>()
+        networkCallback.onAvailable(wifi)
+        networkCallback.onAvailable(cellular)
+
+        networkCallback.onLost(wifi)
+        verify(mockFlushPolicy, never()).setNetworkAvailable(false)
+
+        networkCallback.onLost(cellular)
+        verify(mockFlushPolicy).setNetworkAvailable(false)
+    }
+}
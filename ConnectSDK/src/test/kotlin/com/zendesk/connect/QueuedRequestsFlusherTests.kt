@@ -0,0 +1,239 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+import retrofit2.Call
+import retrofit2.Response
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+@RunWith(MockitoJUnitRunner.Silent::class)
+class QueuedRequestsFlusherTests {
+
+    private val gson = Gson()
+
+    private lateinit var userQueue: BaseQueue<User>
+    private lateinit var eventQueue: BaseQueue<Event>
+
+    private val backoff = RequestBackoff()
+    private val queueMetrics = QueueMetrics()
+    private val deadLetters = DeadLetterStore(
+            ConnectQueue(MockedObjectQueue<DeadLetterStore.DeadLetter>().getObjectQueue()), gson)
+
+    // Holds tasks until they are released, like an executor whose threads are all busy
+    private val pool = Executors.newCachedThreadPool() as ThreadPoolExecutor
+    private val pendingTasks = mutableListOf<Runnable>()
+    @Volatile private var holding = true
+    private val heldExecutor = Executor { if (holding) pendingTasks.add(it) else pool.execute(it) }
+
+    @Mock private lateinit var mockIdentifyProvider: IdentifyProvider
+    @Mock private lateinit var mockEventProvider: EventProvider
+    @Mock private lateinit var mockScheduler: ConnectScheduler
+    @Mock private lateinit var mockCall: Call<Void>
+    @Mock private lateinit var mockResponse: Response<Void>
+
+    @Before
+    fun setup() {
+        userQueue = ConnectQueue<User>(MockedObjectQueue<User>().getObjectQueue()).apply {
+            add(UserBuilder("charlie").build())
+        }
+        eventQueue = ConnectQueue<Event>(MockedObjectQueue<Event>().getObjectQueue()).apply {
+            add(EventFactory.createEvent("mailroom"))
+            add(EventFactory.createEvent("avatar plan"))
+        }
+
+        `when`(mockIdentifyProvider.identify(any())).thenReturn(mockCall)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(mockCall)
+        `when`(mockEventProvider.track(any())).thenReturn(mockCall)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(mockCall)
+        `when`(mockCall.execute()).thenReturn(mockResponse)
+        `when`(mockResponse.isSuccessful).thenReturn(true)
+        `when`(mockResponse.code()).thenReturn(200)
+    }
+
+    private fun createFlusher(executor: Executor) = QueuedRequestsFlusher(userQueue, eventQueue,
+            mockIdentifyProvider, mockEventProvider, executor, BatchSizer(), backoff, deadLetters, BatchReplay(null), mockScheduler, queueMetrics)
+
+    @After
+    fun teardown() {
+        pool.shutdownNow()
+        QueuedRequestsFlusher.setFlushListener(null)
+    }
+
+    private fun releasePendingTasks() {
+        holding = false
+        val tasks = pendingTasks.toList()
+        pendingTasks.clear()
+        tasks.forEach { pool.execute(it) }
+
+        // The released tasks may start more tasks, so wait until nothing is running
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (pool.completedTaskCount < pool.taskCount && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+        holding = true
+    }
+
+    @Test
+    fun `drain should send both queues`() {
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        assertThat(userQueue.size()).isEqualTo(0)
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `drain should schedule a retry if a request may succeed later`() {
+        `when`(mockCall.execute()).thenThrow(IOException("No route to host"))
+
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        verify(mockScheduler).scheduleQueuedNetworkRetry(anyLong())
+    }
+
+    @Test
+    fun `drain should not schedule a retry if every request succeeded`() {
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        verify(mockScheduler, never()).scheduleQueuedNetworkRetry(anyLong())
+    }
+
+    @Test
+    fun `flushAsync should drain the queues on the executor`() {
+        val flusher = createFlusher(heldExecutor)
+
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        assertThat(eventQueue.size()).isEqualTo(2)
+
+        releasePendingTasks()
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `flushAsync should fold requests made while a flush is waiting to start`() {
+        val flusher = createFlusher(heldExecutor)
+
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+
+        assertThat(pendingTasks).hasSize(1)
+    }
+
+    @Test
+    fun `flushAsync should start another flush once the pending one has started`() {
+        val flusher = createFlusher(heldExecutor)
+
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        releasePendingTasks()
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+
+        assertThat(pendingTasks).hasSize(1)
+    }
+
+    @Test
+    fun `flushAsync should allow a later flush if the executor rejected it`() {
+        var rejecting = true
+        val flusher = createFlusher(Executor {
+            if (rejecting) throw RejectedExecutionException() else pendingTasks.add(it)
+        })
+
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        rejecting = false
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+
+        assertThat(pendingTasks).hasSize(1)
+    }
+
+    @Test
+    fun `drain should report what it sent to the flush listener`() {
+        val reports = mutableListOf<FlushReport>()
+        QueuedRequestsFlusher.setFlushListener(FlushListener { reports.add(it) })
+
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        assertThat(reports).hasSize(1)
+        val report = reports[0]
+        assertThat(report.trigger).isEqualTo(FlushReport.Trigger.WORKER)
+        assertThat(report.usersSent).isEqualTo(1)
+        assertThat(report.eventsSent).isEqualTo(2)
+        assertThat(report.usersRemaining).isEqualTo(0)
+        assertThat(report.eventsRemaining).isEqualTo(0)
+        assertThat(report.backoffMillis).isEqualTo(0L)
+    }
+
+    @Test
+    fun `the report should include the items left and the backoff after a failed request`() {
+        val reports = mutableListOf<FlushReport>()
+        QueuedRequestsFlusher.setFlushListener(FlushListener { reports.add(it) })
+        `when`(mockCall.execute()).thenThrow(IOException("No route to host"))
+
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        assertThat(reports[0].usersRemaining).isEqualTo(1)
+        assertThat(reports[0].eventsRemaining).isEqualTo(2)
+        assertThat(reports[0].backoffMillis).isGreaterThan(0L)
+        assertThat(reports[0].requests).isNotEmpty()
+        assertThat(reports[0].requests.all { it.statusCode == FlushReport.NO_RESPONSE }).isTrue()
+    }
+
+    @Test
+    fun `the report should include the items lost or dropped on the device`() {
+        val reports = mutableListOf<FlushReport>()
+        QueuedRequestsFlusher.setFlushListener(FlushListener { reports.add(it) })
+        queueMetrics.onRecovery(QueueFileRecovery.Result(3, 2))
+        queueMetrics.onExpired(4)
+        queueMetrics.onSampled()
+        queueMetrics.onRateLimited()
+        queueMetrics.onWriterOverflow()
+
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        val report = reports[0]
+        assertThat(report.recoveredFiles).isEqualTo(1)
+        assertThat(report.salvagedItems).isEqualTo(3)
+        assertThat(report.droppedItems).isEqualTo(2)
+        assertThat(report.expiredEvents).isEqualTo(4)
+        assertThat(report.sampledEvents).isEqualTo(1)
+        assertThat(report.rateLimitedEvents).isEqualTo(1)
+        assertThat(report.overflowedEvents).isEqualTo(1)
+    }
+
+    @Test
+    fun `a flush listener that throws should not break the drain`() {
+        QueuedRequestsFlusher.setFlushListener(FlushListener { throw IllegalStateException("nope") })
+        `when`(mockCall.execute()).thenThrow(IOException("No route to host"))
+
+        createFlusher(Executor { it.run() }).drain(FlushReport.Trigger.WORKER)
+
+        verify(mockScheduler).scheduleQueuedNetworkRetry(anyLong())
+    }
+
+    @Test
+    fun `flushAsync should report the trigger of the flush that ran`() {
+        val reports = mutableListOf<FlushReport>()
+        QueuedRequestsFlusher.setFlushListener(FlushListener { synchronized(reports) { reports.add(it) } })
+        val flusher = createFlusher(heldExecutor)
+
+        flusher.flushAsync(FlushReport.Trigger.NETWORK_AVAILABLE)
+        flusher.flushAsync(FlushReport.Trigger.APP_BACKGROUNDED)
+        releasePendingTasks()
+
+        assertThat(reports.map { it.trigger }).containsExactly(FlushReport.Trigger.NETWORK_AVAILABLE)
+    }
+}
@@ -1,20 +1,33 @@
 package com.zendesk.connect
 
 import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
 import com.zendesk.logger.Logger
+import okhttp3.Headers
+import okhttp3.RequestBody
+import okio.Buffer
 import org.junit.Before
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
 import org.mockito.ArgumentMatchers.any
 import org.mockito.Mock
 import org.mockito.Mockito.`when`
+import org.mockito.Mockito.atLeastOnce
 import org.mockito.Mockito.never
 import org.mockito.Mockito.verify
 import org.mockito.Mockito.verifyZeroInteractions
 import org.mockito.junit.MockitoJUnitRunner
 import retrofit2.Call
 import retrofit2.Response
+import java.io.File
 import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 @RunWith(MockitoJUnitRunner.Silent::class)
 class QueuedRequestsJobProcessorTests {
@@ -26,6 +39,11 @@ class QueuedRequestsJobProcessorTests {
         private const val MAX_BATCH_SIZE = 100
     }
 
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = Gson()
+
     private val logAppender = TestLogAppender().apply {
         Logger.setLoggable(true)
         Logger.addLogAppender(this)
@@ -34,6 +52,12 @@ class QueuedRequestsJobProcessorTests {
     private lateinit var userQueue: BaseQueue<User>
     private lateinit var eventQueue: BaseQueue<Event>
 
+    private val backoff = RequestBackoff()
+    private val deadLetters = DeadLetterStore(
+            ConnectQueue(MockedObjectQueue<DeadLetterStore.DeadLetter>().getObjectQueue()), gson)
+    private val replay = BatchReplay(null)
+    private val recorder = FlushRecorder()
+
     @Mock private lateinit var mockIdentifyProvider: IdentifyProvider
     @Mock private lateinit var mockEventProvider: EventProvider
     @Mock private lateinit var mockCall: Call<Void>
@@ -57,10 +81,13 @@ class QueuedRequestsJobProcessorTests {
         `when`(mockIdentifyProvider.identify(any())).thenReturn(mockCall)
         `when`(mockEventProvider.track(any())).thenReturn(mockCall)
         `when`(mockEventProvider.trackBatch(any())).thenReturn(mockCall)
+        `when`(mockEventProvider.trackJson(any())).thenReturn(mockCall)
+        `when`(mockEventProvider.trackBatchJson(any())).thenReturn(mockCall)
 
         `when`(mockCall.execute()).thenReturn(mockResponse)
 
         `when`(mockResponse.isSuccessful).thenReturn(true)
+        `when`(mockResponse.code()).thenReturn(200)
     }
 
     @Test
@@ -133,9 +160,11 @@ class QueuedRequestsJobProcessorTests {
 
     @Test
     fun `multiple queued users should result in an identify user batch request`() {
+        val users = userQueue.peek(MAX_BATCH_SIZE).toList()
+
         QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider)
 
-        verify(mockIdentifyProvider).identifyBatch(userQueue.peek(MAX_BATCH_SIZE))
+        verify(mockIdentifyProvider).identifyBatch(users)
     }
 
     @Test
@@ -160,6 +189,22 @@ class QueuedRequestsJobProcessorTests {
         assertThat(userQueue.size()).isEqualTo(initialSize)
     }
 
+    @Test
+    fun `repeated identifies of the same user should be sent once`() {
+        val coalescingUserQueue = CoalescingUserQueue(userQueue).apply {
+            clear()
+            add(UserBuilder("charlie").build())
+            add(UserBuilder("charlie").setFirstName("Charlie").build())
+        }
+
+        QueuedRequestsJobProcessor.process(coalescingUserQueue, eventQueue, mockIdentifyProvider, mockEventProvider)
+
+        verify(mockIdentifyProvider).identify(any())
+        verify(mockIdentifyProvider, never()).identifyBatch(any())
+        assertThat(coalescingUserQueue.size()).isEqualTo(0)
+        assertThat(coalescingUserQueue.foldedCount()).isEqualTo(1)
+    }
+
     @Test
     fun `an empty event queue should make no track requests`() {
         eventQueue.clear()
@@ -185,9 +230,11 @@ class QueuedRequestsJobProcessorTests {
 
     @Test
     fun `multiple queued events should result in a track event batch request`() {
+        val events = eventQueue.peek(MAX_BATCH_SIZE).toList()
+
         QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider)
 
-        verify(mockEventProvider).trackBatch(eventQueue.peek(MAX_BATCH_SIZE))
+        verify(mockEventProvider).trackBatch(events)
     }
 
     @Test
@@ -212,4 +259,574 @@ class QueuedRequestsJobProcessorTests {
         assertThat(eventQueue.size()).isEqualTo(initialSize)
     }
 
-}
\ No newline at end of file
+    private fun createJsonEventQueue(events: List<Event>): BaseQueue<Event> {
+        return SegmentedQueue(File(temporaryFolder.root, "events"),
+                GsonConverter(gson, Event::class.java),
+                512L * 1024,
+                1024L * 1024,
+                SegmentEvictionPolicies.dropOldest(),
+                QueueMetrics()).apply { addAll(events) }
+    }
+
+    private fun RequestBody.readUtf8() = Buffer().also { writeTo(it) }.readUtf8()
+
+    @Test
+    fun `queued json events should be uploaded from their stored bytes in a batch request`() {
+        val events = listOf(EventFactory.createEvent("mailroom"), EventFactory.createEvent("avatar plan"))
+        val jsonEventQueue = createJsonEventQueue(events)
+        val bodyCaptor = ArgumentCaptor.forClass(RequestBody::class.java)
+
+        QueuedRequestsJobProcessor.process(userQueue, jsonEventQueue, mockIdentifyProvider, mockEventProvider)
+
+        verify(mockEventProvider).trackBatchJson(bodyCaptor.capture())
+        verify(mockEventProvider, never()).trackBatch(any())
+        assertThat(bodyCaptor.value.readUtf8()).isEqualTo(gson.toJson(events))
+        assertThat(jsonEventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a single queued json event should be uploaded from its stored bytes in a track request`() {
+        val event = EventFactory.createEvent("caw")
+        val jsonEventQueue = createJsonEventQueue(listOf(event))
+        val bodyCaptor = ArgumentCaptor.forClass(RequestBody::class.java)
+
+        QueuedRequestsJobProcessor.process(userQueue, jsonEventQueue, mockIdentifyProvider, mockEventProvider)
+
+        verify(mockEventProvider).trackJson(bodyCaptor.capture())
+        verify(mockEventProvider, never()).track(any())
+        assertThat(bodyCaptor.value.readUtf8()).isEqualTo(gson.toJson(event))
+    }
+
+    @Test
+    fun `an unsuccessful json track request should not remove events from the event queue`() {
+        val jsonEventQueue = createJsonEventQueue(listOf(EventFactory.createEvent("mailroom"),
+                EventFactory.createEvent("avatar plan")))
+
+        `when`(mockResponse.isSuccessful).thenReturn(false)
+
+        QueuedRequestsJobProcessor.process(userQueue, jsonEventQueue, mockIdentifyProvider, mockEventProvider)
+
+        assertThat(jsonEventQueue.size()).isEqualTo(2)
+    }
+
+    @Test
+    fun `queued json events should be split into batches that stay within the byte budget`() {
+        // Three events of about 100 KB, of which only two fit in the 256 KB batch budget
+        val events = (0 until 3).map {
+            EventFactory.createEvent("event $it", mapOf<String, Any>("padding" to "x".repeat(100 * 1024)))
+        }
+        val jsonEventQueue = createJsonEventQueue(events)
+        val bodyCaptor = ArgumentCaptor.forClass(RequestBody::class.java)
+
+        QueuedRequestsJobProcessor.process(userQueue, jsonEventQueue, mockIdentifyProvider, mockEventProvider)
+
+        verify(mockEventProvider).trackBatchJson(bodyCaptor.capture())
+        assertThat(bodyCaptor.value.readUtf8()).isEqualTo(gson.toJson(events.subList(0, 2)))
+        verify(mockEventProvider).trackJson(bodyCaptor.capture())
+        assertThat(bodyCaptor.value.readUtf8()).isEqualTo(gson.toJson(events[2]))
+        assertThat(jsonEventQueue.size()).isEqualTo(0)
+    }
+
+    private fun processConcurrently() {
+        val executor = Executors.newCachedThreadPool()
+        try {
+            QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider, executor,
+                    BatchSizer(), backoff, deadLetters)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun blockIdentifyUntil(released: CountDownLatch): CountDownLatch {
+        val started = CountDownLatch(1)
+        val identifyCall = mock<Call<Void>>()
+        `when`(identifyCall.execute()).then {
+            started.countDown()
+            released.await(5, TimeUnit.SECONDS)
+            mockResponse
+        }
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(identifyCall)
+        return started
+    }
+
+    @Test
+    @Suppress("UNCHECKED_CAST")
+    fun `a failed track request should make the next event batch smaller`() {
+        val batchSizer = BatchSizer()
+        eventQueue.addAll((0 until 120).map { EventFactory.createEvent("event $it") })
+        `when`(mockResponse.isSuccessful).thenReturn(false)
+
+        QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider,
+                Executor { it.run() }, batchSizer, RequestBackoff(), deadLetters)
+        `when`(mockResponse.isSuccessful).thenReturn(true)
+        QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider,
+                Executor { it.run() }, batchSizer, RequestBackoff(), deadLetters)
+
+        val batchCaptor = ArgumentCaptor.forClass(List::class.java) as ArgumentCaptor<List<Event>>
+        verify(mockEventProvider, atLeastOnce()).trackBatch(batchCaptor.capture())
+        assertThat(batchCaptor.allValues[0]).hasSize(BatchSizer.MAX_COUNT)
+        assertThat(batchCaptor.allValues[1]).hasSize(BatchSizer.MAX_COUNT / 2)
+    }
+
+    @Test
+    fun `events should be sent while a slow identify is still in flight`() {
+        val released = CountDownLatch(1)
+        val identifyStarted = blockIdentifyUntil(released)
+        val tracked = CountDownLatch(1)
+        `when`(mockEventProvider.trackBatch(any())).then {
+            tracked.countDown()
+            mockCall
+        }
+
+        val worker = Thread { processConcurrently() }.apply { start() }
+
+        assertThat(identifyStarted.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(tracked.await(5, TimeUnit.SECONDS)).isTrue()
+        released.countDown()
+        worker.join(5000)
+        assertThat(userQueue.size()).isEqualTo(0)
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `events of a user that has not been identified should wait for the identify`() {
+        eventQueue.clear()
+        eventQueue.addAll(listOf(Event(null, "mailroom", null, 0), Event("charlie", "wildcard", null, 0)))
+        val released = CountDownLatch(1)
+        blockIdentifyUntil(released)
+        val tracked = CountDownLatch(1)
+        val trackedEvents = mutableListOf<String>()
+        `when`(mockEventProvider.track(any())).then {
+            trackedEvents.add((it.arguments[0] as Event).event)
+            tracked.countDown()
+            mockCall
+        }
+
+        val worker = Thread { processConcurrently() }.apply { start() }
+
+        assertThat(tracked.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(trackedEvents).containsExactly("mailroom")
+        released.countDown()
+        worker.join(5000)
+        assertThat(trackedEvents).containsExactly("mailroom", "wildcard").inOrder()
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `events of a user queued after the first identify batch should wait for the identify`() {
+        userQueue.clear()
+        userQueue.addAll((0 until MAX_BATCH_SIZE + 50).map { UserBuilder("user $it").build() })
+        eventQueue.clear()
+        eventQueue.addAll(listOf(Event(null, "mailroom", null, 0), Event("user 140", "wildcard", null, 0)))
+        val released = CountDownLatch(1)
+        blockIdentifyUntil(released)
+        val tracked = CountDownLatch(1)
+        val trackedEvents = mutableListOf<String>()
+        `when`(mockEventProvider.track(any())).then {
+            trackedEvents.add((it.arguments[0] as Event).event)
+            tracked.countDown()
+            mockCall
+        }
+
+        val worker = Thread { processConcurrently() }.apply { start() }
+
+        assertThat(tracked.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(trackedEvents).containsExactly("mailroom")
+        released.countDown()
+        worker.join(5000)
+        assertThat(trackedEvents).containsExactly("mailroom", "wildcard").inOrder()
+        assertThat(userQueue.size()).isEqualTo(0)
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `events of a user who is not queued should not wait for a large user backlog`() {
+        userQueue.clear()
+        userQueue.addAll((0 until MAX_BATCH_SIZE + 50).map { UserBuilder("user $it").build() })
+        eventQueue.clear()
+        eventQueue.addAll(listOf(Event("frank", "wildcard", null, 0), Event("user 140", "mailroom", null, 0)))
+        val unavailable = callReturning(503)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(unavailable)
+        val trackedEvents = mutableListOf<String>()
+        `when`(mockEventProvider.track(any())).then {
+            trackedEvents.add((it.arguments[0] as Event).event)
+            mockCall
+        }
+
+        processInline()
+
+        assertThat(trackedEvents).containsExactly("wildcard")
+        assertThat(eventQueue.peek()!!.event).isEqualTo("mailroom")
+    }
+
+    @Test
+    fun `events of a user whose identify failed should stay queued`() {
+        eventQueue.clear()
+        eventQueue.addAll(listOf(Event("charlie", "wildcard", null, 0), Event(null, "mailroom", null, 0)))
+        val failedCall = mock<Call<Void>>()
+        val failedResponse = mock<Response<Void>>()
+        `when`(failedCall.execute()).thenReturn(failedResponse)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(failedCall)
+
+        processConcurrently()
+
+        verify(mockEventProvider, never()).track(any())
+        verify(mockEventProvider, never()).trackBatch(any())
+        assertThat(eventQueue.size()).isEqualTo(2)
+    }
+
+    private fun trackBatchesInOrder(vararg calls: Call<Void>) {
+        var index = 0
+        `when`(mockEventProvider.trackBatch(any())).then { calls[minOf(index++, calls.size - 1)] }
+    }
+
+    @Test
+    fun `the next event batch should be read while the previous one is being sent`() {
+        userQueue.clear()
+        eventQueue.addAll((0 until 2 * MAX_BATCH_SIZE).map { EventFactory.createEvent("event $it") })
+        val secondBatchRead = CountDownLatch(1)
+        var overlapped = false
+        val firstCall = mock<Call<Void>>()
+        `when`(firstCall.execute()).then {
+            overlapped = secondBatchRead.await(5, TimeUnit.SECONDS)
+            mockResponse
+        }
+        var batches = 0
+        `when`(mockEventProvider.trackBatch(any())).then {
+            batches++
+            if (batches == 2) secondBatchRead.countDown()
+            if (batches == 1) firstCall else mockCall
+        }
+
+        processConcurrently()
+
+        assertThat(overlapped).isTrue()
+        assertThat(eventQueue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a failed track request should keep the batch read behind it queued`() {
+        userQueue.clear()
+        eventQueue.addAll((0 until 2 * MAX_BATCH_SIZE).map { EventFactory.createEvent("event $it") })
+        val initialSize = eventQueue.size()
+        val failedCall = mock<Call<Void>>()
+        val failedResponse = mock<Response<Void>>()
+        `when`(failedCall.execute()).thenReturn(failedResponse)
+        trackBatchesInOrder(failedCall, mockCall)
+
+        processConcurrently()
+
+        verify(mockCall, never()).execute()
+        assertThat(eventQueue.size()).isEqualTo(initialSize)
+    }
+
+    @Test
+    fun `only the batches accepted before a failure should be removed from the event queue`() {
+        userQueue.clear()
+        eventQueue.addAll((0 until 2 * MAX_BATCH_SIZE).map { EventFactory.createEvent("event $it") })
+        val initialSize = eventQueue.size()
+        val failedCall = mock<Call<Void>>()
+        `when`(failedCall.execute()).thenThrow(IOException())
+        trackBatchesInOrder(mockCall, failedCall)
+
+        processConcurrently()
+
+        assertThat(eventQueue.size()).isEqualTo(initialSize - MAX_BATCH_SIZE)
+    }
+
+    private fun processInline(batchSizer: BatchSizer = BatchSizer()) {
+        QueuedRequestsJobProcessor.process(userQueue, eventQueue, mockIdentifyProvider, mockEventProvider,
+                Executor { it.run() }, batchSizer, backoff, deadLetters, replay, recorder)
+    }
+
+    private fun callReturning(code: Int, headers: Headers = Headers.of()): Call<Void> {
+        val response = mock<Response<Void>>()
+        `when`(response.code()).thenReturn(code)
+        `when`(response.isSuccessful).thenReturn(code in 200..299)
+        `when`(response.headers()).thenReturn(headers)
+        return mock<Call<Void>>().apply { `when`(execute()).thenReturn(response) }
+    }
+
+    @Test
+    fun `a rejected event batch should be bisected and the rejected event set aside`() {
+        userQueue.clear()
+        val rejected = callReturning(400)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(rejected)
+        `when`(mockEventProvider.track(any())).then {
+            if ((it.arguments[0] as Event).event == "avatar plan") rejected else mockCall
+        }
+
+        processInline()
+
+        assertThat(eventQueue.size()).isEqualTo(0)
+        assertThat(deadLetters.size()).isEqualTo(1)
+        val deadLetter = deadLetters.peek(1)[0]
+        assertThat(deadLetter.type).isEqualTo(DeadLetterStore.TYPE_EVENT)
+        assertThat(deadLetter.status).isEqualTo(400)
+        assertThat(deadLetter.payload).contains("avatar plan")
+        assertThat(backoff.remainingMillis()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a rejected json event batch should be bisected and the rejected event set aside`() {
+        userQueue.clear()
+        val jsonEventQueue = createJsonEventQueue(listOf(EventFactory.createEvent("mailroom"),
+                EventFactory.createEvent("avatar plan"), EventFactory.createEvent("dennis system")))
+        val rejected = callReturning(422)
+        `when`(mockEventProvider.trackBatchJson(any())).thenReturn(rejected)
+        `when`(mockEventProvider.trackJson(any())).then {
+            if ((it.arguments[0] as RequestBody).readUtf8().contains("dennis system")) rejected else mockCall
+        }
+
+        QueuedRequestsJobProcessor.process(userQueue, jsonEventQueue, mockIdentifyProvider, mockEventProvider,
+                Executor { it.run() }, BatchSizer(), backoff, deadLetters)
+
+        assertThat(jsonEventQueue.size()).isEqualTo(0)
+        assertThat(deadLetters.peek(1)[0].payload).contains("dennis system")
+    }
+
+    @Test
+    fun `a retryable failure while bisecting should keep the events it did not reach queued`() {
+        userQueue.clear()
+        val rejected = callReturning(400)
+        val unavailable = callReturning(503)
+        var batches = 0
+        `when`(mockEventProvider.trackBatch(any())).then { if (batches++ == 0) rejected else unavailable }
+
+        processInline()
+
+        assertThat(eventQueue.size()).isEqualTo(2)
+        assertThat(eventQueue.peek()!!.event).isEqualTo("avatar plan")
+        assertThat(deadLetters.size()).isEqualTo(0)
+        assertThat(backoff.remainingMillis()).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `a rejected identify batch should be bisected and the rejected user set aside`() {
+        val rejected = callReturning(400)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(rejected)
+        `when`(mockIdentifyProvider.identify(any())).then {
+            if ((it.arguments[0] as User).userId == "mac") rejected else mockCall
+        }
+
+        processInline()
+
+        assertThat(userQueue.size()).isEqualTo(0)
+        assertThat(deadLetters.size()).isEqualTo(1)
+        assertThat(deadLetters.peek(1)[0].type).isEqualTo(DeadLetterStore.TYPE_USER)
+        assertThat(deadLetters.peek(1)[0].payload).contains("mac")
+    }
+
+    @Test
+    fun `an unauthorized batch should back off without bisecting`() {
+        val unauthorized = callReturning(401)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(unauthorized)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(unauthorized)
+
+        processInline()
+
+        verify(mockIdentifyProvider, never()).identify(any())
+        verify(mockEventProvider, never()).track(any())
+        assertThat(userQueue.size()).isEqualTo(3)
+        assertThat(eventQueue.size()).isEqualTo(3)
+        assertThat(deadLetters.size()).isEqualTo(0)
+        assertThat(backoff.remainingMillis()).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `bisecting should stop once a run has used its bisection requests`() {
+        userQueue.clear()
+        eventQueue.clear()
+        eventQueue.addAll((0 until 3 * MAX_BATCH_SIZE).map { EventFactory.createEvent("event $it") })
+        val rejected = callReturning(400)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(rejected)
+        `when`(mockEventProvider.track(any())).thenReturn(rejected)
+
+        processInline()
+
+        assertThat(deadLetters.size()).isEqualTo(MAX_BATCH_SIZE)
+        assertThat(eventQueue.size()).isEqualTo(2 * MAX_BATCH_SIZE)
+        assertThat(backoff.remainingMillis()).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `a server error should start a backoff that honours retry after`() {
+        userQueue.clear()
+        val initialSize = eventQueue.size()
+        val unavailable = callReturning(503, Headers.of("Retry-After", "7200"))
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(unavailable)
+
+        processInline()
+
+        assertThat(eventQueue.size()).isEqualTo(initialSize)
+        assertThat(deadLetters.size()).isEqualTo(0)
+        assertThat(backoff.remainingMillis()).isGreaterThan(TimeUnit.MINUTES.toMillis(119))
+    }
+
+    @Test
+    fun `nothing should be sent while the backoff is waiting`() {
+        backoff.onFailure(FlushReport.Queue.USERS, null)
+        backoff.onFailure(FlushReport.Queue.EVENTS, null)
+
+        processInline()
+
+        verifyZeroInteractions(mockIdentifyProvider, mockEventProvider)
+    }
+
+    @Test
+    fun `identified users should not clear the wait of the event queue`() {
+        backoff.onFailure(FlushReport.Queue.EVENTS, null)
+
+        processInline()
+
+        assertThat(userQueue.size()).isEqualTo(0)
+        verifyZeroInteractions(mockEventProvider)
+        assertThat(backoff.remainingMillis(FlushReport.Queue.EVENTS)).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `a successful request should clear the backoff`() {
+        backoff.onFailure(FlushReport.Queue.EVENTS, null, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))
+
+        processInline()
+
+        assertThat(eventQueue.size()).isEqualTo(0)
+        assertThat(backoff.remainingMillis()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a failed event batch should be sent again with the same events`() {
+        userQueue.clear()
+        eventQueue.clear()
+        repeat(30) { eventQueue.add(EventFactory.createEvent("event $it")) }
+        val batchSizer = BatchSizer()
+        val unavailable = callReturning(503)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(unavailable)
+
+        processInline(batchSizer)
+        assertThat(replay.eventBatchSize()).isEqualTo(30)
+
+        // Later events and a smaller batch size must not change the batch sent again
+        repeat(5) { eventQueue.add(EventFactory.createEvent("later $it")) }
+        repeat(3) { batchSizer.onFailure() }
+        backoff.onSuccess(FlushReport.Queue.EVENTS)
+        val batches = mutableListOf<List<Event>>()
+        `when`(mockEventProvider.trackBatch(any())).then {
+            @Suppress("UNCHECKED_CAST")
+            batches.add((it.arguments[0] as List<Event>).toList())
+            mockCall
+        }
+
+        processInline(batchSizer)
+
+        assertThat(batches[0].map { it.event }).isEqualTo((0 until 30).map { "event $it" })
+        assertThat(eventQueue.size()).isEqualTo(0)
+        assertThat(replay.eventBatchSize()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a failed identify batch should be sent again with the same users`() {
+        eventQueue.clear()
+        val unavailable = callReturning(503)
+        `when`(mockIdentifyProvider.identifyBatch(any())).thenReturn(unavailable)
+
+        processInline()
+        assertThat(replay.userBatchSize()).isEqualTo(3)
+
+        userQueue.add(UserBuilder("frank").build())
+        backoff.onSuccess(FlushReport.Queue.USERS)
+        val batches = mutableListOf<List<User>>()
+        `when`(mockIdentifyProvider.identifyBatch(any())).then {
+            @Suppress("UNCHECKED_CAST")
+            batches.add((it.arguments[0] as List<User>).toList())
+            mockCall
+        }
+
+        processInline()
+
+        assertThat(batches[0].map { it.userId }).containsExactly("charlie", "mac", "dennis").inOrder()
+        assertThat(userQueue.size()).isEqualTo(0)
+        assertThat(replay.userBatchSize()).isEqualTo(0)
+    }
+
+    @Test
+    fun `a request that could not be sent should record its batch to send again`() {
+        userQueue.clear()
+        `when`(mockCall.execute()).thenThrow(IOException("No route to host"))
+
+        processInline()
+
+        assertThat(replay.eventBatchSize()).isEqualTo(3)
+    }
+
+    @Test
+    fun `a retryable failure while bisecting should send the events it did not reach again as one batch`() {
+        userQueue.clear()
+        val rejected = callReturning(400)
+        val unavailable = callReturning(503)
+        var batches = 0
+        `when`(mockEventProvider.trackBatch(any())).then { if (batches++ == 0) rejected else unavailable }
+        `when`(mockEventProvider.track(any())).thenReturn(mockCall)
+
+        processInline()
+
+        assertThat(eventQueue.size()).isEqualTo(2)
+        assertThat(replay.eventBatchSize()).isEqualTo(2)
+    }
+
+    @Test
+    fun `every request and the items it sent should be recorded`() {
+        processInline()
+
+        val report = recorder.report(FlushReport.Trigger.WORKER, 0, 0, 0, QueueMetrics())
+        assertThat(report.usersSent).isEqualTo(3)
+        assertThat(report.eventsSent).isEqualTo(3)
+        assertThat(report.requests.map { it.queue })
+                .containsExactly(FlushReport.Queue.USERS, FlushReport.Queue.EVENTS).inOrder()
+        assertThat(report.requests.map { it.statusCode }).containsExactly(200, 200)
+        assertThat(report.retryCount).isEqualTo(0)
+    }
+
+    @Test
+    fun `requests made while bisecting should be recorded as retries`() {
+        userQueue.clear()
+        val rejected = callReturning(400)
+        `when`(mockEventProvider.trackBatch(any())).thenReturn(rejected)
+        `when`(mockEventProvider.track(any())).then {
+            if ((it.arguments[0] as Event).event == "dennis system") rejected else mockCall
+        }
+
+        processInline()
+
+        val report = recorder.report(FlushReport.Trigger.WORKER, 0, 0, 0, QueueMetrics())
+        assertThat(report.eventsSent).isEqualTo(2)
+        assertThat(report.eventsSetAside).isEqualTo(1)
+        assertThat(report.requests[0].isRetry).isFalse()
+        assertThat(report.requests[0].statusCode).isEqualTo(400)
+        assertThat(report.retryCount).isEqualTo(report.requests.size - 1)
+    }
+
+    @Test
+    fun `a request that could not be sent should be recorded without a status code`() {
+        userQueue.clear()
+        `when`(mockCall.execute()).thenThrow(IOException("No route to host"))
+
+        processInline()
+
+        val report = recorder.report(FlushReport.Trigger.WORKER, 0, 3, 0, QueueMetrics())
+        assertThat(report.requests).hasSize(1)
+        assertThat(report.requests[0].statusCode).isEqualTo(FlushReport.NO_RESPONSE)
+        assertThat(report.eventsSent).isEqualTo(0)
+    }
+
+    @Test
+    fun `a batch sent again should be recorded as a retry`() {
+        userQueue.clear()
+        replay.setEventBatchSize(3)
+
+        processInline()
+
+        val report = recorder.report(FlushReport.Trigger.WORKER, 0, 0, 0, QueueMetrics())
+        assertThat(report.requests[0].isRetry).isTrue()
+    }
+}
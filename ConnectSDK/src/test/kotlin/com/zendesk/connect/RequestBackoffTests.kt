@@ -0,0 +1,132 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.Headers
+import org.junit.Test
+import org.mockito.Mockito.`when`
+import retrofit2.Response
+import java.util.Date
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+class RequestBackoffTests {
+
+    companion object {
+        private const val NOW = 1565000000000L
+    }
+
+    // Always draws the largest jitter
+    private val backoff = RequestBackoff(object : Random() {
+        override fun nextDouble() = 1.0
+    })
+
+    private fun response(code: Int, headers: Headers = Headers.of()) = mock<Response<Void>>().apply {
+        `when`(code()).thenReturn(code)
+        `when`(headers()).thenReturn(headers)
+    }
+
+    @Test
+    fun `the wait should double with each failure in a row`() {
+        val delays = (0 until 3).map { backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW) }
+
+        assertThat(delays).containsExactly(
+                RequestBackoff.BASE_DELAY_MILLIS,
+                RequestBackoff.BASE_DELAY_MILLIS * 2,
+                RequestBackoff.BASE_DELAY_MILLIS * 4).inOrder()
+    }
+
+    @Test
+    fun `the wait should not go over the maximum`() {
+        repeat(40) { backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW) }
+
+        assertThat(backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW)).isEqualTo(RequestBackoff.MAX_DELAY_MILLIS)
+    }
+
+    @Test
+    fun `the jitter should be at most half of the wait`() {
+        val noJitter = RequestBackoff(object : Random() {
+            override fun nextDouble() = 0.0
+        })
+
+        assertThat(noJitter.onFailure(FlushReport.Queue.EVENTS, null, NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS / 2)
+    }
+
+    @Test
+    fun `a longer retry after in seconds should be honoured`() {
+        val delay = backoff.onFailure(FlushReport.Queue.EVENTS, response(503, Headers.of("Retry-After", "600")), NOW)
+
+        assertThat(delay).isEqualTo(TimeUnit.MINUTES.toMillis(10))
+        assertThat(backoff.remainingMillis(FlushReport.Queue.EVENTS, NOW)).isEqualTo(delay)
+    }
+
+    @Test
+    fun `a retry after given as a date should be honoured`() {
+        val retryAt = Date(NOW + TimeUnit.MINUTES.toMillis(10))
+        val headers = Headers.Builder().add("Retry-After", retryAt).build()
+
+        assertThat(backoff.onFailure(FlushReport.Queue.EVENTS, response(429, headers), NOW)).isEqualTo(TimeUnit.MINUTES.toMillis(10))
+    }
+
+    @Test
+    fun `a shorter retry after should not shorten the wait`() {
+        val delay = backoff.onFailure(FlushReport.Queue.EVENTS, response(503, Headers.of("Retry-After", "1")), NOW)
+
+        assertThat(delay).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS)
+    }
+
+    @Test
+    fun `a retry after should be capped`() {
+        val delay = backoff.onFailure(FlushReport.Queue.EVENTS, response(503, Headers.of("Retry-After", "99999999")), NOW)
+
+        assertThat(delay).isEqualTo(RequestBackoff.MAX_RETRY_AFTER_MILLIS)
+    }
+
+    @Test
+    fun `a success should clear the wait and the failure count`() {
+        backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW)
+        backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW)
+
+        backoff.onSuccess(FlushReport.Queue.EVENTS)
+
+        assertThat(backoff.remainingMillis(FlushReport.Queue.EVENTS, NOW)).isEqualTo(0)
+        assertThat(backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS)
+    }
+
+    @Test
+    fun `a success of one queue should not clear the wait of the other`() {
+        backoff.onFailure(FlushReport.Queue.USERS, null, NOW)
+        backoff.onFailure(FlushReport.Queue.USERS, null, NOW)
+
+        backoff.onSuccess(FlushReport.Queue.EVENTS)
+
+        assertThat(backoff.remainingMillis(FlushReport.Queue.USERS, NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS * 2)
+        assertThat(backoff.remainingMillis(FlushReport.Queue.EVENTS, NOW)).isEqualTo(0)
+        assertThat(backoff.onFailure(FlushReport.Queue.USERS, null, NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS * 4)
+    }
+
+    @Test
+    fun `the overall wait should be the shortest wait of a waiting queue`() {
+        backoff.onFailure(FlushReport.Queue.USERS, null, NOW)
+        backoff.onFailure(FlushReport.Queue.USERS, null, NOW)
+        backoff.onFailure(FlushReport.Queue.EVENTS, null, NOW)
+
+        assertThat(backoff.remainingMillis(NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS)
+
+        backoff.onSuccess(FlushReport.Queue.EVENTS)
+
+        assertThat(backoff.remainingMillis(NOW)).isEqualTo(RequestBackoff.BASE_DELAY_MILLIS * 2)
+    }
+
+    @Test
+    fun `only malformed, too large and invalid requests should count as rejected items`() {
+        assertThat(RequestBackoff.isRejected(response(400))).isTrue()
+        assertThat(RequestBackoff.isRejected(response(413))).isTrue()
+        assertThat(RequestBackoff.isRejected(response(422))).isTrue()
+        assertThat(RequestBackoff.isRejected(response(401))).isFalse()
+        assertThat(RequestBackoff.isRejected(response(403))).isFalse()
+        assertThat(RequestBackoff.isRejected(response(404))).isFalse()
+        assertThat(RequestBackoff.isRejected(response(408))).isFalse()
+        assertThat(RequestBackoff.isRejected(response(429))).isFalse()
+        assertThat(RequestBackoff.isRejected(response(503))).isFalse()
+    }
+}
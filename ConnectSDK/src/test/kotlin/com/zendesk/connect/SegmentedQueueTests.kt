@@ -0,0 +1,338 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import com.squareup.tape2.ObjectQueue
+import com.squareup.tape2.QueueFile
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class SegmentedQueueTests {
+
+    companion object {
+        private const val MAX_SEGMENT_BYTES = 8L * 1024
+        private const val MAX_TOTAL_BYTES = 32L * 1024
+
+        // Roughly a kilobyte per entry, so a segment fills up after a handful of entries
+        private val PADDING = "x".repeat(1000)
+    }
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val converter = GsonConverter(Gson(), String::class.java)
+    private val queueMetrics = QueueMetrics()
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = File(temporaryFolder.root, "segments")
+    }
+
+    private fun createQueue(
+            policy: SegmentEvictionPolicy<String> = SegmentEvictionPolicies.dropOldest()
+    ) = SegmentedQueue(directory, converter, MAX_SEGMENT_BYTES, MAX_TOTAL_BYTES, policy, queueMetrics)
+
+    private fun entry(index: Int) = "$index:$PADDING"
+
+    private fun entries(range: IntRange) = range.map { entry(it) }
+
+    @Test
+    fun `objects should be returned in the order they were added across segments`() {
+        val queue = createQueue()
+        val added = entries(0 until 20)
+
+        queue.addAll(added)
+
+        assertThat(queue.segmentCount()).isGreaterThan(1)
+        assertThat(queue.size()).isEqualTo(added.size)
+        assertThat(queue.peek(added.size)).isEqualTo(added)
+        assertThat(queue.peek()).isEqualTo(added[0])
+    }
+
+    @Test
+    fun `a new segment should be started once the newest segment is full`() {
+        val queue = createQueue()
+
+        queue.add(entry(0))
+        assertThat(queue.segmentCount()).isEqualTo(1)
+
+        queue.addAll(entries(1 until 10))
+
+        assertThat(queue.segmentCount()).isGreaterThan(1)
+        SegmentedQueue.segmentFiles(directory).forEach {
+            assertThat(it.length()).isAtMost(MAX_SEGMENT_BYTES)
+        }
+    }
+
+    @Test
+    fun `peek should not return more objects than requested`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 10))
+
+        assertThat(queue.peek(4)).isEqualTo(entries(0 until 4))
+        assertThat(queue.peek(-1)).isEmpty()
+    }
+
+    @Test
+    fun `peek json should return the stored json of the first objects across segments`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        val json = queue.peekJson(15)!!.map { String(it) }
+
+        assertThat(json).isEqualTo(entries(0 until 15).map { Gson().toJson(it) })
+    }
+
+    @Test
+    fun `peek json should not be supported if the converter cannot produce json`() {
+        val objectConverter = object : ObjectQueue.Converter<String> {
+            override fun from(bytes: ByteArray) = converter.from(bytes)
+            override fun toStream(value: String, sink: java.io.OutputStream) = converter.toStream(value, sink)
+        }
+        val queue = SegmentedQueue(directory, objectConverter, MAX_SEGMENT_BYTES, MAX_TOTAL_BYTES,
+                SegmentEvictionPolicies.dropOldest(), queueMetrics)
+        queue.add(entry(0))
+
+        assertThat(queue.peekJson(1)).isNull()
+    }
+
+    @Test
+    fun `a cursor should cover the first objects across segments up to the count`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        val cursor = queue.cursor(15, Long.MAX_VALUE)
+        val covered = generateSequence { if (cursor.hasNext()) cursor.next() else null }.toList()
+
+        assertThat(covered).isEqualTo(entries(0 until 15))
+        assertThat(queue.size()).isEqualTo(20)
+    }
+
+    @Test
+    fun `a cursor should stop before an entry that would exceed the byte budget`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 10))
+
+        val cursor = queue.cursor(10, 3L * 1024)
+        while (cursor.hasNext()) {
+            cursor.next()
+        }
+
+        assertThat(cursor.consumedCount()).isEqualTo(3)
+        assertThat(cursor.consumedBytes()).isAtMost(3L * 1024)
+    }
+
+    @Test
+    fun `a cursor should always cover the first entry however large it is`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        val cursor = queue.cursor(10, 1)
+
+        assertThat(cursor.next()).isEqualTo(entry(0))
+        assertThat(cursor.hasNext()).isFalse()
+    }
+
+    @Test
+    fun `committing a cursor should remove only the objects it moved past`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        val cursor = queue.cursor(15, Long.MAX_VALUE)
+        repeat(12) { cursor.next() }
+        cursor.commit()
+
+        assertThat(queue.peek(20)).isEqualTo(entries(12 until 20))
+    }
+
+    @Test
+    fun `committing a cursor after its segments were evicted should not remove newer objects`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        val cursor = queue.cursor(10, Long.MAX_VALUE)
+        repeat(10) { cursor.next() }
+        queue.addAll(entries(20 until 50))
+        val queued = queue.peek(queue.size())
+        cursor.commit()
+
+        assertThat(queue.evictedCount()).isGreaterThan(0)
+        assertThat(queued).doesNotContain(entry(0))
+        assertThat(queue.peek(queue.size())).isEqualTo(queued - entries(0 until 10))
+    }
+
+    @Test
+    fun `remove should remove objects across segments and delete emptied segments`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+        val segmentsBefore = queue.segmentCount()
+
+        queue.remove(12)
+
+        assertThat(queue.size()).isEqualTo(8)
+        assertThat(queue.peek(8)).isEqualTo(entries(12 until 20))
+        assertThat(queue.segmentCount()).isLessThan(segmentsBefore)
+        assertThat(SegmentedQueue.segmentFiles(directory)).hasSize(queue.segmentCount())
+    }
+
+    @Test
+    fun `remove with a negative count should do nothing`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 3))
+
+        queue.remove(-1)
+
+        assertThat(queue.size()).isEqualTo(3)
+    }
+
+    @Test
+    fun `clear should delete every segment`() {
+        val queue = createQueue()
+        queue.addAll(entries(0 until 20))
+
+        queue.clear()
+
+        assertThat(queue.size()).isEqualTo(0)
+        assertThat(SegmentedQueue.segmentFiles(directory)).isEmpty()
+        assertThat(queue.evictedCount()).isEqualTo(0)
+
+        queue.add(entry(0))
+        assertThat(queue.peek()).isEqualTo(entry(0))
+    }
+
+    @Test
+    fun `total disk use should stay within the budget by evicting the oldest segments`() {
+        val queue = createQueue()
+        val added = entries(0 until 200)
+
+        queue.addAll(added)
+
+        assertThat(queue.totalBytes()).isAtMost(MAX_TOTAL_BYTES)
+        assertThat(queue.evictedCount()).isGreaterThan(0)
+        assertThat(queue.size() + queue.evictedCount()).isEqualTo(added.size)
+        assertThat(queue.peek(queue.size())).isEqualTo(added.takeLast(queue.size()))
+    }
+
+    @Test
+    fun `the lowest priority policy should evict the segment with the least important objects`() {
+        val important = "important:$PADDING"
+        val queue = createQueue(SegmentEvictionPolicies.dropLowestPriority(
+                SegmentEvictionPolicies.Prioritizer<String> { if (it.startsWith("important")) 1 else 0 }))
+
+        repeat(5) { queue.add(important) }
+        queue.addAll(entries(0 until 200))
+
+        assertThat(queue.totalBytes()).isAtMost(MAX_TOTAL_BYTES)
+        assertThat(queue.peek()).isEqualTo(important)
+    }
+
+    @Test
+    fun `the age policy should evict stale segments even when under budget`() {
+        createQueue().apply { addAll(entries(0 until 10)) }
+        val stale = SegmentedQueue.segmentFiles(directory).first()
+        stale.setLastModified(System.currentTimeMillis() - 60_000)
+
+        val queue = createQueue(SegmentEvictionPolicies.dropOlderThan(30_000))
+
+        assertThat(stale.exists()).isFalse()
+        assertThat(queue.size()).isLessThan(10)
+        assertThat(queue.size() + queue.evictedCount()).isEqualTo(10)
+    }
+
+    @Test
+    fun `the segment being written to should never be evicted`() {
+        val queue = createQueue(SegmentEvictionPolicies.dropOlderThan(0))
+
+        queue.addAll(entries(0 until 3))
+
+        assertThat(queue.size()).isEqualTo(3)
+    }
+
+    @Test
+    fun `objects should survive reopening the queue`() {
+        val added = entries(0 until 20)
+        createQueue().addAll(added)
+
+        val queue = createQueue()
+
+        assertThat(queue.peek(added.size)).isEqualTo(added)
+    }
+
+    @Test
+    fun `a segment that cannot be recovered should only lose the objects in that segment`() {
+        createQueue().addAll(entries(0 until 20))
+        val segments = SegmentedQueue.segmentFiles(directory)
+        RandomAccessFile(segments.first(), "rw").use { it.write(ByteArray(32) { 0x7F }) }
+
+        val queue = createQueue()
+
+        assertThat(segments.first().exists()).isFalse()
+        assertThat(queue.size()).isGreaterThan(0)
+        assertThat(queue.peek(queue.size())).isEqualTo(entries(0 until 20).takeLast(queue.size()))
+
+        queue.add(entry(20))
+        assertThat(queue.peek(queue.size()).last()).isEqualTo(entry(20))
+    }
+
+    @Test
+    fun `a damaged record should be dropped without losing the rest of its segment`() {
+        val checkedConverter = ChecksumConverter(converter)
+        val policy = SegmentEvictionPolicies.dropOldest<String>()
+        SegmentedQueue(directory, checkedConverter, MAX_SEGMENT_BYTES, MAX_TOTAL_BYTES, policy, queueMetrics)
+                .addAll(entries(0 until 3))
+        val segment = SegmentedQueue.segmentFiles(directory).single()
+        val bytes = segment.readBytes()
+        val damaged = String(bytes, Charsets.ISO_8859_1).indexOf("1:x") + 10
+        bytes[damaged] = 'y'.toByte()
+        segment.writeBytes(bytes)
+
+        val queue = SegmentedQueue(directory, checkedConverter, MAX_SEGMENT_BYTES, MAX_TOTAL_BYTES, policy, queueMetrics)
+
+        assertThat(queue.peek(3)).containsExactly(entry(0), entry(2)).inOrder()
+        assertThat(queue.size()).isEqualTo(2)
+        assertThat(queue.evictedCount()).isEqualTo(1)
+        assertThat(queueMetrics.salvagedRecords()).isEqualTo(2)
+        assertThat(queueMetrics.droppedRecords()).isEqualTo(1)
+    }
+
+    @Test
+    fun `adopt should move an existing queue file in as the newest segment`() {
+        val legacyFile = File(temporaryFolder.root, "legacy")
+        ObjectQueue.create(QueueFile.Builder(legacyFile).build(), converter).use { legacy ->
+            entries(0 until 3).forEach { legacy.add(it) }
+        }
+        val queue = createQueue()
+
+        val adopted = queue.adopt(legacyFile)
+
+        assertThat(adopted).isTrue()
+        assertThat(legacyFile.exists()).isFalse()
+        assertThat(queue.peek(3)).isEqualTo(entries(0 until 3))
+
+        queue.add(entry(3))
+        assertThat(queue.peek(4)).isEqualTo(entries(0 until 4))
+    }
+
+    @Test
+    fun `adopt should do nothing if the queue file does not exist`() {
+        val queue = createQueue()
+
+        assertThat(queue.adopt(File(temporaryFolder.root, "missing"))).isFalse()
+        assertThat(queue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `adding a null object should be ignored`() {
+        val queue = createQueue()
+
+        queue.add(null)
+
+        assertThat(queue.size()).isEqualTo(0)
+    }
+}
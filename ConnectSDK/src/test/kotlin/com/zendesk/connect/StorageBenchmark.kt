@@ -0,0 +1,121 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.Properties
+
+/**
+ * Compares a [LogStorage] against a storage that rewrites a whole XML file on every change,
+ * the way [android.content.SharedPreferences] persists its values. The real shared preferences
+ * can't run on the JVM, so [XmlFileStorage] stands in for them. Reports the time of writing a
+ * value, reading a value and opening the storage to read its first value.
+ */
+class StorageBenchmark {
+
+    companion object {
+        private const val WRITES = 500
+        private const val READS = 50_000
+        private const val STARTUPS = 200
+        private const val KEYS = 24
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val gson = Gson()
+
+    private val values = (0 until KEYS).associate { "connect_key_$it" to "{\"value\":\"${"v".repeat(64)}$it\"}" }
+
+    @Test
+    fun `log storage against rewriting the whole file`() {
+        val xmlFile = File(temporaryFolder.root, "connect_shared_preferences_storage.xml")
+        val logFile = File(temporaryFolder.root, "connect_storage_log")
+
+        val xmlWrite = measureWrites("put, whole file rewritten", XmlFileStorage(xmlFile))
+        val logWrite = measureWrites("put, log storage", LogStorage(logFile, gson))
+
+        val xmlRead = measureReads("get, whole file rewritten", XmlFileStorage(xmlFile))
+        val logRead = measureReads("get, log storage", LogStorage(logFile, gson))
+
+        val xmlStartup = Benchmarks.measure("startup, whole file rewritten", STARTUPS) {
+            assertThat(XmlFileStorage(xmlFile).get("connect_key_0")).isNotNull()
+        }
+        val logStartup = Benchmarks.measure("startup, log storage", STARTUPS) {
+            assertThat(LogStorage(logFile, gson).get("connect_key_0")).isNotNull()
+        }
+
+        Benchmarks.report("Storage",
+                listOf(xmlWrite, logWrite, xmlRead, logRead, xmlStartup, logStartup),
+                "Whole file ${xmlFile.length()} bytes, log ${logFile.length()} bytes")
+
+        assertThat(LogStorage(logFile, gson).getAll()).isEqualTo(XmlFileStorage(xmlFile).getAll())
+    }
+
+    private fun measureWrites(name: String, storage: BaseStorage): Benchmarks.Result {
+        values.forEach { (key, value) -> storage.put(key, value) }
+        return Benchmarks.measureWithLatency(name, WRITES) {
+            storage.put("connect_key_${it % KEYS}", "{\"value\":$it}")
+        }
+    }
+
+    private fun measureReads(name: String, storage: BaseStorage): Benchmarks.Result {
+        return Benchmarks.measure(name, READS) {
+            storage.get("connect_key_${it % KEYS}")
+        }
+    }
+
+    /**
+     * A [BaseStorage] keeping its values in memory and writing all of them to an XML file
+     * on every change, through a temporary file renamed over the original
+     */
+    private class XmlFileStorage(private val file: File) : BaseStorage {
+        private val values = Properties()
+
+        init {
+            if (file.exists()) {
+                FileInputStream(file).use { values.loadFromXML(it) }
+            }
+        }
+
+        override fun put(key: String, value: String) {
+            values.setProperty(key, value)
+            write()
+        }
+
+        override fun put(key: String, `object`: Any) = put(key, Gson().toJson(`object`))
+
+        override fun get(key: String): String? = values.getProperty(key)
+
+        override fun <T> get(key: String, clazz: Class<T>): T? = get(key)?.let { Gson().fromJson(it, clazz) }
+
+        override fun remove(key: String) {
+            values.remove(key)
+            write()
+        }
+
+        override fun clear() {
+            values.clear()
+            write()
+        }
+
+        fun getAll(): Map<String, String> = values.stringPropertyNames().associateWith { values.getProperty(it) }
+
+        private fun write() {
+            val temporary = File(file.path + ".bak")
+            FileOutputStream(temporary).use {
+                values.storeToXML(it, null)
+                it.fd.sync()
+            }
+            temporary.renameTo(file)
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.Mockito.spy
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.junit.MockitoJUnitRunner
 
@@ -68,6 +69,24 @@ class StorageControllerTests {
         assertThat(storageController.config).isNull()
     }
 
+    @Test
+    fun `getConfig should only read the stored config once`() {
+        storageController.config
+        storageController.config
+
+        verify(spySharedPreferencesStorage, times(1)).get(PREFERENCES_KEY_CONFIG, Config::class.java)
+    }
+
+    @Test
+    fun `saveConfig should replace the config kept in memory without reading it back`() {
+        storageController.config
+
+        storageController.saveConfig(testConfig)
+
+        assertThat(storageController.config).isSameInstanceAs(testConfig)
+        verify(spySharedPreferencesStorage, times(1)).get(PREFERENCES_KEY_CONFIG, Config::class.java)
+    }
+
     @Test
     fun `saveUser should persist the given user object`() {
         storageController.saveUser(testUser)
@@ -93,6 +112,45 @@ class StorageControllerTests {
         assertThat(storageController.user).isNull()
     }
 
+    @Test
+    fun `getUser should only read the stored user once`() {
+        storageController.saveUser(testUser)
+
+        storageController.user
+        storageController.user
+
+        verify(spySharedPreferencesStorage, times(1)).get(PREFERENCES_KEY_USER, User::class.java)
+    }
+
+    @Test
+    fun `saveUser should replace the user kept in memory`() {
+        storageController.saveUser(testUser)
+        storageController.user
+        val newUser = UserBuilder("some_other_id").build()
+
+        storageController.saveUser(newUser)
+
+        assertThat(storageController.user).isEqualTo(newUser)
+    }
+
+    @Test
+    fun `clearUser should drop the user kept in memory`() {
+        storageController.saveUser(testUser)
+        storageController.user
+
+        storageController.clearUser()
+
+        assertThat(storageController.user).isNull()
+    }
+
+    @Test(expected = UnsupportedOperationException::class)
+    fun `the attributes of the user kept in memory should not be modifiable`() {
+        storageController.saveUser(UserBuilder("some_id").setUserAttributes(mapOf("bar" to "paddys")).build())
+
+        @Suppress("UNCHECKED_CAST")
+        (storageController.user!!.attributes as MutableMap<String, Any>)["bar"] = "rum ham"
+    }
+
     @Test
     fun `savePrivateKey should persist the given private key with SHA256 encryption`() {
         storageController.savePrivateKey(testPrivateKey)
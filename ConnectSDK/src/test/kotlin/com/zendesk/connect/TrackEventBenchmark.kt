@@ -0,0 +1,148 @@
+package com.zendesk.connect
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.FieldNamingPolicy
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import java.util.Locale
+import java.util.concurrent.Executors
+
+/**
+ * Measures [DefaultConnectClient.trackEvent] with the active user kept in memory by the
+ * [StorageController] against reading and parsing it from storage on every event, as it was
+ * before. Queued events are discarded so the numbers only cover building the event.
+ */
+class TrackEventBenchmark {
+
+    companion object {
+        private const val OPERATIONS = 20_000
+        private const val PREFERENCES_KEY_USER = "connect_preferences_key_user"
+    }
+
+    @get:Rule
+    val benchmarks = Benchmarks.enabled()
+
+    private val gson = GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create()
+
+    private val timer = Executors.newSingleThreadScheduledExecutor()
+
+    private val user = UserBuilder("user_123456789")
+            .setFirstName("Charlie")
+            .setLastName("Kelly")
+            .setEmail("charlie@paddys.pub")
+            .setUserAttributes((0 until 10).associate { "attribute_$it" to "value $it" })
+            .setGroupId("paddys")
+            .setGroupAttributes(mapOf("bar" to true, "seats" to 24))
+            .setFcmToken("fcm_token_0123456789abcdef")
+            .build()
+
+    private val events = (0 until 4).map {
+        EventFactory.createEvent("screen_view_$it", mapOf("screen" to "checkout", "position" to it))
+    }
+
+    @After
+    fun teardown() {
+        timer.shutdownNow()
+    }
+
+    @Test
+    fun `user snapshot against reading the user from storage`() {
+        val fromStorage = measure("trackEvent, user read from storage",
+                UncachedStorageController(MapStorage(gson)))
+        val snapshot = measure("trackEvent, user snapshot", StorageController(MapStorage(gson)))
+
+        Benchmarks.report("Track event", listOf(fromStorage, snapshot),
+                String.format(Locale.US, "Read from storage %10.0f events/s", eventsPerSecond(fromStorage)),
+                String.format(Locale.US, "Snapshot          %10.0f events/s", eventsPerSecond(snapshot)))
+    }
+
+    private fun measure(name: String, storageController: StorageController): Benchmarks.Result {
+        storageController.saveUser(user)
+        val eventQueue = DiscardingQueue<Event>()
+        val client = DefaultConnectClient(storageController,
+                DiscardingQueue(),
+                eventQueue,
+                FlushPolicy(mock(), mock(), timer, Int.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, 0),
+                mock(),
+                mock(),
+                ConnectWriter(timer, 256, null, QueueMetrics()),
+                EventGate(storageController, QueueMetrics()))
+
+        val result = Benchmarks.measure(name, OPERATIONS) { client.trackEvent(events[it % events.size]) }
+        assertThat(eventQueue.added).isGreaterThan(OPERATIONS)
+        return result
+    }
+
+    private fun eventsPerSecond(result: Benchmarks.Result) = 1_000_000_000.0 / result.nanosPerOperation
+
+    /**
+     * A [StorageController] reading the user from storage on every call
+     */
+    private class UncachedStorageController(storage: BaseStorage) : StorageController(storage) {
+        override fun getUser(): User? = storage().get(PREFERENCES_KEY_USER, User::class.java)
+    }
+
+    /**
+     * A [BaseStorage] keeping JSON strings in memory, parsed with [Gson] like
+     * [SharedPreferencesStorage]
+     */
+    private class MapStorage(private val gson: Gson) : BaseStorage {
+        private val values = HashMap<String, String>()
+
+        override fun put(key: String, value: String) {
+            values[key] = value
+        }
+
+        override fun put(key: String, `object`: Any) {
+            values[key] = gson.toJson(`object`)
+        }
+
+        override fun get(key: String): String? = values[key]
+
+        override fun <T> get(key: String, clazz: Class<T>): T? = values[key]?.let { gson.fromJson(it, clazz) }
+
+        override fun remove(key: String) {
+            values.remove(key)
+        }
+
+        override fun clear() = values.clear()
+    }
+
+    /**
+     * A [BaseQueue] that only counts what is added to it
+     */
+    private class DiscardingQueue<T> : BaseQueue<T> {
+        var added = 0
+
+        override fun add(`object`: T) {
+            added++
+        }
+
+        override fun addAsync(`object`: T) {
+            added++
+        }
+
+        override fun addAll(objects: List<T>) {
+            added += objects.size
+        }
+
+        override fun size() = 0
+
+        override fun peek(): T? = null
+
+        override fun peek(max: Int): List<T> = emptyList()
+
+        override fun peekJson(max: Int): List<ByteArray> = emptyList()
+
+        override fun cursor(maxCount: Int, maxBytes: Long): QueueCursor<T> = QueueCursor.ofObjects(this, emptyList())
+
+        override fun remove(max: Int) {}
+
+        override fun clear() {}
+    }
+}
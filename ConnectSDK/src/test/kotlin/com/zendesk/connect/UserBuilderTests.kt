@@ -200,4 +200,45 @@ class UserBuilderTests {
         assertThat(aliasedUser.previousId).isEqualTo(existingUser.userId)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun `user builder should not share the attributes it was given`() {
+        val userAttributes = mutableMapOf<String, Any>("Funny" to false)
+
+        val user = userBuilder.setUserAttributes(userAttributes).setGroupAttributes(userAttributes).build()
+        userAttributes["Funny"] = true
+
+        assertThat(user.attributes).containsExactly("Funny", false)
+        assertThat(user.groupAttributes).containsExactly("Funny", false)
+    }
+
+    @Test
+    fun `new builder should build a user that can be changed without changing the original`() {
+        val existingUser = userBuilder
+                .setUserAttributes(mapOf("Funny" to false))
+                .build()
+
+        val user = UserBuilder.newBuilder(existingUser).build()
+        user.attributes["Funny"] = true
+
+        assertThat(existingUser.attributes).containsExactly("Funny", false)
+    }
+
+    @Test
+    fun `copyOf should copy every collection of the user`() {
+        val existingUser = userBuilder
+                .setUserAttributes(mapOf("Funny" to false))
+                .setGroupAttributes(mapOf("Gang" to "Paddy's"))
+                .setFcmToken("token")
+                .build()
+
+        val copy = UserBuilder.copyOf(existingUser)
+        copy.attributes["Funny"] = true
+        copy.groupAttributes.clear()
+        copy.fcm.add("another token")
+
+        assertThat(copy.userId).isEqualTo(existingUser.userId)
+        assertThat(existingUser.attributes).containsExactly("Funny", false)
+        assertThat(existingUser.groupAttributes).containsExactly("Gang", "Paddy's")
+        assertThat(existingUser.fcm).containsExactly("token")
+    }
+}
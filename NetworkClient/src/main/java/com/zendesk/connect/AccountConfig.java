@@ -2,6 +2,8 @@ package com.zendesk.connect;
 
 import com.zendesk.util.ObjectUtils;
 
+import java.util.List;
+
 /**
  * AccountConfig
  */
@@ -10,16 +12,19 @@ class AccountConfig {
     private boolean prompt;
     private String promptEvent = null;
     private PrePrompt prePrompt = null;
+    private List<EventLimit> eventLimits = null;
 
     /**
      * @param prompt 
      * @param promptEvent 
      * @param prePrompt 
+     * @param eventLimits 
      */
-    AccountConfig(boolean prompt, String promptEvent, PrePrompt prePrompt) {
+    AccountConfig(boolean prompt, String promptEvent, PrePrompt prePrompt, List<EventLimit> eventLimits) {
         this.prompt = prompt;
         this.promptEvent = promptEvent;
         this.prePrompt = prePrompt;
+        this.eventLimits = eventLimits;
     }
 
     /**
@@ -46,6 +51,14 @@ class AccountConfig {
         return prePrompt;
     }
     
+    /**
+     * Get eventLimits
+     * @return eventLimits
+     */
+    List<EventLimit> getEventLimits() {
+        return eventLimits;
+    }
+    
     @Override
     public boolean equals(java.lang.Object o) {
         if (this == o) {
@@ -57,12 +70,13 @@ class AccountConfig {
         AccountConfig accountConfig = (AccountConfig) o;
         return ObjectUtils.equals(this.prompt, accountConfig.prompt)
                 && ObjectUtils.equals(this.promptEvent, accountConfig.promptEvent)
-                && ObjectUtils.equals(this.prePrompt, accountConfig.prePrompt);
+                && ObjectUtils.equals(this.prePrompt, accountConfig.prePrompt)
+                && ObjectUtils.equals(this.eventLimits, accountConfig.eventLimits);
     }
 
     @Override
     public int hashCode() {
-        return ObjectUtils.hash(prompt, promptEvent, prePrompt);
+        return ObjectUtils.hash(prompt, promptEvent, prePrompt, eventLimits);
     }
 
     @Override
@@ -73,6 +87,7 @@ class AccountConfig {
         sb.append("    prompt: ").append(toIndentedString(prompt)).append("\n");
         sb.append("    promptEvent: ").append(toIndentedString(promptEvent)).append("\n");
         sb.append("    prePrompt: ").append(toIndentedString(prePrompt)).append("\n");
+        sb.append("    eventLimits: ").append(toIndentedString(eventLimits)).append("\n");
         sb.append("}");
         return sb.toString();
     }
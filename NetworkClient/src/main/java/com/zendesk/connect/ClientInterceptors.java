@@ -59,7 +59,7 @@ class ClientInterceptors {
 
     static class OutboundGuidInterceptor implements Interceptor {
 
-        private static final String HEADER_NAME = "X-Outbound-GUID";
+        static final String HEADER_NAME = "X-Outbound-GUID";
         private String headerValue;
 
         OutboundGuidInterceptor(String headerValue) {
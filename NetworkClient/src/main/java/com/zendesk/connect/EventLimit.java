@@ -0,0 +1,104 @@
+package com.zendesk.connect;
+
+import com.zendesk.util.ObjectUtils;
+
+/**
+ * EventLimit
+ */
+class EventLimit {
+
+    private String event = null;
+    private Double sampleRate = null;
+    private Integer maxPerMinute = null;
+    private Integer burst = null;
+
+    /**
+     * @param event 
+     * @param sampleRate 
+     * @param maxPerMinute 
+     * @param burst 
+     */
+    EventLimit(String event, Double sampleRate, Integer maxPerMinute, Integer burst) {
+        this.event = event;
+        this.sampleRate = sampleRate;
+        this.maxPerMinute = maxPerMinute;
+        this.burst = burst;
+    }
+
+    /**
+     * Get event
+     * @return event
+     */
+    String getEvent() {
+        return event;
+    }
+    
+    /**
+     * Get sampleRate
+     * @return sampleRate
+     */
+    Double getSampleRate() {
+        return sampleRate;
+    }
+    
+    /**
+     * Get maxPerMinute
+     * @return maxPerMinute
+     */
+    Integer getMaxPerMinute() {
+        return maxPerMinute;
+    }
+    
+    /**
+     * Get burst
+     * @return burst
+     */
+    Integer getBurst() {
+        return burst;
+    }
+    
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        EventLimit eventLimit = (EventLimit) o;
+        return ObjectUtils.equals(this.event, eventLimit.event)
+                && ObjectUtils.equals(this.sampleRate, eventLimit.sampleRate)
+                && ObjectUtils.equals(this.maxPerMinute, eventLimit.maxPerMinute)
+                && ObjectUtils.equals(this.burst, eventLimit.burst);
+    }
+
+    @Override
+    public int hashCode() {
+        return ObjectUtils.hash(event, sampleRate, maxPerMinute, burst);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("class EventLimit {\n");
+        
+        sb.append("    event: ").append(toIndentedString(event)).append("\n");
+        sb.append("    sampleRate: ").append(toIndentedString(sampleRate)).append("\n");
+        sb.append("    maxPerMinute: ").append(toIndentedString(maxPerMinute)).append("\n");
+        sb.append("    burst: ").append(toIndentedString(burst)).append("\n");
+        sb.append("}");
+        return sb.toString();
+    }
+
+    /**
+     * Convert the given object to string with each line indented by 4 spaces
+     * (except the first line).
+     */
+    private String toIndentedString(java.lang.Object o) {
+        if (o == null) {
+            return "null";
+        }
+        return o.toString().replace("\n", "\n    ");
+    }
+
+}
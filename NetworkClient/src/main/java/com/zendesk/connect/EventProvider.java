@@ -1,5 +1,6 @@
 package com.zendesk.connect;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
 
 import java.util.List;
@@ -22,4 +23,20 @@ interface EventProvider {
      */
     Call<Void> trackBatch(List<Event> body);
 
+    /**
+     * Track, with a pre-encoded JSON body
+     * 
+     * @param body the JSON encoded event
+     * @return Call<Void>
+     */
+    Call<Void> trackJson(RequestBody body);
+
+    /**
+     * Track Batch, with a pre-encoded JSON body
+     * 
+     * @param body the JSON array of encoded events
+     * @return Call<Void>
+     */
+    Call<Void> trackBatchJson(RequestBody body);
+
 }
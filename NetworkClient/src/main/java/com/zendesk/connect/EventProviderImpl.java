@@ -1,6 +1,7 @@
 package com.zendesk.connect;
 
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import com.google.gson.Gson;
 
@@ -25,4 +26,14 @@ class EventProviderImpl extends BaseProvider implements EventProvider {
         return service.trackBatch(body);
     }
 
+    @Override
+    public Call<Void> trackJson(RequestBody body) {
+        return service.trackJson(body);
+    }
+
+    @Override
+    public Call<Void> trackBatchJson(RequestBody body) {
+        return service.trackBatchJson(body);
+    }
+
 }
@@ -2,6 +2,7 @@ package com.zendesk.connect;
 
 import java.util.List;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
 // This is required because there is ambiguity between okhttp3 and retrofit2
 import retrofit2.http.Headers;
@@ -29,4 +30,24 @@ interface EventService {
     @POST("v2/track/batch")
     Call<Void> trackBatch(@retrofit2.http.Body List<Event> body);
 
+    /**
+     * Track, with a pre-encoded JSON body
+     * 
+     * @param body the JSON encoded event
+     * @return Call<Void>
+     */
+    @Headers({"Content-Type:application/json"})
+    @POST("v2/track")
+    Call<Void> trackJson(@retrofit2.http.Body RequestBody body);
+
+    /**
+     * Track Batch, with a pre-encoded JSON body
+     * 
+     * @param body the JSON array of encoded events
+     * @return Call<Void>
+     */
+    @Headers({"Content-Type:application/json"})
+    @POST("v2/track/batch")
+    Call<Void> trackBatchJson(@retrofit2.http.Body RequestBody body);
+
 }